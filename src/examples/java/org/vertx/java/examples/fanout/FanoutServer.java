@@ -23,16 +23,16 @@ import org.vertx.java.core.app.VertxApp;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.net.NetServer;
 import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.shared.LongCursor;
 import org.vertx.java.core.shared.SharedData;
-
-import java.util.Set;
+import org.vertx.java.core.shared.SharedLongSet;
 
 public class FanoutServer implements VertxApp {
 
   private NetServer server;
 
   public void start()  {
-    final Set<Long> connections = SharedData.getSet("conns");
+    final SharedLongSet connections = SharedData.getLongSet("conns");
 
     System.out.println("connections is " + System.identityHashCode(connections));
 
@@ -43,8 +43,9 @@ public class FanoutServer implements VertxApp {
         socket.dataHandler(new Handler<Buffer>() {
           public void handle(Buffer buffer) {
             System.out.println("Fanning out to " + connections.size() + " connections");
-            for (Long actorID : connections) {
-              Vertx.instance.sendToHandler(actorID, buffer);
+            LongCursor actorIDs = connections.cursor();
+            while (actorIDs.next()) {
+              Vertx.instance.sendToHandler(actorIDs.get(), buffer);
             }
           }
         });
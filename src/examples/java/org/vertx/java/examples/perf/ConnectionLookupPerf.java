@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the per-message cost of finding the connection for a channel with a {@code ConcurrentHashMap} lookup, as
+ * the servers and clients used to, against reading it from the handler context attachment, as they do now.<p>
+ * Usage: {@code ConnectionLookupPerf [connections] [messages]}. Defaults are 10000 connections and 100000000
+ * messages, spread round robin over the connections.
+ */
+public class ConnectionLookupPerf {
+
+  public static void main(String[] args) throws Exception {
+    int numConnections = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int numMessages = args.length > 1 ? Integer.parseInt(args[1]) : 100000000;
+
+    DefaultLocalClientChannelFactory factory = new DefaultLocalClientChannelFactory();
+    Channel[] channels = new Channel[numConnections];
+    ChannelHandlerContext[] contexts = new ChannelHandlerContext[numConnections];
+    Map<Channel, Object> map = new ConcurrentHashMap<>();
+    for (int i = 0; i < numConnections; i++) {
+      ChannelPipeline pipeline = Channels.pipeline();
+      pipeline.addLast("handler", new SimpleChannelUpstreamHandler());
+      channels[i] = factory.newChannel(pipeline);
+      contexts[i] = pipeline.getContext("handler");
+      Object conn = new Object();
+      map.put(channels[i], conn);
+      contexts[i].setAttachment(conn);
+    }
+
+    for (int run = 0; run < 5; run++) {
+      long start = System.nanoTime();
+      int found = 0;
+      for (int i = 0; i < numMessages; i++) {
+        if (map.get(channels[i % numConnections]) != null) {
+          found++;
+        }
+      }
+      report("map lookup", numMessages, start, found);
+
+      start = System.nanoTime();
+      found = 0;
+      for (int i = 0; i < numMessages; i++) {
+        if (contexts[i % numConnections].getAttachment() != null) {
+          found++;
+        }
+      }
+      report("attachment", numMessages, start, found);
+    }
+  }
+
+  private static void report(String name, int numMessages, long start, int found) {
+    double nanos = (double) (System.nanoTime() - start) / numMessages;
+    System.out.println(name + ": " + nanos + " ns/message (" + found + " found)");
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how fast connections can be accepted and closed when many server instances share a port.<p>
+ * Usage: {@code ConnectionRatePerf [instances] [clients] [connections per client] [acceptors]}. Defaults are 16
+ * instances, 4 clients, 20000 connections per client and 1 acceptor. Each client keeps up to 100 connections in
+ * flight. Compare runs with 1 acceptor and with several to see the effect of {@link NetServer#setAcceptors}.
+ */
+public class ConnectionRatePerf {
+
+  private static final int PORT = 8181;
+  private static final int MAX_IN_FLIGHT = 100;
+
+  public static void main(String[] args) throws Exception {
+    int instances = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    final int connections = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+    final int acceptors = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+    final AtomicInteger accepted = new AtomicInteger();
+    final CountDownLatch listening = new CountDownLatch(instances);
+    for (int i = 0; i < instances; i++) {
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          new NetServer().setAcceptors(acceptors).connectHandler(new Handler<NetSocket>() {
+            public void handle(NetSocket socket) {
+              accepted.incrementAndGet();
+              socket.close();
+            }
+          }).listen(PORT);
+          listening.countDown();
+        }
+      });
+    }
+    listening.await();
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch done = new CountDownLatch(clients);
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < clients; i++) {
+        VertxInternal.instance.go(new Runnable() {
+          public void run() {
+            final NetClient client = new NetClient();
+            Handler<NetSocket> connectHandler = new Handler<NetSocket>() {
+              int started = MAX_IN_FLIGHT;
+              int completed;
+
+              public void handle(NetSocket socket) {
+                socket.close();
+                if (++completed == connections) {
+                  done.countDown();
+                } else if (started < connections) {
+                  started++;
+                  client.connect(PORT, this);
+                }
+              }
+            };
+            for (int j = 0; j < MAX_IN_FLIGHT; j++) {
+              client.connect(PORT, connectHandler);
+            }
+          }
+        });
+      }
+      done.await();
+      long time = System.currentTimeMillis() - start;
+      double rate = 1000 * (double) clients * connections / time;
+      System.out.println(instances + " instances, " + acceptors + " acceptors, " + (clients * connections) + " connections, rate " + rate +
+          " connections/sec");
+    }
+    System.out.println("Accepted " + accepted.get());
+    System.exit(0);
+  }
+}
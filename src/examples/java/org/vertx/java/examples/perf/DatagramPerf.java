@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.DatagramPacket;
+import org.vertx.java.core.net.DatagramSocket;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many datagrams per second can be received.<p>
+ * Usage: {@code DatagramPerf [receiver] [batch size] [seconds] [datagram size]}. Defaults are vertx, 32, 10 seconds
+ * and 100 bytes. The receiver is either {@code vertx}, a {@link DatagramSocket} with the given batch size, or
+ * {@code blocking}, a thread receiving from a plain blocking {@link DatagramChannel} in a loop. A sender thread sends
+ * datagrams to it over loopback as fast as it can. The average rates they're received and sent at are printed at the
+ * end, the difference is the datagrams the kernel dropped because the receiver couldn't keep up.
+ */
+public class DatagramPerf {
+
+  private static final int PORT = 4043;
+
+  public static void main(String[] args) throws Exception {
+    final boolean blocking = args.length > 0 && args[0].equals("blocking");
+    final int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : DatagramSocket.DEFAULT_BATCH_SIZE;
+    final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    final int size = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+    final AtomicLong received = new AtomicLong();
+    final int receiveBufferSize = 1024 * 1024;
+
+    if (blocking) {
+      final DatagramChannel channel = DatagramChannel.open();
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+      channel.bind(new InetSocketAddress("127.0.0.1", PORT));
+      Thread receiver = new Thread() {
+        public void run() {
+          ByteBuffer buff = ByteBuffer.allocateDirect(65535);
+          try {
+            while (true) {
+              buff.clear();
+              channel.receive(buff);
+              received.incrementAndGet();
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      };
+      receiver.setDaemon(true);
+      receiver.start();
+    } else {
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          DatagramSocket socket = new DatagramSocket().setBatchSize(batchSize).setReceiveBufferSize(receiveBufferSize);
+          socket.bind(PORT, "127.0.0.1");
+          socket.dataHandler(new Handler<DatagramPacket>() {
+            public void handle(DatagramPacket packet) {
+              received.incrementAndGet();
+            }
+          });
+        }
+      });
+    }
+
+    final AtomicLong sent = new AtomicLong();
+    Thread sender = new Thread() {
+      public void run() {
+        try {
+          DatagramChannel channel = DatagramChannel.open();
+          InetSocketAddress address = new InetSocketAddress("127.0.0.1", PORT);
+          ByteBuffer buff = ByteBuffer.allocateDirect(size);
+          while (true) {
+            buff.clear();
+            channel.send(buff, address);
+            sent.incrementAndGet();
+          }
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    sender.setDaemon(true);
+    sender.start();
+
+    long totalReceived = 0;
+    long totalSent = 0;
+    // The first second is warm up
+    for (int i = 0; i <= seconds; i++) {
+      long startReceived = received.get();
+      long startSent = sent.get();
+      Thread.sleep(1000);
+      if (i > 0) {
+        totalReceived += received.get() - startReceived;
+        totalSent += sent.get() - startSent;
+      }
+    }
+    System.out.println((blocking ? "blocking" : "vertx, batch size " + batchSize) + ", " + size + " byte datagrams, " +
+        "received " + totalReceived / seconds + " per sec, sent " + totalSent / seconds + " per sec");
+    System.exit(0);
+  }
+}
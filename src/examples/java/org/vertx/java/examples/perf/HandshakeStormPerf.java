@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.net.TLSHelper;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the round trip latency on established TLS connections while other clients keep reconnecting.<p>
+ * Usage: {@code HandshakeStormPerf [offload] [established] [reconnecting] [seconds] [key store]}. Defaults are
+ * false, 10 established connections, 20 reconnecting clients, 10 seconds and server-keystore.jks. Each established
+ * connection sends a ping every 10ms and records the time until the echo. Each reconnecting client connects, waits
+ * for an echo and closes, over and over, without resumption so each is a full handshake. The clients run in the same
+ * process as the server, so the reconnecting clients offload their handshakes too.
+ */
+public class HandshakeStormPerf {
+
+  private static final int PORT = 4043;
+  private static final int PING_INTERVAL = 10;
+
+  public static void main(String[] args) throws Exception {
+    final boolean offload = args.length > 0 && Boolean.parseBoolean(args[0]);
+    final int established = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    final int reconnecting = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+    final String keyStore = args.length > 4 ? args[4] : "server-keystore.jks";
+
+    final long[] latencies = new long[established * seconds * 1000 / PING_INTERVAL];
+    final int[] count = new int[1];
+    final int[] handshakes = new int[1];
+    final CountDownLatch done = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        NetServer server = new NetServer().setSSL(true).setKeyStorePath(keyStore).setKeyStorePassword("wibble")
+            .setOffloadHandshakes(offload);
+        server.connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket socket) {
+            socket.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                socket.write(data);
+              }
+            });
+          }
+        }).listen(PORT);
+
+        for (int i = 0; i < established; i++) {
+          new NetClient().setSSL(true).setTrustAll(true).connect(PORT, new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              final long[] sent = new long[1];
+              socket.dataHandler(new Handler<Buffer>() {
+                public void handle(Buffer data) {
+                  if (sent[0] != 0) {
+                    synchronized (latencies) {
+                      if (count[0] < latencies.length) {
+                        latencies[count[0]++] = System.nanoTime() - sent[0];
+                      }
+                    }
+                    sent[0] = 0;
+                  }
+                }
+              });
+              Vertx.instance.setPeriodic(PING_INTERVAL, new Handler<Long>() {
+                public void handle(Long id) {
+                  if (sent[0] == 0) {
+                    sent[0] = System.nanoTime();
+                    socket.write("p");
+                  }
+                }
+              });
+            }
+          });
+        }
+
+        for (int i = 0; i < reconnecting; i++) {
+          new SimpleHandler() {
+            final Handler<Void> reconnect = this;
+
+            public void handle() {
+              // A context of its own, so the handshake can't be resumed
+              TLSHelper.clearContextCache();
+              NetClient client = new NetClient().setSSL(true).setTrustAll(true).setOffloadHandshakes(offload);
+              client.connect(PORT, new Handler<NetSocket>() {
+                public void handle(final NetSocket socket) {
+                  socket.dataHandler(new Handler<Buffer>() {
+                    public void handle(Buffer data) {
+                      handshakes[0]++;
+                      socket.close();
+                      reconnect.handle(null);
+                    }
+                  });
+                  socket.write("x");
+                }
+              });
+            }
+          }.handle(null);
+        }
+
+        Vertx.instance.setTimer(seconds * 1000, new Handler<Long>() {
+          public void handle(Long id) {
+            done.countDown();
+          }
+        });
+      }
+    });
+
+    done.await();
+    long[] sorted;
+    synchronized (latencies) {
+      sorted = Arrays.copyOf(latencies, count[0]);
+    }
+    Arrays.sort(sorted);
+    System.out.println("offload " + offload + ", " + sorted.length + " pings, " + handshakes[0] / seconds +
+        " handshakes/sec, p50 " + percentile(sorted, 50) + " ms, p99 " + percentile(sorted, 99) + " ms, max " +
+        percentile(sorted, 100) + " ms");
+    System.exit(0);
+  }
+
+  private static double percentile(long[] sorted, int percent) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = Math.min(sorted.length - 1, sorted.length * percent / 100);
+    return sorted[index] / 1000000d;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.parsetools.RecordParser;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how many "Hello World" responses per second an {@link HttpServer} can send, which is mostly the cost of
+ * parsing a request and encoding a response.<p>
+ * Usage: {@code HelloWorldHttpPerf [connections] [requests]}. Defaults are 50 and 20000. Each connection is kept alive
+ * and sends {@code requests} requests one after another, writing raw HTTP so the client side costs as little as
+ * possible. The bytes allocated per request by all threads are reported as well as the rate.
+ */
+public class HelloWorldHttpPerf {
+
+  private static final int PORT = 4046;
+
+  public static void main(String[] args) throws Exception {
+    final int connections = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    final Buffer request = Buffer.create("GET / HTTP/1.1\r\nHost: localhost:" + PORT + "\r\n\r\n");
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch done = new CountDownLatch(1);
+      final long start = System.currentTimeMillis();
+      final long startAllocated = allocated(threads);
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final HttpServer server = new HttpServer();
+          server.requestHandler(new Handler<HttpServerRequest>() {
+            public void handle(HttpServerRequest req) {
+              req.response.putHeader("Content-Type", "text/plain");
+              req.response.end("Hello World");
+            }
+          }).listen(PORT);
+
+          final NetClient client = new NetClient();
+          final int[] remaining = {connections};
+          for (int i = 0; i < connections; i++) {
+            client.connect(PORT, new Handler<NetSocket>() {
+              public void handle(final NetSocket socket) {
+                final int[] received = new int[1];
+                socket.dataHandler(RecordParser.newDelimited("Hello World", new Handler<Buffer>() {
+                  public void handle(Buffer response) {
+                    if (++received[0] < requests) {
+                      socket.write(request);
+                    } else {
+                      socket.close();
+                      if (--remaining[0] == 0) {
+                        server.close(new SimpleHandler() {
+                          public void handle() {
+                            client.close();
+                            done.countDown();
+                          }
+                        });
+                      }
+                    }
+                  }
+                }));
+                socket.write(request);
+              }
+            });
+          }
+        }
+      });
+      done.await();
+      long time = System.currentTimeMillis() - start;
+      long allocated = allocated(threads) - startAllocated;
+      System.out.println(connections + " connections, rate " + 1000L * connections * requests / time +
+          " requests/sec, allocated " + allocated / ((long) connections * requests) + " bytes/request");
+    }
+    System.exit(0);
+  }
+
+  private static long allocated(com.sun.management.ThreadMXBean threads) {
+    long total = 0;
+    for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (bytes > 0) {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares connections to a server in the same process over loopback TCP and in memory.<p>
+ * Usage: {@code LocalTransportPerf [local] [round trips] [MB]}. Defaults are true, 100000 and 1024MB. With
+ * {@code local} true the client connects to {@link NetClient#LOCAL_HOST}, otherwise to localhost. Two things are
+ * measured: round trips of a small message to an echo server, one at a time, and the rate at which a stream of 64KB
+ * writes is received by a server which discards them.
+ */
+public class LocalTransportPerf {
+
+  private static final int ECHO_PORT = 4045;
+  private static final int SINK_PORT = 4046;
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  public static void main(String[] args) throws Exception {
+    final boolean local = args.length <= 0 || Boolean.parseBoolean(args[0]);
+    final int roundTrips = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    final int mb = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+    final long total = (long) mb * 1024 * 1024;
+    final String host = local ? NetClient.LOCAL_HOST : "localhost";
+    final String name = local ? "local" : "tcp";
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch pingDone = new CountDownLatch(1);
+      final long pingStart = System.nanoTime();
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final NetServer server = new NetServer().setAcceptLocal(true);
+          server.connectHandler(new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              socket.dataHandler(new Handler<Buffer>() {
+                public void handle(Buffer data) {
+                  socket.write(data);
+                }
+              });
+            }
+          }).listen(ECHO_PORT);
+
+          new NetClient().connect(ECHO_PORT, host, new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              final Buffer ping = Buffer.create("ping");
+              socket.dataHandler(new Handler<Buffer>() {
+                int count;
+
+                public void handle(Buffer data) {
+                  if (++count < roundTrips) {
+                    socket.write(ping);
+                  } else {
+                    socket.close();
+                    server.close(new SimpleHandler() {
+                      public void handle() {
+                        pingDone.countDown();
+                      }
+                    });
+                  }
+                }
+              });
+              socket.write(ping);
+            }
+          });
+        }
+      });
+      pingDone.await();
+      long pingTime = System.nanoTime() - pingStart;
+      System.out.println(name + ", " + roundTrips + " round trips, " + pingTime / 1000d / roundTrips +
+          " us/round trip");
+
+      final CountDownLatch streamDone = new CountDownLatch(1);
+      final long streamStart = System.currentTimeMillis();
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final NetServer server = new NetServer().setAcceptLocal(true);
+          server.connectHandler(new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              socket.dataHandler(new Handler<Buffer>() {
+                long received;
+
+                public void handle(Buffer data) {
+                  received += data.length();
+                  if (received == total) {
+                    socket.close();
+                  }
+                }
+              });
+            }
+          }).listen(SINK_PORT);
+
+          new NetClient().connect(SINK_PORT, host, new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              final Buffer chunk = Buffer.create(new byte[CHUNK_SIZE]);
+              socket.closedHandler(new SimpleHandler() {
+                public void handle() {
+                  server.close(new SimpleHandler() {
+                    public void handle() {
+                      streamDone.countDown();
+                    }
+                  });
+                }
+              });
+              new SimpleHandler() {
+                long sent;
+
+                public void handle() {
+                  while (sent < total && !socket.writeQueueFull()) {
+                    socket.write(chunk);
+                    sent += CHUNK_SIZE;
+                  }
+                  if (sent < total) {
+                    socket.drainHandler(this);
+                  }
+                }
+              }.handle(null);
+            }
+          });
+        }
+      });
+      streamDone.await();
+      long streamTime = System.currentTimeMillis() - streamStart;
+      System.out.println(name + ", " + mb + "MB, rate " + 1000d * mb / streamTime + " MB/sec");
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.parsetools.RecordParser;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the request rate of an {@link HttpServer} when clients pipeline their requests.<p>
+ * Usage: {@code PipelinedHttpPerf [depth] [connections] [requests] [window] [latency]}. Defaults are 1, 10, 100000,
+ * 16 and 0. The server's pipeline depth is set to {@code depth}. Each connection sends {@code requests} requests and
+ * keeps up to {@code window} of them outstanding, writing raw HTTP so the client side costs as little as possible.
+ * If {@code latency} is greater than zero the server responds after a timer of that many milliseconds, as it would if
+ * it had to wait for a back end.<p>
+ * The requests carry the sort of headers a browser sends. As well as the rate, the bytes allocated per request by all
+ * threads are reported, which includes the client, but that is the same whatever the server does.
+ */
+public class PipelinedHttpPerf {
+
+  private static final int PORT = 4045;
+
+  public static void main(String[] args) throws Exception {
+    final int depth = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+    final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+    final int window = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+    final long latency = args.length > 4 ? Long.parseLong(args[4]) : 0;
+    final Buffer request = Buffer.create("GET /ping?user=tim&page=2 HTTP/1.1\r\n" +
+        "Host: localhost:" + PORT + "\r\n" +
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:7.0.1) Gecko/20100101 Firefox/7.0.1\r\n" +
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+        "Accept-Language: en-us,en;q=0.5\r\n" +
+        "Accept-Encoding: gzip, deflate\r\n" +
+        "Accept-Charset: ISO-8859-1,utf-8;q=0.7,*;q=0.7\r\n" +
+        "Connection: keep-alive\r\n" +
+        "Cookie: session=a3fWa9d8c7b6e5f4; theme=dark\r\n\r\n");
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch done = new CountDownLatch(1);
+      final long start = System.currentTimeMillis();
+      final long startAllocated = allocated(threads);
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final HttpServer server = new HttpServer().setPipelineDepth(depth);
+          server.requestHandler(new Handler<HttpServerRequest>() {
+            public void handle(final HttpServerRequest req) {
+              if (latency > 0) {
+                Vertx.instance.setTimer(latency, new Handler<Long>() {
+                  public void handle(Long timerID) {
+                    req.response.end("pong");
+                  }
+                });
+              } else {
+                req.response.end("pong");
+              }
+            }
+          }).listen(PORT);
+
+          final NetClient client = new NetClient();
+          final int[] remaining = {connections};
+          for (int i = 0; i < connections; i++) {
+            client.connect(PORT, new Handler<NetSocket>() {
+              public void handle(final NetSocket socket) {
+                final int[] sent = new int[1];
+                final int[] received = new int[1];
+                socket.dataHandler(RecordParser.newDelimited("pong", new Handler<Buffer>() {
+                  public void handle(Buffer response) {
+                    if (++received[0] == requests) {
+                      socket.close();
+                      if (--remaining[0] == 0) {
+                        server.close(new SimpleHandler() {
+                          public void handle() {
+                            client.close();
+                            done.countDown();
+                          }
+                        });
+                      }
+                    } else if (sent[0] < requests) {
+                      socket.write(request);
+                      sent[0]++;
+                    }
+                  }
+                }));
+                Buffer initial = Buffer.create(0);
+                while (sent[0] < Math.min(window, requests)) {
+                  initial.appendBuffer(request);
+                  sent[0]++;
+                }
+                socket.write(initial);
+              }
+            });
+          }
+        }
+      });
+      done.await();
+      long time = System.currentTimeMillis() - start;
+      long allocated = allocated(threads) - startAllocated;
+      System.out.println("depth " + depth + ", " + connections + " connections, window " + window + ", latency " +
+          latency + "ms, rate " + 1000L * connections * requests / time + " requests/sec, allocated " +
+          allocated / ((long) connections * requests) + " bytes/request");
+    }
+    System.exit(0);
+  }
+
+  private static long allocated(com.sun.management.ThreadMXBean threads) {
+    long total = 0;
+    for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (bytes > 0) {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.streams.Pump;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput and CPU cost of a TCP proxy.<p>
+ * Usage: {@code ProxyPerf [proxy] [MB]}. Defaults are true and 1024MB. A client sends the data through a proxy to a
+ * server which discards it. With {@code proxy} true the proxy uses {@link NetSocket#proxyTo}, otherwise a
+ * {@link Pump} in each direction. Everything runs in this process, so the CPU time includes the client and the server
+ * as well as the proxy, but they are the same either way.
+ */
+public class ProxyPerf {
+
+  private static final int SERVER_PORT = 4043;
+  private static final int PROXY_PORT = 4044;
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  public static void main(String[] args) throws Exception {
+    final boolean proxy = args.length <= 0 || Boolean.parseBoolean(args[0]);
+    final int mb = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+    final long total = (long) mb * 1024 * 1024;
+    final com.sun.management.OperatingSystemMXBean os =
+        (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch done = new CountDownLatch(1);
+      final long start = System.currentTimeMillis();
+      final long startCpu = os.getProcessCpuTime();
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final NetServer server = new NetServer();
+          server.connectHandler(new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              socket.dataHandler(new Handler<Buffer>() {
+                long received;
+
+                public void handle(Buffer data) {
+                  received += data.length();
+                  if (received == total) {
+                    socket.close();
+                  }
+                }
+              });
+            }
+          }).listen(SERVER_PORT);
+
+          final NetClient proxyClient = new NetClient();
+          final NetServer proxyServer = new NetServer();
+          proxyServer.connectHandler(new Handler<NetSocket>() {
+            public void handle(final NetSocket front) {
+              front.pause();
+              proxyClient.connect(SERVER_PORT, new Handler<NetSocket>() {
+                public void handle(NetSocket back) {
+                  if (proxy) {
+                    front.proxyTo(back);
+                  } else {
+                    new Pump(front, back).start();
+                    new Pump(back, front).start();
+                    back.closedHandler(new SimpleHandler() {
+                      public void handle() {
+                        front.close();
+                      }
+                    });
+                  }
+                  front.resume();
+                }
+              });
+            }
+          }).listen(PROXY_PORT);
+
+          new NetClient().connect(PROXY_PORT, new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              final Buffer chunk = Buffer.create(new byte[CHUNK_SIZE]);
+              socket.closedHandler(new SimpleHandler() {
+                public void handle() {
+                  proxyServer.close(new SimpleHandler() {
+                    public void handle() {
+                      server.close(new SimpleHandler() {
+                        public void handle() {
+                          done.countDown();
+                        }
+                      });
+                    }
+                  });
+                }
+              });
+              new SimpleHandler() {
+                long sent;
+
+                public void handle() {
+                  while (sent < total && !socket.writeQueueFull()) {
+                    socket.write(chunk);
+                    sent += CHUNK_SIZE;
+                  }
+                  if (sent < total) {
+                    socket.drainHandler(this);
+                  }
+                }
+              }.handle(null);
+            }
+          });
+        }
+      });
+      done.await();
+      long time = System.currentTimeMillis() - start;
+      long cpu = os.getProcessCpuTime() - startCpu;
+      System.out.println((proxy ? "proxyTo" : "pump") + ", " + mb + "MB, rate " + 1000d * mb / time + " MB/sec, " +
+          "CPU " + cpu / 1000000d / (mb / 1024d) + " ms/GB");
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the cost of rate limiting when a server has many connections at once.<p>
+ * Usage: {@code RateLimitPerf [limited] [connections] [bytes per connection] [clients]}. Defaults are false, 2000
+ * connections, 262144 bytes per connection and 4 clients, each on an event loop of its own. All the connections are
+ * opened before any data is sent, so they are all open at once while it flows. If {@code limited} is true
+ * the server limits the read rate of each connection and of all of them together, to rates so high they never hold
+ * anything up. So the difference between runs with and without limits is the overhead of the token buckets and of the
+ * shaping handler, including contention on the shared bucket between the server's event loops.
+ */
+public class RateLimitPerf {
+
+  private static final int PORT = 8181;
+  private static final int WRITE_SIZE = 8 * 1024;
+  // Far more than a connection or the server can do, so nothing is ever throttled
+  private static final long UNREACHABLE_RATE = 1L << 40;
+
+  public static void main(String[] args) throws Exception {
+    final boolean limited = args.length > 0 && Boolean.parseBoolean(args[0]);
+    final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    final int perConnection = args.length > 2 ? Integer.parseInt(args[2]) : 256 * 1024;
+    final int clients = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+    final long total = (long) connections * perConnection;
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch listening = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(1);
+      final AtomicLong received = new AtomicLong();
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final NetServer server = new NetServer();
+          if (limited) {
+            server.setReadRateLimit(UNREACHABLE_RATE).setAggregateReadRateLimit(UNREACHABLE_RATE);
+          }
+          server.connectHandler(new Handler<NetSocket>() {
+            public void handle(NetSocket socket) {
+              socket.dataHandler(new Handler<Buffer>() {
+                public void handle(Buffer data) {
+                  if (received.addAndGet(data.length()) == total) {
+                    server.close(new SimpleHandler() {
+                      public void handle() {
+                        done.countDown();
+                      }
+                    });
+                  }
+                }
+              });
+            }
+          }).listen(PORT);
+          listening.countDown();
+        }
+      });
+      listening.await();
+
+      // Each client opens its connections one after another, as opening them all at once would overflow the listen
+      // backlog, and holds them until every client is done so they're all open while the data flows
+      final CountDownLatch connected = new CountDownLatch(connections);
+      final long[] starters = new long[clients];
+      for (int i = 0; i < clients; i++) {
+        final int client = i;
+        final int count = connections / clients + (i < connections % clients ? 1 : 0);
+        VertxInternal.instance.go(new Runnable() {
+          public void run() {
+            final List<NetSocket> sockets = new ArrayList<>();
+            starters[client] = Vertx.instance.registerHandler(new Handler<Boolean>() {
+              public void handle(Boolean start) {
+                for (NetSocket socket : sockets) {
+                  send(socket, perConnection);
+                }
+              }
+            });
+            final NetClient netClient = new NetClient();
+            new SimpleHandler() {
+              final Handler<Void> connectNext = this;
+
+              public void handle() {
+                if (sockets.size() < count) {
+                  netClient.connect(PORT, new Handler<NetSocket>() {
+                    public void handle(NetSocket socket) {
+                      sockets.add(socket);
+                      connected.countDown();
+                      connectNext.handle(null);
+                    }
+                  });
+                }
+              }
+            }.handle(null);
+          }
+        });
+      }
+      connected.await();
+
+      long start = System.currentTimeMillis();
+      for (long starter : starters) {
+        Vertx.instance.sendToHandler(starter, true);
+      }
+      done.await();
+      long time = System.currentTimeMillis() - start;
+      double rate = 1000 * (double) total / (1024 * 1024) / time;
+      System.out.println("limited " + limited + ", " + connections + " connections, " + total + " bytes, rate " +
+          rate + " MB/sec");
+    }
+    System.exit(0);
+  }
+
+  private static void send(final NetSocket socket, final int perConnection) {
+    final Buffer data = Buffer.create(new byte[WRITE_SIZE]);
+    new SimpleHandler() {
+      int sent;
+
+      public void handle() {
+        while (sent < perConnection && !socket.writeQueueFull()) {
+          int size = Math.min(WRITE_SIZE, perConnection - sent);
+          socket.write(size == WRITE_SIZE ? data : data.copy(0, size));
+          sent += size;
+        }
+        if (sent < perConnection) {
+          socket.drainHandler(this);
+        } else {
+          socket.close();
+        }
+      }
+    }.handle(null);
+  }
+}
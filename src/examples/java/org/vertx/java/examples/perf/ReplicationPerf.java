@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.shared.ReplicatedMap;
+import org.vertx.java.core.shared.Replicator;
+
+/**
+ * Measures replication throughput and lag between two nodes.<p>
+ * Start a reader with {@code ReplicationPerf 8181 8182} and then a writer in another JVM with
+ * {@code ReplicationPerf 8182 8181 1000000}. The writer puts the given number of entries whose values are the time
+ * they were put. Every second the reader prints how many entries it has received, and how long ago the entry with
+ * the highest key it has was put, which is an estimate of the replication lag. Both JVMs are on the same machine so
+ * their clocks agree.
+ */
+public class ReplicationPerf {
+
+  public static void main(String[] args) throws Exception {
+    final int port = Integer.parseInt(args[0]);
+    final int peerPort = Integer.parseInt(args[1]);
+    final int numPuts = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        Replicator replicator = new Replicator(port, "localhost").addPeer(peerPort, "localhost");
+        replicator.start();
+        final ReplicatedMap<Integer, Long> map = replicator.getMap("perf");
+        if (numPuts > 0) {
+          write(map, numPuts);
+        } else {
+          read(map);
+        }
+      }
+    });
+
+    System.out.println("Any key to exit");
+    System.in.read();
+  }
+
+  private static void write(final ReplicatedMap<Integer, Long> map, final int numPuts) {
+    // Put in chunks so the event loop can send batches while we go
+    Vertx.instance.setPeriodic(1, new Handler<Long>() {
+      int count;
+      long start = System.currentTimeMillis();
+
+      public void handle(Long timerID) {
+        for (int i = 0; i < 10000 && count < numPuts; i++) {
+          map.put(count++, System.currentTimeMillis());
+        }
+        if (count == numPuts) {
+          Vertx.instance.cancelTimer(timerID);
+          double rate = 1000 * (double) numPuts / (System.currentTimeMillis() - start);
+          System.out.println("Put " + numPuts + " entries, rate " + rate + " puts/sec");
+        }
+      }
+    });
+  }
+
+  private static void read(final ReplicatedMap<Integer, Long> map) {
+    Vertx.instance.setPeriodic(1000, new Handler<Long>() {
+      int last;
+
+      public void handle(Long timerID) {
+        int size = map.size();
+        Long newest = map.get(size - 1);
+        long lag = newest == null ? 0 : System.currentTimeMillis() - newest;
+        System.out.println("Received " + size + " entries, " + (size - last) + " in the last second, lag " + lag + " ms");
+        last = size;
+      }
+    });
+  }
+}
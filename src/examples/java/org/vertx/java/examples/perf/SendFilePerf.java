@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of sendFile, with and without SSL.<p>
+ * Usage: {@code SendFilePerf [ssl] [file size MB] [sends] [key store]}. Defaults are false, 64MB, 10 sends and
+ * server-keystore.jks. Without SSL the file is sent with zero-copy, with SSL it's sent in chunks through the SSL
+ * engine. The client asks for the file by writing a byte, like an HTTP request, and the server sends it in reply.
+ */
+public class SendFilePerf {
+
+  private static final int PORT = 4043;
+
+  public static void main(String[] args) throws Exception {
+    final boolean ssl = args.length > 0 && Boolean.parseBoolean(args[0]);
+    final int sizeMB = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    final int sends = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    final String keyStore = args.length > 3 ? args[3] : "server-keystore.jks";
+
+    final File file = File.createTempFile("sendfileperf", ".dat");
+    file.deleteOnExit();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength((long) sizeMB * 1024 * 1024);
+    raf.close();
+    final long fileLength = file.length();
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch done = new CountDownLatch(1);
+      final long start = System.currentTimeMillis();
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final NetServer server = new NetServer().setSSL(ssl);
+          if (ssl) {
+            server.setKeyStorePath(keyStore).setKeyStorePassword("wibble");
+          }
+          server.connectHandler(new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              socket.dataHandler(new Handler<Buffer>() {
+                public void handle(Buffer data) {
+                  socket.sendFile(file.getPath());
+                }
+              });
+            }
+          }).listen(PORT);
+
+          new NetClient().setSSL(ssl).setTrustAll(true).connect(PORT, new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              socket.dataHandler(new Handler<Buffer>() {
+                long received;
+                int sent = 1;
+
+                public void handle(Buffer data) {
+                  received += data.length();
+                  if (received == fileLength) {
+                    received = 0;
+                    if (sent++ < sends) {
+                      socket.write("x");
+                    } else {
+                      server.close(new SimpleHandler() {
+                        public void handle() {
+                          done.countDown();
+                        }
+                      });
+                    }
+                  }
+                }
+              });
+              socket.write("x");
+            }
+          });
+        }
+      });
+      done.await();
+      long time = System.currentTimeMillis() - start;
+      double rate = 1000 * (double) sizeMB * sends / time;
+      System.out.println("ssl " + ssl + ", " + sends + " sends of " + sizeMB + "MB, rate " + rate + " MB/sec");
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.shared.LongCursor;
+import org.vertx.java.core.shared.LongLongCursor;
+import org.vertx.java.core.shared.SharedData;
+import org.vertx.java.core.shared.SharedLongLongMap;
+import org.vertx.java.core.shared.SharedLongSet;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares the boxed shared collections with the primitive long specialisations, printing the time taken and
+ * the heap used for each. Run with a large heap, e.g. -Xmx4g
+ */
+public class SharedDataPerf {
+
+  public static void main(String[] args) throws Exception {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+    for (int i = 0; i < 3; i++) {
+      System.out.println("Iteration " + i);
+      boxedSet(numEntries);
+      longSet(numEntries);
+      boxedMap(numEntries);
+      longLongMap(numEntries);
+    }
+  }
+
+  private static void boxedSet(int numEntries) {
+    long mem = usedMemory();
+    long start = System.nanoTime();
+    Set<Long> set = SharedData.getSet("perf");
+    for (long i = 0; i < numEntries; i++) {
+      set.add(i);
+    }
+    long total = 0;
+    for (Long l : set) {
+      total += l;
+    }
+    report("Set<Long>", numEntries, start, mem, total);
+    SharedData.removeSet("perf");
+  }
+
+  private static void longSet(int numEntries) {
+    long mem = usedMemory();
+    long start = System.nanoTime();
+    SharedLongSet set = SharedData.getLongSet("perf");
+    for (long i = 0; i < numEntries; i++) {
+      set.add(i);
+    }
+    long total = 0;
+    LongCursor cursor = set.cursor();
+    while (cursor.next()) {
+      total += cursor.get();
+    }
+    report("SharedLongSet", numEntries, start, mem, total);
+    SharedData.removeLongSet("perf");
+  }
+
+  private static void boxedMap(int numEntries) {
+    long mem = usedMemory();
+    long start = System.nanoTime();
+    Map<Long, Long> map = SharedData.getMap("perf");
+    for (long i = 0; i < numEntries; i++) {
+      map.put(i, i);
+    }
+    long total = 0;
+    for (Map.Entry<Long, Long> entry : map.entrySet()) {
+      total += entry.getValue();
+    }
+    report("Map<Long, Long>", numEntries, start, mem, total);
+    SharedData.removeMap("perf");
+  }
+
+  private static void longLongMap(int numEntries) {
+    long mem = usedMemory();
+    long start = System.nanoTime();
+    SharedLongLongMap map = SharedData.getLongLongMap("perf");
+    for (long i = 0; i < numEntries; i++) {
+      map.put(i, i);
+    }
+    long total = 0;
+    LongLongCursor cursor = map.cursor();
+    while (cursor.next()) {
+      total += cursor.value();
+    }
+    report("SharedLongLongMap", numEntries, start, mem, total);
+    SharedData.removeLongLongMap("perf");
+  }
+
+  private static void report(String name, int numEntries, long start, long memBefore, long total) {
+    long time = System.nanoTime() - start;
+    long mem = usedMemory() - memBefore;
+    double rate = 1000000000d * numEntries / time;
+    System.out.println(name + ": " + (long) rate + " entries/sec, " + (mem / numEntries) + " bytes/entry (" + total + ")");
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
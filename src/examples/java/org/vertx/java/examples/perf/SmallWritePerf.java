@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of many small writes on one connection, with and without write coalescing.<p>
+ * Usage: {@code SmallWritePerf [coalesce] [messages] [message size]}. Defaults are false, 5000000 messages and 16
+ * bytes. The client writes the messages in batches of 100 per turn of the event loop, which is the pattern of a
+ * protocol writing each message as several small pieces.
+ */
+public class SmallWritePerf {
+
+  private static final int PORT = 8181;
+  private static final int BATCH = 100;
+
+  public static void main(String[] args) throws Exception {
+    final boolean coalesce = args.length > 0 && Boolean.parseBoolean(args[0]);
+    final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+    final int size = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch done = new CountDownLatch(1);
+      final long start = System.currentTimeMillis();
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final NetServer server = new NetServer();
+          server.connectHandler(new Handler<NetSocket>() {
+            public void handle(NetSocket socket) {
+              socket.dataHandler(new Handler<Buffer>() {
+                long received;
+
+                public void handle(Buffer data) {
+                  received += data.length();
+                  if (received == (long) messages * size) {
+                    server.close(new SimpleHandler() {
+                      public void handle() {
+                        done.countDown();
+                      }
+                    });
+                  }
+                }
+              });
+            }
+          }).listen(PORT);
+
+          new NetClient().connect(PORT, new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              socket.setCoalesceWrites(coalesce);
+              final Buffer message = Buffer.create(new byte[size]);
+              new SimpleHandler() {
+                int sent;
+                final Handler<Void> sender = this;
+                final Handler<Void> drainHandler = new SimpleHandler() {
+                  public void handle() {
+                    socket.drainHandler(null);
+                    sender.handle(null);
+                  }
+                };
+
+                public void handle() {
+                  for (int i = 0; i < BATCH && sent < messages; i++, sent++) {
+                    socket.write(message);
+                  }
+                  if (sent < messages) {
+                    if (socket.writeQueueFull()) {
+                      socket.drainHandler(drainHandler);
+                    } else {
+                      // Give the event loop a turn between batches, so coalesced writes are flushed
+                      Vertx.instance.nextTick(this);
+                    }
+                  }
+                }
+              }.handle(null);
+            }
+          });
+        }
+      });
+      done.await();
+      long time = System.currentTimeMillis() - start;
+      double rate = 1000 * (double) messages / time;
+      System.out.println("coalesce " + coalesce + ", " + messages + " messages of " + size + " bytes, rate " + rate +
+          " messages/sec");
+    }
+    System.exit(0);
+  }
+}
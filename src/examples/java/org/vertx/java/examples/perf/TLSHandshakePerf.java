@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.examples.perf;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.net.TLSHelper;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the cost of TLS handshakes, with and without session resumption.<p>
+ * Usage: {@code TLSHandshakePerf [resume] [connections] [key store]}. Defaults are true, 1000 connections and
+ * server-keystore.jks. Each connection is made by a new client, one after another, and is timed until the first byte
+ * is echoed back. With resumption the clients share an SSL context, so after the first they resume the session. Without
+ * it the context cache is cleared before each client, so each does a full handshake with a context of its own.
+ */
+public class TLSHandshakePerf {
+
+  private static final int PORT = 4043;
+
+  public static void main(String[] args) throws Exception {
+    final boolean resume = args.length <= 0 || Boolean.parseBoolean(args[0]);
+    final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    final String keyStore = args.length > 2 ? args[2] : "server-keystore.jks";
+
+    for (int run = 0; run < 3; run++) {
+      final CountDownLatch done = new CountDownLatch(1);
+      final long start = System.currentTimeMillis();
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final NetServer server = new NetServer().setSSL(true).setKeyStorePath(keyStore).setKeyStorePassword("wibble");
+          server.connectHandler(new Handler<NetSocket>() {
+            public void handle(final NetSocket socket) {
+              socket.dataHandler(new Handler<Buffer>() {
+                public void handle(Buffer data) {
+                  socket.write(data);
+                }
+              });
+            }
+          }).listen(PORT);
+
+          new SimpleHandler() {
+            int connected;
+            final Handler<Void> connector = this;
+
+            public void handle() {
+              if (connected++ == connections) {
+                server.close(new SimpleHandler() {
+                  public void handle() {
+                    done.countDown();
+                  }
+                });
+                return;
+              }
+              if (!resume) {
+                TLSHelper.clearContextCache();
+              }
+              new NetClient().setSSL(true).setTrustAll(true).connect(PORT, new Handler<NetSocket>() {
+                public void handle(final NetSocket socket) {
+                  socket.dataHandler(new Handler<Buffer>() {
+                    public void handle(Buffer data) {
+                      socket.close();
+                      connector.handle(null);
+                    }
+                  });
+                  socket.write("x");
+                }
+              });
+            }
+          }.handle(null);
+        }
+      });
+      done.await();
+      long time = System.currentTimeMillis() - start;
+      System.out.println("resume " + resume + ", " + connections + " handshakes, " + (double) time / connections +
+          " ms per handshake");
+    }
+    System.exit(0);
+  }
+}
@@ -23,10 +23,9 @@ import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.net.NetServer;
 import org.vertx.java.core.net.NetSocket;
 import org.vertx.java.core.parsetools.RecordParser;
+import org.vertx.java.core.shared.LongCursor;
 import org.vertx.java.core.shared.SharedData;
 
-import java.util.Set;
-
 public class PubSubServer implements VertxApp {
 
   private NetServer server;
@@ -39,14 +38,13 @@ public class PubSubServer implements VertxApp {
             String line = frame.toString().trim();
             String[] parts = line.split("\\,");
             if (line.startsWith("subscribe")) {
-              Set<Long> set = SharedData.<Long>getSet(parts[1]);
-              set.add(socket.writeHandlerID);
+              SharedData.getLongSet(parts[1]).add(socket.writeHandlerID);
             } else if (line.startsWith("unsubscribe")) {
-              SharedData.<Long>getSet(parts[1]).remove(socket.writeHandlerID);
+              SharedData.getLongSet(parts[1]).remove(socket.writeHandlerID);
             } else if (line.startsWith("publish")) {
-              Set<Long> actorIDs = SharedData.getSet(parts[1]);
-              for (Long actorID : actorIDs) {
-                Vertx.instance.sendToHandler(actorID, Buffer.create(parts[2]));
+              LongCursor actorIDs = SharedData.getLongSet(parts[1]).cursor();
+              while (actorIDs.next()) {
+                Vertx.instance.sendToHandler(actorIDs.get(), Buffer.create(parts[2]));
               }
             }
           }
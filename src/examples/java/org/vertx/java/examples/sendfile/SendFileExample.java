@@ -30,11 +30,11 @@ public class SendFileExample implements VertxApp {
   public void start() {
     server = new HttpServer().requestHandler(new Handler<HttpServerRequest>() {
       public void handle(HttpServerRequest req) {
-        if (req.path.equals("/")) {
+        if (req.getPath().equals("/")) {
           req.response.sendFile(webroot + "index.html");
         } else {
           //Clearly in a real server you would check the path for better security!!
-          req.response.sendFile(webroot + req.path);
+          req.response.sendFile(webroot + req.getPath());
         }
       }
     }).listen(8080);
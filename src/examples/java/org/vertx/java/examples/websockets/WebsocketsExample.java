@@ -43,7 +43,7 @@ public class WebsocketsExample implements VertxApp {
       }
     }).requestHandler(new Handler<HttpServerRequest>() {
       public void handle(HttpServerRequest req) {
-        if (req.path.equals("/")) req.response.sendFile("websockets/ws.html"); // Serve the html
+        if (req.getPath().equals("/")) req.response.sendFile("websockets/ws.html"); // Serve the html
       }
     }).listen(8080);
   }
@@ -20,17 +20,20 @@ import org.jboss.netty.channel.socket.nio.NioWorker;
 import org.jboss.netty.channel.socket.nio.NioWorkerPool;
 import org.jboss.netty.util.HashedWheelTimer;
 import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
 import org.jboss.netty.util.TimerTask;
 import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.shared.SharedUtils;
 
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -39,12 +42,16 @@ class VertxImpl implements VertxInternal {
 
   private static final Logger log = Logger.getLogger(VertxImpl.class);
 
+  private static final int HANDSHAKE_QUEUE_SIZE = 10000;
+
   private int backgroundPoolSize = 20;
   private int corePoolSize = Runtime.getRuntime().availableProcessors();
   private volatile ExecutorService backgroundPool;
   private volatile ExecutorService corePool;
   private volatile NioWorkerPool workerPool;
   private volatile ExecutorService acceptorPool;
+  private volatile ExecutorService handshakePool;
+  private volatile ExecutorService datagramPool;
   private Map<Long, NioWorker> workerMap = new ConcurrentHashMap<>();
   private static final ThreadLocal<Long> contextIDTL = new ThreadLocal<>();
   private Map<Long, ActorHolder> actors = new ConcurrentHashMap<>();
@@ -159,6 +166,45 @@ class VertxImpl implements VertxInternal {
     return result;
   }
 
+  //The handshake pool is used for the CPU heavy part of TLS handshakes, so they don't hold up the event loops.
+  //It's bounded, when it's full the handshake work is run by the caller, i.e. back on the event loop
+  public Executor getHandshakePool() {
+    //This is a correct implementation of double-checked locking idiom
+    ExecutorService result = handshakePool;
+    if (result == null) {
+      synchronized (this) {
+        result = handshakePool;
+        if (result == null) {
+          int size = Math.max(1, corePoolSize / 2);
+          handshakePool = result = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(HANDSHAKE_QUEUE_SIZE), new VertxThreadFactory("vert.x-handshake-thread-"),
+              new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+      }
+    }
+    return result;
+  }
+
+  //The datagram pool runs the thread which does the I/O for datagram sockets. It only runs while there are sockets
+  //open, so there is at most one thread in it
+  public Executor getDatagramPool() {
+    //This is a correct implementation of double-checked locking idiom
+    ExecutorService result = datagramPool;
+    if (result == null) {
+      synchronized (this) {
+        result = datagramPool;
+        if (result == null) {
+          datagramPool = result = Executors.newCachedThreadPool(new VertxThreadFactory("vert.x-datagram-thread-"));
+        }
+      }
+    }
+    return result;
+  }
+
+  public Timer getTimer() {
+    return timer;
+  }
+
   public NioWorkerPool getWorkerPool() {
     //This is a correct implementation of double-checked locking idiom
     NioWorkerPool result = workerPool;
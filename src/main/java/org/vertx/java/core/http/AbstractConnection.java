@@ -18,6 +18,7 @@ package org.vertx.java.core.http;
 
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
 import org.vertx.java.core.net.ConnectionBase;
 
 public abstract class AbstractConnection extends ConnectionBase {
@@ -30,4 +31,9 @@ public abstract class AbstractConnection extends ConnectionBase {
     return channel.write(obj);
   }
 
+  // A future for a write which hasn't been handed to the channel yet
+  ChannelFuture newFuture() {
+    return Channels.future(channel);
+  }
+
 }
@@ -115,7 +115,7 @@ class ClientConnection extends AbstractConnection {
   void handleInterestedOpsChanged() {
     try {
       if (currentRequest != null) {
-        if ((channel.getInterestOps() & Channel.OP_WRITE) == Channel.OP_WRITE) {
+        if (isWritable()) {
           setContextID();
           currentRequest.handleInterestedOpsChanged();
         }
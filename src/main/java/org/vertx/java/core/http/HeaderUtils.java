@@ -16,7 +16,6 @@
 
 package org.vertx.java.core.http;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,24 +23,21 @@ import java.util.Map;
  * User: tim
  * Date: 06/09/11
  * Time: 10:33
+ *
+ * @deprecated The header maps given by requests and responses already join repeated headers, and look names up
+ * case-insensitively. Kept for code which simplifies its own lists of headers.
  */
+@Deprecated
 public class HeaderUtils {
+
+  /**
+   * @deprecated Returns the same kind of case-insensitive map as {@link HttpServerRequest#getHeaders()}
+   */
+  @Deprecated
   public static Map<String, String> simplifyHeaders(List<Map.Entry<String, String>> hdrs) {
     //According to http://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2 we can legally convert any list of
     // HTTP headers into a map of headers where any header values
     //with the same key are concatenated together into a single value separated by commas
-    //This hugely simplifies header handling
-    Map<String, String> map = new HashMap<>();
-    for (Map.Entry<String, String> entry : hdrs) {
-      String prev = map.get(entry.getKey());
-      if (prev != null) {
-        StringBuilder sb = new StringBuilder(prev);
-        sb.append(',').append(entry.getValue());
-        map.put(entry.getKey(), sb.toString());
-      } else {
-        map.put(entry.getKey(), entry.getValue());
-      }
-    }
-    return map;
+    return Headers.from(hdrs).asMap();
   }
 }
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.http;
+
+import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An ordered list of HTTP headers. The names and values are kept in parallel arrays along with a case-insensitive hash
+ * of each name, so looking up a header compares names case-insensitively without allocating anything. Names which
+ * are exactly one of the common header names share the constant rather than each request having its own copy.<p>
+ * {@link #asMap()} gives a {@code Map} view of the headers in which the values of headers with the same name are
+ * joined with commas, as allowed by <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2">RFC 2616</a>.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class Headers {
+
+  private static final String[] COMMON_NAMES = {Names.ACCEPT, Names.ACCEPT_CHARSET, Names.ACCEPT_ENCODING,
+      Names.ACCEPT_LANGUAGE, Names.ACCEPT_RANGES, Names.AGE, Names.ALLOW, Names.AUTHORIZATION, Names.CACHE_CONTROL,
+      Names.CONNECTION, Names.CONTENT_ENCODING, Names.CONTENT_LANGUAGE, Names.CONTENT_LENGTH, Names.CONTENT_LOCATION,
+      Names.CONTENT_RANGE, Names.CONTENT_TYPE, Names.COOKIE, Names.DATE, Names.ETAG, Names.EXPECT, Names.EXPIRES,
+      Names.HOST, Names.IF_MATCH, Names.IF_MODIFIED_SINCE, Names.IF_NONE_MATCH, Names.IF_RANGE,
+      Names.IF_UNMODIFIED_SINCE, Names.LAST_MODIFIED, Names.LOCATION, Names.ORIGIN, Names.PRAGMA, Names.RANGE,
+      Names.REFERER, Names.SERVER, Names.SET_COOKIE, Names.TRANSFER_ENCODING, Names.UPGRADE, Names.USER_AGENT,
+      Names.VARY, Names.VIA, Names.WWW_AUTHENTICATE, "Keep-Alive", "X-Forwarded-For", "X-Requested-With"};
+
+  // Open addressed by hash
+  private static final String[] INTERNED = new String[256];
+  private static final int[] INTERNED_HASHES = new int[256];
+  // "Name: " in bytes for each of the interned names
+  private static final byte[][] ENCODED_NAMES = new byte[256][];
+
+  static {
+    for (String name : COMMON_NAMES) {
+      int hash = hash(name);
+      int i = hash & 0xFF;
+      while (INTERNED[i] != null) {
+        i = (i + 1) & 0xFF;
+      }
+      INTERNED[i] = name;
+      INTERNED_HASHES[i] = hash;
+      ENCODED_NAMES[i] = (name + ": ").getBytes(LazyHttpRequest.ISO_8859_1);
+    }
+  }
+
+  private String[] names;
+  private String[] values;
+  private int[] hashes;
+  private int size;
+  // For each header whether it's the first with its name, or null if that needs working out again
+  private boolean[] firsts;
+  // For each header the next one with the same name, or -1, and the number of different names. Valid when firsts is
+  private int[] nexts;
+  private int distinct;
+  private Map<String, String> map;
+
+  Headers() {
+    this(8);
+  }
+
+  Headers(int capacity) {
+    names = new String[capacity];
+    values = new String[capacity];
+    hashes = new int[capacity];
+  }
+
+  static Headers from(List<Map.Entry<String, String>> entries) {
+    Headers headers = new Headers(Math.max(entries.size(), 1));
+    for (Map.Entry<String, String> entry : entries) {
+      headers.add(entry.getKey(), entry.getValue());
+    }
+    return headers;
+  }
+
+  int size() {
+    return size;
+  }
+
+  String getName(int i) {
+    return names[i];
+  }
+
+  String getValue(int i) {
+    return values[i];
+  }
+
+  /*
+  The first value of the header, or null
+   */
+  String get(String name) {
+    int i = indexOf(name, hash(name), 0);
+    return i == -1 ? null : values[i];
+  }
+
+  List<String> getAll(String name) {
+    int hash = hash(name);
+    List<String> list = new ArrayList<>(1);
+    for (int i = indexOf(name, hash, 0); i != -1; i = indexOf(name, hash, i + 1)) {
+      list.add(values[i]);
+    }
+    return list;
+  }
+
+  boolean contains(String name) {
+    return indexOf(name, hash(name), 0) != -1;
+  }
+
+  /*
+  The number of different names, ignoring case
+   */
+  int distinctNames() {
+    firsts();
+    return distinct;
+  }
+
+  Headers add(String name, String value) {
+    return add(name, hash(name), value);
+  }
+
+  Headers add(String name, int hash, String value) {
+    if (size == names.length) {
+      int capacity = size * 2;
+      names = Arrays.copyOf(names, capacity);
+      values = Arrays.copyOf(values, capacity);
+      hashes = Arrays.copyOf(hashes, capacity);
+    }
+    String interned = intern(name, hash);
+    names[size] = interned == null ? name : interned;
+    values[size] = value;
+    hashes[size] = hash;
+    size++;
+    firsts = null;
+    return this;
+  }
+
+  /*
+  Replace any values of the header with this one
+   */
+  Headers set(String name, String value) {
+    int hash = hash(name);
+    int i = indexOf(name, hash, 0);
+    if (i == -1) {
+      return add(name, hash, value);
+    }
+    values[i] = value;
+    // Remove any later values
+    int j = indexOf(name, hash, i + 1);
+    while (j != -1) {
+      removeAt(j);
+      j = indexOf(name, hash, j);
+    }
+    return this;
+  }
+
+  boolean remove(String name) {
+    int hash = hash(name);
+    boolean removed = false;
+    for (int i = indexOf(name, hash, 0); i != -1; i = indexOf(name, hash, i)) {
+      removeAt(i);
+      removed = true;
+    }
+    return removed;
+  }
+
+  void clear() {
+    Arrays.fill(names, 0, size, null);
+    Arrays.fill(values, 0, size, null);
+    size = 0;
+    firsts = null;
+  }
+
+  /*
+  The number of bytes that encode() will write
+   */
+  int encodedLength() {
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      length += names[i].length() + values[i].length() + 4;
+    }
+    return length;
+  }
+
+  /*
+  Write the headers as lines of "Name: value\r\n" into bytes at pos, and return the position after them
+   */
+  int encode(byte[] bytes, int pos) {
+    for (int i = 0; i < size; i++) {
+      byte[] name = encodedName(names[i], hashes[i]);
+      if (name != null) {
+        System.arraycopy(name, 0, bytes, pos, name.length);
+        pos += name.length;
+      } else {
+        pos = encode(names[i], bytes, pos);
+        bytes[pos++] = ':';
+        bytes[pos++] = ' ';
+      }
+      pos = encode(values[i], bytes, pos);
+      bytes[pos++] = '\r';
+      bytes[pos++] = '\n';
+    }
+    return pos;
+  }
+
+  Map<String, String> asMap() {
+    if (map == null) {
+      map = new MapView();
+    }
+    return map;
+  }
+
+  static int hash(String name) {
+    int hash = 0;
+    for (int i = 0; i < name.length(); i++) {
+      hash = 31 * hash + toLowerCase(name.charAt(i));
+    }
+    return hash;
+  }
+
+  static int hash(byte[] bytes, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + toLowerCase(bytes[i] & 0xFF);
+    }
+    return hash;
+  }
+
+  /*
+  The common header name which is exactly the same as bytes[start, end), or null
+   */
+  static String intern(byte[] bytes, int start, int end, int hash) {
+    for (int i = hash & 0xFF; INTERNED[i] != null; i = (i + 1) & 0xFF) {
+      String name = INTERNED[i];
+      if (INTERNED_HASHES[i] == hash && name.length() == end - start) {
+        int j = 0;
+        while (j < name.length() && bytes[start + j] == name.charAt(j)) {
+          j++;
+        }
+        if (j == name.length()) {
+          return name;
+        }
+      }
+    }
+    return null;
+  }
+
+  static boolean equalsIgnoreCase(byte[] bytes, int start, int end, String name) {
+    if (end - start != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (toLowerCase(bytes[start + i] & 0xFF) != toLowerCase(name.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String intern(String name, int hash) {
+    for (int i = hash & 0xFF; INTERNED[i] != null; i = (i + 1) & 0xFF) {
+      if (INTERNED_HASHES[i] == hash && INTERNED[i].equals(name)) {
+        return INTERNED[i];
+      }
+    }
+    return null;
+  }
+
+  private static byte[] encodedName(String name, int hash) {
+    for (int i = hash & 0xFF; INTERNED[i] != null; i = (i + 1) & 0xFF) {
+      if (INTERNED[i] == name) {
+        return ENCODED_NAMES[i];
+      }
+    }
+    return null;
+  }
+
+  private static int encode(String s, byte[] bytes, int pos) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\r' || c == '\n') {
+        throw new IllegalArgumentException("Invalid header: " + s);
+      }
+      bytes[pos++] = c > 0xFF ? (byte) '?' : (byte) c;
+    }
+    return pos;
+  }
+
+  private int indexOf(String name, int hash, int from) {
+    for (int i = from; i < size; i++) {
+      if (hashes[i] == hash && (names[i] == name || names[i].equalsIgnoreCase(name))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void removeAt(int i) {
+    int moved = size - i - 1;
+    System.arraycopy(names, i + 1, names, i, moved);
+    System.arraycopy(values, i + 1, values, i, moved);
+    System.arraycopy(hashes, i + 1, hashes, i, moved);
+    size--;
+    names[size] = null;
+    values[size] = null;
+    firsts = null;
+  }
+
+  /*
+  Work out which headers are the first with their names, and link each to the next with the same name, in one pass
+  with a table of the first header for each name
+   */
+  private boolean[] firsts() {
+    if (firsts == null) {
+      boolean[] result = new boolean[size];
+      nexts = new int[size];
+      Arrays.fill(nexts, -1);
+      // By the first header with each name, the last one seen so far with it
+      int[] lasts = new int[size];
+      // Open addressed by hash, holding the index plus one of the first header with each name, at most half full
+      int[] table = new int[Integer.highestOneBit(Math.max(size, 1)) * 4];
+      int mask = table.length - 1;
+      int count = 0;
+      for (int i = 0; i < size; i++) {
+        int j = hashes[i] & mask;
+        while (table[j] != 0 && !sameName(table[j] - 1, i)) {
+          j = (j + 1) & mask;
+        }
+        if (table[j] == 0) {
+          table[j] = i + 1;
+          result[i] = true;
+          lasts[i] = i;
+          count++;
+        } else {
+          int first = table[j] - 1;
+          nexts[lasts[first]] = i;
+          lasts[first] = i;
+        }
+      }
+      firsts = result;
+      distinct = count;
+    }
+    return firsts;
+  }
+
+  /*
+  The values of the header at i, which is the first with its name, and of any later ones with the name joined with
+  commas
+   */
+  private String joinedValue(int i) {
+    firsts();
+    int j = nexts[i];
+    if (j == -1) {
+      return values[i];
+    }
+    StringBuilder sb = new StringBuilder(values[i]);
+    for (; j != -1; j = nexts[j]) {
+      sb.append(',').append(values[j]);
+    }
+    return sb.toString();
+  }
+
+  private boolean sameName(int i, int j) {
+    return hashes[i] == hashes[j] && (names[i] == names[j] || names[i].equalsIgnoreCase(names[j]));
+  }
+
+  /*
+  The first header at or after i which is the first with its name, or size if there isn't one
+   */
+  private int nextFirst(int i) {
+    boolean[] firsts = firsts();
+    while (i < size && !firsts[i]) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int toLowerCase(int c) {
+    return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+  }
+
+  private class MapView extends AbstractMap<String, String> {
+
+    public String get(Object key) {
+      if (!(key instanceof String)) {
+        return null;
+      }
+      String name = (String) key;
+      int hash = hash(name);
+      int i = indexOf(name, hash, 0);
+      if (i == -1) {
+        return null;
+      }
+      int j = indexOf(name, hash, i + 1);
+      if (j == -1) {
+        return values[i];
+      }
+      StringBuilder sb = new StringBuilder(values[i]);
+      for (; j != -1; j = indexOf(name, hash, j + 1)) {
+        sb.append(',').append(values[j]);
+      }
+      return sb.toString();
+    }
+
+    public boolean containsKey(Object key) {
+      return key instanceof String && contains((String) key);
+    }
+
+    public String put(String key, String value) {
+      String prev = get(key);
+      set(key, value);
+      return prev;
+    }
+
+    public String remove(Object key) {
+      String prev = get(key);
+      if (prev != null) {
+        Headers.this.remove((String) key);
+      }
+      return prev;
+    }
+
+    public void clear() {
+      Headers.this.clear();
+    }
+
+    public int size() {
+      return distinctNames();
+    }
+
+    /*
+    The entries are in the order their names first appear, and use the case of the first header with each name
+     */
+    public Set<Entry<String, String>> entrySet() {
+      return new AbstractSet<Entry<String, String>>() {
+        public Iterator<Entry<String, String>> iterator() {
+          return new Iterator<Entry<String, String>>() {
+            int next = nextFirst(0);
+            int last = -1;
+
+            public boolean hasNext() {
+              return next < Headers.this.size;
+            }
+
+            public Entry<String, String> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              last = next;
+              next = nextFirst(next + 1);
+              return new SimpleImmutableEntry<>(names[last], joinedValue(last));
+            }
+
+            public void remove() {
+              if (last == -1) {
+                throw new IllegalStateException();
+              }
+              Headers.this.remove(names[last]);
+              // Only headers from last on have moved, and the ones before it have all been seen
+              next = nextFirst(last);
+              last = -1;
+            }
+          };
+        }
+
+        public int size() {
+          return MapView.this.size();
+        }
+      };
+    }
+  }
+}
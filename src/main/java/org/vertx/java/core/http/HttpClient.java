@@ -19,6 +19,7 @@ package org.vertx.java.core.http;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -31,13 +32,15 @@ import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+import org.jboss.netty.channel.socket.nio.NioWorker;
 import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
 import org.jboss.netty.handler.codec.http.HttpRequestEncoder;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseDecoder;
-import org.jboss.netty.handler.ssl.SslHandler;
+import org.vertx.java.core.CompletionHandler;
 import org.vertx.java.core.ConnectionPool;
+import org.vertx.java.core.Future;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.SimpleHandler;
 import org.vertx.java.core.Vertx;
@@ -45,9 +48,13 @@ import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.ws.WebSocketFrame;
 import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.net.DnsResolver;
+import org.vertx.java.core.net.LocalSocketChannelFactory;
 import org.vertx.java.core.net.NetClientBase;
+import org.vertx.java.core.net.NetMetrics;
 
 import javax.net.ssl.SSLEngine;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -69,6 +76,8 @@ public class HttpClient extends NetClientBase {
 
   private ClientBootstrap bootstrap;
   private NioClientSocketChannelFactory channelFactory;
+  private ClientBootstrap localBootstrap;
+  private LocalSocketChannelFactory localChannelFactory;
   private Map<Channel, ClientConnection> connectionMap = new ConcurrentHashMap();
   private Handler<Exception> exceptionHandler;
   private int port = 80;
@@ -162,6 +171,34 @@ public class HttpClient extends NetClientBase {
     return (HttpClient) super.setTrustStorePassword(pwd);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setSessionCacheSize(int size) {
+    return (HttpClient) super.setSessionCacheSize(size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setSessionTimeout(int seconds) {
+    return (HttpClient) super.setSessionTimeout(seconds);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setOffloadHandshakes(boolean offload) {
+    return (HttpClient) super.setOffloadHandshakes(offload);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setSendFileChunkSize(int size) {
+    return (HttpClient) super.setSendFileChunkSize(size);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -169,6 +206,13 @@ public class HttpClient extends NetClientBase {
     return (HttpClient) super.setTrustAll(trustAll);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setResolver(DnsResolver resolver) {
+    return (HttpClient) super.setResolver(resolver);
+  }
+
   /**
    * Set the port that the client will attempt to connect to on the server to {@code port}. The default value is {@code 80}<p>
    *
@@ -180,7 +224,8 @@ public class HttpClient extends NetClientBase {
   }
 
   /**
-   * Set the host that the client will attempt to connect to, to {@code host}. The default value is {@code localhost}<p>
+   * Set the host that the client will attempt to connect to, to {@code host}. The default value is {@code localhost}.
+   * With {@link #LOCAL_HOST} the client connects in memory to a server listening on the port in this JVM<p>
    *
    * @return A reference to this, so multiple invocations can be chained together.
    */
@@ -360,6 +405,69 @@ public class HttpClient extends NetClientBase {
     return (HttpClient) super.setTrafficClass(trafficClass);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setReadIdleTimeout(long timeout) {
+    return (HttpClient) super.setReadIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setWriteIdleTimeout(long timeout) {
+    return (HttpClient) super.setWriteIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setIdleTimeout(long timeout) {
+    return (HttpClient) super.setIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setMaxConnectionAge(long age) {
+    return (HttpClient) super.setMaxConnectionAge(age);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setReadRateLimit(long bytesPerSecond) {
+    return (HttpClient) super.setReadRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setWriteRateLimit(long bytesPerSecond) {
+    return (HttpClient) super.setWriteRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setAggregateReadRateLimit(long bytesPerSecond) {
+    return (HttpClient) super.setAggregateReadRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setAggregateWriteRateLimit(long bytesPerSecond) {
+    return (HttpClient) super.setAggregateWriteRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpClient setMetrics(NetMetrics metrics) {
+    return (HttpClient) super.setMetrics(metrics);
+  }
+
   void getConnection(Handler<ClientConnection> handler, long contextID) {
     pool.getConnection(handler, contextID);
   }
@@ -373,36 +481,74 @@ public class HttpClient extends NetClientBase {
     }
   }
 
-  private void internalConnect(final Handler<ClientConnection> connectHandler, final long contextID) {
+  private ClientBootstrap createBootstrap(ChannelFactory channelFactory) {
+    ClientBootstrap bootstrap = new ClientBootstrap(channelFactory);
 
-    if (bootstrap == null) {
-      channelFactory = new NioClientSocketChannelFactory(
-          VertxInternal.instance.getAcceptorPool(),
-          VertxInternal.instance.getWorkerPool());
-      bootstrap = new ClientBootstrap(channelFactory);
+    checkSSL();
 
-      checkSSL();
+    bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+      public ChannelPipeline getPipeline() throws Exception {
+        ChannelPipeline pipeline = Channels.pipeline();
+        if (ssl) {
+          // Telling the engine the host and port lets the SSL context resume a session with the server
+          SSLEngine engine = context.createSSLEngine(host, port);
+          engine.setUseClientMode(true); //We are on the client side of the connection
+          addSSLHandler(pipeline, engine);
+        }
+        pipeline.addLast("encoder", new HttpRequestEncoder());
+        pipeline.addLast("decoder", new HttpResponseDecoder());
+        pipeline.addLast("handler", new ClientHandler());
+        addTrafficShapingHandler(pipeline);
+        addMetricsHandler(pipeline, null);
+        addIdleTimeoutHandler(pipeline);
+        return pipeline;
+      }
+    });
+    return bootstrap;
+  }
 
-      bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
-        public ChannelPipeline getPipeline() throws Exception {
-          ChannelPipeline pipeline = Channels.pipeline();
-          if (ssl) {
-            SSLEngine engine = context.createSSLEngine();
-            engine.setUseClientMode(true); //We are on the client side of the connection
-            pipeline.addLast("ssl", new SslHandler(engine));
+  private void internalConnect(final Handler<ClientConnection> connectHandler, final long contextID) {
+    if (LOCAL_HOST.equals(host)) {
+      internalConnect(InetSocketAddress.createUnresolved(host, port), connectHandler, contextID);
+    } else {
+      // Resolved without blocking the event loop, cached names are resolved straight away
+      resolver.resolve(host).handler(new CompletionHandler<InetAddress>() {
+        public void handle(Future<InetAddress> result) {
+          if (result.succeeded()) {
+            internalConnect(new InetSocketAddress(result.result(), port), connectHandler, contextID);
+          } else {
+            connectFailed(result.exception());
           }
-          pipeline.addLast("encoder", new HttpRequestEncoder());
-          pipeline.addLast("decoder", new HttpResponseDecoder());
-          pipeline.addLast("handler", new ClientHandler());
-          return pipeline;
         }
       });
     }
+  }
+
+  private void internalConnect(InetSocketAddress address, final Handler<ClientConnection> connectHandler,
+                               final long contextID) {
+    final boolean local = address.isUnresolved();
+    if (local && localBootstrap == null) {
+      localChannelFactory = new LocalSocketChannelFactory();
+      localBootstrap = createBootstrap(localChannelFactory);
+    } else if (!local && bootstrap == null) {
+      channelFactory = new NioClientSocketChannelFactory(
+          VertxInternal.instance.getAcceptorPool(),
+          VertxInternal.instance.getWorkerPool());
+      bootstrap = createBootstrap(channelFactory);
+    }
 
     //Client connections share context with caller
-    channelFactory.setWorker(VertxInternal.instance.getWorkerForContextID(contextID));
-    bootstrap.setOptions(connectionOptions);
-    ChannelFuture future = bootstrap.connect(new InetSocketAddress(host, port));
+    NioWorker worker = VertxInternal.instance.getWorkerForContextID(contextID);
+    ChannelFuture future;
+    if (local) {
+      localChannelFactory.setWorker(worker);
+      localBootstrap.setOptions(getClientOptions());
+      future = localBootstrap.connect(address);
+    } else {
+      channelFactory.setWorker(worker);
+      bootstrap.setOptions(getClientOptions());
+      future = bootstrap.connect(address);
+    }
     future.addListener(new ChannelFutureListener() {
       public void operationComplete(ChannelFuture channelFuture) throws Exception {
         if (channelFuture.isSuccess()) {
@@ -419,29 +565,35 @@ public class HttpClient extends NetClientBase {
                   pool.connectionClosed();
                 }
               });
+              // Attached so the handler finds the connection without a map lookup. The map is only used by close()
+              ch.getPipeline().getContext("handler").setAttachment(conn);
               connectionMap.put(ch, conn);
               VertxInternal.instance.setContextID(contextID);
               connectHandler.handle(conn);
             }
           });
         } else {
-          Throwable t = channelFuture.getCause();
-          if (t instanceof Exception && exceptionHandler != null) {
-            exceptionHandler.handle((Exception) t);
-          } else {
-            log.error("Unhandled exception", t);
-          }
+          connectFailed(channelFuture.getCause());
         }
       }
     });
   }
 
+  private void connectFailed(Throwable t) {
+    if (t instanceof Exception && exceptionHandler != null) {
+      exceptionHandler.handle((Exception) t);
+    } else {
+      log.error("Unhandled exception", t);
+    }
+  }
+
   private class ClientHandler extends SimpleChannelUpstreamHandler {
 
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final ClientConnection conn = connectionMap.remove(ch);
+      connectionMap.remove(ch);
+      final ClientConnection conn = (ClientConnection) ctx.getAttachment();
       if (conn != null) {
         runOnCorrectThread(ch, new Runnable() {
           public void run() {
@@ -454,7 +606,7 @@ public class HttpClient extends NetClientBase {
     @Override
     public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final ClientConnection conn = connectionMap.get(ch);
+      final ClientConnection conn = (ClientConnection) ctx.getAttachment();
       runOnCorrectThread(ch, new Runnable() {
         public void run() {
           conn.handleInterestedOpsChanged();
@@ -465,7 +617,7 @@ public class HttpClient extends NetClientBase {
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final ClientConnection conn = connectionMap.get(ch);
+      final ClientConnection conn = (ClientConnection) ctx.getAttachment();
       final Throwable t = e.getCause();
       if (conn != null && t instanceof Exception) {
         runOnCorrectThread(ch, new Runnable() {
@@ -481,8 +633,7 @@ public class HttpClient extends NetClientBase {
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
 
-      Channel ch = e.getChannel();
-      ClientConnection conn = connectionMap.get(ch);
+      ClientConnection conn = (ClientConnection) ctx.getAttachment();
       Object msg = e.getMessage();
       if (msg instanceof HttpResponse) {
 
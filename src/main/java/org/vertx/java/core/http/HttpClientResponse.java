@@ -22,7 +22,6 @@ import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.streams.ReadStream;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -98,11 +97,12 @@ public class HttpClientResponse implements ReadStream {
   /**
    * Returns a map of all headers in the response, If the response contains multiple headers with the same key, the values
    * will be concatenated together into a single header with the same key value, with each value separated by a comma, as specified
-   * <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2">here</a>.
+   * <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2">here</a>. Header names are looked up in
+   * the map case-insensitively.
    */
   public Map<String, String> getHeaders() {
     if (headers == null) {
-      headers = HeaderUtils.simplifyHeaders(response.getHeaders());
+      headers = Headers.from(response.getHeaders()).asMap();
     }
     return headers;
   }
@@ -116,9 +116,9 @@ public class HttpClientResponse implements ReadStream {
   public Map<String, String> getTrailers() {
     if (trailers == null) {
       if (trailer == null) {
-        trailers = new HashMap<>();
+        trailers = new Headers().asMap();
       } else {
-        trailers = HeaderUtils.simplifyHeaders(trailer.getHeaders());
+        trailers = Headers.from(trailer.getHeaders()).asMap();
       }
     }
     return trailers;
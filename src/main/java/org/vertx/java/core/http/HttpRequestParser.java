@@ -0,0 +1,316 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.http;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunkTrailer;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * Decodes the HTTP requests received by an {@link HttpServer} into {@link LazyHttpRequest} and {@link HttpChunk}
+ * instances. It produces the same messages as Netty's {@link org.jboss.netty.handler.codec.http.HttpRequestDecoder}
+ * with its default limits, but it only finds where the request head ends - the request line and headers are decoded
+ * later, if they are used.<p>
+ * Request bodies are passed on as slices of the received buffers rather than copies. Unlike
+ * {@link org.jboss.netty.handler.codec.frame.FrameDecoder} this never compacts the bytes it has received, as requests
+ * and slices which have already been passed on still refer to them.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class HttpRequestParser extends SimpleChannelUpstreamHandler {
+
+  private static final int MAX_HEAD_SIZE = 4096 + 8192;
+  private static final int MAX_CHUNK_SIZE = 8192;
+  private static final int MAX_LINE_LENGTH = 4096;
+
+  private enum State {
+    READ_HEAD, READ_CONTENT, READ_CONTENT_AS_CHUNKS, READ_CHUNK_SIZE, READ_CHUNK_DATA, READ_CHUNK_END, READ_TRAILER
+  }
+
+  private State state = State.READ_HEAD;
+  // A request which is waiting for its content
+  private LazyHttpRequest request;
+  // Bytes left of the content or of the current chunk
+  private long remaining;
+  // How far we have already looked for the end of the current head
+  private int scanned;
+  // Received bytes which haven't been decoded yet
+  private ChannelBuffer leftover;
+
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    if (!(e.getMessage() instanceof ChannelBuffer)) {
+      ctx.sendUpstream(e);
+      return;
+    }
+    ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+    if (leftover != null) {
+      ChannelBuffer input = buffer;
+      buffer = ChannelBuffers.buffer(leftover.readableBytes() + input.readableBytes());
+      buffer.writeBytes(leftover);
+      buffer.writeBytes(input);
+      leftover = null;
+    }
+    while (buffer.readable()) {
+      int readerIndex = buffer.readerIndex();
+      Object msg = decode(buffer);
+      if (msg instanceof Object[]) {
+        for (Object m : (Object[]) msg) {
+          Channels.fireMessageReceived(ctx, m, e.getRemoteAddress());
+        }
+      } else if (msg != null) {
+        Channels.fireMessageReceived(ctx, msg, e.getRemoteAddress());
+      } else if (buffer.readerIndex() == readerIndex) {
+        // Need more bytes
+        leftover = buffer;
+        break;
+      }
+    }
+  }
+
+  private Object decode(ChannelBuffer buffer) throws Exception {
+    switch (state) {
+      case READ_HEAD: {
+        return readHead(buffer);
+      }
+      case READ_CONTENT: {
+        if (buffer.readableBytes() < remaining) {
+          return null;
+        }
+        LazyHttpRequest req = request;
+        request = null;
+        req.setContent(buffer.readSlice((int) remaining));
+        state = State.READ_HEAD;
+        return req;
+      }
+      case READ_CONTENT_AS_CHUNKS: {
+        HttpChunk chunk = readChunk(buffer);
+        if (remaining == 0) {
+          state = State.READ_HEAD;
+          return new Object[] { chunk, HttpChunk.LAST_CHUNK };
+        }
+        return chunk;
+      }
+      case READ_CHUNK_SIZE: {
+        int eol = findEndOfLine(buffer);
+        if (eol == -1) {
+          return null;
+        }
+        int size = chunkSize(buffer, buffer.readerIndex(), eol);
+        buffer.readerIndex(eol + 1);
+        if (size == 0) {
+          state = State.READ_TRAILER;
+        } else {
+          remaining = size;
+          state = State.READ_CHUNK_DATA;
+        }
+        return null;
+      }
+      case READ_CHUNK_DATA: {
+        HttpChunk chunk = readChunk(buffer);
+        if (remaining == 0) {
+          state = State.READ_CHUNK_END;
+        }
+        return chunk;
+      }
+      case READ_CHUNK_END: {
+        int eol = findEndOfLine(buffer);
+        if (eol == -1) {
+          return null;
+        }
+        buffer.readerIndex(eol + 1);
+        state = State.READ_CHUNK_SIZE;
+        return null;
+      }
+      case READ_TRAILER: {
+        return readTrailer(buffer);
+      }
+      default: {
+        throw new IllegalStateException("Unexpected state " + state);
+      }
+    }
+  }
+
+  private Object readHead(ChannelBuffer buffer) throws Exception {
+    if (scanned == 0) {
+      // Skip any line breaks left after the previous request, as HttpRequestDecoder does
+      while (buffer.readable()) {
+        byte b = buffer.getByte(buffer.readerIndex());
+        if (b != '\r' && b != '\n') {
+          break;
+        }
+        buffer.skipBytes(1);
+      }
+    }
+    int start = buffer.readerIndex();
+    int end = findEndOfHead(buffer, start + scanned);
+    if (end == -1) {
+      if (buffer.readableBytes() > MAX_HEAD_SIZE) {
+        throw new TooLongFrameException("HTTP request head is larger than " + MAX_HEAD_SIZE + " bytes.");
+      }
+      // Next time, start looking again just before the end, as the terminating line break may be split
+      scanned = Math.max(0, buffer.readableBytes() - 3);
+      return null;
+    }
+    scanned = 0;
+
+    LazyHttpRequest req;
+    if (buffer.hasArray()) {
+      // Received buffers are never reused, so the request can keep referring to the bytes in place
+      req = new LazyHttpRequest(buffer.array(), buffer.arrayOffset() + start, end - start);
+    } else {
+      byte[] bytes = new byte[end - start];
+      buffer.getBytes(start, bytes);
+      req = new LazyHttpRequest(bytes, 0, bytes.length);
+    }
+    buffer.readerIndex(end);
+
+    String transferEncoding = req.getHeader(HttpHeaders.Names.TRANSFER_ENCODING);
+    if (transferEncoding != null && transferEncoding.toLowerCase().contains(HttpHeaders.Values.CHUNKED)) {
+      req.setChunked(true);
+      state = State.READ_CHUNK_SIZE;
+      return req;
+    }
+    long contentLength = HttpHeaders.getContentLength(req, 0);
+    if (contentLength <= 0) {
+      return req;
+    }
+    remaining = contentLength;
+    if (contentLength > MAX_CHUNK_SIZE || HttpHeaders.is100ContinueExpected(req)) {
+      // Send the request on now and the content as chunks as it arrives
+      req.setChunked(true);
+      state = State.READ_CONTENT_AS_CHUNKS;
+      return req;
+    }
+    if (buffer.readableBytes() >= contentLength) {
+      req.setContent(buffer.readSlice((int) contentLength));
+      return req;
+    }
+    request = req;
+    state = State.READ_CONTENT;
+    return null;
+  }
+
+  private HttpChunk readChunk(ChannelBuffer buffer) {
+    int size = (int) Math.min(Math.min(remaining, MAX_CHUNK_SIZE), buffer.readableBytes());
+    remaining -= size;
+    return new DefaultHttpChunk(buffer.readSlice(size));
+  }
+
+  private Object readTrailer(ChannelBuffer buffer) throws Exception {
+    int start = buffer.readerIndex();
+    int eol = findEndOfLine(buffer);
+    if (eol == -1) {
+      return null;
+    }
+    if (eol == start || (eol == start + 1 && buffer.getByte(start) == '\r')) {
+      // No trailer
+      buffer.readerIndex(eol + 1);
+      state = State.READ_HEAD;
+      return HttpChunk.LAST_CHUNK;
+    }
+    int end = findEndOfHead(buffer, start);
+    if (end == -1) {
+      if (buffer.readableBytes() > MAX_HEAD_SIZE) {
+        throw new TooLongFrameException("HTTP chunk trailer is larger than " + MAX_HEAD_SIZE + " bytes.");
+      }
+      return null;
+    }
+    // Trailers are rare, so we just decode them as Strings
+    HttpChunkTrailer trailer = new DefaultHttpChunkTrailer();
+    String[] lines = buffer.toString(start, end - start, LazyHttpRequest.ISO_8859_1).split("\r?\n");
+    String name = null;
+    String value = null;
+    for (String line : lines) {
+      if (!line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t') && name != null) {
+        value = value + ' ' + line.trim();
+        continue;
+      }
+      if (name != null) {
+        trailer.addHeader(name, value);
+        name = null;
+      }
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        name = line.substring(0, colon).trim();
+        value = line.substring(colon + 1).trim();
+      }
+    }
+    if (name != null) {
+      trailer.addHeader(name, value);
+    }
+    buffer.readerIndex(end);
+    state = State.READ_HEAD;
+    return trailer;
+  }
+
+  /*
+  Returns the index just after the empty line which ends a head, or -1 if it hasn't all been received yet
+   */
+  private static int findEndOfHead(ChannelBuffer buffer, int from) {
+    int to = buffer.writerIndex();
+    for (int i = buffer.indexOf(from, to, (byte) '\n'); i != -1; i = buffer.indexOf(i + 1, to, (byte) '\n')) {
+      if (i + 1 < to && buffer.getByte(i + 1) == '\n') {
+        return i + 2;
+      }
+      if (i + 2 < to && buffer.getByte(i + 1) == '\r' && buffer.getByte(i + 2) == '\n') {
+        return i + 3;
+      }
+    }
+    return -1;
+  }
+
+  private static int findEndOfLine(ChannelBuffer buffer) throws TooLongFrameException {
+    int eol = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte) '\n');
+    if (eol == -1 && buffer.readableBytes() > MAX_LINE_LENGTH) {
+      throw new TooLongFrameException("HTTP chunk size line is larger than " + MAX_LINE_LENGTH + " bytes.");
+    }
+    return eol;
+  }
+
+  private static int chunkSize(ChannelBuffer buffer, int start, int end) {
+    long size = 0;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      int c = buffer.getByte(i);
+      int digit = Character.digit(c, 16);
+      if (digit == -1) {
+        if (c == ';' || c == ' ' || c == '\t' || c == '\r') {
+          break;
+        }
+        throw new NumberFormatException("Invalid HTTP chunk size");
+      }
+      size = size * 16 + digit;
+      if (size > Integer.MAX_VALUE) {
+        throw new NumberFormatException("HTTP chunk size too large");
+      }
+      digits++;
+    }
+    if (digits == 0) {
+      throw new NumberFormatException("Invalid HTTP chunk size");
+    }
+    return (int) size;
+  }
+}
@@ -18,7 +18,6 @@ package org.vertx.java.core.http;
 
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -32,15 +31,12 @@ import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.ChannelGroupFuture;
 import org.jboss.netty.channel.group.ChannelGroupFutureListener;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
-import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioSocketChannel;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
-import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
-import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.http.ws.Handshake;
@@ -50,6 +46,7 @@ import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.net.HandlerHolder;
 import org.vertx.java.core.net.HandlerManager;
+import org.vertx.java.core.net.NetMetrics;
 import org.vertx.java.core.net.NetServerBase;
 import org.vertx.java.core.net.NetServerWorkerPool;
 import org.vertx.java.core.net.ServerID;
@@ -86,6 +83,7 @@ public class HttpServer extends NetServerBase {
   private Map<Channel, ServerConnection> connectionMap = new ConcurrentHashMap();
   private ChannelGroup serverChannelGroup;
   private boolean listening;
+  private int pipelineDepth = 1;
 
   private ServerID id;
   private HttpServer actualServer;
@@ -124,6 +122,32 @@ public class HttpServer extends NetServerBase {
     return this;
   }
 
+  /**
+   * Set the maximum number of pipelined requests on a connection that will be passed to the request handler before
+   * their responses have been written. The default is {@code 1}, so a request is not handled until the response to
+   * the previous request on the connection has ended.<p>
+   * With a larger depth, requests that a client pipelines are handled straight away and can be processed concurrently.
+   * Responses are still written in the order the requests were received: anything written to a response is held
+   * in memory until the responses to all the earlier requests have been written.
+   *
+   * @return a reference to this, so methods can be chained.
+   */
+  public HttpServer setPipelineDepth(int depth) {
+    checkThread();
+    if (depth < 1) {
+      throw new IllegalArgumentException("Invalid pipeline depth: " + depth);
+    }
+    this.pipelineDepth = depth;
+    return this;
+  }
+
+  /**
+   * @return the maximum number of pipelined requests on a connection that are handled concurrently
+   */
+  public int getPipelineDepth() {
+    return pipelineDepth;
+  }
+
   /**
    * Tell the server to start listening on all interfaces and port {@code port}
    *
@@ -155,11 +179,8 @@ public class HttpServer extends NetServerBase {
       HttpServer shared = servers.get(id);
       if (shared == null) {
         serverChannelGroup = new DefaultChannelGroup("vertx-acceptor-channels");
-        ChannelFactory factory =
-            new NioServerSocketChannelFactory(
-                VertxInternal.instance.getAcceptorPool(),
-                availableWorkers);
-        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        ServerBootstrap bootstrap = new ServerBootstrap(createChannelFactory(availableWorkers));
+        startAcceptLimiter(id);
         bootstrap.setOptions(connectionOptions);
 
         checkSSL();
@@ -167,6 +188,7 @@ public class HttpServer extends NetServerBase {
         bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
           public ChannelPipeline getPipeline() {
             ChannelPipeline pipeline = Channels.pipeline();
+            limitAccept(pipeline);
 
             if (ssl) {
               SSLEngine engine = context.createSSLEngine();
@@ -185,21 +207,24 @@ public class HttpServer extends NetServerBase {
                   break;
                 }
               }
-              pipeline.addLast("ssl", new SslHandler(engine));
+              addSSLHandler(pipeline, engine);
             }
 
-            pipeline.addLast("decoder", new HttpRequestDecoder());
+            pipeline.addLast("decoder", new HttpRequestParser());
             pipeline.addLast("encoder", new HttpResponseEncoder());
 
             pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());       // For large file / sendfile support
             pipeline.addLast("handler", new ServerHandler());
+            addTrafficShapingHandler(pipeline);
+            addMetricsHandler(pipeline, id);
+            addIdleTimeoutHandler(pipeline);
             return pipeline;
           }
         });
 
         try {
-          Channel serverChannel = bootstrap.bind(new InetSocketAddress(InetAddress.getByName(host), port));
-          serverChannelGroup.add(serverChannel);
+          bind(bootstrap, serverChannelGroup, new InetSocketAddress(InetAddress.getByName(host), port),
+              availableWorkers);
         } catch (UnknownHostException e) {
           e.printStackTrace();
         }
@@ -259,6 +284,38 @@ public class HttpServer extends NetServerBase {
     return (HttpServer) super.setTrustStorePassword(pwd);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setSessionCacheSize(int size) {
+    checkThread();
+    return (HttpServer) super.setSessionCacheSize(size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setSessionTimeout(int seconds) {
+    checkThread();
+    return (HttpServer) super.setSessionTimeout(seconds);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setOffloadHandshakes(boolean offload) {
+    checkThread();
+    return (HttpServer) super.setOffloadHandshakes(offload);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setSendFileChunkSize(int size) {
+    checkThread();
+    return (HttpServer) super.setSendFileChunkSize(size);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -267,6 +324,38 @@ public class HttpServer extends NetServerBase {
     return (HttpServer) super.setClientAuthRequired(required);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setAcceptors(int acceptors) {
+    checkThread();
+    return (HttpServer) super.setAcceptors(acceptors);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setMaxConnections(int maxConnections) {
+    checkThread();
+    return (HttpServer) super.setMaxConnections(maxConnections);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setAcceptRate(int acceptRate) {
+    checkThread();
+    return (HttpServer) super.setAcceptRate(acceptRate);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setAcceptLocal(boolean acceptLocal) {
+    checkThread();
+    return (HttpServer) super.setAcceptLocal(acceptLocal);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -323,6 +412,91 @@ public class HttpServer extends NetServerBase {
     return (HttpServer) super.setTrafficClass(trafficClass);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setReadIdleTimeout(long timeout) {
+    checkThread();
+    return (HttpServer) super.setReadIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setWriteIdleTimeout(long timeout) {
+    checkThread();
+    return (HttpServer) super.setWriteIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setIdleTimeout(long timeout) {
+    checkThread();
+    return (HttpServer) super.setIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setMaxConnectionAge(long age) {
+    checkThread();
+    return (HttpServer) super.setMaxConnectionAge(age);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setReadRateLimit(long bytesPerSecond) {
+    checkThread();
+    return (HttpServer) super.setReadRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setWriteRateLimit(long bytesPerSecond) {
+    checkThread();
+    return (HttpServer) super.setWriteRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   * If this server shares its port with other servers, the limits of the first server to listen apply to all the
+   * connections to the port.
+   */
+  public HttpServer setAggregateReadRateLimit(long bytesPerSecond) {
+    checkThread();
+    return (HttpServer) super.setAggregateReadRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   * If this server shares its port with other servers, the limits of the first server to listen apply to all the
+   * connections to the port.
+   */
+  public HttpServer setAggregateWriteRateLimit(long bytesPerSecond) {
+    checkThread();
+    return (HttpServer) super.setAggregateWriteRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public HttpServer setMetrics(NetMetrics metrics) {
+    checkThread();
+    return (HttpServer) super.setMetrics(metrics);
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   * If this server shares its port with other servers, the timeouts of the first server to listen apply, and this
+   * returns the number of connections closed for the port as a whole.
+   */
+  public long getIdleCloses() {
+    return actualServer == null ? super.getIdleCloses() : actualServer.idleCloses.get();
+  }
+
   /**
    * Close the server. Any open HTTP connections will be closed.
    */
@@ -362,6 +536,7 @@ public class HttpServer extends NetServerBase {
     for (ServerConnection conn : connectionMap.values()) {
       conn.internalClose();
     }
+    stopAcceptLimiter();
     ChannelGroupFuture fut = serverChannelGroup.close();
     if (done != null) {
       fut.addListener(new ChannelGroupFutureListener() {
@@ -411,6 +586,7 @@ public class HttpServer extends NetServerBase {
               ServerConnection conn = new ServerConnection(ch, wsHandler.contextID, ch.getWorker().getThread());
               conn.wsHandler(wsHandler.handler);
               conn.handleWebsocketConnect(request.getUri());
+              ctx.setAttachment(conn);
               connectionMap.put(ch, conn);
             }
 
@@ -420,12 +596,17 @@ public class HttpServer extends NetServerBase {
 
         } else {
           //HTTP request or chunk
-          ServerConnection conn = connectionMap.get(ch);
+          ServerConnection conn = (ServerConnection) ctx.getAttachment();
           if (conn == null) {
             HandlerHolder<HttpServerRequest> reqHandler = reqHandlerManager.chooseHandler(ch.getWorker());
             if (reqHandler != null) {
               conn = new ServerConnection(ch, reqHandler.contextID, ch.getWorker().getThread());
+              conn.setSendFileChunkSize(sendFileChunkSize);
+              conn.setPipelineDepth(pipelineDepth);
               conn.requestHandler(reqHandler.handler);
+              // The connection is attached to the channel so later messages find it without a map lookup. The map
+              // is only used to close all the connections when the server is closed
+              ctx.setAttachment(conn);
               connectionMap.put(ch, conn);
             }
           }
@@ -435,7 +616,7 @@ public class HttpServer extends NetServerBase {
         }
       } else {
         //Websocket frame
-        ServerConnection conn = connectionMap.get(ch);
+        ServerConnection conn = (ServerConnection) ctx.getAttachment();
         if (conn != null) {
           conn.handleMessage(msg);
         }
@@ -446,7 +627,7 @@ public class HttpServer extends NetServerBase {
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
         throws Exception {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final ServerConnection conn = connectionMap.get(ch);
+      final ServerConnection conn = (ServerConnection) ctx.getAttachment();
       ch.close();
       final Throwable t = e.getCause();
       if (conn != null && t instanceof Exception) {
@@ -468,7 +649,8 @@ public class HttpServer extends NetServerBase {
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final ServerConnection conn = connectionMap.remove(ch);
+      connectionMap.remove(ch);
+      final ServerConnection conn = (ServerConnection) ctx.getAttachment();
       if (conn != null) {
         VertxInternal.instance.executeOnContext(conn.getContextID(), new Runnable() {
           public void run() {
@@ -480,8 +662,7 @@ public class HttpServer extends NetServerBase {
 
     @Override
     public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-      final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final ServerConnection conn = connectionMap.get(ch);
+      final ServerConnection conn = (ServerConnection) ctx.getAttachment();
       ChannelState state = e.getState();
       if (state == ChannelState.INTEREST_OPS) {
         VertxInternal.instance.executeOnContext(conn.getContextID(), new Runnable() {
@@ -18,14 +18,16 @@ package org.vertx.java.core.http;
 
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
-import org.jboss.netty.handler.codec.http.QueryStringDecoder;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.streams.ReadStream;
 
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -51,36 +53,29 @@ public class HttpServerRequest implements ReadStream {
   private Handler<Void> endHandler;
   private Handler<Exception> exceptionHandler;
   private final ServerConnection conn;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   private final HttpRequest request;
-  private final Map<String, String> params;
   //Cache this for performance
   private Map<String, String> headers;
+  // The uri is only split and decoded when one of its parts is asked for
+  private int pathStart;
+  private int pathEnd = -1;
+  private int queryEnd;
+  private String path;
+  private String query;
+  private Map<String, List<String>> queryParams;
+  // Params added by a RouteMatcher. These take precedence over query params with the same name
+  private Map<String, String> routeParams;
+  private Map<String, String> params;
 
   HttpServerRequest(ServerConnection conn,
                     HttpRequest request) {
     this.method = request.getMethod().toString();
-    URI theURI;
-    try {
-      theURI = new URI(request.getUri());
-    } catch (URISyntaxException e) {
-      throw new IllegalArgumentException("Invalid uri " + request.getUri()); //Should never happen
-    }
     this.uri = request.getUri();
-    this.path = theURI.getPath();
-    this.query = theURI.getQuery();
     this.conn = conn;
     this.request = request;
     this.response = new HttpServerResponse(HttpHeaders.isKeepAlive(request), conn);
-    QueryStringDecoder queryStringDecoder = new QueryStringDecoder(uri);
-    Map<String, List<String>> prms = queryStringDecoder.getParameters();
-    if (prms.isEmpty()) {
-      params = new HashMap<>();
-    } else {
-      params = new HashMap<>(prms.size());
-      for (Map.Entry<String, List<String>> entry: prms.entrySet()) {
-        params.put(entry.getKey(), entry.getValue().get(0));
-      }
-    }
   }
 
   /**
@@ -93,15 +88,6 @@ public class HttpServerRequest implements ReadStream {
    */
   public final String uri;
 
-  /**
-   * The path part of the uri. For example /somepath/somemorepath/somresource.foo
-   */
-  public final String path;
-
-  /**
-   * The query part of the uri. For example someparam=32&someotherparam=x
-   */
-  public final String query;
 
   /**
    * The response. Each instance of this class has an {@link HttpServerResponse} instance attached to it. This is used
@@ -126,19 +112,87 @@ public class HttpServerRequest implements ReadStream {
   /**
    * Returns a map of all headers in the request, If the request contains multiple headers with the same key, the values
    * will be concatenated together into a single header with the same key value, with each value separated by a comma, as specified
-   * <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2">here</a>.
+   * <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2">here</a>. Header names are looked up in
+   * the map case-insensitively.
    */
   public Map<String, String> getHeaders() {
     if (headers == null) {
-      headers = HeaderUtils.simplifyHeaders(request.getHeaders());
+      if (request instanceof LazyHttpRequest) {
+        headers = ((LazyHttpRequest) request).headers().asMap();
+      } else {
+        headers = Headers.from(request.getHeaders()).asMap();
+      }
     }
     return headers;
   }
 
   /**
-   * Returns a map of all the parameters in the request
+   * Return the path part of the uri, with any %-escapes decoded. For example /somepath/somemorepath/somresource.foo
+   */
+  public String getPath() {
+    if (path == null) {
+      splitUri();
+      path = decode(uri.substring(pathStart, pathEnd), false);
+    }
+    return path;
+  }
+
+  /**
+   * Return the query part of the uri, with any %-escapes decoded, or null if there isn't one. For example
+   * someparam=32&someotherparam=x
+   */
+  public String getQuery() {
+    if (query == null) {
+      splitUri();
+      if (pathEnd < queryEnd) {
+        query = decode(uri.substring(pathEnd + 1, queryEnd), false);
+      }
+    }
+    return query;
+  }
+
+  /**
+   * Return the value of the parameter with the name {@code name}, or null if there is no such parameter. If the
+   * parameter has more than one value the first is returned.
+   */
+  public String getParam(String name) {
+    if (params != null) {
+      return params.get(name);
+    }
+    if (routeParams != null && routeParams.containsKey(name)) {
+      return routeParams.get(name);
+    }
+    List<String> values = getQueryParams().get(name);
+    return values == null ? null : values.get(0);
+  }
+
+  /**
+   * Return all the values of the parameter with the name {@code name}, in the order they appear in the request. If
+   * there is no such parameter an empty list is returned. The list can't be modified.
+   */
+  public List<String> getParams(String name) {
+    if (routeParams != null && routeParams.containsKey(name)) {
+      return Collections.singletonList(routeParams.get(name));
+    }
+    List<String> values = getQueryParams().get(name);
+    return values == null ? Collections.<String>emptyList() : Collections.unmodifiableList(values);
+  }
+
+  /**
+   * Returns a map of all the parameters in the request. If a parameter has more than one value the map contains the
+   * first one - use {@link #getParams(String)} to get all of them.
    */
   public Map<String, String> getParams() {
+    if (params == null) {
+      Map<String, List<String>> qparams = getQueryParams();
+      params = new HashMap<>(qparams.size() + (routeParams == null ? 0 : routeParams.size()));
+      for (Map.Entry<String, List<String>> entry: qparams.entrySet()) {
+        params.put(entry.getKey(), entry.getValue().get(0));
+      }
+      if (routeParams != null) {
+        params.putAll(routeParams);
+      }
+    }
     return params;
   }
 
@@ -186,6 +240,16 @@ public class HttpServerRequest implements ReadStream {
     this.endHandler = handler;
   }
 
+  void addParam(String name, String value) {
+    if (params != null) {
+      params.put(name, value);
+    }
+    if (routeParams == null) {
+      routeParams = new HashMap<>();
+    }
+    routeParams.put(name, value);
+  }
+
   void handleData(Buffer data) {
     if (dataHandler != null) {
       dataHandler.handle(data);
@@ -204,4 +268,115 @@ public class HttpServerRequest implements ReadStream {
     }
   }
 
+  private Map<String, List<String>> getQueryParams() {
+    if (queryParams == null) {
+      splitUri();
+      if (pathEnd == queryEnd) {
+        queryParams = Collections.emptyMap();
+      } else {
+        queryParams = new LinkedHashMap<>();
+        int start = pathEnd + 1;
+        while (start < queryEnd) {
+          int end = uri.indexOf('&', start);
+          if (end == -1 || end > queryEnd) {
+            end = queryEnd;
+          }
+          if (end > start) {
+            int eq = uri.indexOf('=', start);
+            String name;
+            String value;
+            if (eq == -1 || eq > end) {
+              name = decode(uri.substring(start, end), true);
+              value = "";
+            } else {
+              name = decode(uri.substring(start, eq), true);
+              value = decode(uri.substring(eq + 1, end), true);
+            }
+            List<String> values = queryParams.get(name);
+            if (values == null) {
+              values = new ArrayList<>(1);
+              queryParams.put(name, values);
+            }
+            values.add(value);
+          }
+          start = end + 1;
+        }
+      }
+    }
+    return queryParams;
+  }
+
+  /*
+  Find the path and query in the uri in one pass, allowing for absolute uris and fragments
+   */
+  private void splitUri() {
+    if (pathEnd != -1) {
+      return;
+    }
+    int len = uri.length();
+    int start = 0;
+    if (len > 0 && uri.charAt(0) != '/') {
+      int scheme = uri.indexOf("://");
+      if (scheme != -1) {
+        // Skip the scheme and authority
+        start = scheme + 3;
+        while (start < len && uri.charAt(start) != '/' && uri.charAt(start) != '?' && uri.charAt(start) != '#') {
+          start++;
+        }
+      }
+    }
+    int qmark = -1;
+    int end = len;
+    for (int i = start; i < len; i++) {
+      char c = uri.charAt(i);
+      if (c == '?' && qmark == -1) {
+        qmark = i;
+      } else if (c == '#') {
+        end = i;
+        break;
+      }
+    }
+    pathStart = start;
+    pathEnd = qmark == -1 ? end : qmark;
+    queryEnd = end;
+  }
+
+  /*
+  Decode %-escapes as UTF-8, and '+' as a space if plusAsSpace is true. Returns s itself if there is nothing to decode
+   */
+  private static String decode(String s, boolean plusAsSpace) {
+    int i = 0;
+    while (i < s.length() && s.charAt(i) != '%' && !(plusAsSpace && s.charAt(i) == '+')) {
+      i++;
+    }
+    if (i == s.length()) {
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(s.length());
+    sb.append(s, 0, i);
+    ByteArrayOutputStream bytes = null;
+    while (i < s.length()) {
+      char c = s.charAt(i);
+      if (c == '%' && i + 2 < s.length() && Character.digit(s.charAt(i + 1), 16) != -1 &&
+          Character.digit(s.charAt(i + 2), 16) != -1) {
+        if (bytes == null) {
+          bytes = new ByteArrayOutputStream();
+        }
+        bytes.write(Character.digit(s.charAt(i + 1), 16) * 16 + Character.digit(s.charAt(i + 2), 16));
+        i += 3;
+        continue;
+      }
+      if (bytes != null && bytes.size() > 0) {
+        sb.append(new String(bytes.toByteArray(), UTF_8));
+        bytes.reset();
+      }
+      sb.append(plusAsSpace && c == '+' ? ' ' : c);
+      i++;
+    }
+    if (bytes != null && bytes.size() > 0) {
+      sb.append(new String(bytes.toByteArray(), UTF_8));
+    }
+    return sb.toString();
+  }
+
 }
@@ -20,13 +20,7 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
-import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
-import org.jboss.netty.handler.codec.http.DefaultHttpChunkTrailer;
-import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
-import org.jboss.netty.handler.codec.http.HttpChunk;
-import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
-import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
@@ -34,13 +28,14 @@ import org.vertx.java.core.streams.WriteStream;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names;
-import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
-import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 /**
  * <p>Encapsulates a server-side HTTP response.</p>
@@ -55,6 +50,10 @@ import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
  * bypassing user space altogether (where supported by the underlying operating system). This is a very efficient way of
  * serving files from the server since buffers do not have to be read one by one from the file and written to the outgoing
  * socket.</p>
+ * <p/>
+ * <p>If the server allows pipelined requests to be processed concurrently (see {@link HttpServer#setPipelineDepth(int)})
+ * anything written to a response is held back until the responses to all earlier requests on the connection have been
+ * written, so responses are always sent in the order that the requests were received.</p>
  *
  * @author <a href="http://tfox.org">Tim Fox</a>
  */
@@ -62,8 +61,8 @@ public class HttpServerResponse implements WriteStream {
 
   private final boolean keepAlive;
   private final ServerConnection conn;
-  private final HttpResponse response;
-  private HttpChunkTrailer trailer;
+  private final Headers headers = new Headers(4);
+  private Headers trailers;
 
   private boolean headWritten;
   private ChannelFuture writeFuture;
@@ -73,11 +72,12 @@ public class HttpServerResponse implements WriteStream {
   private long contentLength;
   private long writtenBytes;
   private boolean chunked;
+  // Writes held back until the responses to earlier pipelined requests have been written
+  private List<HeldWrite> held;
 
   HttpServerResponse(boolean keepAlive, ServerConnection conn) {
     this.keepAlive = keepAlive;
     this.conn = conn;
-    this.response = new DefaultHttpResponse(HTTP_1_1, HttpResponseStatus.OK);
   }
 
   /**
@@ -120,7 +120,7 @@ public class HttpServerResponse implements WriteStream {
    */
   public HttpServerResponse putHeader(String key, Object value) {
     checkWritten();
-    response.setHeader(key, value);
+    headers.set(key, value.toString());
     checkContentLengthChunked(key, value);
     return this;
   }
@@ -134,7 +134,7 @@ public class HttpServerResponse implements WriteStream {
   public HttpServerResponse putAllHeaders(Map<String, ? extends Object> m) {
     checkWritten();
     for (Map.Entry<String, ? extends Object> entry : m.entrySet()) {
-      response.setHeader(entry.getKey(), entry.getValue().toString());
+      headers.set(entry.getKey(), entry.getValue().toString());
       checkContentLengthChunked(entry.getKey(), entry.getValue());
     }
     return this;
@@ -150,7 +150,7 @@ public class HttpServerResponse implements WriteStream {
   public HttpServerResponse putTrailer(String key, Object value) {
     checkWritten();
     checkTrailer();
-    trailer.setHeader(key, value);
+    trailers.set(key, value.toString());
     return this;
   }
 
@@ -165,7 +165,7 @@ public class HttpServerResponse implements WriteStream {
     checkWritten();
     checkTrailer();
     for (Map.Entry<String, ? extends Object> entry : m.entrySet()) {
-      trailer.setHeader(entry.getKey(), entry.getValue().toString());
+      trailers.set(entry.getKey(), entry.getValue().toString());
     }
     return this;
   }
@@ -187,7 +187,8 @@ public class HttpServerResponse implements WriteStream {
    * Data can still be written to the response even if the write queue is deemed full, however it should be used as indicator
    * to stop writing and push back on the source of the data, otherwise you risk running out of available RAM.<p>
    * This method is used by the {@link org.vertx.java.core.streams.Pump} class to pump data
-   * between different streams and perform flow control.
+   * between different streams and perform flow control.<p>
+   * Data held back until the responses to earlier pipelined requests have been written counts towards the queue.
    *
    * @return {@code true} if the write queue is full, {@code false} otherwise
    */
@@ -303,7 +304,6 @@ public class HttpServerResponse implements WriteStream {
   public void end(Buffer chunk) {
     if (!chunked && contentLength == 0) {
       contentLength = chunk.length();
-      response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(contentLength));
     }
     write(chunk);
     end();
@@ -316,22 +316,17 @@ public class HttpServerResponse implements WriteStream {
    */
   public void end() {
     checkWritten();
-    writeHead();
     if (chunked) {
-      HttpChunk nettyChunk;
-      if (trailer == null) {
-        nettyChunk = new DefaultHttpChunk(ChannelBuffers.EMPTY_BUFFER);
-      } else {
-        nettyChunk = trailer;
-      }
-      writeFuture = conn.write(nettyChunk);
+      writeFuture = writeWithHead(ServerResponseEncoder.encodeLastChunk(trailers));
+    } else if (!headWritten) {
+      writeFuture = writeWithHead(ChannelBuffers.EMPTY_BUFFER);
     }
     // Close the non-keep-alive connection after the write operation is done.
     if (!keepAlive) {
       writeFuture.addListener(ChannelFutureListener.CLOSE);
     }
     written = true;
-    conn.responseComplete();
+    conn.responseComplete(this);
   }
 
   /**
@@ -347,23 +342,23 @@ public class HttpServerResponse implements WriteStream {
     File file = new File(filename);
 
     if (!file.exists()) {
-      HttpResponse response = new DefaultHttpResponse(HTTP_1_1, HttpResponseStatus.NOT_FOUND);
-      writeFuture = conn.write(response);
+      writeFuture = write(ServerResponseEncoder.encodeHead(HttpResponseStatus.NOT_FOUND.getCode(), null, new Headers(1),
+          false, 0, keepAlive));
     } else {
-      HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
-      response.setHeader(Names.CONTENT_LENGTH, String.valueOf(file.length()));
+      Headers fileHeaders = new Headers(2);
       try {
         String contenttype = Files.probeContentType(Paths.get(filename));
         if (contenttype != null) {
-          response.setHeader(Names.CONTENT_TYPE, contenttype);
+          fileHeaders.add(Names.CONTENT_TYPE, contenttype);
         }
       } catch (IOException e) {
         e.printStackTrace();
       }
 
-      conn.write(response);
+      write(ServerResponseEncoder.encodeHead(HttpResponseStatus.OK.getCode(), null, fileHeaders, false, file.length(),
+          keepAlive));
 
-      writeFuture = conn.sendFile(file);
+      writeFuture = write(file);
     }
 
     // Close the non-keep-alive connection after the write operation is done.
@@ -371,7 +366,7 @@ public class HttpServerResponse implements WriteStream {
       writeFuture.addListener(ChannelFutureListener.CLOSE);
     }
     headWritten = written = true;
-    conn.responseComplete();
+    conn.responseComplete(this);
 
     return this;
   }
@@ -382,6 +377,46 @@ public class HttpServerResponse implements WriteStream {
     }
   }
 
+  /*
+  Called by the connection when this response reaches the head of the queue. Returns true if the response has been
+  completely written
+   */
+  boolean writeHeld() {
+    if (held != null) {
+      long bytes = 0;
+      for (final HeldWrite hw : held) {
+        bytes += hw.bytes;
+        ChannelFuture future = hw.msg instanceof File ? conn.sendFile((File) hw.msg) : conn.write(hw.msg);
+        future.addListener(new ChannelFutureListener() {
+          public void operationComplete(ChannelFuture future) throws Exception {
+            if (future.isSuccess()) {
+              hw.future.setSuccess();
+            } else {
+              hw.future.setFailure(future.getCause());
+            }
+          }
+        });
+      }
+      held = null;
+      conn.bytesReleased(bytes);
+    }
+    return written;
+  }
+
+  /*
+  Called by the connection if it closes before this response reaches the head of the queue
+   */
+  void handleClosed() {
+    if (held != null) {
+      Exception e = new ClosedChannelException();
+      for (HeldWrite hw : held) {
+        hw.future.setFailure(e);
+      }
+      held = null;
+      handleException(e);
+    }
+  }
+
   void handleException(Exception e) {
     if (exceptionHandler != null) {
       exceptionHandler.handle(e);
@@ -389,7 +424,7 @@ public class HttpServerResponse implements WriteStream {
   }
 
   private void checkTrailer() {
-    if (trailer == null) trailer = new DefaultHttpChunkTrailer();
+    if (trailers == null) trailers = new Headers(4);
   }
 
   private void checkWritten() {
@@ -399,27 +434,25 @@ public class HttpServerResponse implements WriteStream {
   }
 
   private void checkContentLengthChunked(String key, Object value) {
-    if (key.equals(HttpHeaders.Names.CONTENT_LENGTH)) {
+    if (key.equalsIgnoreCase(Names.CONTENT_LENGTH)) {
       contentLength = Integer.parseInt(value.toString());
       chunked = false;
-    } else if (key.equals(HttpHeaders.Names.TRANSFER_ENCODING) && value.equals(HttpHeaders.Values.CHUNKED)) {
+    } else if (key.equalsIgnoreCase(Names.TRANSFER_ENCODING) && value.equals(HttpHeaders.Values.CHUNKED)) {
       chunked = true;
     }
   }
 
-  private void writeHead() {
+  /*
+  Write buff, preceded by the head of the response if it hasn't been written yet
+   */
+  private ChannelFuture writeWithHead(ChannelBuffer buff) {
     if (!headWritten) {
-      HttpResponseStatus status = statusMessage == null ? HttpResponseStatus.valueOf(statusCode) :
-          new HttpResponseStatus(statusCode, statusMessage);
-      response.setStatus(status);
-      if (chunked) {
-        response.setHeader(Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
-      } else if (contentLength == 0) {
-        response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, "0");
-      }
-      writeFuture = conn.write(response);
+      ChannelBuffer head = ServerResponseEncoder.encodeHead(statusCode, statusMessage, headers, chunked, contentLength,
+          keepAlive);
+      buff = buff.readable() ? ChannelBuffers.wrappedBuffer(head, buff) : head;
       headWritten = true;
     }
+    return write(buff);
   }
 
   private HttpServerResponse write(ChannelBuffer chunk, final Handler<Void> doneHandler) {
@@ -431,12 +464,37 @@ public class HttpServerResponse implements WriteStream {
           + "Current written: " + written + " Current Content-Length: " + contentLength);
     }
 
-    writeHead();
-    Object msg = chunked ? new DefaultHttpChunk(chunk) : chunk;
-    writeFuture = conn.write(msg);
+    writeFuture = writeWithHead(chunked ? ServerResponseEncoder.encodeChunk(chunk) : chunk);
     if (doneHandler != null) {
       conn.addFuture(doneHandler, writeFuture);
     }
     return this;
   }
+
+  private ChannelFuture write(Object msg) {
+    if (held == null && conn.isCurrentResponse(this)) {
+      return msg instanceof File ? conn.sendFile((File) msg) : conn.write(msg);
+    } else {
+      if (held == null) {
+        held = new ArrayList<>();
+      }
+      HeldWrite hw = new HeldWrite(msg, conn.newFuture());
+      held.add(hw);
+      conn.bytesHeld(hw.bytes);
+      return hw.future;
+    }
+  }
+
+  private static class HeldWrite {
+    final Object msg;
+    final ChannelFuture future;
+    // Files aren't read into memory until they're sent, so only buffers count towards the write queue
+    final int bytes;
+
+    HeldWrite(Object msg, ChannelFuture future) {
+      this.msg = msg;
+      this.future = future;
+      this.bytes = msg instanceof ChannelBuffer ? ((ChannelBuffer) msg).readableBytes() : 0;
+    }
+  }
 }
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.http;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An {@link HttpRequest} which keeps its request line and headers as ranges of the bytes they were received in, and
+ * only decodes them into Strings when they are asked for. Header lookups compare bytes case-insensitively, so looking
+ * up a header doesn't decode any of the others.<p>
+ * Instances are created by {@link HttpRequestParser}. If a request is modified it is copied into a
+ * {@link DefaultHttpRequest} which is used from then on.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class LazyHttpRequest implements HttpRequest {
+
+  static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  private static final HttpMethod[] METHODS = {HttpMethod.GET, HttpMethod.POST, HttpMethod.PUT, HttpMethod.DELETE,
+      HttpMethod.HEAD, HttpMethod.OPTIONS, HttpMethod.TRACE, HttpMethod.CONNECT, HttpMethod.PATCH};
+
+  private final byte[] bytes;
+  private final int methodStart;
+  private final int methodEnd;
+  private final int uriStart;
+  private final int uriEnd;
+  private final int versionStart;
+  private final int versionEnd;
+  // Four entries per header: the start and end of the name, then the start and end of the value
+  private final int[] ranges;
+  // Case-insensitive hash of each header name
+  private final int[] hashes;
+  private final int headerCount;
+
+  private HttpMethod method;
+  private String uri;
+  private HttpVersion version;
+  private String[] values;
+  private ChannelBuffer content = ChannelBuffers.EMPTY_BUFFER;
+  private boolean chunked;
+  private HttpRequest copy;
+
+  /*
+  Parse the request head in bytes[offset, offset + length), which must end with an empty line
+   */
+  LazyHttpRequest(byte[] bytes, int offset, int length) {
+    this.bytes = bytes;
+    int end = offset + length;
+    int lineEnd = lineEnd(offset, end);
+    int limit = trimEnd(offset, lineEnd);
+    methodStart = skipWhitespace(offset, limit);
+    methodEnd = findWhitespace(methodStart, limit);
+    uriStart = skipWhitespace(methodEnd, limit);
+    uriEnd = findWhitespace(uriStart, limit);
+    versionStart = skipWhitespace(uriEnd, limit);
+    versionEnd = findWhitespace(versionStart, limit);
+    if (methodStart == methodEnd || uriStart == uriEnd || versionStart == versionEnd) {
+      throw new IllegalArgumentException("Invalid HTTP request line: " + string(offset, limit));
+    }
+
+    int[] ranges = new int[64];
+    int[] hashes = new int[16];
+    int count = 0;
+    int pos = lineEnd + 1;
+    while (pos < end) {
+      lineEnd = lineEnd(pos, end);
+      limit = trimEnd(pos, lineEnd);
+      if (limit == pos && lineEnd - pos <= 1) {
+        // The empty line at the end of the head
+        break;
+      }
+      if (count > 0 && isWhitespace(bytes[pos])) {
+        // A folded header - the previous value continues on this line
+        ranges[count * 4 - 1] = limit;
+      } else {
+        int colon = pos;
+        while (colon < limit && bytes[colon] != ':') {
+          colon++;
+        }
+        int valueStart = skipWhitespace(Math.min(colon + 1, limit), limit);
+        if (count == hashes.length) {
+          ranges = Arrays.copyOf(ranges, ranges.length * 2);
+          hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        int nameEnd = trimEnd(pos, colon);
+        ranges[count * 4] = pos;
+        ranges[count * 4 + 1] = nameEnd;
+        ranges[count * 4 + 2] = valueStart;
+        ranges[count * 4 + 3] = limit;
+        hashes[count] = Headers.hash(bytes, pos, nameEnd);
+        count++;
+      }
+      pos = lineEnd + 1;
+    }
+    this.ranges = ranges;
+    this.hashes = hashes;
+    this.headerCount = count;
+  }
+
+  public HttpMethod getMethod() {
+    if (copy != null) {
+      return copy.getMethod();
+    }
+    if (method == null) {
+      for (HttpMethod m : METHODS) {
+        if (equals(methodStart, methodEnd, m.getName())) {
+          return method = m;
+        }
+      }
+      method = HttpMethod.valueOf(string(methodStart, methodEnd));
+    }
+    return method;
+  }
+
+  public String getUri() {
+    if (copy != null) {
+      return copy.getUri();
+    }
+    if (uri == null) {
+      uri = string(uriStart, uriEnd);
+    }
+    return uri;
+  }
+
+  public HttpVersion getProtocolVersion() {
+    if (copy != null) {
+      return copy.getProtocolVersion();
+    }
+    if (version == null) {
+      if (equals(versionStart, versionEnd, "HTTP/1.1")) {
+        version = HttpVersion.HTTP_1_1;
+      } else if (equals(versionStart, versionEnd, "HTTP/1.0")) {
+        version = HttpVersion.HTTP_1_0;
+      } else {
+        version = HttpVersion.valueOf(string(versionStart, versionEnd));
+      }
+    }
+    return version;
+  }
+
+  public String getHeader(String name) {
+    if (copy != null) {
+      return copy.getHeader(name);
+    }
+    int i = indexOf(name, 0);
+    return i == -1 ? null : value(i);
+  }
+
+  public List<String> getHeaders(String name) {
+    if (copy != null) {
+      return copy.getHeaders(name);
+    }
+    List<String> list = new ArrayList<>(1);
+    for (int i = indexOf(name, 0); i != -1; i = indexOf(name, i + 1)) {
+      list.add(value(i));
+    }
+    return list;
+  }
+
+  public List<Map.Entry<String, String>> getHeaders() {
+    if (copy != null) {
+      return copy.getHeaders();
+    }
+    List<Map.Entry<String, String>> list = new ArrayList<>(headerCount);
+    for (int i = 0; i < headerCount; i++) {
+      list.add(new AbstractMap.SimpleImmutableEntry<>(name(i), value(i)));
+    }
+    return list;
+  }
+
+  public boolean containsHeader(String name) {
+    if (copy != null) {
+      return copy.containsHeader(name);
+    }
+    return indexOf(name, 0) != -1;
+  }
+
+  public Set<String> getHeaderNames() {
+    if (copy != null) {
+      return copy.getHeaderNames();
+    }
+    Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    for (int i = 0; i < headerCount; i++) {
+      names.add(name(i));
+    }
+    return names;
+  }
+
+  public ChannelBuffer getContent() {
+    return copy != null ? copy.getContent() : content;
+  }
+
+  public void setContent(ChannelBuffer content) {
+    if (copy != null) {
+      copy.setContent(content);
+    } else {
+      this.content = content == null ? ChannelBuffers.EMPTY_BUFFER : content;
+    }
+  }
+
+  public boolean isChunked() {
+    return copy != null ? copy.isChunked() : chunked;
+  }
+
+  public void setChunked(boolean chunked) {
+    if (copy != null) {
+      copy.setChunked(chunked);
+    } else {
+      this.chunked = chunked;
+    }
+  }
+
+  // Deprecated in HttpMessage in favour of HttpHeaders, but still part of it
+  @Deprecated
+  public long getContentLength() {
+    return HttpHeaders.getContentLength(this);
+  }
+
+  @Deprecated
+  public long getContentLength(long defaultValue) {
+    return HttpHeaders.getContentLength(this, defaultValue);
+  }
+
+  @Deprecated
+  public boolean isKeepAlive() {
+    return HttpHeaders.isKeepAlive(this);
+  }
+
+  public void setMethod(HttpMethod method) {
+    copy().setMethod(method);
+  }
+
+  public void setUri(String uri) {
+    copy().setUri(uri);
+  }
+
+  public void setProtocolVersion(HttpVersion version) {
+    copy().setProtocolVersion(version);
+  }
+
+  public void addHeader(String name, Object value) {
+    copy().addHeader(name, value);
+  }
+
+  public void setHeader(String name, Object value) {
+    copy().setHeader(name, value);
+  }
+
+  public void setHeader(String name, Iterable<?> values) {
+    copy().setHeader(name, values);
+  }
+
+  public void removeHeader(String name) {
+    copy().removeHeader(name);
+  }
+
+  public void clearHeaders() {
+    copy().clearHeaders();
+  }
+
+  /*
+  The headers, with the names hashed when the request was parsed
+   */
+  Headers headers() {
+    if (copy != null) {
+      return Headers.from(copy.getHeaders());
+    }
+    Headers headers = new Headers(Math.max(headerCount, 1));
+    for (int i = 0; i < headerCount; i++) {
+      headers.add(name(i), hashes[i], value(i));
+    }
+    return headers;
+  }
+
+  public String toString() {
+    return getMethod() + " " + getUri() + " " + getProtocolVersion();
+  }
+
+  private HttpRequest copy() {
+    if (copy == null) {
+      HttpRequest req = new DefaultHttpRequest(getProtocolVersion(), getMethod(), getUri());
+      for (int i = 0; i < headerCount; i++) {
+        req.addHeader(name(i), value(i));
+      }
+      req.setChunked(chunked);
+      if (!chunked) {
+        req.setContent(content);
+      }
+      copy = req;
+    }
+    return copy;
+  }
+
+  private String name(int i) {
+    int start = ranges[i * 4];
+    int end = ranges[i * 4 + 1];
+    String name = Headers.intern(bytes, start, end, hashes[i]);
+    return name != null ? name : string(start, end);
+  }
+
+  private String value(int i) {
+    if (values == null) {
+      values = new String[headerCount];
+    }
+    String value = values[i];
+    if (value == null) {
+      value = string(ranges[i * 4 + 2], ranges[i * 4 + 3]);
+      if (value.indexOf('\n') != -1) {
+        // Folded over more than one line
+        value = value.replaceAll("\\s*\\r?\\n\\s*", " ").trim();
+      }
+      values[i] = value;
+    }
+    return value;
+  }
+
+  private int indexOf(String name, int from) {
+    int hash = Headers.hash(name);
+    for (int i = from; i < headerCount; i++) {
+      if (hashes[i] == hash && Headers.equalsIgnoreCase(bytes, ranges[i * 4], ranges[i * 4 + 1], name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean equals(int start, int end, String s) {
+    if (end - start != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (bytes[start + i] != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String string(int start, int end) {
+    return new String(bytes, start, end - start, ISO_8859_1);
+  }
+
+  private int lineEnd(int pos, int end) {
+    while (pos < end && bytes[pos] != '\n') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private int trimEnd(int start, int end) {
+    while (end > start && (bytes[end - 1] == '\r' || isWhitespace(bytes[end - 1]))) {
+      end--;
+    }
+    return end;
+  }
+
+  private int skipWhitespace(int pos, int end) {
+    while (pos < end && isWhitespace(bytes[pos])) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private int findWhitespace(int pos, int end) {
+    while (pos < end && !isWhitespace(bytes[pos])) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t';
+  }
+}
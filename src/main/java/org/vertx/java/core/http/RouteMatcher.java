@@ -3,10 +3,8 @@ package org.vertx.java.core.http;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.logging.Logger;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
@@ -173,21 +171,20 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 
   private void route(HttpServerRequest request, List<PatternBinding> bindings) {
     for (PatternBinding binding: bindings) {
-      Matcher m = binding.pattern.matcher(request.path);
+      Matcher m = binding.pattern.matcher(request.getPath());
       if (m.matches()) {
-        Map<String, String> params = new HashMap<>(m.groupCount());
+        // The params are added without decoding the query string, which only happens if the handler asks for it
         if (binding.paramNames != null) {
           // Named params
           for (String param: binding.paramNames) {
-            params.put(param, m.group(param));
+            request.addParam(param, m.group(param));
           }
         } else {
           // Un-named params
           for (int i = 0; i < m.groupCount(); i++) {
-            params.put("param" + i, m.group(i + 1));
+            request.addParam("param" + i, m.group(i + 1));
           }
         }
-        request.getParams().putAll(params);
         binding.handler.handle(request);
         return;
       }
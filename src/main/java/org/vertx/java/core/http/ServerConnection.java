@@ -20,6 +20,7 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
 import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
 import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpRequest;
@@ -31,6 +32,7 @@ import org.vertx.java.core.http.ws.WebSocketFrame;
 import org.vertx.java.core.logging.Logger;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -43,7 +45,13 @@ class ServerConnection extends AbstractConnection {
   private Handler<HttpServerRequest> requestHandler;
   private Handler<Websocket> wsHandler;
   private HttpServerRequest currentRequest;
-  private boolean pendingResponse;
+  // Responses for requests that have been dispatched but not yet completely written, in request order
+  private final Queue<HttpServerResponse> responses = new ArrayDeque<>();
+  private int pipelineDepth = 1;
+  // Bytes written to responses which are held back behind earlier ones. They count towards the write queue
+  private long heldBytes;
+  private boolean heldFull;
+  private boolean closed;
   private Websocket ws;
   private boolean channelPaused;
   private boolean paused;
@@ -72,8 +80,8 @@ class ServerConnection extends AbstractConnection {
   }
 
   void handleMessage(Object msg) {
-    if (paused || (msg instanceof HttpRequest && pendingResponse) || !pending.isEmpty()) {
-      //We queue requests if paused or a request is in progress to prevent responses being written in the wrong order
+    if (paused || (msg instanceof HttpRequest && responses.size() >= pipelineDepth) || !pending.isEmpty()) {
+      //We queue requests if paused or too many requests are in progress
       pending.add(msg);
       if (pending.size() == CHANNEL_PAUSE_QUEUE_SIZE) {
         //We pause the channel too, to prevent the queue growing too large, but we don't do this
@@ -86,11 +94,55 @@ class ServerConnection extends AbstractConnection {
     }
   }
 
-  void responseComplete() {
-    pendingResponse = false;
+  /*
+  Can resp write straight to the channel? It can if it's at the head of the queue, or if the connection has closed, in
+  which case the write fails straight away
+   */
+  boolean isCurrentResponse(HttpServerResponse resp) {
+    return closed || responses.peek() == resp;
+  }
+
+  void bytesHeld(int bytes) {
+    heldBytes += bytes;
+    if (heldBytes >= config().getWriteBufferHighWaterMark()) {
+      heldFull = true;
+    }
+  }
+
+  void bytesReleased(long bytes) {
+    heldBytes -= bytes;
+    if (heldFull && heldBytes < config().getWriteBufferLowWaterMark()) {
+      heldFull = false;
+      // Call the drain handlers next time around, rather than from inside the end() that released the bytes
+      Vertx.instance.nextTick(new SimpleHandler() {
+        public void handle() {
+          handleInterestedOpsChanged();
+        }
+      });
+    }
+  }
+
+  protected boolean isWritable() {
+    return super.isWritable() && !heldFull;
+  }
+
+  void responseComplete(HttpServerResponse resp) {
+    if (responses.peek() != resp) {
+      // An earlier response is still being written - this one is flushed when it reaches the head of the queue
+      return;
+    }
+    responses.poll();
+    // Flush any later responses which were held back waiting for this one
+    while ((resp = responses.peek()) != null && resp.writeHeld()) {
+      responses.poll();
+    }
     checkNextTick();
   }
 
+  void setPipelineDepth(int depth) {
+    this.pipelineDepth = depth;
+  }
+
   void requestHandler(Handler<HttpServerRequest> handler) {
     this.requestHandler = handler;
   }
@@ -108,7 +160,7 @@ class ServerConnection extends AbstractConnection {
     setContextID();
     try {
       this.currentRequest = req;
-      pendingResponse = true;
+      responses.add(req.response);
 
       if (requestHandler != null) {
         requestHandler.handle(req);
@@ -139,12 +191,15 @@ class ServerConnection extends AbstractConnection {
 
   void handleInterestedOpsChanged() {
     try {
-      if ((channel.getInterestOps() & Channel.OP_WRITE) == Channel.OP_WRITE) {
+      if (isWritable()) {
         setContextID();
-        if (currentRequest != null) {
-          currentRequest.response.writable();
-        } else if (ws != null) {
+        if (ws != null) {
           ws.writable();
+        } else {
+          // Any of the responses in progress could be waiting to drain, not just the current request's
+          for (HttpServerResponse resp : responses.toArray(new HttpServerResponse[responses.size()])) {
+            resp.writable();
+          }
         }
       }
     } catch (Throwable t) {
@@ -177,6 +232,12 @@ class ServerConnection extends AbstractConnection {
   }
 
   protected void handleClosed() {
+    closed = true;
+    for (HttpServerResponse resp : responses) {
+      resp.handleClosed();
+    }
+    responses.clear();
+    heldBytes = 0;
     super.handleClosed();
     if (ws != null) {
       ws.handleClosed();
@@ -258,24 +319,32 @@ class ServerConnection extends AbstractConnection {
 
   private void checkNextTick() {
     // Check if there are more pending messages in the queue that can be processed next time around
-    if (!sentCheck && !pending.isEmpty() && !paused && (!pendingResponse || pending.peek() instanceof HttpChunk)) {
+    if (!sentCheck && canProcess(pending.peek())) {
       sentCheck = true;
       Vertx.instance.nextTick(new SimpleHandler() {
         public void handle() {
+          // Process as many messages as we can in one go, rather than taking a tick for each one
+          Object msg;
+          while (canProcess(msg = pending.peek())) {
+            pending.poll();
+            processMessage(msg);
+          }
           sentCheck = false;
-          if (!paused) {
-            Object msg = pending.poll();
-            if (msg != null) {
-              processMessage(msg);
-            }
-            if (channelPaused && pending.isEmpty()) {
-              //Resume the actual channel
-              ServerConnection.super.resume();
-              channelPaused = false;
-            }
+          if (channelPaused && pending.isEmpty()) {
+            //Resume the actual channel
+            ServerConnection.super.resume();
+            channelPaused = false;
           }
         }
       });
     }
   }
+
+  private NioSocketChannelConfig config() {
+    return (NioSocketChannelConfig) channel.getConfig();
+  }
+
+  private boolean canProcess(Object msg) {
+    return msg != null && !paused && (!(msg instanceof HttpRequest) || responses.size() < pipelineDepth);
+  }
 }
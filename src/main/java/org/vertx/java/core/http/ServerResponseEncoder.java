@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.http;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Encodes the responses written by {@link HttpServerResponse} straight into buffers, rather than building an
+ * {@link org.jboss.netty.handler.codec.http.HttpResponse} for {@link org.jboss.netty.handler.codec.http.HttpResponseEncoder}
+ * to encode. The status lines and the common header names are encoded once, and the head of a response is written
+ * into a single array of exactly the right size.<p>
+ * Each event loop thread keeps its own copy of the {@code Date} header, which it formats again only when the second
+ * has changed.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class ServerResponseEncoder {
+
+  private static final byte[][] STATUS_LINES = new byte[600][];
+  private static final byte[] DATE = bytes(Names.DATE + ": ");
+  private static final byte[] CONTENT_LENGTH = bytes(Names.CONTENT_LENGTH + ": ");
+  private static final byte[] CHUNKED = bytes(Names.TRANSFER_ENCODING + ": chunked\r\n");
+  private static final byte[] CONNECTION_CLOSE = bytes(Names.CONNECTION + ": close\r\n");
+  private static final byte[] LAST_CHUNK = bytes("0\r\n\r\n");
+  private static final byte[] CRLF = bytes("\r\n");
+
+  static {
+    for (int code = 100; code < STATUS_LINES.length; code++) {
+      STATUS_LINES[code] = statusLine(code, HttpResponseStatus.valueOf(code).getReasonPhrase());
+    }
+  }
+
+  private static final ThreadLocal<DateHeader> dateHeader = new ThreadLocal<DateHeader>() {
+    protected DateHeader initialValue() {
+      return new DateHeader();
+    }
+  };
+
+  /*
+  Encode the status line and headers. The Date, Content-Length or Transfer-Encoding and Connection headers are added
+  unless they have been set
+   */
+  static ChannelBuffer encodeHead(int statusCode, String statusMessage, Headers headers, boolean chunked,
+                                  long contentLength, boolean keepAlive) {
+    byte[] statusLine;
+    if (statusMessage == null && statusCode >= 100 && statusCode < STATUS_LINES.length) {
+      statusLine = STATUS_LINES[statusCode];
+    } else {
+      statusLine = statusLine(statusCode, statusMessage == null ?
+          HttpResponseStatus.valueOf(statusCode).getReasonPhrase() : statusMessage);
+    }
+    byte[] date = headers.contains(Names.DATE) ? null : dateHeader.get().value();
+    boolean addLength = !chunked && !headers.contains(Names.CONTENT_LENGTH);
+    boolean addChunked = chunked && !headers.contains(Names.TRANSFER_ENCODING);
+    boolean addClose = !keepAlive && !headers.contains(Names.CONNECTION);
+
+    int length = statusLine.length + headers.encodedLength() + CRLF.length;
+    if (date != null) {
+      length += DATE.length + date.length + CRLF.length;
+    }
+    if (addLength) {
+      length += CONTENT_LENGTH.length + digits(contentLength) + CRLF.length;
+    }
+    if (addChunked) {
+      length += CHUNKED.length;
+    }
+    if (addClose) {
+      length += CONNECTION_CLOSE.length;
+    }
+
+    byte[] bytes = new byte[length];
+    int pos = put(statusLine, bytes, 0);
+    if (date != null) {
+      pos = put(DATE, bytes, pos);
+      pos = put(date, bytes, pos);
+      pos = put(CRLF, bytes, pos);
+    }
+    pos = headers.encode(bytes, pos);
+    if (addLength) {
+      pos = put(CONTENT_LENGTH, bytes, pos);
+      int end = pos + digits(contentLength);
+      for (int i = end - 1; i >= pos; i--) {
+        bytes[i] = (byte) ('0' + contentLength % 10);
+        contentLength /= 10;
+      }
+      pos = put(CRLF, bytes, end);
+    }
+    if (addChunked) {
+      pos = put(CHUNKED, bytes, pos);
+    }
+    if (addClose) {
+      pos = put(CONNECTION_CLOSE, bytes, pos);
+    }
+    put(CRLF, bytes, pos);
+    return ChannelBuffers.wrappedBuffer(bytes);
+  }
+
+  /*
+  Frame data as a chunk, without copying it
+   */
+  static ChannelBuffer encodeChunk(ChannelBuffer data) {
+    int size = data.readableBytes();
+    if (size == 0) {
+      // An empty chunk would end the response
+      return ChannelBuffers.EMPTY_BUFFER;
+    }
+    int hexDigits = (35 - Integer.numberOfLeadingZeros(size)) / 4;
+    byte[] sizeLine = new byte[hexDigits + 2];
+    int i = hexDigits;
+    sizeLine[i] = '\r';
+    sizeLine[i + 1] = '\n';
+    for (; size != 0; size >>>= 4) {
+      sizeLine[--i] = (byte) Character.forDigit(size & 0xF, 16);
+    }
+    return ChannelBuffers.wrappedBuffer(ChannelBuffers.wrappedBuffer(sizeLine), data, ChannelBuffers.wrappedBuffer(CRLF));
+  }
+
+  static ChannelBuffer encodeLastChunk(Headers trailers) {
+    if (trailers == null || trailers.size() == 0) {
+      return ChannelBuffers.wrappedBuffer(LAST_CHUNK);
+    }
+    byte[] bytes = new byte[3 + trailers.encodedLength() + 2];
+    bytes[0] = '0';
+    bytes[1] = '\r';
+    bytes[2] = '\n';
+    int pos = trailers.encode(bytes, 3);
+    put(CRLF, bytes, pos);
+    return ChannelBuffers.wrappedBuffer(bytes);
+  }
+
+  private static byte[] statusLine(int code, String reason) {
+    for (int i = 0; i < reason.length(); i++) {
+      char c = reason.charAt(i);
+      if (c == '\r' || c == '\n') {
+        throw new IllegalArgumentException("Invalid status message: " + reason);
+      }
+    }
+    return bytes("HTTP/1.1 " + code + " " + reason + "\r\n");
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(LazyHttpRequest.ISO_8859_1);
+  }
+
+  private static int put(byte[] src, byte[] bytes, int pos) {
+    System.arraycopy(src, 0, bytes, pos, src.length);
+    return pos + src.length;
+  }
+
+  private static int digits(long l) {
+    int digits = 1;
+    while (l >= 10) {
+      l /= 10;
+      digits++;
+    }
+    return digits;
+  }
+
+  private static class DateHeader {
+    private final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    private long second = -1;
+    private byte[] value;
+
+    DateHeader() {
+      format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    byte[] value() {
+      long now = System.currentTimeMillis();
+      if (now / 1000 != second) {
+        second = now / 1000;
+        value = bytes(format.format(new Date(now)));
+      }
+      return value;
+    }
+  }
+}
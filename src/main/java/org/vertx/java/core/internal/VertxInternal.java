@@ -18,6 +18,7 @@ package org.vertx.java.core.internal;
 
 import org.jboss.netty.channel.socket.nio.NioWorker;
 import org.jboss.netty.channel.socket.nio.NioWorkerPool;
+import org.jboss.netty.util.Timer;
 import org.vertx.java.core.Vertx;
 
 import java.util.concurrent.Executor;
@@ -52,9 +53,15 @@ public interface VertxInternal extends Vertx {
 
   ExecutorService getBackgroundPool();
 
+  Executor getHandshakePool();
+
+  Executor getDatagramPool();
+
   NioWorker getWorkerForContextID(long contextID);
 
   int getCoreThreadPoolSize();
 
+  Timer getTimer();
+
   void go(Runnable runnable);
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of open connections on a server, and the rate at which it accepts new ones.<p>
+ * Netty's acceptor thread asks the server for a pipeline for each connection it accepts, before it accepts the next
+ * one. {@link #acquire} is called from there and, when the server is at its limit, blocks the acceptor thread until
+ * a connection closes or the rate allows another. The connection being set up has already been accepted, so each
+ * blocked acceptor holds one connection which the client sees as open but which gets no response until it is let
+ * through. While the acceptor is blocked nothing more is accepted, so any further connections wait in the kernel's
+ * listen backlog rather than being accepted and then closed. A server with several acceptors stalls each of them in
+ * turn.<p>
+ * Only the acceptor threads call {@link #acquire}, and there are few of them, so it is synchronized. Closing
+ * connections only touches the lock when an acceptor is waiting.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class AcceptLimiter {
+
+  // How long an acceptor waits before checking again, in case a wake up was missed
+  private static final long MAX_WAIT = 100;
+
+  private final int maxConnections;
+  private final int acceptRate;
+  private final NetMetrics metrics;
+  private final ServerID id;
+  private final AtomicInteger connections = new AtomicInteger();
+  private final ChannelHandler closeHandler = new CloseHandler();
+  private volatile boolean waiting;
+  private boolean closed;
+
+  // Token bucket for the accept rate, which allows bursts of up to a second's worth of connections
+  private double tokens;
+  private long lastRefill;
+
+  AcceptLimiter(int maxConnections, int acceptRate, NetMetrics metrics, ServerID id) {
+    this.maxConnections = maxConnections;
+    this.acceptRate = acceptRate;
+    this.metrics = metrics;
+    this.id = id;
+    this.tokens = acceptRate;
+    this.lastRefill = System.nanoTime();
+  }
+
+  /*
+  Called on an acceptor thread for each accepted connection. Returns the handler which must be added to the
+  connection's pipeline so it's counted when it closes. Throws an exception if the server is closed, or the acceptor
+  is interrupted, while waiting, which makes Netty close the connection.
+   */
+  synchronized ChannelHandler acquire() {
+    long start = 0;
+    while (true) {
+      if (closed) {
+        throw refused("Server is closed");
+      }
+      long wait = 0;
+      if (maxConnections > 0 && connections.get() >= maxConnections) {
+        wait = MAX_WAIT;
+      } else if (acceptRate > 0) {
+        refill();
+        if (tokens < 1) {
+          wait = Math.max(1, (long) ((1 - tokens) * 1000 / acceptRate));
+        }
+      }
+      if (wait == 0) {
+        break;
+      }
+      if (start == 0) {
+        start = System.nanoTime();
+      }
+      waiting = true;
+      try {
+        wait(Math.min(wait, MAX_WAIT));
+      } catch (InterruptedException e) {
+        // Only this connection is refused, later ones are still limited as usual
+        Thread.currentThread().interrupt();
+        throw refused("Interrupted while waiting to accept");
+      } finally {
+        waiting = false;
+      }
+    }
+    if (acceptRate > 0) {
+      tokens--;
+    }
+    connections.incrementAndGet();
+    if (start != 0 && metrics != null) {
+      metrics.acceptDeferred(id, System.nanoTime() - start);
+    }
+    return closeHandler;
+  }
+
+  /*
+  Wake up any waiting acceptor and refuse connections from now on
+   */
+  synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+
+  int getConnections() {
+    return connections.get();
+  }
+
+  private IllegalStateException refused(String message) {
+    if (metrics != null) {
+      metrics.acceptRefused(id);
+    }
+    return new IllegalStateException(message);
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(acceptRate, tokens + (now - lastRefill) * acceptRate / 1e9);
+    lastRefill = now;
+  }
+
+  private void released() {
+    connections.decrementAndGet();
+    if (waiting) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  @ChannelHandler.Sharable
+  private class CloseHandler extends SimpleChannelUpstreamHandler {
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+      released();
+      super.channelClosed(ctx, e);
+    }
+  }
+}
@@ -19,11 +19,11 @@ package org.vertx.java.core.net;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.DefaultFileRegion;
 import org.jboss.netty.channel.FileRegion;
 import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
 import org.jboss.netty.handler.ssl.SslHandler;
-import org.jboss.netty.handler.stream.ChunkedFile;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
@@ -47,6 +47,7 @@ public abstract class ConnectionBase {
     this.channel = channel;
     this.contextID = contextID;
     this.th = th;
+    this.shaper = channel.getPipeline().get(TrafficShapingHandler.class);
   }
 
   protected final Channel channel;
@@ -56,6 +57,8 @@ public abstract class ConnectionBase {
 
   protected Handler<Exception> exceptionHandler;
   protected Handler<Void> closedHandler;
+  private int sendFileChunkSize = MappedChunkedFile.DEFAULT_CHUNK_SIZE;
+  private TrafficShapingHandler shaper;
 
   /**
    * Pause the connection, see {@link ReadStream#pause}
@@ -83,12 +86,78 @@ public abstract class ConnectionBase {
     conf.setWriteBufferHighWaterMark(size);
   }
 
+  /**
+   * Set the size of the chunks a file is sent in by sendFile on an SSL connection. The default is 16KB, the most
+   * that fits in one TLS record. Without SSL files are sent with zero-copy, so this isn't used.
+   */
+  public void setSendFileChunkSize(int size) {
+    checkThread();
+    if (size <= 0) {
+      throw new IllegalArgumentException("Invalid chunk size: " + size);
+    }
+    this.sendFileChunkSize = size;
+  }
+
+  /**
+   * Limit the rate at which data is read from the connection to {@code bytesPerSecond}. When the connection is over
+   * the limit it stops reading for long enough to get back under it, and the data waits in the socket. Bursts of up
+   * to a second's worth are read straight away. A value of 0 means no limit, which is the default unless one was set
+   * on the server or client.
+   */
+  public void setReadRateLimit(long bytesPerSecond) {
+    checkThread();
+    checkRate(bytesPerSecond);
+    getShaper().setReadRate(bytesPerSecond);
+  }
+
+  /**
+   * Limit the rate at which data is written to the connection to {@code bytesPerSecond}. When the connection is over
+   * the limit writes are held back for long enough to get back under it. They count towards the write queue while
+   * they're held, so {@link #writeQueueFull} and the drain handler can be used to stop writing until there's room.
+   * Bursts of up to a second's worth are written straight away. A value of 0 means no limit, which is the default
+   * unless one was set on the server or client.
+   */
+  public void setWriteRateLimit(long bytesPerSecond) {
+    checkThread();
+    checkRate(bytesPerSecond);
+    getShaper().setWriteRate(bytesPerSecond);
+  }
+
   /**
    * Is the write queue full?, see {@link WriteStream#writeQueueFull}
    */
   public boolean writeQueueFull() {
     checkThread();
-    return !channel.isWritable();
+    return !isWritable();
+  }
+
+  /**
+   * @return The number of bytes read from the connection, or 0 if metrics are off. For SSL connections this includes the
+   * SSL overhead.
+   */
+  public long getBytesRead() {
+    checkThread();
+    MetricsHandler metrics = channel.getPipeline().get(MetricsHandler.class);
+    return metrics == null ? 0 : metrics.getBytesRead();
+  }
+
+  /**
+   * @return The number of bytes written to the connection, or 0 if metrics are off. For SSL connections this includes
+   * the SSL overhead.
+   */
+  public long getBytesWritten() {
+    checkThread();
+    MetricsHandler metrics = channel.getPipeline().get(MetricsHandler.class);
+    return metrics == null ? 0 : metrics.getBytesWritten();
+  }
+
+  /**
+   * @return The number of bytes which have been written to the connection but are still queued, or 0 if metrics are off
+   */
+  public long getWriteQueueSize() {
+    checkThread();
+    MetricsHandler metrics = channel.getPipeline().get(MetricsHandler.class);
+    return metrics == null ? 0 : metrics.getWriteQueueSize();
   }
 
   /**
@@ -178,6 +247,33 @@ public abstract class ConnectionBase {
     log.error("Unhandled exception", t);
   }
 
+  /*
+  Is there room in the write queue, which includes writes held back by the rate limits
+   */
+  protected boolean isWritable() {
+    return channel.isWritable() && (shaper == null || !shaper.isWriteQueueFull());
+  }
+
+  private TrafficShapingHandler getShaper() {
+    if (shaper == null) {
+      // Just behind the metrics, where it would have been if the limits had been set before connecting
+      shaper = new TrafficShapingHandler(0, 0, null, null);
+      ChannelPipeline pipeline = channel.getPipeline();
+      if (pipeline.get("metrics") != null) {
+        pipeline.addAfter("metrics", "trafficShaping", shaper);
+      } else {
+        pipeline.addFirst("trafficShaping", shaper);
+      }
+    }
+    return shaper;
+  }
+
+  static void checkRate(long bytesPerSecond) {
+    if (bytesPerSecond < 0) {
+      throw new IllegalArgumentException("Invalid rate: " + bytesPerSecond);
+    }
+  }
+
   protected boolean isSSL() {
     return channel.getPipeline().get(SslHandler.class) != null;
   }
@@ -190,9 +286,20 @@ public abstract class ConnectionBase {
 
       // Write the content.
       ChannelFuture writeFuture;
-      if (isSSL()) {
-        // Cannot use zero-copy with HTTPS.
-        writeFuture = channel.write(new ChunkedFile(raf, 0, fileLength, 8192));
+      if (isSSL() || channel instanceof LocalSocketChannel) {
+        // Cannot use zero-copy with HTTPS, or without a socket, but can avoid copying the file into the heap
+        final MappedChunkedFile chunked = new MappedChunkedFile(channel, raf, 0, fileLength, sendFileChunkSize);
+        writeFuture = channel.write(chunked);
+        if (isSSL()) {
+          // Done when the last chunk has been written, and the SSL engine has copied them all by then
+          writeFuture.addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture future) {
+              if (future.isSuccess()) {
+                chunked.unmapWindows();
+              }
+            }
+          });
+        }
       } else {
         // No encryption - use zero-copy.
         final FileRegion region =
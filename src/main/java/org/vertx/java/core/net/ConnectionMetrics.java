@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+/**
+ * <p>Records the events of a connection, see {@link NetMetrics#connectionOpened}.</p>
+ *
+ * <p>Reads and completed writes, i.e. {@link #bytesRead} and {@link #bytesWritten}, are reported on the event loop which
+ * owns the connection. The other methods are called on whichever thread wrote to, paused, resumed or closed the
+ * connection, which is usually the event loop too but can be another thread, e.g. one closing a server. Calls from
+ * other threads are never made at the same time as each other, but can be made at the same time as those from the
+ * event loop, so implementations must be thread safe. Byte counts are of the bytes on the wire, i.e. after
+ * encryption for SSL connections.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public interface ConnectionMetrics {
+
+  /**
+   * {@code bytes} have been read from the connection
+   */
+  void bytesRead(long bytes);
+
+  /**
+   * {@code bytes} have been queued for writing to the connection. When a connection is closed with bytes still
+   * queued this is called with minus the number of bytes which will now never be written.
+   */
+  void bytesQueued(long bytes);
+
+  /**
+   * {@code bytes} of those queued have been written to the connection
+   */
+  void bytesWritten(long bytes);
+
+  /**
+   * The write queue has become full, see {@link org.vertx.java.core.streams.WriteStream#writeQueueFull}
+   */
+  void writeQueueFull();
+
+  /**
+   * The write queue has drained after being full for {@code nanos} nanoseconds
+   */
+  void writeQueueDrained(long nanos);
+
+  /**
+   * The connection has been paused
+   */
+  void paused();
+
+  /**
+   * The connection has been resumed
+   */
+  void resumed();
+
+  /**
+   * The connection is being closed because it was idle or reached its maximum age
+   */
+  void idleClosed();
+
+  /**
+   * The connection has been closed
+   */
+  void connectionClosed();
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.vertx.java.core.buffer.Buffer;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A datagram received by a {@link DatagramSocket}.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class DatagramPacket {
+
+  /**
+   * The data in the datagram
+   */
+  public final Buffer data;
+
+  /**
+   * The address of the socket which sent the datagram
+   */
+  public final InetSocketAddress sender;
+
+  DatagramPacket(Buffer data, InetSocketAddress sender) {
+    this.data = data;
+    this.sender = sender;
+  }
+}
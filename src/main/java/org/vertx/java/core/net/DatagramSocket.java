@@ -0,0 +1,678 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.util.CharsetUtil;
+import org.vertx.java.core.CompletionHandler;
+import org.vertx.java.core.Future;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.UnknownHostException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A UDP socket, which can send datagrams to and receive datagrams from any address.</p>
+ * <p>Bind the socket to a port to receive datagrams sent to it, or just send, in which case it's bound to an
+ * ephemeral port by the first send. Host names are resolved by a {@link DnsResolver}, so sending never blocks the
+ * event loop on a lookup. Received datagrams are passed to the data handler as {@link DatagramPacket}s, along with the
+ * address they were sent from.</p>
+ * <p>As with the rest of vert.x, an instance must only be used from the event loop which created it, and the handlers
+ * are called on that event loop. Datagrams are received in batches, see {@link #setBatchSize}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class DatagramSocket {
+
+  private static final Logger log = Logger.getLogger(DatagramSocket.class);
+
+  /**
+   * The default maximum number of datagrams received in one go
+   */
+  public static final int DEFAULT_BATCH_SIZE = 32;
+
+  // Reading stops when this many batches are waiting for the event loop, and the kernel drops datagrams instead
+  private static final int MAX_QUEUED_BATCHES = 16;
+
+  final DatagramChannel channel;
+  // Only accessed on the datagram worker
+  SelectionKey key;
+
+  private final long contextID;
+  //For sanity checks
+  private final Thread th;
+
+  private Handler<DatagramPacket> dataHandler;
+  private Handler<Exception> exceptionHandler;
+  private DnsResolver resolver = DnsResolver.instance;
+  private boolean registered;
+  private boolean bound;
+  private boolean sent;
+  private volatile boolean closed;
+  private volatile boolean paused;
+  private volatile int batchSize = DEFAULT_BATCH_SIZE;
+  private final AtomicInteger queuedBatches = new AtomicInteger();
+  // Sends which couldn't be made straight away because the socket's send buffer was full
+  private final Queue<PendingSend> pendingSends = new ArrayDeque<>();
+  private final Map<String, MembershipKey> memberships = new HashMap<>();
+
+  /**
+   * Create a new socket. It must be created on an event loop.
+   */
+  public DatagramSocket() {
+    Long cid = Vertx.instance.getContextID();
+    if (cid == null) {
+      throw new IllegalStateException("Can only be used from an event loop");
+    }
+    this.contextID = cid;
+    this.th = Thread.currentThread();
+    try {
+      channel = DatagramChannel.open();
+      channel.configureBlocking(false);
+    } catch (IOException e) {
+      throw new ChannelException("Failed to open datagram channel", e);
+    }
+  }
+
+  /**
+   * Bind the socket to {@code port} on all interfaces, so it receives datagrams sent to that port.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket bind(int port) {
+    return bind(port, "0.0.0.0");
+  }
+
+  /**
+   * Bind the socket to the specified {@code port} and {@code host}, so it receives datagrams sent there.
+   * {@code host} must be an IP address or {@code localhost}, since it's the address of a local interface and isn't
+   * looked up. The socket can't be bound once it has sent anything, as that binds it to an ephemeral port.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket bind(int port, String host) {
+    checkThread();
+    checkOpen();
+    if (bound) {
+      throw new IllegalStateException("Bind already called");
+    }
+    if (sent) {
+      throw new IllegalStateException("Can't bind after sending, the socket is bound to an ephemeral port");
+    }
+    InetSocketAddress address;
+    try {
+      if (host.equals("localhost")) {
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+      } else if (DnsResolver.isIP(host)) {
+        address = new InetSocketAddress(DnsResolver.parseIP(host), port);
+      } else {
+        throw new IllegalArgumentException("Bind address must be an IP address: " + host);
+      }
+    } catch (UnknownHostException e) {
+      throw new IllegalArgumentException("Invalid bind address: " + host);
+    }
+    try {
+      channel.bind(address);
+    } catch (IOException e) {
+      throw new ChannelException("Failed to bind to: " + address, e);
+    }
+    bound = true;
+    register();
+    return this;
+  }
+
+  /**
+   * @return The local address the socket is bound to, or null if it isn't bound yet
+   */
+  public InetSocketAddress localAddress() {
+    checkThread();
+    try {
+      return (InetSocketAddress) channel.getLocalAddress();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Send the {@link Buffer} {@code data} as one datagram to the specified {@code port} and {@code host}.<p>
+   * The datagram is sent straight away unless {@code host} has to be looked up, in which case it's sent once it has
+   * been, or the socket's send buffer is full, in which case it's queued and sent as soon as there is room. A datagram
+   * which has to wait is copied, so {@code data} can be changed once this returns. Failures, including names which
+   * can't be resolved, are passed to the exception handler.<p>
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket send(Buffer data, String host, final int port) {
+    checkThread();
+    checkOpen();
+    register();
+    sent = true;
+    // Addresses and cached names are resolved straight away, otherwise this is called back on this event loop
+    Future<InetAddress> resolved = resolver.resolve(host);
+    if (resolved.complete()) {
+      sendResolved(resolved, data.getChannelBuffer().toByteBuffer(), false, port);
+    } else {
+      final ByteBuffer bytes = copy(data.getChannelBuffer().toByteBuffer());
+      resolved.handler(new CompletionHandler<InetAddress>() {
+        public void handle(Future<InetAddress> result) {
+          if (!closed) {
+            sendResolved(result, bytes, true, port);
+          }
+        }
+      });
+    }
+    return this;
+  }
+
+  private void sendResolved(Future<InetAddress> result, ByteBuffer bytes, boolean copied, int port) {
+    if (result.succeeded()) {
+      send(bytes, copied, new InetSocketAddress(result.result(), port));
+    } else {
+      handleException(result.exception());
+    }
+  }
+
+  private void send(ByteBuffer bytes, boolean copied, InetSocketAddress address) {
+    synchronized (pendingSends) {
+      if (pendingSends.isEmpty()) {
+        try {
+          if (channel.send(bytes, address) != 0) {
+            return;
+          }
+        } catch (IOException e) {
+          handleException(e);
+          return;
+        }
+      }
+      // The caller may change its buffer once send returns
+      pendingSends.add(new PendingSend(copied ? bytes : copy(bytes), address));
+      if (pendingSends.size() == 1) {
+        DatagramWorker.instance.updateInterest(this);
+      }
+    }
+  }
+
+  /**
+   * Send the {@link String} {@code str}, encoded in UTF-8, as one datagram to the specified {@code port} and
+   * {@code host}.<p>
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket send(String str, String host, int port) {
+    return send(new Buffer(ChannelBuffers.copiedBuffer(str, CharsetUtil.UTF_8)), host, port);
+  }
+
+  /**
+   * Set the {@link DnsResolver} which resolves the host names datagrams are sent to. The default is
+   * {@link DnsResolver#instance}.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setResolver(DnsResolver resolver) {
+    checkThread();
+    if (resolver == null) {
+      throw new IllegalArgumentException("Resolver must not be null");
+    }
+    this.resolver = resolver;
+    return this;
+  }
+
+  /**
+   * Set a data handler. As datagrams are received the handler will be called with each of them.
+   */
+  public void dataHandler(Handler<DatagramPacket> handler) {
+    checkThread();
+    this.dataHandler = handler;
+  }
+
+  /**
+   * Set an exception handler, which is called when a datagram can't be sent or received
+   */
+  public void exceptionHandler(Handler<Exception> handler) {
+    checkThread();
+    this.exceptionHandler = handler;
+  }
+
+  /**
+   * Stop receiving datagrams until {@link #resume} is called. While the socket is paused datagrams wait in the
+   * socket's receive buffer, and the kernel drops them when it's full. Datagrams which have already been received are
+   * still passed to the data handler.
+   */
+  public void pause() {
+    checkThread();
+    paused = true;
+    interestChanged();
+  }
+
+  /**
+   * Resume receiving datagrams after {@link #pause}
+   */
+  public void resume() {
+    checkThread();
+    paused = false;
+    interestChanged();
+  }
+
+  /**
+   * Set the maximum number of datagrams received in one go. The datagrams in a batch are passed to the data handler
+   * one after another in one task on the event loop, so larger batches mean fewer wakeups of the event loop when
+   * datagrams are arriving quickly. The default is {@link #DEFAULT_BATCH_SIZE}.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setBatchSize(int size) {
+    checkThread();
+    if (size < 1) {
+      throw new IllegalArgumentException("Batch size must be > 0");
+    }
+    this.batchSize = size;
+    return this;
+  }
+
+  /**
+   * Set the size of the socket's receive buffer, in bytes. This is how many bytes of datagrams can wait in the kernel
+   * while the event loop is busy before it starts dropping them.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setReceiveBufferSize(int size) {
+    return setOption(StandardSocketOptions.SO_RCVBUF, size);
+  }
+
+  /**
+   * Set the size of the socket's send buffer, in bytes
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setSendBufferSize(int size) {
+    return setOption(StandardSocketOptions.SO_SNDBUF, size);
+  }
+
+  /**
+   * If {@code reuse} is true then other sockets can bind to the same address, e.g. so more than one process can
+   * receive the datagrams sent to a multicast group. This must be set before the socket is bound.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setReuseAddress(boolean reuse) {
+    return setOption(StandardSocketOptions.SO_REUSEADDR, reuse);
+  }
+
+  /**
+   * If {@code broadcast} is true then datagrams can be sent to broadcast addresses
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setBroadcast(boolean broadcast) {
+    return setOption(StandardSocketOptions.SO_BROADCAST, broadcast);
+  }
+
+  /**
+   * Set the time to live of the multicast datagrams sent by the socket, i.e. how many routers they can pass through
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setMulticastTimeToLive(int ttl) {
+    return setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+  }
+
+  /**
+   * If {@code loopback} is true then the multicast datagrams sent by the socket are also delivered to sockets on this
+   * host which have joined the group
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setMulticastLoopbackMode(boolean loopback) {
+    return setOption(StandardSocketOptions.IP_MULTICAST_LOOP, loopback);
+  }
+
+  /**
+   * Set the network interface, by name, that multicast datagrams are sent from. It's also the interface groups are
+   * joined on if no interface is given to {@link #joinGroup}.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket setMulticastNetworkInterface(String name) {
+    return setOption(StandardSocketOptions.IP_MULTICAST_IF, getInterface(name));
+  }
+
+  /**
+   * Join the multicast group at the address {@code group}, so the socket receives the datagrams sent to it. The group
+   * is joined on the interface set with {@link #setMulticastNetworkInterface}, or if that isn't set the first one
+   * which is up and supports multicast.<p>
+   * As with {@link #send}, if {@code group} is a name it's looked up by the resolver without blocking, and the group
+   * is joined once it has been. Failures are passed to the exception handler.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket joinGroup(String group) {
+    return joinGroup(group, null);
+  }
+
+  /**
+   * Join the multicast group at the address {@code group} on the network interface named {@code networkInterface}, so
+   * the socket receives the datagrams sent to it
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket joinGroup(final String group, String networkInterface) {
+    checkThread();
+    checkOpen();
+    final NetworkInterface ni;
+    try {
+      ni = networkInterface == null ? getMulticastInterface() : getInterface(networkInterface);
+    } catch (IOException e) {
+      handleException(e);
+      return this;
+    }
+    register();
+    resolver.resolve(group).handler(new CompletionHandler<InetAddress>() {
+      public void handle(Future<InetAddress> result) {
+        if (closed) {
+          return;
+        }
+        if (result.failed()) {
+          handleException(result.exception());
+          return;
+        }
+        try {
+          MembershipKey membership = channel.join(result.result(), ni);
+          memberships.put(group + "%" + ni.getName(), membership);
+        } catch (IOException e) {
+          handleException(e);
+        }
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Leave the multicast group at the address {@code group}, on all the interfaces it was joined on
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket leaveGroup(String group) {
+    return leaveGroup(group, null);
+  }
+
+  /**
+   * Leave the multicast group at the address {@code group} on the network interface named {@code networkInterface}
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DatagramSocket leaveGroup(String group, String networkInterface) {
+    checkThread();
+    for (Iterator<Map.Entry<String, MembershipKey>> iter = memberships.entrySet().iterator(); iter.hasNext(); ) {
+      Map.Entry<String, MembershipKey> entry = iter.next();
+      String key = entry.getKey();
+      if (key.substring(0, key.lastIndexOf('%')).equals(group) &&
+          (networkInterface == null || entry.getValue().networkInterface().getName().equals(networkInterface))) {
+        entry.getValue().drop();
+        iter.remove();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Close the socket
+   */
+  public void close() {
+    close(null);
+  }
+
+  /**
+   * Close the socket. The handler {@code done} will be called when the close is complete.
+   */
+  public void close(final Handler<Void> done) {
+    checkThread();
+    if (closed) {
+      return;
+    }
+    closed = true;
+    Runnable closeDone = new Runnable() {
+      public void run() {
+        if (done != null) {
+          VertxInternal.instance.executeOnContext(contextID, new Runnable() {
+            public void run() {
+              VertxInternal.instance.setContextID(contextID);
+              done.handle(null);
+            }
+          });
+        }
+      }
+    };
+    if (registered) {
+      DatagramWorker.instance.close(this, closeDone);
+    } else {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.error("Failed to close datagram channel", e);
+      }
+      closeDone.run();
+    }
+  }
+
+  /*
+  Called on the datagram worker when the channel is readable
+   */
+  void receiveBatch(ByteBuffer receiveBuffer) {
+    List<DatagramPacket> batch = null;
+    int size = batchSize;
+    for (int i = 0; i < size; i++) {
+      receiveBuffer.clear();
+      SocketAddress sender;
+      try {
+        sender = channel.receive(receiveBuffer);
+      } catch (IOException e) {
+        deliverException(e);
+        break;
+      }
+      if (sender == null) {
+        break;
+      }
+      receiveBuffer.flip();
+      ChannelBuffer data = ChannelBuffers.buffer(receiveBuffer.remaining());
+      data.writeBytes(receiveBuffer);
+      if (batch == null) {
+        batch = new ArrayList<>(Math.min(size, 16));
+      }
+      batch.add(new DatagramPacket(new Buffer(data), (InetSocketAddress) sender));
+    }
+    if (batch != null) {
+      if (queuedBatches.incrementAndGet() >= MAX_QUEUED_BATCHES) {
+        updateInterestOps();
+      }
+      final List<DatagramPacket> packets = batch;
+      VertxInternal.instance.getWorkerForContextID(contextID).scheduleOtherTask(new Runnable() {
+        public void run() {
+          handleBatch(packets);
+        }
+      });
+    }
+  }
+
+  /*
+  Called on the datagram worker when the channel is writable
+   */
+  void flushSends() {
+    synchronized (pendingSends) {
+      PendingSend send;
+      while ((send = pendingSends.peek()) != null) {
+        try {
+          if (channel.send(send.data, send.address) == 0) {
+            return;
+          }
+        } catch (IOException e) {
+          deliverException(e);
+        }
+        pendingSends.poll();
+      }
+    }
+    updateInterestOps();
+  }
+
+  boolean isReading() {
+    return !paused && queuedBatches.get() < MAX_QUEUED_BATCHES;
+  }
+
+  /*
+  Called on the datagram worker to make the selector's interest match the socket's state
+   */
+  void updateInterestOps() {
+    if (key != null && key.isValid()) {
+      int ops = isReading() ? SelectionKey.OP_READ : 0;
+      synchronized (pendingSends) {
+        if (!pendingSends.isEmpty()) {
+          ops |= SelectionKey.OP_WRITE;
+        }
+      }
+      key.interestOps(ops);
+    }
+  }
+
+  private void handleBatch(List<DatagramPacket> batch) {
+    VertxInternal.instance.setContextID(contextID);
+    for (DatagramPacket packet : batch) {
+      if (dataHandler == null || closed) {
+        break;
+      }
+      try {
+        dataHandler.handle(packet);
+      } catch (Throwable t) {
+        log.error("Unhandled exception", t);
+      }
+    }
+    if (queuedBatches.decrementAndGet() == MAX_QUEUED_BATCHES - 1) {
+      // Reading had stopped
+      interestChanged();
+    }
+  }
+
+  private void deliverException(final Exception e) {
+    VertxInternal.instance.executeOnContext(contextID, new Runnable() {
+      public void run() {
+        VertxInternal.instance.setContextID(contextID);
+        handleException(e);
+      }
+    });
+  }
+
+  private void handleException(Exception e) {
+    if (exceptionHandler != null) {
+      try {
+        exceptionHandler.handle(e);
+      } catch (Throwable t) {
+        log.error("Unhandled exception", t);
+      }
+    } else {
+      log.error("Unhandled exception", e);
+    }
+  }
+
+  private void register() {
+    if (!registered) {
+      registered = true;
+      DatagramWorker.instance.register(this);
+    }
+  }
+
+  private void interestChanged() {
+    if (registered) {
+      DatagramWorker.instance.updateInterest(this);
+    }
+  }
+
+  private static ByteBuffer copy(ByteBuffer bytes) {
+    ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+    copy.put(bytes.duplicate()).flip();
+    return copy;
+  }
+
+  private <T> DatagramSocket setOption(SocketOption<T> option, T value) {
+    checkThread();
+    checkOpen();
+    try {
+      channel.setOption(option, value);
+    } catch (IOException e) {
+      throw new ChannelException("Failed to set " + option.name(), e);
+    }
+    return this;
+  }
+
+  private NetworkInterface getMulticastInterface() throws IOException {
+    NetworkInterface ni = channel.getOption(StandardSocketOptions.IP_MULTICAST_IF);
+    if (ni != null) {
+      return ni;
+    }
+    for (Enumeration<NetworkInterface> e = NetworkInterface.getNetworkInterfaces(); e.hasMoreElements(); ) {
+      ni = e.nextElement();
+      if (ni.isUp() && ni.supportsMulticast()) {
+        return ni;
+      }
+    }
+    throw new IOException("No network interface supports multicast");
+  }
+
+  private static NetworkInterface getInterface(String name) {
+    try {
+      NetworkInterface ni = NetworkInterface.getByName(name);
+      if (ni == null) {
+        throw new IllegalArgumentException("No network interface called " + name);
+      }
+      return ni;
+    } catch (IOException e) {
+      throw new ChannelException("Failed to look up network interface " + name, e);
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Socket is closed");
+    }
+  }
+
+  private void checkThread() {
+    // All ops must always be invoked on same thread
+    if (Thread.currentThread() != th) {
+      throw new IllegalStateException("Invoked with wrong thread, actual: " + Thread.currentThread() + " expected: " + th);
+    }
+
+    if (Vertx.instance.getContextID() != contextID) {
+      throw new IllegalStateException("Invoked with wrong contextID");
+    }
+  }
+
+  private static class PendingSend {
+    final ByteBuffer data;
+    final InetSocketAddress address;
+
+    PendingSend(ByteBuffer data, InetSocketAddress address) {
+      this.data = data;
+      this.address = address;
+    }
+  }
+}
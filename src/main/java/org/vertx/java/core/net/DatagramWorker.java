@@ -0,0 +1,170 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Does the I/O for all {@link DatagramSocket}s on a thread of its own, with one selector.<p>
+ * When a socket is readable up to its batch size of datagrams are received in one go, and handed to the socket's
+ * event loop as one task, so the event loop is woken once per batch rather than once per datagram. Every datagram is
+ * received into the same direct buffer, which is big enough for any datagram, and then copied into a heap buffer of
+ * its exact size. So there is one system call and one small copy per datagram, and no large buffer is allocated
+ * for each.<p>
+ * Changes to the selector are made by tasks which run on the worker's thread.<p>
+ * The worker runs on a thread from vert.x's datagram pool, and only while there are sockets registered with it. Once
+ * the last one has been closed the selector is closed and the thread goes back to the pool, and the next socket to
+ * register starts the worker again.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class DatagramWorker implements Runnable {
+
+  private static final Logger log = Logger.getLogger(DatagramWorker.class);
+
+  // The largest possible UDP payload
+  static final int MAX_DATAGRAM_SIZE = 65535;
+
+  static final DatagramWorker instance = new DatagramWorker();
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+  // Only set and cleared with the lock held, i.e. while no task can be added
+  private Selector selector;
+
+  private DatagramWorker() {
+  }
+
+  void register(final DatagramSocket socket) {
+    execute(new Runnable() {
+      public void run() {
+        try {
+          socket.key = socket.channel.register(selector, socket.isReading() ? SelectionKey.OP_READ : 0, socket);
+          socket.updateInterestOps();
+        } catch (ClosedChannelException e) {
+          // Closed before it was registered
+        }
+      }
+    });
+  }
+
+  /*
+  Make the selector's interest match the socket's state, e.g. after it's paused or resumed reading or has sends to
+  flush
+   */
+  void updateInterest(final DatagramSocket socket) {
+    execute(new Runnable() {
+      public void run() {
+        socket.updateInterestOps();
+      }
+    });
+  }
+
+  void close(final DatagramSocket socket, final Runnable done) {
+    execute(new Runnable() {
+      public void run() {
+        if (socket.key != null) {
+          socket.key.cancel();
+        }
+        try {
+          socket.channel.close();
+        } catch (IOException e) {
+          log.error("Failed to close datagram channel", e);
+        }
+        done.run();
+      }
+    });
+  }
+
+  private synchronized void execute(Runnable task) {
+    if (selector == null) {
+      try {
+        selector = Selector.open();
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to open selector", e);
+      }
+      VertxInternal.instance.getDatagramPool().execute(this);
+    }
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /*
+  Stop once there are no sockets left and nothing more to do. Cancelled keys are only removed from the selector by its
+  next select
+   */
+  private synchronized boolean stopIfIdle() throws IOException {
+    if (!tasks.isEmpty()) {
+      return false;
+    }
+    selector.selectNow();
+    if (!selector.keys().isEmpty()) {
+      return false;
+    }
+    selector.close();
+    selector = null;
+    return true;
+  }
+
+  public void run() {
+    Selector selector;
+    synchronized (this) {
+      selector = this.selector;
+    }
+    while (true) {
+      try {
+        selector.select();
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+          SelectionKey key = iter.next();
+          iter.remove();
+          DatagramSocket socket = (DatagramSocket) key.attachment();
+          try {
+            if (key.isWritable()) {
+              socket.flushSends();
+            }
+            if (key.isReadable()) {
+              socket.receiveBatch(receiveBuffer);
+            }
+          } catch (CancelledKeyException e) {
+            // Closed while we were handling it
+          }
+        }
+        if (stopIfIdle()) {
+          return;
+        }
+      } catch (Throwable t) {
+        log.error("Unexpected exception in datagram worker", t);
+      }
+    }
+  }
+}
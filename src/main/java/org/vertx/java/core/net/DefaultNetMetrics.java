@@ -0,0 +1,364 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>The default {@link NetMetrics}, which keeps totals per server and per event loop.</p>
+ *
+ * <p>The counters are striped by the thread a connection was opened on, which is normally its event loop, so most
+ * updates to a stripe come from one thread and the atomic adds are uncontended. Writes and closes can be requested
+ * from other threads though, so the counters must still be atomic. Reading the totals sums the stripes, so may be a
+ * little behind.</p>
+ *
+ * <p>Threads come and go, e.g. acceptor threads, so when a stripe is added for a new thread the stripes of any threads
+ * which have died are folded into one for the server. So a server has at most one stripe for each live thread plus
+ * one, and a dead thread's counts are still in the server's totals but no longer in {@link #getWorkerStats}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class DefaultNetMetrics implements NetMetrics {
+
+  /**
+   * A shared instance, for servers and clients which don't need their metrics kept apart
+   */
+  public static final DefaultNetMetrics instance = new DefaultNetMetrics();
+
+  // Indexes of the counters in a stripe
+  private static final int BYTES_READ = 0;
+  private static final int BYTES_WRITTEN = 1;
+  private static final int BYTES_QUEUED = 2;
+  private static final int WRITE_QUEUE_FULLS = 3;
+  private static final int UNWRITABLE_NANOS = 4;
+  private static final int OPENED = 5;
+  private static final int CLOSED = 6;
+  private static final int PAUSES = 7;
+  private static final int RESUMES = 8;
+  private static final int IDLE_CLOSES = 9;
+  private static final int ACCEPTS_DEFERRED = 10;
+  private static final int ACCEPT_DEFERRED_NANOS = 11;
+  private static final int ACCEPTS_REFUSED = 12;
+  private static final int COUNTERS = 13;
+
+  private final NonBlockingHashMap<ServerID, ServerStripes> stripes = new NonBlockingHashMap<>();
+
+  public ConnectionMetrics connectionOpened(ServerID id) {
+    Stripe stripe = getStripe(id);
+    stripe.add(OPENED, 1);
+    return stripe;
+  }
+
+  public void acceptDeferred(ServerID id, long nanos) {
+    Stripe stripe = getStripe(id);
+    stripe.add(ACCEPTS_DEFERRED, 1);
+    stripe.add(ACCEPT_DEFERRED_NANOS, nanos);
+  }
+
+  public void acceptRefused(ServerID id) {
+    getStripe(id).add(ACCEPTS_REFUSED, 1);
+  }
+
+  /*
+  Get the stripe for the current thread
+   */
+  private Stripe getStripe(ServerID id) {
+    ServerStripes serverStripes = stripes.get(id);
+    if (serverStripes == null) {
+      serverStripes = new ServerStripes();
+      ServerStripes prev = stripes.putIfAbsent(id, serverStripes);
+      if (prev != null) {
+        serverStripes = prev;
+      }
+    }
+    Thread thread = Thread.currentThread();
+    Stripe stripe = serverStripes.byThread.get(thread);
+    if (stripe == null) {
+      // Only this thread creates the stripe for itself so there is no race
+      stripe = new Stripe();
+      serverStripes.byThread.put(thread, stripe);
+      serverStripes.retireDeadThreads();
+    }
+    return stripe;
+  }
+
+  /**
+   * @return The servers which have had connections. For clients these are the servers they connected to.
+   */
+  public Set<ServerID> getServerIDs() {
+    return stripes.keySet();
+  }
+
+  /**
+   * @return The totals for connections to or from the server {@code id}, or {@code null} if there have been none
+   */
+  public Stats getServerStats(ServerID id) {
+    ServerStripes serverStripes = stripes.get(id);
+    if (serverStripes == null) {
+      return null;
+    }
+    Stats stats = new Stats();
+    for (Stripe stripe : serverStripes.byThread.values()) {
+      stats.add(stripe);
+    }
+    stats.add(serverStripes.retired);
+    return stats;
+  }
+
+  /**
+   * @return The totals for all connections owned by the event loop running on {@code worker}, or {@code null} if it
+   * hasn't had any or has died. Passing a server's acceptor thread gives the accepts it deferred and refused.
+   */
+  public Stats getWorkerStats(Thread worker) {
+    Stats stats = null;
+    for (ServerStripes serverStripes : stripes.values()) {
+      Stripe stripe = serverStripes.byThread.get(worker);
+      if (stripe != null) {
+        if (stats == null) {
+          stats = new Stats();
+        }
+        stats.add(stripe);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * A snapshot of the totals for a server or event loop
+   */
+  public static class Stats {
+    private long bytesRead;
+    private long bytesWritten;
+    private long bytesQueued;
+    private long writeQueueFulls;
+    private long unwritableNanos;
+    private long opened;
+    private long closed;
+    private long pauses;
+    private long resumes;
+    private long idleCloses;
+    private long acceptsDeferred;
+    private long acceptDeferredNanos;
+    private long acceptsRefused;
+
+    /**
+     * @return The number of bytes read
+     */
+    public long getBytesRead() {
+      return bytesRead;
+    }
+
+    /**
+     * @return The number of bytes written
+     */
+    public long getBytesWritten() {
+      return bytesWritten;
+    }
+
+    /**
+     * @return The number of bytes queued for writing but not yet written
+     */
+    public long getWriteQueueSize() {
+      return bytesQueued - bytesWritten;
+    }
+
+    /**
+     * @return The number of times a write queue became full
+     */
+    public long getWriteQueueFulls() {
+      return writeQueueFulls;
+    }
+
+    /**
+     * @return The total time in milliseconds that write queues were full, not counting any which are still full
+     */
+    public long getWriteQueueFullTime() {
+      return unwritableNanos / 1000000;
+    }
+
+    /**
+     * @return The number of connections opened
+     */
+    public long getConnectionsOpened() {
+      return opened;
+    }
+
+    /**
+     * @return The number of connections closed
+     */
+    public long getConnectionsClosed() {
+      return closed;
+    }
+
+    /**
+     * @return The number of connections currently open
+     */
+    public long getActiveConnections() {
+      return opened - closed;
+    }
+
+    /**
+     * @return The number of times connections were paused
+     */
+    public long getPauses() {
+      return pauses;
+    }
+
+    /**
+     * @return The number of times connections were resumed
+     */
+    public long getResumes() {
+      return resumes;
+    }
+
+    /**
+     * @return The number of connections closed because they were idle or reached their maximum age
+     */
+    public long getIdleCloses() {
+      return idleCloses;
+    }
+
+    /**
+     * @return The number of connections which had to wait to be accepted because the server was at its connection
+     * limit or accept rate
+     */
+    public long getAcceptsDeferred() {
+      return acceptsDeferred;
+    }
+
+    /**
+     * @return The total time in milliseconds that connections waited to be accepted
+     */
+    public long getAcceptDeferredTime() {
+      return acceptDeferredNanos / 1000000;
+    }
+
+    /**
+     * @return The number of connections which were closed instead of accepted because the server was closed while
+     * they waited
+     */
+    public long getAcceptsRefused() {
+      return acceptsRefused;
+    }
+
+    private void add(Stripe stripe) {
+      // Read closed before opened so we never see more closed than opened
+      long c = stripe.get(CLOSED);
+      opened += stripe.get(OPENED);
+      closed += c;
+      // Likewise read written before queued
+      long w = stripe.get(BYTES_WRITTEN);
+      bytesQueued += stripe.get(BYTES_QUEUED);
+      bytesWritten += w;
+      bytesRead += stripe.get(BYTES_READ);
+      writeQueueFulls += stripe.get(WRITE_QUEUE_FULLS);
+      unwritableNanos += stripe.get(UNWRITABLE_NANOS);
+      pauses += stripe.get(PAUSES);
+      resumes += stripe.get(RESUMES);
+      idleCloses += stripe.get(IDLE_CLOSES);
+      acceptsDeferred += stripe.get(ACCEPTS_DEFERRED);
+      acceptDeferredNanos += stripe.get(ACCEPT_DEFERRED_NANOS);
+      acceptsRefused += stripe.get(ACCEPTS_REFUSED);
+    }
+
+    public String toString() {
+      return "opened=" + opened + " active=" + getActiveConnections() + " read=" + bytesRead + " written=" +
+          bytesWritten + " queued=" + getWriteQueueSize() + " queueFulls=" + writeQueueFulls + " queueFullTime=" +
+          getWriteQueueFullTime() + " pauses=" + pauses + " resumes=" + resumes + " idleCloses=" + idleCloses +
+          " acceptsDeferred=" + acceptsDeferred + " acceptDeferredTime=" + getAcceptDeferredTime() + " acceptsRefused=" +
+          acceptsRefused;
+    }
+  }
+
+  /*
+  The stripes for one server
+   */
+  private static class ServerStripes {
+    final NonBlockingHashMap<Thread, Stripe> byThread = new NonBlockingHashMap<>();
+    // The counts of threads which have died
+    final Stripe retired = new Stripe();
+
+    void retireDeadThreads() {
+      for (Map.Entry<Thread, Stripe> entry : byThread.entrySet()) {
+        // Removed before it's added to the retired stripe, so the totals may briefly be behind but are never counted
+        // twice. Only the thread which removes it folds it in
+        if (!entry.getKey().isAlive() && byThread.remove(entry.getKey(), entry.getValue())) {
+          Stripe stripe = entry.getValue();
+          for (int i = 0; i < COUNTERS; i++) {
+            retired.add(i, stripe.get(i));
+          }
+        }
+      }
+    }
+  }
+
+  /*
+  The counters for one server on one event loop, or on one acceptor thread
+   */
+  private static class Stripe implements ConnectionMetrics {
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+
+    void add(int counter, long delta) {
+      counters.getAndAdd(counter, delta);
+    }
+
+    long get(int counter) {
+      return counters.get(counter);
+    }
+
+    public void bytesRead(long bytes) {
+      add(BYTES_READ, bytes);
+    }
+
+    public void bytesQueued(long bytes) {
+      add(BYTES_QUEUED, bytes);
+    }
+
+    public void bytesWritten(long bytes) {
+      add(BYTES_WRITTEN, bytes);
+    }
+
+    public void writeQueueFull() {
+      add(WRITE_QUEUE_FULLS, 1);
+    }
+
+    public void writeQueueDrained(long nanos) {
+      add(UNWRITABLE_NANOS, nanos);
+    }
+
+    public void paused() {
+      add(PAUSES, 1);
+    }
+
+    public void resumed() {
+      add(RESUMES, 1);
+    }
+
+    public void idleClosed() {
+      add(IDLE_CLOSES, 1);
+    }
+
+    public void connectionClosed() {
+      add(CLOSED, 1);
+    }
+  }
+}
@@ -0,0 +1,921 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.vertx.java.core.BlockingAction;
+import org.vertx.java.core.CompletionHandler;
+import org.vertx.java.core.Future;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleFuture;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * <p>An asynchronous resolver of host names to addresses, used by {@link NetClient} and
+ * {@link org.vertx.java.core.http.HttpClient} so that connecting never blocks the event loop on a lookup.</p>
+ * <p>Names are looked up by sending DNS queries for their IPv4 addresses over UDP to the configured name servers,
+ * which by default are the ones in {@code /etc/resolv.conf}. Its search domains and {@code ndots} option are applied
+ * to relative names in the same way as the C library does, see {@link #setSearchDomains}. If there are no name
+ * servers, or {@code /etc/nsswitch.conf} says host names are looked up some other way than with the hosts file and
+ * DNS, names are looked up by the JDK on the background pool. So are names which exist but have no IPv4 addresses,
+ * which may have IPv6 ones, and names whose answer was too big to fit in a datagram.
+ * {@code localhost}, names in {@code /etc/hosts} and IP addresses are resolved straight away.</p>
+ * <p>Each query is sent from its own socket, so from a random port, with a random ID, which makes answers hard to
+ * forge.</p>
+ * <p>Results are cached for their TTL, up to {@link #setMaxTTL}, and names which don't exist for
+ * {@link #setNegativeTTL}. The cache holds up to {@link #setMaxCacheSize} names. When a name has several addresses,
+ * successive lookups go round them in turn. Lookups for a name made on an event loop while a query for it is
+ * outstanding wait for that query rather than sending another.</p>
+ * <p>Instances can be shared by different event loops. The cache is shared by all of them, each event loop has its
+ * own outstanding queries.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class DnsResolver {
+
+  private static final Logger log = Logger.getLogger(DnsResolver.class);
+
+  /**
+   * The default port name servers listen on
+   */
+  public static final int DEFAULT_PORT = 53;
+
+  /**
+   * The default time in ms to wait for a name server to answer before asking the next one
+   */
+  public static final long DEFAULT_TIMEOUT = 2000;
+
+  /**
+   * The default maximum time in ms an address is cached for, whatever its TTL
+   */
+  public static final long DEFAULT_MAX_TTL = 5 * 60 * 1000;
+
+  /**
+   * The default time in ms a name which doesn't exist is cached for
+   */
+  public static final long DEFAULT_NEGATIVE_TTL = 10 * 1000;
+
+  /**
+   * The default maximum number of names cached
+   */
+  public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+
+  // The JDK doesn't say how long its addresses are good for
+  private static final long JDK_TTL = 30 * 1000;
+  // Each name server is asked this many times before giving up
+  private static final int TRIES_PER_SERVER = 2;
+  // Expired entries are swept from the cache this often, as well as when it's full
+  private static final long SWEEP_INTERVAL = 60 * 1000;
+
+  private static final int TYPE_A = 1;
+  private static final int CLASS_IN = 1;
+  private static final int RCODE_NXDOMAIN = 3;
+  private static final int FLAG_TRUNCATED = 0x0200;
+
+  private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+  // Unpredictable IDs, so answers are hard to forge
+  private static final Random random = new SecureRandom();
+
+  /**
+   * The resolver used by clients unless they are given another one
+   */
+  public static final DnsResolver instance = new DnsResolver();
+
+  private volatile List<InetSocketAddress> servers;
+  private volatile List<String> searchDomains;
+  private volatile int ndots = 1;
+  private volatile long timeout = DEFAULT_TIMEOUT;
+  private volatile long maxTTL = DEFAULT_MAX_TTL;
+  private volatile long negativeTTL = DEFAULT_NEGATIVE_TTL;
+  private volatile int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+  private volatile long nextSweep;
+  private final Map<String, InetAddress[]> hosts;
+  private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, ContextResolver> resolvers = new ConcurrentHashMap<>();
+
+  /**
+   * Create a new resolver which uses the name servers and search domains in {@code /etc/resolv.conf}
+   */
+  public DnsResolver() {
+    readResolvConf();
+    if (!onlyFilesAndDns()) {
+      servers = Collections.emptyList();
+    }
+    hosts = readHosts();
+  }
+
+  /**
+   * Use the name servers {@code servers}, which are asked in turn. If none are given names are looked up by the JDK
+   * on the background pool.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DnsResolver setServers(InetSocketAddress... servers) {
+    for (InetSocketAddress server : servers) {
+      if (server.isUnresolved()) {
+        throw new IllegalArgumentException("Name server must be an IP address: " + server);
+      }
+    }
+    this.servers = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(servers)));
+    return this;
+  }
+
+  /**
+   * @return The name servers the resolver asks
+   */
+  public List<InetSocketAddress> getServers() {
+    return servers;
+  }
+
+  /**
+   * Set the domains which are searched for relative names, i.e. those without a trailing dot. A name with fewer dots
+   * than {@link #setNdots ndots} is tried in each of the domains in turn before it's tried as it is, other names are
+   * tried as they are first. The default is the {@code search} or {@code domain} in {@code /etc/resolv.conf}. When
+   * names are looked up by the JDK it applies the search domains itself.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DnsResolver setSearchDomains(String... domains) {
+    List<String> list = new ArrayList<>(domains.length);
+    for (String domain : domains) {
+      list.add(normalize(domain));
+    }
+    this.searchDomains = Collections.unmodifiableList(list);
+    return this;
+  }
+
+  /**
+   * @return The domains searched for relative names
+   */
+  public List<String> getSearchDomains() {
+    return searchDomains;
+  }
+
+  /**
+   * Set the number of dots a relative name needs to be tried as it is before the search domains. The default is the
+   * {@code ndots} option in {@code /etc/resolv.conf}, or 1.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DnsResolver setNdots(int ndots) {
+    if (ndots < 0) {
+      throw new IllegalArgumentException("Invalid ndots: " + ndots);
+    }
+    this.ndots = ndots;
+    return this;
+  }
+
+  /**
+   * Set the time in ms to wait for a name server to answer before asking the next one. The default is
+   * {@link #DEFAULT_TIMEOUT}
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DnsResolver setTimeout(long timeout) {
+    if (timeout < 1) {
+      throw new IllegalArgumentException("Invalid timeout: " + timeout);
+    }
+    this.timeout = timeout;
+    return this;
+  }
+
+  /**
+   * Set the maximum time in ms an address is cached for, whatever TTL the name server gave it. A value of 0 turns
+   * caching off. The default is {@link #DEFAULT_MAX_TTL}
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DnsResolver setMaxTTL(long ttl) {
+    if (ttl < 0) {
+      throw new IllegalArgumentException("Invalid TTL: " + ttl);
+    }
+    this.maxTTL = ttl;
+    return this;
+  }
+
+  /**
+   * Set the time in ms a name which doesn't exist is cached for. A value of 0 means they aren't cached. The default
+   * is {@link #DEFAULT_NEGATIVE_TTL}
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DnsResolver setNegativeTTL(long ttl) {
+    if (ttl < 0) {
+      throw new IllegalArgumentException("Invalid TTL: " + ttl);
+    }
+    this.negativeTTL = ttl;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of names cached, including names which don't exist. When the cache is full expired
+   * entries are removed, and if that isn't enough some of the others are too. The default is
+   * {@link #DEFAULT_MAX_CACHE_SIZE}
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public DnsResolver setMaxCacheSize(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Invalid cache size: " + size);
+    }
+    this.maxCacheSize = size;
+    return this;
+  }
+
+  /**
+   * Forget all the cached addresses
+   */
+  public void clearCache() {
+    cache.clear();
+  }
+
+  /**
+   * Resolve {@code host} to an address. The returned future is complete straight away if the address is cached,
+   * otherwise it completes on this event loop once the name has been looked up. If the name can't be resolved it
+   * fails with an {@link UnknownHostException}. Must be called on an event loop.
+   */
+  public Future<InetAddress> resolve(String host) {
+    final Long contextID = Vertx.instance.getContextID();
+    if (contextID == null) {
+      throw new IllegalStateException("Can only be used from an event loop");
+    }
+    SimpleFuture<InetAddress> future = new SimpleFuture<>();
+    boolean absolute = host.endsWith(".");
+    String name = normalize(host);
+
+    if (isIP(name)) {
+      try {
+        future.setResult(parseIP(name));
+      } catch (UnknownHostException e) {
+        future.setException(e);
+      }
+      return future;
+    }
+
+    InetAddress[] addresses = hosts.get(name);
+    if (addresses != null) {
+      future.setResult(addresses[0]);
+      return future;
+    }
+    if (name.equals("localhost")) {
+      future.setResult(InetAddress.getLoopbackAddress());
+      return future;
+    }
+
+    List<String> names = absolute || servers.isEmpty() ? Collections.singletonList(name) : searchList(name);
+    lookUp(contextID, names, 0, future);
+    return future;
+  }
+
+  /**
+   * Close the sockets used to send queries. Lookups in progress fail
+   */
+  public void close() {
+    for (final ContextResolver resolver : resolvers.values()) {
+      VertxInternal.instance.executeOnContext(resolver.contextID, new Runnable() {
+        public void run() {
+          VertxInternal.instance.setContextID(resolver.contextID);
+          resolver.close();
+        }
+      });
+    }
+    resolvers.clear();
+  }
+
+  /*
+  The names to try for the relative name, in order
+   */
+  private List<String> searchList(String name) {
+    List<String> domains = searchDomains;
+    if (domains.isEmpty()) {
+      return Collections.singletonList(name);
+    }
+    int dots = 0;
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) == '.') {
+        dots++;
+      }
+    }
+    boolean asIsFirst = dots >= ndots;
+    List<String> names = new ArrayList<>(domains.size() + 1);
+    if (asIsFirst) {
+      names.add(name);
+    }
+    for (String domain : domains) {
+      names.add(name + "." + domain);
+    }
+    if (!asIsFirst) {
+      names.add(name);
+    }
+    return names;
+  }
+
+  /*
+  Look up names[index], and if it doesn't exist the names after it, until one does. Each name is cached, and shares
+  its query with other lookups, on its own
+   */
+  private void lookUp(final long contextID, final List<String> names, final int index,
+                      final SimpleFuture<InetAddress> future) {
+    String name = names.get(index);
+    boolean last = index == names.size() - 1;
+    CacheEntry entry = cache.get(name);
+    if (entry != null) {
+      if (entry.expires > System.currentTimeMillis()) {
+        if (entry.addresses != null || last) {
+          entry.complete(future);
+        } else {
+          lookUp(contextID, names, index + 1, future);
+        }
+        return;
+      }
+      cache.remove(name, entry);
+    }
+
+    ContextResolver resolver = resolvers.get(contextID);
+    if (resolver == null) {
+      resolver = new ContextResolver(contextID);
+      resolvers.put(contextID, resolver);
+    }
+    if (last) {
+      resolver.resolve(name, future);
+      return;
+    }
+    SimpleFuture<InetAddress> attempt = new SimpleFuture<>();
+    attempt.handler(new CompletionHandler<InetAddress>() {
+      public void handle(Future<InetAddress> result) {
+        if (result.succeeded()) {
+          future.setResult(result.result());
+        } else if (result.exception() instanceof NameNotFoundException) {
+          lookUp(contextID, names, index + 1, future);
+        } else {
+          future.setException(result.exception());
+        }
+      }
+    });
+    resolver.resolve(name, attempt);
+  }
+
+  private void cache(String name, CacheEntry entry) {
+    long now = System.currentTimeMillis();
+    if (now >= nextSweep || cache.size() >= maxCacheSize) {
+      sweep(now);
+    }
+    cache.put(name, entry);
+  }
+
+  /*
+  Remove the expired entries, and if the cache is still full some of the others too, leaving room for a tenth more so
+  it isn't swept again on every put
+   */
+  private void sweep(long now) {
+    nextSweep = now + SWEEP_INTERVAL;
+    int max = maxCacheSize;
+    int excess = cache.size() - (max - max / 10 - 1);
+    for (Iterator<CacheEntry> iter = cache.values().iterator(); iter.hasNext(); ) {
+      if (iter.next().expires <= now) {
+        iter.remove();
+        excess--;
+      }
+    }
+    for (Iterator<CacheEntry> iter = cache.values().iterator(); excess > 0 && iter.hasNext(); excess--) {
+      iter.next();
+      iter.remove();
+    }
+  }
+
+  /*
+  The lookups in progress on one event loop, only accessed on that event loop. It's removed from the resolver when
+  there are none, so event loops which have gone away don't keep one
+   */
+  private class ContextResolver {
+
+    final long contextID;
+    private final Map<String, Query> byName = new HashMap<>();
+
+    ContextResolver(long contextID) {
+      this.contextID = contextID;
+    }
+
+    void resolve(String name, SimpleFuture<InetAddress> future) {
+      Query query = byName.get(name);
+      if (query != null) {
+        query.waiting.add(future);
+        return;
+      }
+      query = new Query(name, future);
+      byName.put(name, query);
+      List<InetSocketAddress> servers = DnsResolver.this.servers;
+      if (servers.isEmpty()) {
+        lookUpWithJDK(query);
+      } else {
+        query.servers = servers;
+        query.id = random.nextInt(0x10000);
+        // A new socket is bound to a random ephemeral port, which a forged answer has to guess as well as the ID
+        query.socket = new DatagramSocket();
+        final Query q = query;
+        query.socket.dataHandler(new Handler<DatagramPacket>() {
+          public void handle(DatagramPacket packet) {
+            handleResponse(q, packet);
+          }
+        });
+        query.socket.exceptionHandler(new Handler<Exception>() {
+          public void handle(Exception e) {
+            log.debug("Failed to send DNS query", e);
+          }
+        });
+        send(query);
+      }
+    }
+
+    private void send(final Query query) {
+      InetSocketAddress server = query.servers.get(query.tries % query.servers.size());
+      query.tries++;
+      query.socket.send(new Buffer(encodeQuery(query.id, query.name)), server.getAddress().getHostAddress(),
+          server.getPort());
+      query.timerID = Vertx.instance.setTimer(timeout, new Handler<Long>() {
+        public void handle(Long timerID) {
+          if (query.tries < query.servers.size() * TRIES_PER_SERVER) {
+            send(query);
+          } else {
+            closeSocket(query);
+            fail(query, new UnknownHostException(query.name + ": no answer from name servers"), false);
+          }
+        }
+      });
+    }
+
+    private void handleResponse(Query query, DatagramPacket packet) {
+      ChannelBuffer buff = packet.data.getChannelBuffer();
+      if (query.socket == null || buff.readableBytes() < 12 || buff.getUnsignedShort(0) != query.id ||
+          !query.servers.contains(packet.sender) || !matchesQuestion(buff, query.name)) {
+        // A late answer to a query which has been answered, or not from a name server at all, or forged
+        return;
+      }
+      Vertx.instance.cancelTimer(query.timerID);
+      closeSocket(query);
+      if ((buff.getUnsignedShort(2) & FLAG_TRUNCATED) != 0) {
+        // Some of the addresses may be missing, and the JDK will ask again over TCP
+        lookUpWithJDK(query);
+        return;
+      }
+      Answer answer;
+      try {
+        answer = decodeResponse(buff, query.name);
+      } catch (IndexOutOfBoundsException e) {
+        fail(query, new UnknownHostException(query.name + ": malformed answer from name server"), false);
+        return;
+      }
+      if (answer.addresses.length > 0) {
+        long ttl = Math.min(answer.ttl * 1000, maxTTL);
+        succeed(query, answer.addresses, ttl);
+      } else if (answer.rcode == RCODE_NXDOMAIN) {
+        fail(query, new NameNotFoundException(query.name), true);
+      } else if (answer.rcode == 0) {
+        // The name exists but has no IPv4 addresses, it may have IPv6 ones
+        lookUpWithJDK(query);
+      } else {
+        fail(query, new UnknownHostException(query.name + ": name server error " + answer.rcode), false);
+      }
+    }
+
+    private void lookUpWithJDK(final Query query) {
+      new BlockingAction<InetAddress[]>() {
+        public InetAddress[] action() throws Exception {
+          InetAddress[] all = InetAddress.getAllByName(query.name);
+          List<InetAddress> ipv4 = new ArrayList<>();
+          for (InetAddress address : all) {
+            if (address.getAddress().length == 4) {
+              ipv4.add(address);
+            }
+          }
+          // IPv4 addresses are used if there are any, as they are for names looked up with DNS
+          return ipv4.isEmpty() ? all : ipv4.toArray(new InetAddress[ipv4.size()]);
+        }
+      }.handler(new CompletionHandler<InetAddress[]>() {
+        public void handle(Future<InetAddress[]> result) {
+          if (result.succeeded()) {
+            succeed(query, result.result(), Math.min(JDK_TTL, maxTTL));
+          } else if (result.exception() instanceof UnknownHostException) {
+            fail(query, new NameNotFoundException(result.exception().getMessage()), true);
+          } else {
+            UnknownHostException e = new UnknownHostException(query.name);
+            e.initCause(result.exception());
+            fail(query, e, false);
+          }
+        }
+      }).execute();
+    }
+
+    private void succeed(Query query, InetAddress[] addresses, long ttl) {
+      done(query);
+      // The waiting lookups take the first turns of the round robin
+      CacheEntry entry = new CacheEntry(addresses, null, System.currentTimeMillis() + ttl);
+      if (ttl > 0) {
+        cache(query.name, entry);
+      }
+      for (SimpleFuture<InetAddress> future : query.waiting) {
+        entry.complete(future);
+      }
+    }
+
+    /*
+    notFound is true if the name doesn't exist or has no addresses, rather than the lookup having failed
+     */
+    private void fail(Query query, UnknownHostException e, boolean notFound) {
+      done(query);
+      if (notFound && negativeTTL > 0) {
+        cache(query.name, new CacheEntry(null, e.getMessage(), System.currentTimeMillis() + negativeTTL));
+      }
+      for (SimpleFuture<InetAddress> future : query.waiting) {
+        future.setException(e);
+      }
+    }
+
+    private void done(Query query) {
+      byName.remove(query.name);
+      if (byName.isEmpty()) {
+        resolvers.remove(contextID, this);
+      }
+    }
+
+    private void closeSocket(Query query) {
+      if (query.socket != null) {
+        query.socket.close();
+        query.socket = null;
+      }
+    }
+
+    void close() {
+      for (Query query : new ArrayList<>(byName.values())) {
+        if (query.socket != null) {
+          Vertx.instance.cancelTimer(query.timerID);
+          closeSocket(query);
+        }
+        fail(query, new UnknownHostException(query.name + ": resolver closed"), false);
+      }
+    }
+  }
+
+  private static class Query {
+    final String name;
+    final List<SimpleFuture<InetAddress>> waiting = new ArrayList<>(1);
+    List<InetSocketAddress> servers;
+    // The socket the query is sent from, until it's answered or times out
+    DatagramSocket socket;
+    int id;
+    int tries;
+    long timerID;
+
+    Query(String name, SimpleFuture<InetAddress> future) {
+      this.name = name;
+      waiting.add(future);
+    }
+  }
+
+  private static class CacheEntry {
+    final InetAddress[] addresses;
+    final String failure;
+    final long expires;
+    // Where the round robin over the addresses has got to, shared by all the event loops
+    private final AtomicInteger next = new AtomicInteger();
+
+    CacheEntry(InetAddress[] addresses, String failure, long expires) {
+      this.addresses = addresses;
+      this.failure = failure;
+      this.expires = expires;
+    }
+
+    void complete(SimpleFuture<InetAddress> future) {
+      if (addresses == null) {
+        future.setException(new NameNotFoundException(failure));
+      } else if (addresses.length == 1) {
+        future.setResult(addresses[0]);
+      } else {
+        future.setResult(addresses[(next.getAndIncrement() & Integer.MAX_VALUE) % addresses.length]);
+      }
+    }
+  }
+
+  /*
+  The name doesn't exist or has no addresses, as opposed to the lookup having failed
+   */
+  private static class NameNotFoundException extends UnknownHostException {
+    private static final long serialVersionUID = 1L;
+
+    NameNotFoundException(String message) {
+      super(message);
+    }
+  }
+
+  private static class Answer {
+    final int rcode;
+    final InetAddress[] addresses;
+    final long ttl;
+
+    Answer(int rcode, InetAddress[] addresses, long ttl) {
+      this.rcode = rcode;
+      this.addresses = addresses;
+      this.ttl = ttl;
+    }
+  }
+
+  static boolean isIP(String host) {
+    return IPV4.matcher(host).matches() || host.indexOf(':') != -1;
+  }
+
+  /*
+  An IP address is parsed by the JDK, not looked up
+   */
+  static InetAddress parseIP(String host) throws UnknownHostException {
+    return InetAddress.getByName(host);
+  }
+
+  /*
+  A standard query with recursion desired for the A records of name
+   */
+  static ChannelBuffer encodeQuery(int id, String name) {
+    ChannelBuffer buff = ChannelBuffers.buffer(12 + name.length() + 2 + 4);
+    buff.writeShort(id);
+    buff.writeShort(0x0100);
+    buff.writeShort(1);
+    buff.writeShort(0);
+    buff.writeShort(0);
+    buff.writeShort(0);
+    for (String label : name.split("\\.")) {
+      buff.writeByte(label.length());
+      for (int i = 0; i < label.length(); i++) {
+        buff.writeByte(label.charAt(i));
+      }
+    }
+    buff.writeByte(0);
+    buff.writeShort(TYPE_A);
+    buff.writeShort(CLASS_IN);
+    return buff;
+  }
+
+  /*
+  Does the response echo the question that was asked, for the A records of name? Ones which don't are ignored, as
+  they aren't an answer to the query even if the ID matches
+   */
+  static boolean matchesQuestion(ChannelBuffer buff, String name) {
+    try {
+      if ((buff.getUnsignedShort(2) & 0x8000) == 0 || buff.getUnsignedShort(4) != 1) {
+        return false;
+      }
+      StringBuilder question = new StringBuilder();
+      int pos = readName(buff, 12, question);
+      return question.toString().equalsIgnoreCase(name) && buff.getUnsignedShort(pos) == TYPE_A &&
+          buff.getUnsignedShort(pos + 2) == CLASS_IN;
+    } catch (IndexOutOfBoundsException e) {
+      return false;
+    }
+  }
+
+  /*
+  The A records in the answer section, following any CNAMEs from name. The TTL is the lowest of the records used, in
+  seconds
+   */
+  static Answer decodeResponse(ChannelBuffer buff, String name) {
+    int flags = buff.getUnsignedShort(2);
+    int rcode = flags & 0xF;
+    int questions = buff.getUnsignedShort(4);
+    int answers = buff.getUnsignedShort(6);
+    if ((flags & 0x8000) == 0 || rcode != 0) {
+      return new Answer(rcode, new InetAddress[0], 0);
+    }
+    int pos = 12;
+    for (int i = 0; i < questions; i++) {
+      pos = skipName(buff, pos) + 4;
+    }
+    String target = name;
+    long ttl = Long.MAX_VALUE;
+    List<InetAddress> addresses = new ArrayList<>();
+    for (int i = 0; i < answers; i++) {
+      StringBuilder owner = new StringBuilder();
+      pos = readName(buff, pos, owner);
+      int type = buff.getUnsignedShort(pos);
+      int clazz = buff.getUnsignedShort(pos + 2);
+      long recordTTL = buff.getUnsignedInt(pos + 4);
+      int length = buff.getUnsignedShort(pos + 8);
+      int data = pos + 10;
+      pos = data + length;
+      if (clazz != CLASS_IN || !owner.toString().equalsIgnoreCase(target)) {
+        continue;
+      }
+      if (type == TYPE_A && length == 4) {
+        byte[] bytes = new byte[4];
+        buff.getBytes(data, bytes);
+        try {
+          addresses.add(InetAddress.getByAddress(name, bytes));
+        } catch (UnknownHostException e) {
+          // Can't happen with four bytes
+        }
+        ttl = Math.min(ttl, recordTTL);
+      } else if (type == 5) {
+        // A CNAME, the records for the name it points to follow
+        StringBuilder canonical = new StringBuilder();
+        readName(buff, data, canonical);
+        target = canonical.toString();
+        ttl = Math.min(ttl, recordTTL);
+      }
+    }
+    return new Answer(rcode, addresses.toArray(new InetAddress[addresses.size()]), addresses.isEmpty() ? 0 : ttl);
+  }
+
+  private static int skipName(ChannelBuffer buff, int pos) {
+    while (true) {
+      int length = buff.getUnsignedByte(pos);
+      if ((length & 0xC0) == 0xC0) {
+        return pos + 2;
+      }
+      pos += 1 + length;
+      if (length == 0) {
+        return pos;
+      }
+    }
+  }
+
+  /*
+  Reads a possibly compressed name starting at pos, and returns the position after it
+   */
+  private static int readName(ChannelBuffer buff, int pos, StringBuilder name) {
+    int end = -1;
+    // Guards against pointer loops
+    int jumps = 0;
+    while (true) {
+      int length = buff.getUnsignedByte(pos);
+      if ((length & 0xC0) == 0xC0) {
+        if (end == -1) {
+          end = pos + 2;
+        }
+        if (++jumps > 64) {
+          throw new IndexOutOfBoundsException("DNS name pointer loop");
+        }
+        pos = ((length & 0x3F) << 8) | buff.getUnsignedByte(pos + 1);
+      } else if (length == 0) {
+        return end == -1 ? pos + 1 : end;
+      } else {
+        if (name.length() > 0) {
+          name.append('.');
+        }
+        for (int i = 0; i < length; i++) {
+          name.append((char) buff.getUnsignedByte(pos + 1 + i));
+        }
+        pos += 1 + length;
+      }
+    }
+  }
+
+  private void readResolvConf() {
+    List<InetSocketAddress> servers = new ArrayList<>();
+    List<String> domains = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader("/etc/resolv.conf"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.trim().split("\\s+");
+        if (parts.length < 2) {
+          continue;
+        }
+        switch (parts[0]) {
+          case "nameserver":
+            try {
+              servers.add(new InetSocketAddress(parseIP(parts[1]), DEFAULT_PORT));
+            } catch (UnknownHostException e) {
+              log.warn("Ignoring invalid name server in /etc/resolv.conf: " + parts[1]);
+            }
+            break;
+          case "domain":
+          case "search":
+            // Whichever comes last wins
+            domains.clear();
+            domains.addAll(Arrays.asList(parts).subList(1, parts.length));
+            break;
+          case "options":
+            for (int i = 1; i < parts.length; i++) {
+              if (parts[i].startsWith("ndots:")) {
+                try {
+                  ndots = Math.min(Integer.parseInt(parts[i].substring(6)), 15);
+                } catch (NumberFormatException e) {
+                  log.warn("Ignoring invalid option in /etc/resolv.conf: " + parts[i]);
+                }
+              }
+            }
+            break;
+        }
+      }
+    } catch (IOException e) {
+      // No resolv.conf, the JDK is used
+    }
+    this.servers = Collections.unmodifiableList(servers);
+    setSearchDomains(domains.toArray(new String[domains.size()]));
+  }
+
+  /*
+  Are host names only looked up in the hosts file and with DNS? If not, e.g. for mDNS or LDAP, the JDK has to do it
+   */
+  private static boolean onlyFilesAndDns() {
+    try (BufferedReader reader = new BufferedReader(new FileReader("/etc/nsswitch.conf"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int comment = line.indexOf('#');
+        if (comment != -1) {
+          line = line.substring(0, comment);
+        }
+        String[] parts = line.trim().split("\\s+");
+        if (!parts[0].equals("hosts:")) {
+          continue;
+        }
+        for (int i = 1; i < parts.length; i++) {
+          // Skip actions, e.g. [NOTFOUND=return]
+          if (parts[i].startsWith("[")) {
+            while (!parts[i].endsWith("]") && i < parts.length - 1) {
+              i++;
+            }
+          } else if (!parts[i].equals("files") && !parts[i].equals("dns")) {
+            return false;
+          }
+        }
+      }
+    } catch (IOException e) {
+      // No nsswitch.conf, so the C library's default of files then DNS
+    }
+    return true;
+  }
+
+  private static String normalize(String name) {
+    name = name.toLowerCase(Locale.ENGLISH);
+    return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+  }
+
+  private static Map<String, InetAddress[]> readHosts() {
+    Map<String, List<InetAddress>> hosts = new HashMap<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader("/etc/hosts"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int comment = line.indexOf('#');
+        if (comment != -1) {
+          line = line.substring(0, comment);
+        }
+        String[] parts = line.trim().split("\\s+");
+        if (parts.length < 2 || !IPV4.matcher(parts[0]).matches()) {
+          continue;
+        }
+        InetAddress address;
+        try {
+          address = InetAddress.getByName(parts[0]);
+        } catch (UnknownHostException e) {
+          continue;
+        }
+        for (int i = 1; i < parts.length; i++) {
+          String name = parts[i].toLowerCase(Locale.ENGLISH);
+          List<InetAddress> addresses = hosts.get(name);
+          if (addresses == null) {
+            addresses = new ArrayList<>(1);
+            hosts.put(name, addresses);
+          }
+          addresses.add(address);
+        }
+      }
+    } catch (IOException e) {
+      // No hosts file
+    }
+    Map<String, InetAddress[]> result = new HashMap<>();
+    for (Map.Entry<String, List<InetAddress>> entry : hosts.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toArray(new InetAddress[entry.getValue().size()]));
+    }
+    return result;
+  }
+}
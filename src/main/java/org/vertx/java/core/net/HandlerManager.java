@@ -6,10 +6,8 @@ import org.vertx.java.core.Vertx;
 import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="http://tfox.org">Tim Fox</a>
@@ -19,80 +17,117 @@ public class HandlerManager<T> {
   private static final Logger log = Logger.getLogger(HandlerManager.class);
 
   private final NetServerWorkerPool availableWorkers;
-  private Map<NioWorker, Handlers> handlerMap = new ConcurrentHashMap<>();
+
+  // Copy on write - chooseHandler is called for every connection so it must not take a lock. There's one entry per
+  // worker and there are rarely more workers than cores, so a scan is cheaper than a map lookup
+  @SuppressWarnings("unchecked")
+  private volatile Handlers<T>[] handlers = (Handlers<T>[]) new Handlers<?>[0];
 
   public HandlerManager(NetServerWorkerPool availableWorkers) {
     this.availableWorkers = availableWorkers;
   }
 
-  public synchronized boolean hasHandlers() {
+  public boolean hasHandlers() {
     return availableWorkers.workerCount() > 0;
   }
 
-  public synchronized HandlerHolder<T> chooseHandler(NioWorker worker) {
-    Handlers handlers = handlerMap.get(worker);
-    if (handlers == null) {
-      return null;
+  public HandlerHolder<T> chooseHandler(NioWorker worker) {
+    for (Handlers<T> h: handlers) {
+      if (h.worker == worker) {
+        return h.chooseHandler();
+      }
     }
-    return handlers.chooseHandler();
+    return null;
   }
 
   public synchronized void addHandler(Handler<T> handler) {
     long contextID = Vertx.instance.getContextID();
     NioWorker worker = VertxInternal.instance.getWorkerForContextID(contextID);
     availableWorkers.addWorker(worker);
-    Handlers handlers = handlerMap.get(worker);
-    if (handlers == null) {
-      handlers = new Handlers();
-      handlerMap.put(worker, handlers);
+    HandlerHolder<T> holder = new HandlerHolder<>(contextID, handler);
+    int index = indexOf(worker);
+    if (index == -1) {
+      Handlers<T>[] copy = Arrays.copyOf(handlers, handlers.length + 1);
+      copy[handlers.length] = new Handlers<>(worker, holder);
+      handlers = copy;
+    } else {
+      Handlers<T>[] copy = handlers.clone();
+      copy[index] = handlers[index].add(holder);
+      handlers = copy;
     }
-    handlers.addHandler(new HandlerHolder<>(contextID, handler));
   }
 
   public synchronized void removeHandler(Handler<T> handler) {
     long contextID = Vertx.instance.getContextID();
     NioWorker worker = VertxInternal.instance.getWorkerForContextID(contextID);
-    Handlers handlers = handlerMap.get(worker);
-    if (!handlers.removeHandler(new HandlerHolder<>(contextID, handler))) {
+    int index = indexOf(worker);
+    Handlers<T> updated = index == -1 ? null : handlers[index].remove(new HandlerHolder<>(contextID, handler));
+    if (updated == null) {
       throw new IllegalStateException("Can't find handler");
     }
-    if (handlers.isEmpty()) {
-      handlerMap.remove(worker);
+    if (updated.holders.length == 0) {
+      Handlers<T>[] copy = Arrays.copyOf(handlers, handlers.length - 1);
+      System.arraycopy(handlers, index + 1, copy, index, handlers.length - index - 1);
+      handlers = copy;
       availableWorkers.removeWorker(worker);
+    } else {
+      Handlers<T>[] copy = handlers.clone();
+      copy[index] = updated;
+      handlers = copy;
     }
   }
 
-  private static class Handlers {
-    int pos;
-    final List<HandlerHolder> list = new ArrayList<>();
-    HandlerHolder chooseHandler() {
-      HandlerHolder handler = list.get(pos);
-      pos++;
-      checkPos();
-      return handler;
+  private int indexOf(NioWorker worker) {
+    for (int i = 0; i < handlers.length; i++) {
+      if (handlers[i].worker == worker) {
+        return i;
+      }
     }
+    return -1;
+  }
 
-    void addHandler(HandlerHolder handler) {
-      list.add(handler);
+  /*
+  The handlers for one worker. Immutable apart from the round robin position, which is kept when a copy is made
+  so adding or removing a handler doesn't reset the rotation.
+   */
+  private static class Handlers<T> {
+    final NioWorker worker;
+    final HandlerHolder<T>[] holders;
+    final AtomicInteger pos;
+
+    @SuppressWarnings("unchecked")
+    Handlers(NioWorker worker, HandlerHolder<T> holder) {
+      this(worker, (HandlerHolder<T>[]) new HandlerHolder<?>[] {holder}, new AtomicInteger());
     }
 
-    boolean removeHandler(HandlerHolder handler) {
-      if (list.remove(handler)) {
-        checkPos();
-        return true;
-      } else {
-        return false;
-      }
+    private Handlers(NioWorker worker, HandlerHolder<T>[] holders, AtomicInteger pos) {
+      this.worker = worker;
+      this.holders = holders;
+      this.pos = pos;
+    }
+
+    HandlerHolder<T> chooseHandler() {
+      return holders[(pos.getAndIncrement() & Integer.MAX_VALUE) % holders.length];
     }
 
-    boolean isEmpty() {
-      return list.isEmpty();
+    Handlers<T> add(HandlerHolder<T> holder) {
+      HandlerHolder<T>[] copy = Arrays.copyOf(holders, holders.length + 1);
+      copy[holders.length] = holder;
+      return new Handlers<>(worker, copy, pos);
     }
 
-    void checkPos() {
-      if (pos == list.size()) {
-        pos = 0;
+    /*
+    Returns null if the holder isn't there
+     */
+    Handlers<T> remove(HandlerHolder<T> holder) {
+      for (int i = 0; i < holders.length; i++) {
+        if (holders[i].equals(holder)) {
+          HandlerHolder<T>[] copy = Arrays.copyOf(holders, holders.length - 1);
+          System.arraycopy(holders, i + 1, copy, i, holders.length - i - 1);
+          return new Handlers<>(worker, copy, pos);
+        }
       }
+      return null;
     }
   }
 
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+import org.jboss.netty.channel.socket.nio.NioWorker;
+import org.jboss.netty.handler.ssl.SslHandler;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the TLS handshake of a connection on the handshake pool instead of on the connection's event loop.<p>
+ * Most of the cost of a handshake is in the SSL engine's delegated tasks, which the SslHandler runs while it decodes
+ * handshake messages. The SslHandler can be given an executor for the tasks, but it doesn't carry on with the
+ * handshake when a task completes, so that would stall. Instead the whole inbound side of the SslHandler is run on the
+ * pool until the handshake has finished, and it runs the tasks itself as normal.<p>
+ * {@link #toPool} goes in front of the SslHandler and passes it the connection's events on the pool, one at a time and
+ * in order. {@link #toEventLoop} goes after the SslHandler and passes what comes out of it back to the event loop, so
+ * the rest of the pipeline sees events on the event loop as usual. Once the handshake has finished and the events
+ * before it have been passed on, both handlers pass events straight through.<p>
+ * The SslHandler also writes handshake messages, and flushes writes made during the handshake, on the pool.
+ * {@link #writesToEventLoop} goes in front of it and passes those back to the event loop in order, so the metrics and
+ * traffic shaping handlers only ever see writes on the event loop.<p>
+ * Instances are per channel.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class HandshakeOffloader {
+
+  private final Executor pool;
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+  private boolean running;
+  private volatile boolean offloading = true;
+  private volatile boolean handshaken;
+  private final AtomicInteger returning = new AtomicInteger();
+  private final AtomicInteger writing = new AtomicInteger();
+
+  private final Runnable drain = new Runnable() {
+    public void run() {
+      while (true) {
+        Runnable task;
+        synchronized (HandshakeOffloader.this) {
+          task = tasks.poll();
+          if (task == null) {
+            running = false;
+            if (handshaken) {
+              offloading = false;
+            }
+            return;
+          }
+        }
+        task.run();
+      }
+    }
+  };
+
+  final ChannelUpstreamHandler toPool = new ChannelUpstreamHandler() {
+    public void handleUpstream(final ChannelHandlerContext ctx, final ChannelEvent e) throws Exception {
+      if (offloading) {
+        if (isConnected(e)) {
+          // Start the handshake on the pool too, for clients this creates the key share
+          final SslHandler ssl = ctx.getPipeline().get(SslHandler.class);
+          offer(new Runnable() {
+            public void run() {
+              ssl.handshake().addListener(new ChannelFutureListener() {
+                public void operationComplete(ChannelFuture future) {
+                  handshaken = true;
+                }
+              });
+            }
+          });
+        }
+        if (offer(new Runnable() {
+          public void run() {
+            ctx.sendUpstream(e);
+          }
+        })) {
+          return;
+        }
+      }
+      ctx.sendUpstream(e);
+    }
+  };
+
+  final ChannelUpstreamHandler toEventLoop = new ChannelUpstreamHandler() {
+    public void handleUpstream(final ChannelHandlerContext ctx, final ChannelEvent e) throws Exception {
+      NioWorker worker = ((NioSocketChannel) e.getChannel()).getWorker();
+      // Once anything has been sent back, everything after it must be too, or it would overtake
+      if (Thread.currentThread() != worker.getThread() || returning.get() != 0) {
+        returning.incrementAndGet();
+        worker.scheduleOtherTask(new Runnable() {
+          public void run() {
+            returning.decrementAndGet();
+            ctx.sendUpstream(e);
+          }
+        });
+      } else {
+        ctx.sendUpstream(e);
+      }
+    }
+  };
+
+  final ChannelDownstreamHandler writesToEventLoop = new ChannelDownstreamHandler() {
+    public void handleDownstream(final ChannelHandlerContext ctx, final ChannelEvent e) throws Exception {
+      NioWorker worker = ((NioSocketChannel) e.getChannel()).getWorker();
+      // As for toEventLoop, once anything has been sent back everything after it must be too
+      if (Thread.currentThread() != worker.getThread() || writing.get() != 0) {
+        writing.incrementAndGet();
+        worker.scheduleOtherTask(new Runnable() {
+          public void run() {
+            writing.decrementAndGet();
+            ctx.sendDownstream(e);
+          }
+        });
+      } else {
+        ctx.sendDownstream(e);
+      }
+    }
+  };
+
+  HandshakeOffloader(Executor pool) {
+    this.pool = pool;
+  }
+
+  /*
+  Queue a task to run on the pool after those already queued. Returns false if the handshake has finished, in which
+  case the caller should run it itself
+   */
+  private boolean offer(Runnable task) {
+    boolean start;
+    synchronized (this) {
+      if (!offloading) {
+        return false;
+      }
+      tasks.add(task);
+      start = !running;
+      running = true;
+    }
+    if (start) {
+      pool.execute(drain);
+    }
+    return true;
+  }
+
+  private static boolean isConnected(ChannelEvent e) {
+    if (e instanceof ChannelStateEvent) {
+      ChannelStateEvent se = (ChannelStateEvent) e;
+      return se.getState() == ChannelState.CONNECTED && se.getValue() != null;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.WriteCompletionEvent;
+import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closes a connection which has been idle for too long, or which has reached its maximum age.<p>
+ * Each connection has at most one timeout at a time on the vert.x hashed wheel timer, so the cost per connection is
+ * constant however many connections there are. Reads and writes just record the time. When the timeout fires it is
+ * run on the connection's event loop, which either closes the connection or sets a new timeout for the next
+ * deadline.<p>
+ * Instances are per channel. Apart from {@link #channelConnected} all the state is only touched on the channel's
+ * worker thread.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class IdleTimeoutHandler extends SimpleChannelUpstreamHandler implements TimerTask {
+
+  private static final Logger log = Logger.getLogger(IdleTimeoutHandler.class);
+
+  private final long readIdleTimeout;
+  private final long writeIdleTimeout;
+  private final long idleTimeout;
+  private final long maxConnectionAge;
+  private final AtomicLong idleCloses;
+
+  private NioSocketChannel channel;
+  private long connected;
+  private long lastRead;
+  private long lastWrite;
+  private Timeout timeout;
+
+  private final Runnable checkTask = new Runnable() {
+    public void run() {
+      check();
+    }
+  };
+
+  IdleTimeoutHandler(long readIdleTimeout, long writeIdleTimeout, long idleTimeout, long maxConnectionAge,
+                     AtomicLong idleCloses) {
+    this.readIdleTimeout = readIdleTimeout;
+    this.writeIdleTimeout = writeIdleTimeout;
+    this.idleTimeout = idleTimeout;
+    this.maxConnectionAge = maxConnectionAge;
+    this.idleCloses = idleCloses;
+  }
+
+  @Override
+  public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    channel = (NioSocketChannel) e.getChannel();
+    connected = lastRead = lastWrite = System.currentTimeMillis();
+    // This can be called on the acceptor thread, so the first timeout is set on the worker
+    channel.getWorker().scheduleOtherTask(checkTask);
+    super.channelConnected(ctx, e);
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    lastRead = System.currentTimeMillis();
+    super.messageReceived(ctx, e);
+  }
+
+  @Override
+  public void writeComplete(ChannelHandlerContext ctx, WriteCompletionEvent e) throws Exception {
+    lastWrite = System.currentTimeMillis();
+    super.writeComplete(ctx, e);
+  }
+
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    Timeout t = timeout;
+    if (t != null) {
+      t.cancel();
+    }
+    super.channelClosed(ctx, e);
+  }
+
+  // Called on the timer thread
+  public void run(Timeout t) {
+    if (!t.isCancelled()) {
+      channel.getWorker().scheduleOtherTask(checkTask);
+    }
+  }
+
+  private void check() {
+    Channel ch = channel;
+    if (!ch.isOpen()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    long deadline = nextDeadline();
+    if (now >= deadline) {
+      idleCloses.incrementAndGet();
+      MetricsHandler metrics = ch.getPipeline().get(MetricsHandler.class);
+      if (metrics != null) {
+        metrics.idleClosed();
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Closing idle connection " + ch.getRemoteAddress());
+      }
+      ch.close();
+    } else {
+      timeout = VertxInternal.instance.getTimer().newTimeout(this, deadline - now, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private long nextDeadline() {
+    long deadline = Long.MAX_VALUE;
+    if (readIdleTimeout > 0) {
+      deadline = Math.min(deadline, lastRead + readIdleTimeout);
+    }
+    if (writeIdleTimeout > 0) {
+      deadline = Math.min(deadline, lastWrite + writeIdleTimeout);
+    }
+    if (idleTimeout > 0) {
+      deadline = Math.min(deadline, Math.max(lastRead, lastWrite) + idleTimeout);
+    }
+    if (maxConnectionAge > 0) {
+      deadline = Math.min(deadline, connected + maxConnectionAge);
+    }
+    return deadline;
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelSink;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
+import org.jboss.netty.channel.socket.nio.NioWorker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One end of a connection made in memory to a server in the same JVM, see {@link LocalSocketChannelFactory}.<p>
+ * It is a {@link NioSocketChannel} so the rest of vert.x can treat it like any other connection, and it belongs to a
+ * worker, i.e. an event loop, like any other. But there is no socket, it's never registered with the worker's selector
+ * and Netty's NIO code never sees it. Instead what's written to it is queued on the other end, which passes it up its
+ * pipeline on its own worker. The buffers are passed by reference, they aren't copied.<p>
+ * Written data counts towards the writer's write queue until the other end has read it, so the write queue limits and
+ * pausing work just as they do for TCP. An end which isn't readable leaves what's queued for it until it is.<p>
+ * Events are fired on the channel's worker.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class LocalSocketChannel extends NioSocketChannel {
+
+  // The NioSocketChannel constructor needs a socket, though this class never uses it. It's closed straight away, so
+  // it doesn't hold on to a file descriptor
+  private static final SocketChannel NO_SOCKET;
+
+  static {
+    try {
+      NO_SOCKET = SocketChannel.open();
+      NO_SOCKET.close();
+    } catch (IOException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  // Marks the end of what the other end wrote
+  private static final Object CLOSE = new Object();
+
+  private final LocalSocketChannelConfig config = new LocalSocketChannelConfig();
+  private final InetSocketAddress localAddress;
+  private volatile InetSocketAddress remoteAddress;
+  volatile LocalSocketChannel peer;
+  private volatile boolean connected;
+
+  // What the other end has written and this end hasn't read yet
+  private final Queue<Object> inbound = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean readScheduled = new AtomicBoolean();
+  private final Runnable readTask = new Runnable() {
+    public void run() {
+      readScheduled.set(false);
+      read();
+    }
+  };
+
+  // What this end has written and the other end hasn't read yet
+  private final AtomicInteger writeQueueSize = new AtomicInteger();
+  private volatile boolean writeSuspended;
+
+  LocalSocketChannel(Channel parent, ChannelFactory factory, ChannelPipeline pipeline, ChannelSink sink,
+                     NioWorker worker, InetSocketAddress localAddress) {
+    super(parent, factory, pipeline, sink, NO_SOCKET, worker);
+    this.localAddress = localAddress;
+  }
+
+  public NioSocketChannelConfig getConfig() {
+    return config;
+  }
+
+  public InetSocketAddress getLocalAddress() {
+    return localAddress;
+  }
+
+  public InetSocketAddress getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  public boolean isBound() {
+    return isOpen();
+  }
+
+  public boolean isConnected() {
+    return connected && isOpen();
+  }
+
+  public int getInterestOps() {
+    if (!isOpen()) {
+      return Channel.OP_WRITE;
+    }
+    // OP_WRITE means it isn't writable
+    int ops = super.getInterestOps() & ~Channel.OP_WRITE;
+    return writeSuspended ? ops | Channel.OP_WRITE : ops;
+  }
+
+  /*
+  Connect the two ends. Called on the acceptor, before the events for either end have been fired
+   */
+  static void pair(LocalSocketChannel client, LocalSocketChannel server) {
+    client.peer = server;
+    client.remoteAddress = server.localAddress;
+    server.peer = client;
+    server.remoteAddress = client.localAddress;
+  }
+
+  /*
+  Fire the events for a new connection, on the worker
+   */
+  void connected(final ChannelFuture future) {
+    execute(new Runnable() {
+      public void run() {
+        connected = true;
+        if (future != null) {
+          future.setSuccess();
+        }
+        Channels.fireChannelBound(LocalSocketChannel.this, localAddress);
+        Channels.fireChannelConnected(LocalSocketChannel.this, remoteAddress);
+      }
+    });
+  }
+
+  /*
+  Fail the connect and close, on the worker
+   */
+  void connectFailed(final ChannelFuture future, final Throwable cause) {
+    execute(new Runnable() {
+      public void run() {
+        future.setFailure(cause);
+        close(Channels.future(LocalSocketChannel.this));
+      }
+    });
+  }
+
+  void write(MessageEvent e) {
+    LocalSocketChannel other = peer;
+    if (!isConnected() || other == null) {
+      e.getFuture().setFailure(new ClosedChannelException());
+      return;
+    }
+    Object msg = e.getMessage();
+    if (!(msg instanceof ChannelBuffer)) {
+      e.getFuture().setFailure(new UnsupportedOperationException("Local connections can only write buffers"));
+      return;
+    }
+    ChannelBuffer buff = (ChannelBuffer) msg;
+    int size = buff.readableBytes();
+    // The other end gets its own indexes, the content is shared
+    other.inbound.add(new Write(e, buff.duplicate(), size));
+    if (writeQueueSize.addAndGet(size) >= config.getWriteBufferHighWaterMark() && !writeSuspended) {
+      writeSuspended = true;
+      fireInterestChanged();
+    }
+    other.scheduleRead();
+  }
+
+  void setInterestOps(int ops, ChannelFuture future) {
+    setInterestOpsNow(ops);
+    future.setSuccess();
+    fireInterestChanged();
+    if ((ops & Channel.OP_READ) != 0) {
+      scheduleRead();
+    }
+  }
+
+  void close(ChannelFuture future) {
+    final LocalSocketChannel other = peer;
+    final boolean wasConnected = isConnected();
+    if (setClosed()) {
+      future.setSuccess();
+      execute(new Runnable() {
+        public void run() {
+          if (wasConnected) {
+            Channels.fireChannelDisconnected(LocalSocketChannel.this);
+            Channels.fireChannelUnbound(LocalSocketChannel.this);
+          }
+          Channels.fireChannelClosed(LocalSocketChannel.this);
+          // Nothing more will be read, so let the writer know it's gone
+          read();
+        }
+      });
+      if (wasConnected && other != null) {
+        // The other end is closed once it has read everything before this
+        other.inbound.add(CLOSE);
+        other.scheduleRead();
+      }
+    } else {
+      future.setSuccess();
+    }
+  }
+
+  private void scheduleRead() {
+    if (readScheduled.compareAndSet(false, true)) {
+      // Always later, so a write never calls straight back into the pipeline of the other end
+      getWorker().scheduleOtherTask(readTask);
+    }
+  }
+
+  /*
+  Pass what's been written by the other end up the pipeline, as long as this end is readable. Called on the worker
+   */
+  private void read() {
+    List<Write> done = null;
+    boolean closed = !isOpen();
+    while (closed || (super.getInterestOps() & Channel.OP_READ) != 0) {
+      Object next = inbound.poll();
+      if (next == null) {
+        break;
+      }
+      if (next == CLOSE) {
+        close(Channels.future(this));
+        closed = true;
+        continue;
+      }
+      Write write = (Write) next;
+      if (!closed) {
+        Channels.fireMessageReceived(this, write.buff);
+      } else {
+        write.failed = true;
+      }
+      if (done == null) {
+        done = new ArrayList<>();
+      }
+      done.add(write);
+    }
+    if (done != null) {
+      peer.writesDone(done);
+    }
+  }
+
+  /*
+  The other end has read these writes, complete them on this end's worker
+   */
+  private void writesDone(final List<Write> writes) {
+    execute(new Runnable() {
+      public void run() {
+        long written = 0;
+        for (Write write : writes) {
+          if (write.failed) {
+            write.event.getFuture().setFailure(new ClosedChannelException());
+          } else {
+            written += write.size;
+            write.event.getFuture().setSuccess();
+          }
+          writeQueueSize.addAndGet(-write.size);
+        }
+        if (written != 0) {
+          Channels.fireWriteComplete(LocalSocketChannel.this, written);
+        }
+        if (writeSuspended && writeQueueSize.get() < config.getWriteBufferLowWaterMark()) {
+          writeSuspended = false;
+          fireInterestChanged();
+        }
+      }
+    });
+  }
+
+  private void fireInterestChanged() {
+    execute(new Runnable() {
+      public void run() {
+        Channels.fireChannelInterestChanged(LocalSocketChannel.this);
+      }
+    });
+  }
+
+  private void execute(Runnable task) {
+    NioWorker worker = getWorker();
+    if (Thread.currentThread() == worker.getThread()) {
+      task.run();
+    } else {
+      worker.scheduleOtherTask(task);
+    }
+  }
+
+  private static class Write {
+    final MessageEvent event;
+    final ChannelBuffer buff;
+    final int size;
+    boolean failed;
+
+    Write(MessageEvent event, ChannelBuffer buff, int size) {
+      this.event = event;
+      this.buff = buff;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.channel.AdaptiveReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.DefaultChannelConfig;
+import org.jboss.netty.channel.ReceiveBufferSizePredictor;
+import org.jboss.netty.channel.ReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
+
+/**
+ * The config of a {@link LocalSocketChannel}. Only the write buffer water marks mean anything, as they're the limits
+ * of the write queue. The socket options are kept so they can be read back, but there is no socket to apply them to.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class LocalSocketChannelConfig extends DefaultChannelConfig implements NioSocketChannelConfig {
+
+  private volatile int writeBufferHighWaterMark = 64 * 1024;
+  private volatile int writeBufferLowWaterMark = 32 * 1024;
+  private boolean tcpNoDelay;
+  private int soLinger = -1;
+  private int sendBufferSize;
+  private int receiveBufferSize;
+  private boolean keepAlive;
+  private int trafficClass;
+  private boolean reuseAddress;
+  private int writeSpinCount = 16;
+  private ReceiveBufferSizePredictorFactory predictorFactory = new AdaptiveReceiveBufferSizePredictorFactory();
+
+  public boolean setOption(String key, Object value) {
+    if (super.setOption(key, value)) {
+      return true;
+    }
+    switch (key) {
+      case "writeBufferHighWaterMark":
+        setWriteBufferHighWaterMark((Integer) value);
+        return true;
+      case "writeBufferLowWaterMark":
+        setWriteBufferLowWaterMark((Integer) value);
+        return true;
+      case "tcpNoDelay":
+        setTcpNoDelay((Boolean) value);
+        return true;
+      case "keepAlive":
+        setKeepAlive((Boolean) value);
+        return true;
+      case "reuseAddress":
+        setReuseAddress((Boolean) value);
+        return true;
+      case "soLinger":
+        setSoLinger((Integer) value);
+        return true;
+      case "sendBufferSize":
+        setSendBufferSize((Integer) value);
+        return true;
+      case "receiveBufferSize":
+        setReceiveBufferSize((Integer) value);
+        return true;
+      case "trafficClass":
+        setTrafficClass((Integer) value);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  public int getWriteBufferHighWaterMark() {
+    return writeBufferHighWaterMark;
+  }
+
+  public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+    this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+  }
+
+  public int getWriteBufferLowWaterMark() {
+    return writeBufferLowWaterMark;
+  }
+
+  public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+    this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+  }
+
+  public int getWriteSpinCount() {
+    return writeSpinCount;
+  }
+
+  public void setWriteSpinCount(int writeSpinCount) {
+    this.writeSpinCount = writeSpinCount;
+  }
+
+  public ReceiveBufferSizePredictor getReceiveBufferSizePredictor() {
+    try {
+      return predictorFactory.getPredictor();
+    } catch (Exception e) {
+      throw new ChannelException("Failed to create a receive buffer size predictor", e);
+    }
+  }
+
+  public void setReceiveBufferSizePredictor(final ReceiveBufferSizePredictor predictor) {
+    this.predictorFactory = new ReceiveBufferSizePredictorFactory() {
+      public ReceiveBufferSizePredictor getPredictor() {
+        return predictor;
+      }
+    };
+  }
+
+  public ReceiveBufferSizePredictorFactory getReceiveBufferSizePredictorFactory() {
+    return predictorFactory;
+  }
+
+  public void setReceiveBufferSizePredictorFactory(ReceiveBufferSizePredictorFactory predictorFactory) {
+    this.predictorFactory = predictorFactory;
+  }
+
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  public int getSoLinger() {
+    return soLinger;
+  }
+
+  public void setSoLinger(int soLinger) {
+    this.soLinger = soLinger;
+  }
+
+  public int getSendBufferSize() {
+    return sendBufferSize;
+  }
+
+  public void setSendBufferSize(int sendBufferSize) {
+    this.sendBufferSize = sendBufferSize;
+  }
+
+  public int getReceiveBufferSize() {
+    return receiveBufferSize;
+  }
+
+  public void setReceiveBufferSize(int receiveBufferSize) {
+    this.receiveBufferSize = receiveBufferSize;
+  }
+
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  public int getTrafficClass() {
+    return trafficClass;
+  }
+
+  public void setTrafficClass(int trafficClass) {
+    this.trafficClass = trafficClass;
+  }
+
+  public boolean isReuseAddress() {
+    return reuseAddress;
+  }
+
+  public void setReuseAddress(boolean reuseAddress) {
+    this.reuseAddress = reuseAddress;
+  }
+
+  public void setPerformancePreferences(int connectionTime, int latency, int bandwidth) {
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.AbstractServerChannel;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultServerChannelConfig;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.SocketChannel;
+import org.jboss.netty.channel.socket.nio.NioWorker;
+import org.vertx.java.core.internal.VertxInternal;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes connections in memory to servers in the same JVM, for clients which connect to
+ * {@link NetClientBase#LOCAL_HOST}.<p>
+ * Servers which accept local connections, see {@link NetServerBase#setAcceptLocal}, are bound here by port. There is
+ * no host, as clients only have the port to go on, so a port can only be bound once. A client connecting to the local
+ * host gets a {@link LocalSocketChannel} from this factory, and connecting it creates the server's end of the
+ * connection on the acceptor pool, with the server's pipeline and one of its workers, as if it had been accepted.
+ * The two ends are then connected to each other. Everything above the channels, e.g. SSL or the HTTP codec, is the same
+ * as for TCP.<p>
+ * Like the NIO client factory, the worker for new channels is set before each connect, so client connections share the
+ * worker of the context which made them.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class LocalSocketChannelFactory implements ClientSocketChannelFactory {
+
+  private static final ConcurrentMap<Integer, LocalServerChannel> servers = new ConcurrentHashMap<>();
+
+  // Client ends get a port of their own, just so they can be told apart
+  private static final AtomicInteger nextPort = new AtomicInteger();
+
+  private static final Sink sink = new Sink();
+
+  private volatile NioWorker worker;
+
+  /**
+   * Set the worker new channels will belong to
+   */
+  public void setWorker(NioWorker worker) {
+    this.worker = worker;
+  }
+
+  public SocketChannel newChannel(ChannelPipeline pipeline) {
+    LocalSocketChannel ch = new LocalSocketChannel(null, this, pipeline, sink, worker,
+        address((nextPort.getAndIncrement() & 0xffff) + 1));
+    Channels.fireChannelOpen(ch);
+    return ch;
+  }
+
+  public void releaseExternalResources() {
+  }
+
+  /*
+  Let local clients connect to a server. Returns the channel to close to stop them
+   */
+  static Channel bind(int port, ChannelPipelineFactory pipelineFactory, NetServerWorkerPool workers) {
+    LocalServerChannel server = new LocalServerChannel(port, pipelineFactory, workers);
+    if (servers.putIfAbsent(port, server) != null) {
+      throw new ChannelException("Port " + port + " is already bound for local connections");
+    }
+    return server;
+  }
+
+  private static InetSocketAddress address(int port) {
+    return InetSocketAddress.createUnresolved(NetClientBase.LOCAL_HOST, port);
+  }
+
+  private static void connect(final LocalSocketChannel client, InetSocketAddress address, final ChannelFuture future) {
+    final LocalServerChannel server = servers.get(address.getPort());
+    if (server == null) {
+      client.connectFailed(future, new ConnectException("Connection refused: " + address));
+      return;
+    }
+    // The server's pipeline factory can block, e.g. if it's limiting connections, so not on the event loop
+    VertxInternal.instance.getAcceptorPool().execute(new Runnable() {
+      public void run() {
+        server.accept(client, future);
+      }
+    });
+  }
+
+  private static class Sink extends AbstractChannelSink {
+    public void eventSunk(ChannelPipeline pipeline, ChannelEvent e) throws Exception {
+      Channel ch = e.getChannel();
+      if (ch instanceof LocalServerChannel) {
+        ((LocalServerChannel) ch).handle(e);
+        return;
+      }
+      LocalSocketChannel channel = (LocalSocketChannel) ch;
+      ChannelFuture future = e.getFuture();
+      if (e instanceof MessageEvent) {
+        channel.write((MessageEvent) e);
+      } else if (e instanceof ChannelStateEvent) {
+        ChannelStateEvent event = (ChannelStateEvent) e;
+        Object value = event.getValue();
+        switch (event.getState()) {
+          case OPEN:
+            if (Boolean.FALSE.equals(value)) {
+              channel.close(future);
+            }
+            break;
+          case BOUND:
+            if (value == null) {
+              channel.close(future);
+            } else {
+              future.setSuccess();
+            }
+            break;
+          case CONNECTED:
+            if (value == null) {
+              channel.close(future);
+            } else {
+              connect(channel, (InetSocketAddress) value, future);
+            }
+            break;
+          case INTEREST_OPS:
+            channel.setInterestOps((Integer) value, future);
+            break;
+        }
+      }
+    }
+  }
+
+  private static class LocalServerChannel extends AbstractServerChannel {
+
+    private final int port;
+    private final ChannelPipelineFactory pipelineFactory;
+    private final NetServerWorkerPool workers;
+    private final ChannelConfig config = new DefaultServerChannelConfig();
+
+    LocalServerChannel(int port, ChannelPipelineFactory pipelineFactory, NetServerWorkerPool workers) {
+      // Nothing listens to the events of the server channel itself, but a pipeline with no handlers complains
+      super(new LocalSocketChannelFactory(), Channels.pipeline(new SimpleChannelUpstreamHandler()), sink);
+      this.port = port;
+      this.pipelineFactory = pipelineFactory;
+      this.workers = workers;
+    }
+
+    public ChannelConfig getConfig() {
+      return config;
+    }
+
+    public boolean isBound() {
+      return isOpen();
+    }
+
+    public InetSocketAddress getLocalAddress() {
+      return address(port);
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+      return null;
+    }
+
+    /*
+    Called on the acceptor pool
+     */
+    void accept(LocalSocketChannel client, ChannelFuture future) {
+      ChannelPipeline pipeline;
+      try {
+        if (!isOpen()) {
+          throw new ConnectException("Connection refused: " + getLocalAddress());
+        }
+        pipeline = pipelineFactory.getPipeline();
+      } catch (Exception e) {
+        client.connectFailed(future, e);
+        return;
+      }
+      LocalSocketChannel child = new LocalSocketChannel(this, getFactory(), pipeline, sink, workers.nextWorker(),
+          getLocalAddress());
+      Channels.fireChannelOpen(child);
+      LocalSocketChannel.pair(client, child);
+      child.connected(null);
+      client.connected(future);
+    }
+
+    void handle(ChannelEvent e) {
+      if (e instanceof ChannelStateEvent) {
+        ChannelStateEvent event = (ChannelStateEvent) e;
+        if ((event.getState() == ChannelState.OPEN && Boolean.FALSE.equals(event.getValue())) ||
+            (event.getState() == ChannelState.BOUND && event.getValue() == null)) {
+          servers.remove(port, this);
+          if (setClosed()) {
+            Channels.fireChannelClosed(this);
+          }
+        }
+      }
+      e.getFuture().setSuccess();
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+import org.jboss.netty.handler.stream.ChunkedInput;
+import org.jboss.netty.handler.stream.ChunkedWriteHandler;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends a file in chunks from memory mapped windows of the file. This is used for sendFile on SSL connections, where
+ * the file can't be sent with zero-copy as it has to pass through the SSL engine.<p>
+ * The chunks are slices of the mapping, so there is no copy, and the chunk size can be set to match the maximum TLS
+ * record size so each chunk is one record. Each window is mapped and loaded into memory on the background pool, while
+ * the one before it is being written, so the event loop never waits for the disk. If a window isn't loaded when it's
+ * needed {@link #nextChunk} returns {@code null} and the transfer is resumed when it is.<p>
+ * On SSL connections the windows are unmapped by {@link #unmapWindows} once the last chunk has been written, rather
+ * than left for the garbage collector. A window can't be unmapped when the next one is started as the SSL handler may
+ * not have encrypted all its chunks yet, so they are all kept until then. They only take address space, the pages are
+ * read only and the OS can drop them at any time.<p>
+ * Apart from loading the windows everything is called on the connection's event loop.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class MappedChunkedFile implements ChunkedInput {
+
+  // The maximum plain text in one TLS record
+  static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+  private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+
+  private static final Logger log = Logger.getLogger(MappedChunkedFile.class);
+
+  // Unsafe.invokeCleaner on Java 9 and later, otherwise the buffers' cleaner() method is used
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> clazz = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = clazz.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+    } catch (Exception e) {
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private final Channel channel;
+  private final RandomAccessFile raf;
+  private final FileChannel fc;
+  private final long end;
+  private final int chunkSize;
+  private final int windowSize;
+  private long position;
+  private long mapped;
+  private boolean loading;
+  private ByteBuffer current;
+  // The windows chunks have been taken from
+  private final List<MappedByteBuffer> windows = new ArrayList<>();
+  private final AtomicReference<MappedByteBuffer> loaded = new AtomicReference<>();
+  private volatile IOException loadFailure;
+  private volatile boolean closed;
+
+  private final Runnable resume = new Runnable() {
+    public void run() {
+      ChunkedWriteHandler writer = channel.getPipeline().get(ChunkedWriteHandler.class);
+      if (writer != null) {
+        writer.resumeTransfer();
+      }
+    }
+  };
+
+  MappedChunkedFile(Channel channel, RandomAccessFile raf, long offset, long length, int chunkSize) {
+    this.channel = channel;
+    this.raf = raf;
+    this.fc = raf.getChannel();
+    this.position = this.mapped = offset;
+    this.end = offset + length;
+    this.chunkSize = chunkSize;
+    this.windowSize = Math.max(chunkSize, WINDOW_SIZE / chunkSize * chunkSize);
+    loadNextWindow();
+  }
+
+  public boolean hasNextChunk() {
+    return position < end;
+  }
+
+  public Object nextChunk() throws Exception {
+    if (loadFailure != null) {
+      throw loadFailure;
+    }
+    if (current == null || !current.hasRemaining()) {
+      MappedByteBuffer window = loaded.getAndSet(null);
+      if (window == null) {
+        // Not loaded yet, the transfer is resumed when it is
+        return null;
+      }
+      windows.add(window);
+      current = window;
+      loading = false;
+      loadNextWindow();
+    }
+    int len = Math.min(chunkSize, current.remaining());
+    ByteBuffer chunk = current.slice();
+    chunk.limit(len);
+    current.position(current.position() + len);
+    position += len;
+    return ChannelBuffers.wrappedBuffer(chunk);
+  }
+
+  public boolean isEndOfInput() {
+    return !hasNextChunk();
+  }
+
+  /*
+  Called when the last chunk is taken, before it's written, or when the transfer is given up
+   */
+  public void close() throws Exception {
+    closed = true;
+    // Never handed out, so nothing else has it
+    unmapLoaded();
+    raf.close();
+  }
+
+  /*
+  Unmap the windows chunks have been taken from. This is only safe once every chunk has been written and nothing holds
+  on to them. The SSL engine copies chunks as it encrypts them, but a local connection passes them to the reader, who
+  may keep them
+   */
+  void unmapWindows() {
+    for (MappedByteBuffer window : windows) {
+      unmap(window);
+    }
+    windows.clear();
+    current = null;
+  }
+
+  private void loadNextWindow() {
+    if (loading || mapped >= end) {
+      return;
+    }
+    final long pos = mapped;
+    final long size = Math.min(windowSize, end - pos);
+    mapped += size;
+    loading = true;
+    VertxInternal.instance.executeInBackground(new Runnable() {
+      public void run() {
+        try {
+          MappedByteBuffer window = fc.map(FileChannel.MapMode.READ_ONLY, pos, size);
+          window.load();
+          loaded.set(window);
+          if (closed) {
+            // Closed while loading, close() may have missed it
+            unmapLoaded();
+            return;
+          }
+        } catch (IOException e) {
+          loadFailure = e;
+        }
+        ((NioSocketChannel) channel).getWorker().scheduleOtherTask(resume);
+      }
+    });
+  }
+
+  private void unmapLoaded() {
+    MappedByteBuffer window = loaded.getAndSet(null);
+    if (window != null) {
+      unmap(window);
+    }
+  }
+
+  /*
+  There's no public API to unmap a buffer before it's garbage collected, so this uses the JDK's own. If that isn't
+  there the mapping stays until the buffer is collected
+   */
+  private static void unmap(MappedByteBuffer buff) {
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buff);
+      } else {
+        Method cleanerMethod = buff.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buff);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+    } catch (Exception e) {
+      log.debug("Failed to unmap file window, it will be unmapped when it's garbage collected: " + e);
+    }
+  }
+}
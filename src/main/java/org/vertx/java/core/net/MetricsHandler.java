@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.FileRegion;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.WriteCompletionEvent;
+import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Counts the traffic on a connection, and passes it on to the {@link ConnectionMetrics} for the connection.<p>
+ * It sits at the front of the pipeline so it sees the bytes actually read from and written to the socket. Instances
+ * are per channel. Reads, write completions and the opening of the connection are seen on the channel's worker thread,
+ * but writes, closes and interest changes are seen on whichever thread asked for them, for example a thread closing a
+ * server. So the counts and state which those change are only changed while holding the handler's lock, which is
+ * uncontended unless another thread is writing to the connection.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class MetricsHandler extends SimpleChannelHandler {
+
+  private static final ConnectionMetrics NO_METRICS = new ConnectionMetrics() {
+    public void bytesRead(long bytes) {
+    }
+
+    public void bytesQueued(long bytes) {
+    }
+
+    public void bytesWritten(long bytes) {
+    }
+
+    public void writeQueueFull() {
+    }
+
+    public void writeQueueDrained(long nanos) {
+    }
+
+    public void paused() {
+    }
+
+    public void resumed() {
+    }
+
+    public void idleClosed() {
+    }
+
+    public void connectionClosed() {
+    }
+  };
+
+  private final NetMetrics metrics;
+  private final ServerID serverID;
+
+  private volatile ConnectionMetrics recorder = NO_METRICS;
+  // Only changed on the worker
+  private volatile long bytesRead;
+  private volatile long bytesWritten;
+  // Only changed while holding the lock
+  private volatile long bytesQueued;
+  private boolean paused;
+  private boolean closed;
+  private long unwritableSince;
+
+  /*
+  serverID is the id of the server for server connections, or null for client connections, in which case the remote
+  address is used
+   */
+  MetricsHandler(NetMetrics metrics, ServerID serverID) {
+    this.metrics = metrics;
+    this.serverID = serverID;
+  }
+
+  long getBytesRead() {
+    return bytesRead;
+  }
+
+  long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  long getWriteQueueSize() {
+    return bytesQueued - bytesWritten;
+  }
+
+  void idleClosed() {
+    recorder.idleClosed();
+  }
+
+  @Override
+  public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
+    final ServerID id = serverID != null ? serverID : remoteID(ch);
+    // This can be called on the acceptor thread, but the metrics must be told on the worker
+    Runnable opened = new Runnable() {
+      public void run() {
+        ConnectionMetrics rec = metrics.connectionOpened(id);
+        synchronized (MetricsHandler.this) {
+          // Catch up with any traffic there has been before we got here
+          rec.bytesRead(bytesRead);
+          rec.bytesQueued(bytesQueued);
+          rec.bytesWritten(bytesWritten);
+          if (closed) {
+            rec.bytesQueued(bytesWritten - bytesQueued);
+            rec.connectionClosed();
+          }
+          recorder = rec;
+        }
+      }
+    };
+    if (Thread.currentThread() != ch.getWorker().getThread()) {
+      ch.getWorker().scheduleOtherTask(opened);
+    } else {
+      opened.run();
+    }
+    super.channelConnected(ctx, e);
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    int bytes = ((ChannelBuffer) e.getMessage()).readableBytes();
+    bytesRead += bytes;
+    recorder.bytesRead(bytes);
+    super.messageReceived(ctx, e);
+  }
+
+  @Override
+  public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object msg = e.getMessage();
+    long bytes;
+    if (msg instanceof ChannelBuffer) {
+      bytes = ((ChannelBuffer) msg).readableBytes();
+    } else if (msg instanceof FileRegion) {
+      bytes = ((FileRegion) msg).getCount();
+    } else {
+      bytes = 0;
+    }
+    synchronized (this) {
+      bytesQueued += bytes;
+      recorder.bytesQueued(bytes);
+    }
+    super.writeRequested(ctx, e);
+  }
+
+  @Override
+  public void writeComplete(ChannelHandlerContext ctx, WriteCompletionEvent e) throws Exception {
+    long bytes = e.getWrittenAmount();
+    bytesWritten += bytes;
+    recorder.bytesWritten(bytes);
+    super.writeComplete(ctx, e);
+  }
+
+  @Override
+  public void setInterestOpsRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    boolean readable = ((Integer) e.getValue() & Channel.OP_READ) != 0;
+    synchronized (this) {
+      if (readable == paused) {
+        paused = !readable;
+        if (paused) {
+          recorder.paused();
+        } else {
+          recorder.resumed();
+        }
+      }
+    }
+    super.setInterestOpsRequested(ctx, e);
+  }
+
+  @Override
+  public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    boolean writable = e.getChannel().isWritable();
+    synchronized (this) {
+      if (!writable && unwritableSince == 0) {
+        unwritableSince = System.nanoTime();
+        recorder.writeQueueFull();
+      } else if (writable && unwritableSince != 0) {
+        recorder.writeQueueDrained(System.nanoTime() - unwritableSince);
+        unwritableSince = 0;
+      }
+    }
+    super.channelInterestChanged(ctx, e);
+  }
+
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    synchronized (this) {
+      closed = true;
+      // Anything still queued will never be written
+      long discarded = bytesQueued - bytesWritten;
+      if (discarded != 0) {
+        recorder.bytesQueued(-discarded);
+      }
+      recorder.connectionClosed();
+    }
+    super.channelClosed(ctx, e);
+  }
+
+  private static ServerID remoteID(Channel ch) {
+    InetSocketAddress addr = (InetSocketAddress) ch.getRemoteAddress();
+    return new ServerID(addr.getPort(), addr.getHostString());
+  }
+}
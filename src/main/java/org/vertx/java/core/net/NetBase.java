@@ -16,12 +16,17 @@
 
 package org.vertx.java.core.net;
 
+import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+import org.jboss.netty.handler.ssl.SslHandler;
 import org.vertx.java.core.Vertx;
+import org.vertx.java.core.internal.VertxInternal;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract base class for net clients or servers
@@ -37,9 +42,23 @@ public abstract class NetBase {
   protected String trustStorePath;
   protected String trustStorePassword;
   protected boolean trustAll;
+  protected int sessionCacheSize = -1;
+  protected int sessionTimeout = -1;
+  protected boolean offloadHandshakes;
+  protected int sendFileChunkSize = MappedChunkedFile.DEFAULT_CHUNK_SIZE;
   protected SSLContext context;
   protected Thread th;
   protected long contextID;
+  protected long readIdleTimeout;
+  protected long writeIdleTimeout;
+  protected long idleTimeout;
+  protected long maxConnectionAge;
+  protected final AtomicLong idleCloses = new AtomicLong();
+  protected long readRateLimit;
+  protected long writeRateLimit;
+  protected TokenBucket aggregateReadLimit;
+  protected TokenBucket aggregateWriteLimit;
+  protected NetMetrics metrics;
 
   protected NetBase() {
     Long cid = Vertx.instance.getContextID();
@@ -56,10 +75,24 @@ public abstract class NetBase {
 
   protected void checkSSL() {
     if (ssl) {
-      context = TLSHelper.createContext(keyStorePath, keyStorePassword, trustStorePath, trustStorePassword, trustAll);
+      context = TLSHelper.getContext(keyStorePath, keyStorePassword, trustStorePath, trustStorePassword, trustAll,
+          sessionCacheSize, sessionTimeout);
     }
   }
 
+  /*
+  The connection options are kept with the "child." prefix used by server bootstraps for the accepted sockets. Client
+  bootstraps apply options to the socket directly, so need them without it
+   */
+  protected Map<String, Object> getClientOptions() {
+    Map<String, Object> options = new HashMap<>();
+    for (Map.Entry<String, Object> entry : connectionOptions.entrySet()) {
+      String key = entry.getKey();
+      options.put(key.startsWith("child.") ? key.substring(6) : key, entry.getValue());
+    }
+    return options;
+  }
+
   protected void checkThread() {
     // All ops must always be invoked on same thread
     if (Thread.currentThread() != th) {
@@ -91,6 +124,53 @@ public abstract class NetBase {
     }
   }
 
+  /*
+  Adds the SslHandler to the end of the pipeline, with the handlers which run the handshake on the handshake pool if
+  that is enabled
+   */
+  protected void addSSLHandler(ChannelPipeline pipeline, SSLEngine engine) {
+    if (offloadHandshakes) {
+      HandshakeOffloader offloader = new HandshakeOffloader(VertxInternal.instance.getHandshakePool());
+      pipeline.addLast("handshakeToPool", offloader.toPool);
+      pipeline.addLast("handshakeWritesToEventLoop", offloader.writesToEventLoop);
+      pipeline.addLast("ssl", new SslHandler(engine));
+      pipeline.addLast("handshakeToEventLoop", offloader.toEventLoop);
+    } else {
+      pipeline.addLast("ssl", new SslHandler(engine));
+    }
+  }
+
+  /*
+  Adds the handler which counts the traffic on a connection to the front of the pipeline, if metrics have been set.
+  serverID is the id of the server for server connections, or null for client connections
+   */
+  protected void addMetricsHandler(ChannelPipeline pipeline, ServerID serverID) {
+    if (metrics != null) {
+      pipeline.addFirst("metrics", new MetricsHandler(metrics, serverID));
+    }
+  }
+
+  /*
+  Adds a handler which closes idle connections to the front of the pipeline, if any timeouts have been set
+   */
+  protected void addIdleTimeoutHandler(ChannelPipeline pipeline) {
+    if (readIdleTimeout > 0 || writeIdleTimeout > 0 || idleTimeout > 0 || maxConnectionAge > 0) {
+      pipeline.addFirst("idleTimeout", new IdleTimeoutHandler(readIdleTimeout, writeIdleTimeout, idleTimeout,
+          maxConnectionAge, idleCloses));
+    }
+  }
+
+  /*
+  Adds the handler which limits the rates of a connection just behind the metrics handler, if any limits have been set.
+  Must be called before addMetricsHandler
+   */
+  protected void addTrafficShapingHandler(ChannelPipeline pipeline) {
+    if (readRateLimit > 0 || writeRateLimit > 0 || aggregateReadLimit != null || aggregateWriteLimit != null) {
+      pipeline.addFirst("trafficShaping", new TrafficShapingHandler(readRateLimit, writeRateLimit, aggregateReadLimit,
+          aggregateWriteLimit));
+    }
+  }
+
   /**
    * If {@code tcpNoDelay} is set to {@code true} then <a href="http://en.wikipedia.org/wiki/Nagle's_algorithm">Nagle's algorithm</a>
    * will turned <b>off</b> for the TCP connections created by this instance.
@@ -155,6 +235,111 @@ public abstract class NetBase {
     return this;
   }
 
+  /**
+   * Close connections created by this instance if nothing has been read from them for {@code timeout} milliseconds.
+   * A value of 0 means no timeout, which is the default.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setReadIdleTimeout(long timeout) {
+    this.readIdleTimeout = checkTimeout(timeout);
+    return this;
+  }
+
+  /**
+   * Close connections created by this instance if nothing has been written to them for {@code timeout} milliseconds.
+   * A value of 0 means no timeout, which is the default.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setWriteIdleTimeout(long timeout) {
+    this.writeIdleTimeout = checkTimeout(timeout);
+    return this;
+  }
+
+  /**
+   * Close connections created by this instance if nothing has been read from or written to them for {@code timeout}
+   * milliseconds. A value of 0 means no timeout, which is the default.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setIdleTimeout(long timeout) {
+    this.idleTimeout = checkTimeout(timeout);
+    return this;
+  }
+
+  /**
+   * Close connections created by this instance once they have been open for {@code age} milliseconds, whether or not
+   * they are idle. A value of 0 means connections can stay open indefinitely, which is the default.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setMaxConnectionAge(long age) {
+    this.maxConnectionAge = checkTimeout(age);
+    return this;
+  }
+
+  /**
+   * Limit the rate at which each connection created by this instance reads to {@code bytesPerSecond}. A value of 0
+   * means no limit, which is the default. See {@link ConnectionBase#setReadRateLimit}.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setReadRateLimit(long bytesPerSecond) {
+    ConnectionBase.checkRate(bytesPerSecond);
+    this.readRateLimit = bytesPerSecond;
+    return this;
+  }
+
+  /**
+   * Limit the rate at which each connection created by this instance writes to {@code bytesPerSecond}. A value of 0
+   * means no limit, which is the default. See {@link ConnectionBase#setWriteRateLimit}.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setWriteRateLimit(long bytesPerSecond) {
+    ConnectionBase.checkRate(bytesPerSecond);
+    this.writeRateLimit = bytesPerSecond;
+    return this;
+  }
+
+  /**
+   * Limit the rate at which all the connections created by this instance read, added together, to
+   * {@code bytesPerSecond}. The connections share the limit, so a busy connection can use what quiet ones don't. A
+   * value of 0 means no limit, which is the default. This applies on top of any limit for each connection.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setAggregateReadRateLimit(long bytesPerSecond) {
+    ConnectionBase.checkRate(bytesPerSecond);
+    this.aggregateReadLimit = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond) : null;
+    return this;
+  }
+
+  /**
+   * Limit the rate at which all the connections created by this instance write, added together, to
+   * {@code bytesPerSecond}. The connections share the limit, so a busy connection can use what quiet ones don't. A
+   * value of 0 means no limit, which is the default. This applies on top of any limit for each connection.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setAggregateWriteRateLimit(long bytesPerSecond) {
+    ConnectionBase.checkRate(bytesPerSecond);
+    this.aggregateWriteLimit = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond) : null;
+    return this;
+  }
+
+  /**
+   * Set the {@link NetMetrics} which receives the traffic metrics for connections created by this instance. The
+   * default is {@code null}, which means no metrics are kept, not even the counts for each connection. Use
+   * {@link DefaultNetMetrics#instance} to share one set of totals with other servers and clients.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public NetBase setMetrics(NetMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * @return The number of connections created by this instance which have been closed because they were idle or
+   * reached their maximum age
+   */
+  public long getIdleCloses() {
+    return idleCloses.get();
+  }
+
 
   /**
    * If {@code ssl} is {@code true}, this signifies that any connections will be SSL connections.
@@ -211,4 +396,63 @@ public abstract class NetBase {
     this.trustStorePassword = pwd;
     return this;
   }
+
+  /**
+   * Set the maximum number of TLS sessions to cache, so they can be resumed without a full handshake. 0 means no
+   * limit. If not set the JSSE default is used. This method should only be used in SSL mode.<p>
+   * The SSL context, and so the session cache, is shared by all servers and clients with the same SSL settings.
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetBase setSessionCacheSize(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Invalid session cache size: " + size);
+    }
+    this.sessionCacheSize = size;
+    return this;
+  }
+
+  /**
+   * Set the time in seconds that cached TLS sessions can be resumed for. 0 means no limit. If not set the JSSE
+   * default is used. This method should only be used in SSL mode.<p>
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetBase setSessionTimeout(int seconds) {
+    if (seconds < 0) {
+      throw new IllegalArgumentException("Invalid session timeout: " + seconds);
+    }
+    this.sessionTimeout = seconds;
+    return this;
+  }
+
+  /**
+   * If {@code offload} is {@code true}, the CPU heavy work of TLS handshakes is done on a separate, bounded, pool of
+   * threads rather than on the event loop. This stops a burst of new connections from holding up the traffic on
+   * connections which are already established. When the pool is busy the work is done on the event loop as usual.
+   * The default is {@code false}. This method should only be used in SSL mode.<p>
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetBase setOffloadHandshakes(boolean offload) {
+    this.offloadHandshakes = offload;
+    return this;
+  }
+
+  /**
+   * Set the size of the chunks that files are sent in by sendFile on SSL connections. The default is 16KB, the most
+   * that fits in one TLS record. Without SSL files are sent with zero-copy, so this isn't used.<p>
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetBase setSendFileChunkSize(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Invalid chunk size: " + size);
+    }
+    this.sendFileChunkSize = size;
+    return this;
+  }
+
+  private static long checkTimeout(long timeout) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Invalid timeout: " + timeout);
+    }
+    return timeout;
+  }
 }
@@ -32,15 +32,18 @@ import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+import org.jboss.netty.channel.socket.nio.NioWorker;
 import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
+import org.vertx.java.core.CompletionHandler;
+import org.vertx.java.core.Future;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
-import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
 
 import javax.net.ssl.SSLEngine;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -61,6 +64,8 @@ public class NetClient extends NetClientBase {
 
   private ClientBootstrap bootstrap;
   private NioClientSocketChannelFactory channelFactory;
+  private ClientBootstrap localBootstrap;
+  private LocalSocketChannelFactory localChannelFactory;
   private Map<Channel, NetSocket> socketMap = new ConcurrentHashMap<>();
   private Handler<Exception> exceptionHandler;
   private int reconnectAttempts;
@@ -75,7 +80,8 @@ public class NetClient extends NetClientBase {
 
   /**
    * Attempt to open a connection to a server at the specific {@code port} and {@code host}.
-   * {@code host} can be a valid host name or IP addresss. The connect is done asynchronously and on success, a
+   * {@code host} can be a valid host name or IP addresss, or {@link #LOCAL_HOST} to connect in memory to a server
+   * listening on {@code port} in this JVM. The connect is done asynchronously and on success, a
    * {@link NetSocket} instance is supplied via the {@code connectHandler} instance
    * @return a reference to this so multiple method calls can be chained together
    */
@@ -90,73 +96,125 @@ public class NetClient extends NetClientBase {
       throw new IllegalStateException("Requests must be made from inside an event loop");
     }
 
-    if (bootstrap == null) {
+    if (LOCAL_HOST.equals(host)) {
+      connect(host, InetSocketAddress.createUnresolved(host, port), contextID, connectHandler, remainingAttempts);
+    } else {
+      // Resolved without blocking the event loop, cached names are resolved straight away
+      resolver.resolve(host).handler(new CompletionHandler<InetAddress>() {
+        public void handle(Future<InetAddress> result) {
+          if (result.succeeded()) {
+            connect(host, new InetSocketAddress(result.result(), port), contextID, connectHandler, remainingAttempts);
+          } else {
+            connectFailed(result.exception(), port, host, connectHandler, remainingAttempts);
+          }
+        }
+      });
+    }
+    return this;
+  }
+
+  private void connect(final String host, final InetSocketAddress address, final long contextID,
+                       final Handler<NetSocket> connectHandler, final int remainingAttempts) {
+    final int port = address.getPort();
+    final boolean local = address.isUnresolved();
+    if (local) {
+      if (localBootstrap == null) {
+        localChannelFactory = new LocalSocketChannelFactory();
+        localBootstrap = new ClientBootstrap(localChannelFactory);
+        checkSSL();
+      }
+    } else if (bootstrap == null) {
       channelFactory = new NioClientSocketChannelFactory(
           VertxInternal.instance.getAcceptorPool(),
           VertxInternal.instance.getWorkerPool());
       bootstrap = new ClientBootstrap(channelFactory);
 
       checkSSL();
-
-      bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
-        public ChannelPipeline getPipeline() throws Exception {
-          ChannelPipeline pipeline = Channels.pipeline();
-          if (ssl) {
-            SSLEngine engine = context.createSSLEngine();
-            engine.setUseClientMode(true); //We are on the client side of the connection
-            pipeline.addLast("ssl", new SslHandler(engine));
-          }
-          pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());  // For large file / sendfile support
-          pipeline.addLast("handler", new ClientHandler());
-          return pipeline;
-        }
-      });
     }
+    ClientBootstrap clientBootstrap = local ? localBootstrap : bootstrap;
+
+    // The pipeline is created by connect(), so the SSL engine can be told the host and port. This lets the SSL
+    // context resume a session with the same server, rather than doing a full handshake for every connection
+    clientBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+      public ChannelPipeline getPipeline() throws Exception {
+        ChannelPipeline pipeline = Channels.pipeline();
+        if (ssl) {
+          SSLEngine engine = context.createSSLEngine(host, port);
+          engine.setUseClientMode(true); //We are on the client side of the connection
+          addSSLHandler(pipeline, engine);
+        }
+        pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());  // For large file / sendfile support
+        pipeline.addLast("handler", new ClientHandler());
+        addTrafficShapingHandler(pipeline);
+        addMetricsHandler(pipeline, null);
+        addIdleTimeoutHandler(pipeline);
+        return pipeline;
+      }
+    });
 
     //Client connections share context with caller
-    channelFactory.setWorker(VertxInternal.instance.getWorkerForContextID(contextID));
+    NioWorker worker = VertxInternal.instance.getWorkerForContextID(contextID);
+    if (local) {
+      localChannelFactory.setWorker(worker);
+    } else {
+      channelFactory.setWorker(worker);
+    }
 
-    bootstrap.setOptions(connectionOptions);
-    ChannelFuture future = bootstrap.connect(new InetSocketAddress(host, port));
+    clientBootstrap.setOptions(getClientOptions());
+    ChannelFuture future = clientBootstrap.connect(address);
     future.addListener(new ChannelFutureListener() {
       public void operationComplete(ChannelFuture channelFuture) throws Exception {
         final NioSocketChannel ch = (NioSocketChannel) channelFuture.getChannel();
 
         if (channelFuture.isSuccess()) {
+          SslHandler sslHandler = ch.getPipeline().get(SslHandler.class);
+          if (sslHandler != null && !offloadHandshakes) {
+            // Otherwise the handshake only starts when the client first writes, and a client which only reads would
+            // never receive anything. When handshakes are offloaded it has already been started
+            sslHandler.handshake();
+          }
           runOnCorrectThread(ch, new Runnable() {
             public void run() {
               VertxInternal.instance.setContextID(contextID);
               NetSocket sock = new NetSocket(ch, contextID, Thread.currentThread());
+              sock.setSendFileChunkSize(sendFileChunkSize);
+              // Attached so the handler finds the socket without a map lookup. The map is only used by close()
+              ch.getPipeline().getContext("handler").setAttachment(sock);
               socketMap.put(ch, sock);
               connectHandler.handle(sock);
             }
           });
         } else {
-          if (remainingAttempts > 0) {
-            runOnCorrectThread(ch, new Runnable() {
-              public void run() {
-                VertxInternal.instance.setContextID(contextID);
-                log.debug("Failed to create connection. Will retry in " + reconnectInterval + " milliseconds");
-                //Set a timer to retry connection
-                Vertx.instance.setTimer(reconnectInterval, new Handler<Long>() {
-                  public void handle(Long timerID) {
-                    connect(port, host, connectHandler, remainingAttempts - 1);
-                  }
-                });
-               }
-            });
-          } else {
-            Throwable t = channelFuture.getCause();
-            if (t instanceof Exception && exceptionHandler != null) {
-              exceptionHandler.handle((Exception) t);
-            } else {
-              log.error("Unhandled exception", t);
+          final Throwable t = channelFuture.getCause();
+          runOnCorrectThread(ch, new Runnable() {
+            public void run() {
+              VertxInternal.instance.setContextID(contextID);
+              connectFailed(t, port, host, connectHandler, remainingAttempts);
             }
-          }
+          });
         }
       }
     });
-    return this;
+  }
+
+  /*
+  Called on the context when a connection attempt, or resolving the host for it, has failed
+   */
+  private void connectFailed(Throwable t, final int port, final String host, final Handler<NetSocket> connectHandler,
+                             final int remainingAttempts) {
+    if (remainingAttempts > 0) {
+      log.debug("Failed to create connection. Will retry in " + reconnectInterval + " milliseconds");
+      //Set a timer to retry connection
+      Vertx.instance.setTimer(reconnectInterval, new Handler<Long>() {
+        public void handle(Long timerID) {
+          connect(port, host, connectHandler, remainingAttempts - 1);
+        }
+      });
+    } else if (t instanceof Exception && exceptionHandler != null) {
+      exceptionHandler.handle((Exception) t);
+    } else {
+      log.error("Unhandled exception", t);
+    }
   }
 
   /**
@@ -256,6 +314,34 @@ public class NetClient extends NetClientBase {
     return (NetClient)super.setTrustStorePassword(pwd);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setSessionCacheSize(int size) {
+    return (NetClient)super.setSessionCacheSize(size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setSessionTimeout(int seconds) {
+    return (NetClient)super.setSessionTimeout(seconds);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setOffloadHandshakes(boolean offload) {
+    return (NetClient)super.setOffloadHandshakes(offload);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setSendFileChunkSize(int size) {
+    return (NetClient)super.setSendFileChunkSize(size);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -263,6 +349,13 @@ public class NetClient extends NetClientBase {
     return (NetClient)super.setTrustAll(trustAll);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setResolver(DnsResolver resolver) {
+    return (NetClient)super.setResolver(resolver);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -312,6 +405,69 @@ public class NetClient extends NetClientBase {
     return (NetClient)super.setTrafficClass(trafficClass);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setReadIdleTimeout(long timeout) {
+    return (NetClient)super.setReadIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setWriteIdleTimeout(long timeout) {
+    return (NetClient)super.setWriteIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setIdleTimeout(long timeout) {
+    return (NetClient)super.setIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setMaxConnectionAge(long age) {
+    return (NetClient)super.setMaxConnectionAge(age);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setReadRateLimit(long bytesPerSecond) {
+    return (NetClient)super.setReadRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setWriteRateLimit(long bytesPerSecond) {
+    return (NetClient)super.setWriteRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setAggregateReadRateLimit(long bytesPerSecond) {
+    return (NetClient)super.setAggregateReadRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setAggregateWriteRateLimit(long bytesPerSecond) {
+    return (NetClient)super.setAggregateWriteRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetClient setMetrics(NetMetrics metrics) {
+    return (NetClient)super.setMetrics(metrics);
+  }
+
   private class ClientHandler extends SimpleChannelUpstreamHandler {
 
     @Override
@@ -321,7 +477,7 @@ public class NetClient extends NetClientBase {
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final NetSocket sock = socketMap.get(ch);
+      final NetSocket sock = (NetSocket) ctx.getAttachment();
       socketMap.remove(ch);
       if (sock != null) {
         runOnCorrectThread(ch, new Runnable() {
@@ -334,17 +490,17 @@ public class NetClient extends NetClientBase {
 
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
-      NetSocket sock = socketMap.get(ctx.getChannel());
+      NetSocket sock = (NetSocket) ctx.getAttachment();
       if (sock != null) {
         ChannelBuffer cb = (ChannelBuffer) e.getMessage();
-        sock.handleDataReceived(new Buffer(cb));
+        sock.handleDataReceived(cb);
       }
     }
 
     @Override
     public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final NetSocket sock = socketMap.get(ch);
+      final NetSocket sock = (NetSocket) ctx.getAttachment();
       ChannelState state = e.getState();
       if (state == ChannelState.INTEREST_OPS) {
         runOnCorrectThread(ch, new Runnable() {
@@ -358,7 +514,7 @@ public class NetClient extends NetClientBase {
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final NetSocket sock = socketMap.get(ch);
+      final NetSocket sock = (NetSocket) ctx.getAttachment();
       final Throwable t = e.getCause();
       if (sock != null && t instanceof Exception) {
         runOnCorrectThread(ch, new Runnable() {
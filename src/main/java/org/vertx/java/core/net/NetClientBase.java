@@ -23,6 +23,15 @@ package org.vertx.java.core.net;
  */
 public abstract class NetClientBase extends NetBase {
 
+  /**
+   * Connecting to this host connects to a server listening on the port in the same JVM, without going through the
+   * network stack. The data written is handed to the other end in memory. The server must accept local connections,
+   * see {@link NetServerBase#setAcceptLocal}.
+   */
+  public static final String LOCAL_HOST = "vertx.local";
+
+  protected DnsResolver resolver = DnsResolver.instance;
+
   /**
    * If {@code trustAll} is set to {@code true} then the client will trust ALL server certifactes and will not attempt to authenticate them
    * against it's local client trust store.<p>
@@ -33,4 +42,17 @@ public abstract class NetClientBase extends NetBase {
     this.trustAll = trustAll;
     return this;
   }
+
+  /**
+   * Set the {@link DnsResolver} which resolves the host names connected to. The default is
+   * {@link DnsResolver#instance}.
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetClientBase setResolver(DnsResolver resolver) {
+    if (resolver == null) {
+      throw new IllegalArgumentException("Resolver must not be null");
+    }
+    this.resolver = resolver;
+    return this;
+  }
 }
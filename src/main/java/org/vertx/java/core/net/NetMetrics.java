@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+/**
+ * <p>Receives traffic metrics from net and HTTP servers and clients.</p>
+ *
+ * <p>Set an implementation on a server or client with {@link NetBase#setMetrics}. By default there is none, and no
+ * metrics are kept. {@link DefaultNetMetrics} aggregates the metrics per server and per event loop, and
+ * {@link DefaultNetMetrics#instance} can be shared by servers and clients which don't need theirs kept apart.</p>
+ *
+ * <p>Implementations are called on the hot path, so they must not block or take locks. They must be thread safe, as
+ * one instance is called from every event loop and acceptor thread.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public interface NetMetrics {
+
+  /**
+   * Called when a connection has been opened.<p>
+   * For servers {@code id} is the host and port the server is listening on, for clients it's the host and port of
+   * the server connected to.<p>
+   * This is called on the event loop which owns the connection.
+   * @return The recorder for the connection's events, see {@link ConnectionMetrics} for the threads it's called on.
+   */
+  ConnectionMetrics connectionOpened(ServerID id);
+
+  /**
+   * Called when the server {@code id} was at its connection limit or accept rate, so a connection had to wait
+   * {@code nanos} nanoseconds before it was accepted.<p>
+   * This is called on the server's acceptor thread.
+   */
+  void acceptDeferred(ServerID id, long nanos);
+
+  /**
+   * Called when the server {@code id} was closed while a connection was waiting to be accepted, so the connection
+   * was closed instead.<p>
+   * This is called on the server's acceptor thread.
+   */
+  void acceptRefused(ServerID id);
+}
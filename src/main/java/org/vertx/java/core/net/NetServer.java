@@ -19,7 +19,6 @@ package org.vertx.java.core.net;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -33,14 +32,11 @@ import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.ChannelGroupFuture;
 import org.jboss.netty.channel.group.ChannelGroupFutureListener;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
-import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioSocketChannel;
 import org.jboss.netty.channel.socket.nio.NioWorker;
-import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
-import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
 
@@ -135,6 +131,38 @@ public class NetServer extends NetServerBase {
     return (NetServer)super.setTrustStorePassword(pwd);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setSessionCacheSize(int size) {
+    checkThread();
+    return (NetServer)super.setSessionCacheSize(size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setSessionTimeout(int seconds) {
+    checkThread();
+    return (NetServer)super.setSessionTimeout(seconds);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setOffloadHandshakes(boolean offload) {
+    checkThread();
+    return (NetServer)super.setOffloadHandshakes(offload);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setSendFileChunkSize(int size) {
+    checkThread();
+    return (NetServer)super.setSendFileChunkSize(size);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -143,6 +171,38 @@ public class NetServer extends NetServerBase {
     return (NetServer)super.setClientAuthRequired(required);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setAcceptors(int acceptors) {
+    checkThread();
+    return (NetServer)super.setAcceptors(acceptors);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setMaxConnections(int maxConnections) {
+    checkThread();
+    return (NetServer)super.setMaxConnections(maxConnections);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setAcceptRate(int acceptRate) {
+    checkThread();
+    return (NetServer)super.setAcceptRate(acceptRate);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setAcceptLocal(boolean acceptLocal) {
+    checkThread();
+    return (NetServer)super.setAcceptLocal(acceptLocal);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -199,6 +259,91 @@ public class NetServer extends NetServerBase {
     return (NetServer)super.setTrafficClass(trafficClass);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setReadIdleTimeout(long timeout) {
+    checkThread();
+    return (NetServer)super.setReadIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setWriteIdleTimeout(long timeout) {
+    checkThread();
+    return (NetServer)super.setWriteIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setIdleTimeout(long timeout) {
+    checkThread();
+    return (NetServer)super.setIdleTimeout(timeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setMaxConnectionAge(long age) {
+    checkThread();
+    return (NetServer)super.setMaxConnectionAge(age);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setReadRateLimit(long bytesPerSecond) {
+    checkThread();
+    return (NetServer)super.setReadRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setWriteRateLimit(long bytesPerSecond) {
+    checkThread();
+    return (NetServer)super.setWriteRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   * If this server shares its port with other servers, the limits of the first server to listen apply to all the
+   * connections to the port.
+   */
+  public NetServer setAggregateReadRateLimit(long bytesPerSecond) {
+    checkThread();
+    return (NetServer)super.setAggregateReadRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   * If this server shares its port with other servers, the limits of the first server to listen apply to all the
+   * connections to the port.
+   */
+  public NetServer setAggregateWriteRateLimit(long bytesPerSecond) {
+    checkThread();
+    return (NetServer)super.setAggregateWriteRateLimit(bytesPerSecond);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public NetServer setMetrics(NetMetrics metrics) {
+    checkThread();
+    return (NetServer)super.setMetrics(metrics);
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   * If this server shares its port with other servers, the timeouts of the first server to listen apply, and this
+   * returns the number of connections closed for the port as a whole.
+   */
+  public long getIdleCloses() {
+    return actualServer == null ? super.getIdleCloses() : actualServer.idleCloses.get();
+  }
+
   /**
    * Instruct the server to listen for incoming connections on the specified {@code port} and all available interfaces.
    * @return a reference to this so multiple method calls can be chained together
@@ -228,17 +373,15 @@ public class NetServer extends NetServerBase {
       if (shared == null) {
         serverChannelGroup = new DefaultChannelGroup("vertx-acceptor-channels");
 
-        ChannelFactory factory =
-            new NioServerSocketChannelFactory(
-                VertxInternal.instance.getAcceptorPool(),
-                availableWorkers);
-        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        ServerBootstrap bootstrap = new ServerBootstrap(createChannelFactory(availableWorkers));
+        startAcceptLimiter(id);
 
         checkSSL();
 
         bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
           public ChannelPipeline getPipeline() {
             ChannelPipeline pipeline = Channels.pipeline();
+            limitAccept(pipeline);
             if (ssl) {
               SSLEngine engine = context.createSSLEngine();
               engine.setUseClientMode(false);
@@ -256,10 +399,13 @@ public class NetServer extends NetServerBase {
                   break;
                 }
               }
-              pipeline.addLast("ssl", new SslHandler(engine));
+              addSSLHandler(pipeline, engine);
             }
             pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());  // For large file / sendfile support
             pipeline.addLast("handler", new ServerHandler());
+            addTrafficShapingHandler(pipeline);
+            addMetricsHandler(pipeline, id);
+            addIdleTimeoutHandler(pipeline);
             return pipeline;
           }
         });
@@ -268,8 +414,8 @@ public class NetServer extends NetServerBase {
 
         try {
           //TODO - currently bootstrap.bind is blocking - need to make it non blocking by not using bootstrap directly
-          Channel serverChannel = bootstrap.bind(new InetSocketAddress(InetAddress.getByName(host), port));
-          serverChannelGroup.add(serverChannel);
+          bind(bootstrap, serverChannelGroup, new InetSocketAddress(InetAddress.getByName(host), port),
+              availableWorkers);
           log.trace("Net server listening on " + host + ":" + port);
         } catch (UnknownHostException e) {
           e.printStackTrace();
@@ -338,6 +484,7 @@ public class NetServer extends NetServerBase {
 
     VertxInternal.instance.setContextID(contextID);
 
+    stopAcceptLimiter();
     ChannelGroupFuture fut = serverChannelGroup.close();
     if (done != null) {
       fut.addListener(new ChannelGroupFutureListener() {
@@ -364,7 +511,7 @@ public class NetServer extends NetServerBase {
   private class ServerHandler extends SimpleChannelHandler {
 
     @Override
-    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+    public void channelConnected(final ChannelHandlerContext ctx, ChannelStateEvent e) {
 
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
       NioWorker worker = ch.getWorker();
@@ -381,6 +528,10 @@ public class NetServer extends NetServerBase {
         public void run() {
           VertxInternal.instance.setContextID(handler.contextID);
           NetSocket sock = new NetSocket(ch, handler.contextID, Thread.currentThread());
+          sock.setSendFileChunkSize(sendFileChunkSize);
+          // The socket is attached to the channel so the other events find it without a map lookup. The map is only
+          // used to close all the sockets when the server is closed
+          ctx.setAttachment(sock);
           socketMap.put(ch, sock);
           handler.handler.handle(sock);
         }
@@ -389,8 +540,7 @@ public class NetServer extends NetServerBase {
 
     @Override
     public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-      final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final NetSocket sock = socketMap.get(ch);
+      final NetSocket sock = (NetSocket) ctx.getAttachment();
       ChannelState state = e.getState();
       if (state == ChannelState.INTEREST_OPS) {
         VertxInternal.instance.executeOnContext(sock.getContextID(), new Runnable() {
@@ -404,7 +554,8 @@ public class NetServer extends NetServerBase {
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final NetSocket sock = socketMap.remove(ch);
+      socketMap.remove(ch);
+      final NetSocket sock = (NetSocket) ctx.getAttachment();
       if (sock != null) {
         VertxInternal.instance.executeOnContext(sock.getContextID(), new Runnable() {
           public void run() {
@@ -416,16 +567,15 @@ public class NetServer extends NetServerBase {
 
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
-      Channel ch = e.getChannel();
-      NetSocket sock = socketMap.get(ch);
+      NetSocket sock = (NetSocket) ctx.getAttachment();
       ChannelBuffer buff = (ChannelBuffer) e.getMessage();
-      sock.handleDataReceived(new Buffer(buff.slice()));
+      sock.handleDataReceived(buff.slice());
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
       final NioSocketChannel ch = (NioSocketChannel) e.getChannel();
-      final NetSocket sock = socketMap.get(ch);
+      final NetSocket sock = (NetSocket) ctx.getAttachment();
       ch.close();
       final Throwable t = e.getCause();
       if (sock != null && t instanceof Exception) {
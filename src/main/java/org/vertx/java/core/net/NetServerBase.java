@@ -16,6 +16,18 @@
 
 package org.vertx.java.core.net;
 
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
+
+import java.net.InetSocketAddress;
+
 /**
  * Abstract base class for net servers
  *
@@ -23,7 +35,14 @@ package org.vertx.java.core.net;
  */
 public abstract class NetServerBase extends NetBase {
 
+  private static final Logger log = Logger.getLogger(NetServerBase.class);
+
   protected ClientAuth clientAuth = ClientAuth.NONE;
+  protected int acceptors = 1;
+  protected int maxConnections;
+  protected int acceptRate;
+  protected boolean acceptLocal;
+  private AcceptLimiter acceptLimiter;
 
   /**
    * Set {@code required} to true if you want the server to request client authentication from any connecting clients. This
@@ -36,6 +55,129 @@ public abstract class NetServerBase extends NetBase {
     return this;
   }
 
+  /**
+   * Set the number of threads which accept connections for the port. Each acceptor has its own server socket, and
+   * the sockets share the port using SO_REUSEPORT, so the kernel spreads new connections between them. This helps
+   * when lots of short lived connections are being made.<p>
+   * If SO_REUSEPORT is not supported on this platform a single acceptor is used. Default is 1.<p>
+   * Only the first server to listen on a particular host and port decides the number of acceptors.
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetServerBase setAcceptors(int acceptors) {
+    if (acceptors < 1) {
+      throw new IllegalArgumentException("Invalid acceptors: " + acceptors);
+    }
+    this.acceptors = acceptors;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of connections the server will have open at once. When it reaches the limit the server
+   * stops accepting connections until some close. Each acceptor holds on to the one connection it has just accepted,
+   * without answering it, and any more wait in the listen backlog. A value of 0 means no limit, which is the
+   * default.<p>
+   * Only the first server to listen on a particular host and port decides the limit.
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetServerBase setMaxConnections(int maxConnections) {
+    if (maxConnections < 0) {
+      throw new IllegalArgumentException("Invalid max connections: " + maxConnections);
+    }
+    this.maxConnections = maxConnections;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of connections per second the server will accept. Bursts of up to a second's worth are
+   * accepted straight away, after which each acceptor holds on to the one connection it has just accepted and any
+   * more wait in the listen backlog. A value of 0 means no limit, which is the default.<p>
+   * Only the first server to listen on a particular host and port decides the rate.
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetServerBase setAcceptRate(int acceptRate) {
+    if (acceptRate < 0) {
+      throw new IllegalArgumentException("Invalid accept rate: " + acceptRate);
+    }
+    this.acceptRate = acceptRate;
+    return this;
+  }
+
+  /**
+   * Set {@code acceptLocal} to true if the server should also accept connections from clients in the same JVM which
+   * connect to {@link NetClientBase#LOCAL_HOST} on its port. Only one server can accept local connections on a port,
+   * whatever host it listens on, and listening fails with a {@link org.jboss.netty.channel.ChannelException} if another
+   * one already does. Default is false.<p>
+   * Only the first server to listen on a particular host and port decides whether it accepts local connections.
+   * @return A reference to this, so multiple invocations can be chained together.
+   */
+  public NetServerBase setAcceptLocal(boolean acceptLocal) {
+    this.acceptLocal = acceptLocal;
+    return this;
+  }
+
+  /*
+  Must be called before binding, if the server is limiting connections
+   */
+  protected void startAcceptLimiter(ServerID id) {
+    if (maxConnections > 0 || acceptRate > 0) {
+      acceptLimiter = new AcceptLimiter(maxConnections, acceptRate, metrics, id);
+    }
+  }
+
+  /*
+  Wakes up any acceptor waiting for the limit, the connection it was waiting with is closed
+   */
+  protected void stopAcceptLimiter() {
+    if (acceptLimiter != null) {
+      acceptLimiter.close();
+    }
+  }
+
+  /*
+  Called from the pipeline factory, i.e. on the acceptor thread, for each connection accepted. If the server is at its
+  limit this blocks the acceptor until it isn't
+   */
+  protected void limitAccept(ChannelPipeline pipeline) {
+    if (acceptLimiter != null) {
+      pipeline.addFirst("acceptLimit", acceptLimiter.acquire());
+    }
+  }
+
+  protected ServerSocketChannelFactory createChannelFactory(NetServerWorkerPool workers) {
+    ServerSocketChannelFactory factory = new NioServerSocketChannelFactory(VertxInternal.instance.getAcceptorPool(),
+        workers);
+    if (acceptors > 1) {
+      if (ReusePortChannelFactory.isSupported()) {
+        factory = new ReusePortChannelFactory(factory);
+      } else {
+        log.warn("SO_REUSEPORT is not supported on this platform, a single acceptor will be used");
+      }
+    }
+    return factory;
+  }
+
+  /*
+  Bind a server socket for each acceptor. Netty starts an acceptor thread for each server socket it binds.
+  If the server accepts local connections it's bound for them first, so a port already taken locally fails the listen
+  before any server socket is bound. If a bind fails whatever was bound is closed again
+   */
+  protected void bind(ServerBootstrap bootstrap, ChannelGroup serverChannelGroup, InetSocketAddress address,
+                      NetServerWorkerPool workers) {
+    if (acceptLocal) {
+      serverChannelGroup.add(LocalSocketChannelFactory.bind(address.getPort(), bootstrap.getPipelineFactory(), workers));
+    }
+    int count = bootstrap.getFactory() instanceof ReusePortChannelFactory ? acceptors : 1;
+    try {
+      for (int i = 0; i < count; i++) {
+        Channel serverChannel = bootstrap.bind(address);
+        serverChannelGroup.add(serverChannel);
+      }
+    } catch (ChannelException e) {
+      serverChannelGroup.close().awaitUninterruptibly();
+      throw e;
+    }
+  }
+
   protected NetServerBase() {
     super();
     connectionOptions.put("reuseAddress", true); //Not child since applies to the acceptor socket
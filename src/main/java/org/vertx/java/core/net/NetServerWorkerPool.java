@@ -4,8 +4,7 @@ import org.jboss.netty.channel.socket.nio.NioWorker;
 import org.jboss.netty.channel.socket.nio.NioWorkerPool;
 import org.vertx.java.core.logging.Logger;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="http://tfox.org">Tim Fox</a>
@@ -18,30 +17,31 @@ public class NetServerWorkerPool extends NioWorkerPool {
     super(0, null);
   }
 
-  private int pos;
+  private final AtomicInteger pos = new AtomicInteger();
 
-  private List<WorkerHolder> workers = new ArrayList<>();
+  // Copy on write - nextWorker is called for every accepted connection so it must not take a lock
+  private volatile WorkerHolder[] workers = new WorkerHolder[0];
 
-  public synchronized NioWorker nextWorker() {
-    NioWorker worker = workers.get(pos).worker;
-    pos++;
-    checkPos();
-    return worker;
+  public NioWorker nextWorker() {
+    WorkerHolder[] current = workers;
+    return current[(pos.getAndIncrement() & Integer.MAX_VALUE) % current.length].worker;
   }
 
   public synchronized void addWorker(NioWorker worker) {
     WorkerHolder holder = findHolder(worker);
     if (holder == null) {
-      workers.add(new WorkerHolder(worker));
+      WorkerHolder[] copy = new WorkerHolder[workers.length + 1];
+      System.arraycopy(workers, 0, copy, 0, workers.length);
+      copy[workers.length] = new WorkerHolder(worker);
+      workers = copy;
     } else {
       holder.count++;
     }
   }
 
   private WorkerHolder findHolder(NioWorker worker) {
-    WorkerHolder wh = new WorkerHolder(worker);
     for (WorkerHolder holder: workers) {
-      if (holder.equals(wh)) {
+      if (holder.worker == worker) {
         return holder;
       }
     }
@@ -49,52 +49,35 @@ public class NetServerWorkerPool extends NioWorkerPool {
   }
 
   public synchronized void removeWorker(NioWorker worker) {
-    //TODO can be optimised
     WorkerHolder holder = findHolder(worker);
     if (holder != null) {
       holder.count--;
       if (holder.count == 0) {
-        workers.remove(holder);
+        WorkerHolder[] copy = new WorkerHolder[workers.length - 1];
+        int i = 0;
+        for (WorkerHolder wh: workers) {
+          if (wh != holder) {
+            copy[i++] = wh;
+          }
+        }
+        workers = copy;
       }
-      checkPos();
     } else {
       throw new IllegalStateException("Can't find worker to remove");
     }
   }
 
-  public synchronized int workerCount() {
-    return workers.size();
-  }
-
-  private void checkPos() {
-    if (pos == workers.size()) {
-      pos = 0;
-    }
+  public int workerCount() {
+    return workers.length;
   }
 
   private static class WorkerHolder {
+    // Only accessed with the pool locked
     int count = 1;
     final NioWorker worker;
 
     WorkerHolder(NioWorker worker) {
       this.worker = worker;
     }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-
-      WorkerHolder that = (WorkerHolder) o;
-
-      if (worker != null ? !worker.equals(that.worker) : that.worker != null) return false;
-
-      return true;
-    }
-
-    @Override
-    public int hashCode() {
-      return worker != null ? worker.hashCode() : 0;
-    }
   }
 }
@@ -20,16 +20,20 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.Channels;
 import org.jboss.netty.util.CharsetUtil;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.SimpleHandler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.streams.ReadStream;
 import org.vertx.java.core.streams.WriteStream;
 
 import java.io.File;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * <p>Represents the interface to a TCP or SSL connection on either the client or the server side.</p>
@@ -39,10 +43,35 @@ import java.nio.charset.Charset;
  */
 public class NetSocket extends ConnectionBase implements ReadStream, WriteStream {
 
+  /**
+   * The default number of pending bytes at which coalesced writes are flushed without waiting for the end of the turn
+   */
+  public static final int DEFAULT_COALESCE_THRESHOLD = 16 * 1024;
+
   private Handler<Buffer> dataHandler;
   private Handler<Void> endHandler;
   private Handler<Void> drainHandler;
 
+  private NetSocket proxy;
+  // Reading is stopped if either the user or the proxy paused it, and only resumed once neither has
+  private boolean paused;
+  private boolean proxyPaused;
+  private long bytesProxied;
+
+  private boolean coalesceWrites;
+  private int coalesceThreshold = DEFAULT_COALESCE_THRESHOLD;
+  private ChannelBuffer[] pending;
+  private int pendingCount;
+  private int pendingBytes;
+  private ChannelFuture pendingFuture;
+  private boolean flushScheduled;
+  private final Runnable flushTask = new Runnable() {
+    public void run() {
+      flushScheduled = false;
+      flush();
+    }
+  };
+
   /**
    * When a {@code NetSocket} is created it automatically registers an event handler with the system, the ID of that
    * handler is given by {@code writeHandlerID}.<p>
@@ -130,6 +159,103 @@ public class NetSocket extends ConnectionBase implements ReadStream, WriteStream
     return this;
   }
 
+  /**
+   * If {@code coalesce} is true then writes made on this socket during one turn of the event loop are held back and
+   * written to the connection together at the end of the turn, so many small writes cost one system call instead of
+   * one each. This suits protocols which write a message as many small pieces.<p>
+   * Pending writes are also flushed early once they add up to the coalesce threshold, see
+   * {@link #setCoalesceThreshold}, and before the socket is closed or a file is sent. Turning coalescing off
+   * flushes anything pending. Coalescing is off by default.<p>
+   * A pending write holds on to the bytes which were in the buffer when it was made, so the buffer can be appended to
+   * afterwards. As with any write, the bytes themselves must not be changed until it has been written.<p>
+   * @return A reference to this, so multiple method calls can be chained.
+   */
+  public NetSocket setCoalesceWrites(boolean coalesce) {
+    checkThread();
+    if (!coalesce) {
+      flush();
+    } else if (pending == null) {
+      pending = new ChannelBuffer[16];
+    }
+    this.coalesceWrites = coalesce;
+    return this;
+  }
+
+  /**
+   * Set the number of pending bytes at which coalesced writes are flushed straight away rather than at the end of
+   * the turn. The default is {@link #DEFAULT_COALESCE_THRESHOLD}.<p>
+   * @return A reference to this, so multiple method calls can be chained.
+   */
+  public NetSocket setCoalesceThreshold(int bytes) {
+    checkThread();
+    if (bytes < 1) {
+      throw new IllegalArgumentException("Coalesce threshold must be > 0");
+    }
+    this.coalesceThreshold = bytes;
+    return this;
+  }
+
+  /**
+   * Proxy this connection to {@code other} and {@code other} to this one, so everything read from either is written
+   * to the other. The data is passed straight from one connection's channel to the other's, without going through
+   * a {@link Buffer} or the data handlers, so this is cheaper than pumping in both directions with
+   * {@link org.vertx.java.core.streams.Pump}s.<p>
+   * Flow control works in both directions: when one connection's write queue is full, see
+   * {@link #setWriteQueueMaxSize}, reading from the other stops until it has drained. When either connection is
+   * closed the other is closed once everything proxied to it has been written, so a peer which sends its last data
+   * and closes doesn't lose it. The end and closed handlers of both connections are still called.<p>
+   * A connection which is paused, see {@link #pause}, stays paused until it's resumed, whatever happens to the other
+   * connection's write queue in the meantime. If the other connection coalesces writes, see
+   * {@link #setCoalesceWrites}, what's proxied to it is coalesced too.<p>
+   * Both connections must belong to this event loop. Once connections are proxied their data handlers aren't called.
+   * @return A reference to this, so multiple method calls can be chained.
+   */
+  public NetSocket proxyTo(NetSocket other) {
+    checkThread();
+    if (other == this || other.contextID != contextID) {
+      throw new IllegalArgumentException("Can only proxy to another connection on the same event loop");
+    }
+    if (proxy != null || other.proxy != null) {
+      throw new IllegalStateException("Already proxied");
+    }
+    // Anything held back must go first
+    flush();
+    other.flush();
+    proxy = other;
+    other.proxy = this;
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void pause() {
+    checkThread();
+    paused = true;
+    channel.setReadable(false);
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   * If the connection is proxied and the other one's write queue is full, reading resumes once it has drained.
+   */
+  public void resume() {
+    checkThread();
+    paused = false;
+    if (!proxyPaused) {
+      channel.setReadable(true);
+    }
+  }
+
+  /**
+   * @return The number of bytes read from this connection and written to the one it's proxied to, see
+   * {@link #proxyTo}
+   */
+  public long getBytesProxied() {
+    checkThread();
+    return bytesProxied;
+  }
+
   /**
    * Specify a data handler for the connection. As data is read from the connection the handler will be called.
    */
@@ -170,9 +296,19 @@ public class NetSocket extends ConnectionBase implements ReadStream, WriteStream
   public void sendFile(String filename) {
     checkThread();
     File f = new File(filename);
+    flush();
     super.sendFile(f);
   }
 
+  /**
+   * Close the connection. Any coalesced writes which are still pending are written first.
+   */
+  public void close() {
+    checkThread();
+    flush();
+    super.close();
+  }
+
   protected long getContextID() {
     return super.getContextID();
   }
@@ -188,6 +324,11 @@ public class NetSocket extends ConnectionBase implements ReadStream, WriteStream
     }
     super.handleClosed();
     Vertx.instance.unregisterHandler(writeHandlerID);
+    if (proxy != null && proxy.channel.isOpen()) {
+      // Close the other side once what's been proxied to it has been written
+      proxy.flush();
+      proxy.channel.write(ChannelBuffers.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    }
   }
 
   protected void handleException(Exception e) {
@@ -196,9 +337,30 @@ public class NetSocket extends ConnectionBase implements ReadStream, WriteStream
 
   void handleInterestedOpsChanged() {
     setContextID();
+    if (proxy != null && proxy.proxyPaused && isWritable()) {
+      proxy.proxyPaused = false;
+      if (!proxy.paused) {
+        proxy.channel.setReadable(true);
+      }
+    }
     callDrainHandler();
   }
 
+  void handleDataReceived(ChannelBuffer buff) {
+    if (proxy != null) {
+      // The buffer is written as it is, nothing else holds on to it. It goes through doWrite so it's coalesced with
+      // other writes if the other connection coalesces them
+      bytesProxied += buff.readableBytes();
+      proxy.doWrite(buff);
+      if (!proxyPaused && !proxy.isWritable()) {
+        proxyPaused = true;
+        channel.setReadable(false);
+      }
+    } else {
+      handleDataReceived(new Buffer(buff));
+    }
+  }
+
   void handleDataReceived(Buffer data) {
     if (dataHandler != null) {
       setContextID();
@@ -218,13 +380,58 @@ public class NetSocket extends ConnectionBase implements ReadStream, WriteStream
 
   private ChannelFuture doWrite(ChannelBuffer buff) {
     checkThread();
-    return channel.write(buff);
+    if (!coalesceWrites) {
+      return channel.write(buff);
+    }
+    if (pendingCount == pending.length) {
+      pending = Arrays.copyOf(pending, pendingCount * 2);
+    }
+    // A slice, so what's written is what was readable now, even if the caller appends to its buffer before the flush
+    pending[pendingCount++] = buff.slice();
+    pendingBytes += buff.readableBytes();
+    // All writes in a batch share one future, which completes when the batch has been written
+    if (pendingFuture == null) {
+      pendingFuture = Channels.future(channel);
+    }
+    ChannelFuture future = pendingFuture;
+    if (pendingBytes >= coalesceThreshold) {
+      flush();
+    } else if (!flushScheduled) {
+      // Other tasks run after the worker has processed the selected keys, i.e. at the end of this turn
+      flushScheduled = true;
+      VertxInternal.instance.getWorkerForContextID(contextID).scheduleOtherTask(flushTask);
+    }
+    return future;
+  }
+
+  private void flush() {
+    if (pendingCount == 0) {
+      return;
+    }
+    // The pieces are wrapped, not copied. Netty then copies the whole batch into one send buffer and writes it with a
+    // single system call
+    ChannelBuffer buff = pendingCount == 1 ? pending[0] :
+        ChannelBuffers.wrappedBuffer(Arrays.copyOf(pending, pendingCount));
+    final ChannelFuture batchFuture = pendingFuture;
+    Arrays.fill(pending, 0, pendingCount, null);
+    pendingCount = 0;
+    pendingBytes = 0;
+    pendingFuture = null;
+    channel.write(buff).addListener(new ChannelFutureListener() {
+      public void operationComplete(ChannelFuture future) throws Exception {
+        if (future.isSuccess()) {
+          batchFuture.setSuccess();
+        } else {
+          batchFuture.setFailure(future.getCause());
+        }
+      }
+    });
   }
 
   private void callDrainHandler() {
     if (drainHandler != null) {
       //if ((channel.getInterestOps() & Channel.OP_WRITE) == Channel.OP_WRITE) {
-      if (channel.isWritable()) {
+      if (isWritable()) {
         try {
           drainHandler.handle(null);
         } catch (Throwable t) {
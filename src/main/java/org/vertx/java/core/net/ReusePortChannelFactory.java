@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.ServerSocketChannel;
+import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
+import org.vertx.java.core.logging.Logger;
+
+import java.lang.reflect.Field;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+
+/**
+ * Wraps a server channel factory so that every server socket it creates has SO_REUSEPORT set before it is bound.
+ * This lets several server sockets, each with its own acceptor thread, listen on the same port, and the kernel then
+ * spreads incoming connections between them.<p>
+ * Netty doesn't expose the underlying socket or support the option, so we set it on the NIO channel directly. If the
+ * option or the channel can't be found, {@link #isSupported()} is false and the server uses a single acceptor. Binding
+ * happens as the channel is opened, so we do it from a handler at the front of the pipeline which sees the open event
+ * first.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class ReusePortChannelFactory implements ServerSocketChannelFactory {
+
+  private static final Logger log = Logger.getLogger(ReusePortChannelFactory.class);
+
+  // Both are null unless SO_REUSEPORT can be used
+  private static final SocketOption<Boolean> reusePort;
+  private static final Field socketField;
+
+  static {
+    SocketOption<Boolean> option = null;
+    Field field = null;
+    try (java.nio.channels.ServerSocketChannel ssc = java.nio.channels.ServerSocketChannel.open()) {
+      // SO_REUSEPORT was only added to StandardSocketOptions in Java 9, so we look it up by name
+      @SuppressWarnings("unchecked")
+      SocketOption<Boolean> opt = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+      if (ssc.supportedOptions().contains(opt)) {
+        // Netty keeps the NIO channel in a private field, which we only ever read
+        Field f = Class.forName("org.jboss.netty.channel.socket.nio.NioServerSocketChannel").getDeclaredField("socket");
+        if (java.nio.channels.ServerSocketChannel.class.isAssignableFrom(f.getType())) {
+          f.setAccessible(true);
+          option = opt;
+          field = f;
+        }
+      }
+    } catch (Exception | LinkageError e) {
+      log.debug("SO_REUSEPORT is not available: " + e);
+    }
+    reusePort = option;
+    socketField = field;
+  }
+
+  /**
+   * Can we use SO_REUSEPORT on this platform?
+   */
+  static boolean isSupported() {
+    return reusePort != null;
+  }
+
+  private final ServerSocketChannelFactory delegate;
+
+  ReusePortChannelFactory(ServerSocketChannelFactory delegate) {
+    this.delegate = delegate;
+  }
+
+  public ServerSocketChannel newChannel(ChannelPipeline pipeline) {
+    pipeline.addFirst("reusePort", new SimpleChannelUpstreamHandler() {
+      public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        setReusePort(e.getChannel());
+        super.channelOpen(ctx, e);
+      }
+    });
+    return delegate.newChannel(pipeline);
+  }
+
+  public void releaseExternalResources() {
+    delegate.releaseExternalResources();
+  }
+
+  private static void setReusePort(Channel channel) throws Exception {
+    java.nio.channels.ServerSocketChannel socket = (java.nio.channels.ServerSocketChannel) socketField.get(channel);
+    socket.setOption(reusePort, true);
+  }
+}
@@ -12,6 +12,14 @@ public class ServerID {
     this.host = host;
   }
 
+  public int getPort() {
+    return port;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -31,4 +39,9 @@ public class ServerID {
     result = 31 * result + (host != null ? host.hashCode() : 0);
     return result;
   }
+
+  @Override
+  public String toString() {
+    return host + ":" + port;
+  }
 }
@@ -19,6 +19,7 @@ package org.vertx.java.core.net;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
@@ -30,6 +31,8 @@ import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Helper class for SSL.
@@ -37,6 +40,56 @@ import java.security.cert.X509Certificate;
  */
 public class TLSHelper {
 
+  private static final ConcurrentMap<ContextKey, SSLContext> contexts = new ConcurrentHashMap<>();
+
+  /**
+   * Get the {@link SSLContext} for the specified key store, trust store and session settings. Contexts are cached, so
+   * all servers and clients with the same settings share one context. This means the key stores are only read once,
+   * and TLS sessions can be resumed across all of them.<p>
+   * A {@code sessionCacheSize} or {@code sessionTimeout} of -1 leaves the JSSE default.
+   */
+  public static SSLContext getContext(final String ksPath,
+                                      final String ksPassword,
+                                      final String tsPath,
+                                      final String tsPassword,
+                                      final boolean trustAll,
+                                      final int sessionCacheSize,
+                                      final int sessionTimeout) {
+    ContextKey key = new ContextKey(ksPath, ksPassword, tsPath, tsPassword, trustAll, sessionCacheSize, sessionTimeout);
+    SSLContext context = contexts.get(key);
+    if (context == null) {
+      context = createContext(ksPath, ksPassword, tsPath, tsPassword, trustAll);
+      // The same context can be used by servers and clients
+      configureSessions(context.getServerSessionContext(), sessionCacheSize, sessionTimeout);
+      configureSessions(context.getClientSessionContext(), sessionCacheSize, sessionTimeout);
+      SSLContext prev = contexts.putIfAbsent(key, context);
+      if (prev != null) {
+        context = prev;
+      }
+    }
+    return context;
+  }
+
+  /**
+   * Forget all the cached contexts, e.g. after a key store has changed. Servers and clients already using a context
+   * carry on using it, new ones will get a new context.
+   */
+  public static void clearContextCache() {
+    contexts.clear();
+  }
+
+  private static void configureSessions(SSLSessionContext sessions, int sessionCacheSize, int sessionTimeout) {
+    if (sessions == null) {
+      return;
+    }
+    if (sessionCacheSize != -1) {
+      sessions.setSessionCacheSize(sessionCacheSize);
+    }
+    if (sessionTimeout != -1) {
+      sessions.setSessionTimeout(sessionTimeout);
+    }
+  }
+
   /*
   If you don't specify a trust store, and you haven't set system properties, the system will try to use either a file
   called jsssecacerts or cacerts in the JDK/JRE security directory.
@@ -101,6 +154,56 @@ public class TLSHelper {
     return fact.getKeyManagers();
   }
 
+  private static boolean equals(Object o1, Object o2) {
+    return o1 == null ? o2 == null : o1.equals(o2);
+  }
+
+  private static int hashCode(Object o) {
+    return o == null ? 0 : o.hashCode();
+  }
+
+  private static final class ContextKey {
+    final String ksPath;
+    final String ksPassword;
+    final String tsPath;
+    final String tsPassword;
+    final boolean trustAll;
+    final int sessionCacheSize;
+    final int sessionTimeout;
+
+    ContextKey(String ksPath, String ksPassword, String tsPath, String tsPassword, boolean trustAll,
+               int sessionCacheSize, int sessionTimeout) {
+      this.ksPath = ksPath;
+      this.ksPassword = ksPassword;
+      this.tsPath = tsPath;
+      this.tsPassword = tsPassword;
+      this.trustAll = trustAll;
+      this.sessionCacheSize = sessionCacheSize;
+      this.sessionTimeout = sessionTimeout;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof ContextKey)) {
+        return false;
+      }
+      ContextKey other = (ContextKey) o;
+      return TLSHelper.equals(ksPath, other.ksPath) && TLSHelper.equals(ksPassword, other.ksPassword) &&
+          TLSHelper.equals(tsPath, other.tsPath) && TLSHelper.equals(tsPassword, other.tsPassword) &&
+          trustAll == other.trustAll && sessionCacheSize == other.sessionCacheSize &&
+          sessionTimeout == other.sessionTimeout;
+    }
+
+    public int hashCode() {
+      int h = TLSHelper.hashCode(ksPath);
+      h = 31 * h + TLSHelper.hashCode(ksPassword);
+      h = 31 * h + TLSHelper.hashCode(tsPath);
+      h = 31 * h + TLSHelper.hashCode(tsPassword);
+      h = 31 * h + (trustAll ? 1 : 0);
+      h = 31 * h + sessionCacheSize;
+      return 31 * h + sessionTimeout;
+    }
+  }
+
   private static KeyStore loadStore(final String ksPath, final String ksPassword) throws Exception {
     KeyStore ks = KeyStore.getInstance("JKS");
     InputStream in = null;
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+/**
+ * A token bucket of bytes, which fills at a fixed rate and holds up to a second's worth.<p>
+ * Traffic is let through as long as the bucket isn't in debt, and then takes what it needs, even if that puts the
+ * bucket in debt. So a single large write or read is never held up, but what comes after it waits until the debt is
+ * paid off, and over time the rate is kept to. The bucket is filled by working out how much it has gained since it was
+ * last used, so nothing needs to run while traffic is flowing.<p>
+ * A bucket can be shared by the connections of a server, which are on different event loops, so it's synchronized.
+ * The lock is only held for a few arithmetic operations.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class TokenBucket {
+
+  private final long rate;
+  private double tokens;
+  private long lastRefill;
+
+  /*
+  rate is in bytes per second
+   */
+  TokenBucket(long rate) {
+    this.rate = rate;
+    this.tokens = rate;
+    this.lastRefill = System.nanoTime();
+  }
+
+  long getRate() {
+    return rate;
+  }
+
+  /*
+  Take bytes from the bucket
+   */
+  synchronized void consume(long bytes) {
+    refill();
+    tokens -= bytes;
+  }
+
+  /*
+  Returns how long in nanoseconds until the bucket is out of debt, or 0 if it isn't in debt
+   */
+  synchronized long delay() {
+    refill();
+    return tokens >= 0 ? 0 : Math.max(1, (long) (-tokens * 1e9 / rate));
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(rate, tokens + (now - lastRefill) * (double) rate / 1e9);
+    lastRefill = now;
+  }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.net;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.FileRegion;
+import org.jboss.netty.channel.LifeCycleAwareChannelHandler;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.socket.nio.NioSocketChannel;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.vertx.java.core.internal.VertxInternal;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which a connection reads and writes, with a {@link TokenBucket} for the connection and, optionally,
+ * one shared by all the connections of a server or client.<p>
+ * When reading puts a bucket in debt the connection stops reading, and a timeout is set on the vert.x timer for when
+ * the debt is paid off, which makes it readable again on its event loop. Nothing sleeps, and the data not read yet
+ * waits in the socket's receive buffer, so the sender is slowed down by TCP flow control. Pausing and resuming by the
+ * layers above still works, a resume while the connection is over its limit only takes effect once it isn't.<p>
+ * Writes made while a bucket is in debt are queued here, and written by a timeout in the same way. The queue counts
+ * towards the connection's write queue, see {@link ConnectionBase#writeQueueFull}, so a writer which respects that is
+ * held up rather than queueing without limit.<p>
+ * It sits just behind the metrics handler, so it sees the bytes read from and written to the socket, including any SSL
+ * overhead. Instances are per channel. Everything is done on the channel's worker thread, writes made by SSL
+ * handshakes that have been offloaded are passed back to it by {@link HandshakeOffloader}.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class TrafficShapingHandler extends SimpleChannelHandler implements LifeCycleAwareChannelHandler {
+
+  private final TokenBucket aggregateRead;
+  private final TokenBucket aggregateWrite;
+  private TokenBucket read;
+  private TokenBucket write;
+
+  private volatile ChannelHandlerContext ctx;
+
+  private boolean wantReadable = true;
+  private boolean readThrottled;
+  private Timeout readTimeout;
+
+  private final Queue<MessageEvent> queued = new ArrayDeque<>();
+  private long queuedBytes;
+  private boolean writeQueueFull;
+  private Timeout writeTimeout;
+
+  private final Runnable readTask = new Runnable() {
+    public void run() {
+      readTimeout = null;
+      checkRead();
+    }
+  };
+
+  private final Runnable writeTask = new Runnable() {
+    public void run() {
+      writeTimeout = null;
+      writeQueued();
+    }
+  };
+
+  /*
+  The rates are in bytes per second, 0 means no limit. The aggregate buckets are shared, or null
+   */
+  TrafficShapingHandler(long readRate, long writeRate, TokenBucket aggregateRead, TokenBucket aggregateWrite) {
+    this.read = bucket(readRate);
+    this.write = bucket(writeRate);
+    this.aggregateRead = aggregateRead;
+    this.aggregateWrite = aggregateWrite;
+  }
+
+  /*
+  Change the limits of the connection. Called on the worker
+   */
+  void setReadRate(long rate) {
+    read = bucket(rate);
+    cancel(readTimeout);
+    readTimeout = null;
+    checkRead();
+  }
+
+  void setWriteRate(long rate) {
+    write = bucket(rate);
+    cancel(writeTimeout);
+    writeTimeout = null;
+    writeQueued();
+  }
+
+  boolean isWriteQueueFull() {
+    return writeQueueFull;
+  }
+
+  public void beforeAdd(ChannelHandlerContext ctx) {
+    this.ctx = ctx;
+  }
+
+  public void afterAdd(ChannelHandlerContext ctx) {
+  }
+
+  public void beforeRemove(ChannelHandlerContext ctx) {
+  }
+
+  public void afterRemove(ChannelHandlerContext ctx) {
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    long bytes = ((ChannelBuffer) e.getMessage()).readableBytes();
+    consume(read, aggregateRead, bytes);
+    super.messageReceived(ctx, e);
+    if (!readThrottled) {
+      long delay = delay(read, aggregateRead);
+      if (delay > 0) {
+        readThrottled = true;
+        setReadable(false);
+        readTimeout = schedule(readTask, delay);
+      }
+    }
+  }
+
+  @Override
+  public void setInterestOpsRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    int ops = (Integer) e.getValue();
+    wantReadable = (ops & Channel.OP_READ) != 0;
+    if (readThrottled && wantReadable) {
+      // Remembered for when the connection is back under its limit
+      Channels.setInterestOps(ctx, e.getFuture(), ops & ~Channel.OP_READ);
+    } else {
+      super.setInterestOpsRequested(ctx, e);
+    }
+  }
+
+  @Override
+  public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    long bytes = size(e);
+    if (queued.isEmpty() && delay(write, aggregateWrite) == 0) {
+      consume(write, aggregateWrite, bytes);
+      super.writeRequested(ctx, e);
+      return;
+    }
+    queued.add(e);
+    queuedBytes += bytes;
+    if (!writeQueueFull && queuedBytes >= config().getWriteBufferHighWaterMark()) {
+      writeQueueFull = true;
+    }
+    if (writeTimeout == null) {
+      writeTimeout = schedule(writeTask, delay(write, aggregateWrite));
+    }
+  }
+
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    cancel(readTimeout);
+    cancel(writeTimeout);
+    // Queued writes will never be written
+    MessageEvent write;
+    while ((write = queued.poll()) != null) {
+      write.getFuture().setFailure(new ClosedChannelException());
+    }
+    queuedBytes = 0;
+    super.channelClosed(ctx, e);
+  }
+
+  private void checkRead() {
+    if (!readThrottled || readTimeout != null) {
+      return;
+    }
+    long delay = delay(read, aggregateRead);
+    if (delay > 0) {
+      // Other connections have used the shared bucket in the meantime
+      readTimeout = schedule(readTask, delay);
+    } else {
+      readThrottled = false;
+      if (wantReadable) {
+        setReadable(true);
+      }
+    }
+  }
+
+  private void writeQueued() {
+    if (writeTimeout != null) {
+      return;
+    }
+    MessageEvent e;
+    while ((e = queued.peek()) != null) {
+      long delay = delay(write, aggregateWrite);
+      if (delay > 0) {
+        writeTimeout = schedule(writeTask, delay);
+        break;
+      }
+      queued.poll();
+      long bytes = size(e);
+      queuedBytes -= bytes;
+      consume(write, aggregateWrite, bytes);
+      ctx.sendDownstream(e);
+    }
+    if (writeQueueFull && queuedBytes < config().getWriteBufferLowWaterMark()) {
+      writeQueueFull = false;
+      // So the connection calls its drain handler
+      Channels.fireChannelInterestChanged(ctx);
+    }
+  }
+
+  private void setReadable(boolean readable) {
+    Channel ch = ctx.getChannel();
+    if (ch.isOpen()) {
+      int ops = ch.getInterestOps();
+      Channels.setInterestOps(ctx, Channels.future(ch), readable ? ops | Channel.OP_READ : ops & ~Channel.OP_READ);
+    }
+  }
+
+  private Timeout schedule(final Runnable task, long delay) {
+    final NioSocketChannel ch = (NioSocketChannel) ctx.getChannel();
+    return VertxInternal.instance.getTimer().newTimeout(new TimerTask() {
+      public void run(Timeout timeout) {
+        if (!timeout.isCancelled() && ch.isOpen()) {
+          ch.getWorker().scheduleOtherTask(task);
+        }
+      }
+    }, delay, TimeUnit.NANOSECONDS);
+  }
+
+  private NioSocketChannelConfig config() {
+    return (NioSocketChannelConfig) ctx.getChannel().getConfig();
+  }
+
+  private static void cancel(Timeout timeout) {
+    if (timeout != null) {
+      timeout.cancel();
+    }
+  }
+
+  private static TokenBucket bucket(long rate) {
+    return rate > 0 ? new TokenBucket(rate) : null;
+  }
+
+  private static void consume(TokenBucket bucket, TokenBucket aggregate, long bytes) {
+    if (bucket != null) {
+      bucket.consume(bytes);
+    }
+    if (aggregate != null) {
+      aggregate.consume(bytes);
+    }
+  }
+
+  private static long delay(TokenBucket bucket, TokenBucket aggregate) {
+    long delay = bucket == null ? 0 : bucket.delay();
+    return aggregate == null ? delay : Math.max(delay, aggregate.delay());
+  }
+
+  private static long size(MessageEvent e) {
+    Object msg = e.getMessage();
+    if (msg instanceof ChannelBuffer) {
+      return ((ChannelBuffer) msg).readableBytes();
+    } else if (msg instanceof FileRegion) {
+      return ((FileRegion) msg).getCount();
+    } else {
+      return 0;
+    }
+  }
+}
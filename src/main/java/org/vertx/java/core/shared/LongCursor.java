@@ -0,0 +1,37 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vertx.java.core.shared;
+
+/**
+ * <p>A cursor over the {@code long} elements of a {@link SharedLongSet}.</p>
+ *
+ * <p>Elements are returned as primitives so iterating does not allocate. Call {@link #next} to move to each element
+ * in turn before calling {@link #get}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public interface LongCursor {
+
+  /**
+   * Move to the next element. Returns {@code false} when there are no more elements.
+   */
+  boolean next();
+
+  /**
+   * The current element
+   */
+  long get();
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vertx.java.core.shared;
+
+/**
+ * <p>A cursor over the entries of a {@link SharedLongObjectMap}.</p>
+ *
+ * <p>Keys are returned as primitives so iterating does not allocate. Call {@link #next} to move to each entry
+ * in turn before calling {@link #key} or {@link #value}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public interface LongObjectCursor<V> {
+
+  /**
+   * Move to the next entry. Returns {@code false} when there are no more entries.
+   */
+  boolean next();
+
+  /**
+   * The key of the current entry
+   */
+  long key();
+
+  /**
+   * The value of the current entry
+   */
+  V value();
+}
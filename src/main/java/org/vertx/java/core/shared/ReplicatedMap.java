@@ -0,0 +1,336 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.shared;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.cliffc.high_scale_lib.NonBlockingHashSet;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.logging.Logger;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A map whose puts and removes are replicated to the other nodes in a cluster.</p>
+ *
+ * <p>Reads are always served from local memory. Changes are applied locally straight away and sent to the other
+ * nodes asynchronously, in batches, by the {@link Replicator} the map was obtained from. If a key is changed more
+ * than once between batches only the latest change is sent.</p>
+ *
+ * <p>Conflicting changes are handled according to the {@link Replicator.ConflictMode} of the replicator. Whatever the
+ * mode, all nodes which have seen the same changes end up with the same value for each key.</p>
+ *
+ * <p>The same types can be stored in a replicated map as in the other shared data structures, except for your own
+ * {@link org.vertx.java.core.Immutable} classes, which cannot be sent to other nodes.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class ReplicatedMap<K, V> {
+
+  private static final Logger log = Logger.getLogger(ReplicatedMap.class);
+
+  /**
+   * Describes a conflict between a local and a remote change to the same key
+   */
+  public static class Conflict<K, V> {
+
+    /**
+     * The key
+     */
+    public final K key;
+
+    /**
+     * The local value, or {@code null} if the key had been removed locally
+     */
+    public final V localValue;
+
+    /**
+     * The remote value, or {@code null} if the key had been removed remotely
+     */
+    public final V remoteValue;
+
+    /**
+     * The value the key now has on this node
+     */
+    public final V value;
+
+    Conflict(K key, V localValue, V remoteValue, V value) {
+      this.key = key;
+      this.localValue = localValue;
+      this.remoteValue = remoteValue;
+      this.value = value;
+    }
+  }
+
+  final String name;
+  private final Replicator replicator;
+  private final ConcurrentMap<K, Versioned<V>> map = new NonBlockingHashMap<>();
+  // The keys changed since the last batch was sent. The changes themselves are read from the map when the batch is
+  // written, so a batch always carries the latest version of each key whatever order concurrent updates finish in
+  private final Set<K> changed = new NonBlockingHashSet<>();
+  private volatile Handler<Conflict<K, V>> conflictHandler;
+
+  ReplicatedMap(String name, Replicator replicator) {
+    this.name = name;
+    this.replicator = replicator;
+  }
+
+  public V get(K key) {
+    Versioned<V> v = map.get(key);
+    return v == null ? null : v.value;
+  }
+
+  public boolean containsKey(K key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Associate {@code value} with {@code key} and replicate the change to the other nodes.
+   * @return the previous value for the key on this node, or {@code null}
+   */
+  public V put(K key, V value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    key = checkObject(key);
+    value = checkObject(value);
+    return update(key, value);
+  }
+
+  /**
+   * Remove {@code key} and replicate the removal to the other nodes.
+   * @return the previous value for the key on this node, or {@code null}
+   */
+  public V remove(K key) {
+    return map.containsKey(key) ? update(key, null) : null;
+  }
+
+  /**
+   * Return the number of keys in the map. This iterates over the map so is not a constant time operation.
+   */
+  public int size() {
+    int size = 0;
+    for (Versioned<V> v : map.values()) {
+      if (v.value != null) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Return a copy of the set of keys in the map
+   */
+  public Set<K> keySet() {
+    Set<K> keys = new HashSet<>();
+    for (Map.Entry<K, Versioned<V>> entry : map.entrySet()) {
+      if (entry.getValue().value != null) {
+        keys.add(entry.getKey());
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Set a handler to be told when a remote change conflicts with a local one. This is only called when the
+   * replicator uses {@link Replicator.ConflictMode#VERSION_VECTOR}. The conflict has already been resolved when the
+   * handler is called, but the handler can put a merged value if it wants to. The handler is called on the event loop
+   * of the replicator.
+   */
+  public void conflictHandler(Handler<Conflict<K, V>> handler) {
+    this.conflictHandler = handler;
+  }
+
+  private V update(K key, V value) {
+    while (true) {
+      Versioned<V> current = map.get(key);
+      Versioned<V> next = replicator.nextVersion(current, value);
+      if (current == null ? map.putIfAbsent(key, next) == null : map.replace(key, current, next)) {
+        changed.add(key);
+        return current == null ? null : current.value;
+      }
+    }
+  }
+
+  private <T> T checkObject(T obj) {
+    obj = SharedUtils.checkObject(obj);
+    if (!SharedDataSnapshot.encodable(obj)) {
+      throw new IllegalArgumentException("Invalid type for replicated map: " + obj.getClass().getName());
+    }
+    return obj;
+  }
+
+  boolean hasDeltas() {
+    return !changed.isEmpty();
+  }
+
+  /*
+  Write the changes since the last batch, or every entry if all is true. Removed keys are written too so the removal
+  reaches nodes which haven't seen it yet.
+   */
+  int writeEntries(DataOutputStream out, boolean all) throws IOException {
+    int count = 0;
+    for (K key : all ? map.keySet() : changed) {
+      if (!all) {
+        // Remove the key before reading its value - if it changes again after this it goes in the next batch too
+        changed.remove(key);
+      }
+      Versioned<V> v = map.get(key);
+      if (v != null) {
+        SharedDataSnapshot.writeValue(out, key);
+        v.write(out);
+        count++;
+      }
+    }
+    out.writeByte(SharedDataSnapshot.TYPE_END);
+    return count;
+  }
+
+  // The peers replicate maps by name, so the entries are of the types the map was asked for with
+  @SuppressWarnings("unchecked")
+  void readEntries(ByteBuffer buff) throws IOException {
+    Object key;
+    while ((key = SharedDataSnapshot.readValue(buff)) != null) {
+      apply((K) key, Versioned.<V>read(buff));
+    }
+  }
+
+  private void apply(K key, Versioned<V> remote) {
+    while (true) {
+      Versioned<V> current = map.get(key);
+      Versioned<V> next;
+      Conflict<K, V> conflict = null;
+      if (current == null) {
+        next = remote;
+      } else {
+        int cmp = replicator.compare(current, remote);
+        if (cmp >= 0) {
+          // We already have this change or a later one
+          return;
+        } else if (cmp == Replicator.CONCURRENT) {
+          next = Versioned.merge(current, remote);
+          conflict = new Conflict<>(key, current.value, remote.value, next.value);
+        } else {
+          next = remote;
+        }
+      }
+      if (current == null ? map.putIfAbsent(key, next) == null : map.replace(key, current, next)) {
+        Handler<Conflict<K, V>> handler = conflictHandler;
+        if (conflict != null && handler != null) {
+          try {
+            handler.handle(conflict);
+          } catch (Throwable t) {
+            log.error("Unhandled exception in conflict handler", t);
+          }
+        }
+        return;
+      }
+    }
+  }
+
+  /*
+  Forget removed keys whose removal happened before expiry, so removals don't use memory forever
+   */
+  void purge(long expiry) {
+    for (Map.Entry<K, Versioned<V>> entry : map.entrySet()) {
+      Versioned<V> v = entry.getValue();
+      if (v.value == null && v.timestamp < expiry) {
+        map.remove(entry.getKey(), v);
+      }
+    }
+  }
+
+  /*
+  A value with the information needed to order it against other changes to the same key. A null value means the key
+  was removed.
+   */
+  static class Versioned<V> {
+    final V value;
+    final long timestamp;
+    final long nodeID;
+    // Only used with version vectors - a map of node id to the number of changes that node has made to the key
+    final Map<Long, Long> vector;
+
+    Versioned(V value, long timestamp, long nodeID, Map<Long, Long> vector) {
+      this.value = value;
+      this.timestamp = timestamp;
+      this.nodeID = nodeID;
+      this.vector = vector;
+    }
+
+    /*
+    Concurrent changes are resolved using last writer wins, and the result has seen both changes
+     */
+    static <V> Versioned<V> merge(Versioned<V> v1, Versioned<V> v2) {
+      Versioned<V> winner = lastWriterWins(v1, v2) > 0 ? v1 : v2;
+      Map<Long, Long> vector = new HashMap<>(v1.vector);
+      for (Map.Entry<Long, Long> entry : v2.vector.entrySet()) {
+        Long count = vector.get(entry.getKey());
+        if (count == null || count < entry.getValue()) {
+          vector.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return new Versioned<>(winner.value, winner.timestamp, winner.nodeID, vector);
+    }
+
+    static int lastWriterWins(Versioned<?> v1, Versioned<?> v2) {
+      if (v1.timestamp != v2.timestamp) {
+        return v1.timestamp > v2.timestamp ? 1 : -1;
+      }
+      return Long.compare(v1.nodeID, v2.nodeID);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+        SharedDataSnapshot.writeValue(out, value);
+      }
+      out.writeLong(timestamp);
+      out.writeLong(nodeID);
+      out.writeInt(vector == null ? 0 : vector.size());
+      if (vector != null) {
+        for (Map.Entry<Long, Long> entry : vector.entrySet()) {
+          out.writeLong(entry.getKey());
+          out.writeLong(entry.getValue());
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> Versioned<V> read(ByteBuffer buff) throws IOException {
+      V value = buff.get() != 0 ? (V) SharedDataSnapshot.readValue(buff) : null;
+      long timestamp = buff.getLong();
+      long nodeID = buff.getLong();
+      int size = buff.getInt();
+      Map<Long, Long> vector = new HashMap<>(size * 2);
+      for (int i = 0; i < size; i++) {
+        vector.put(buff.getLong(), buff.getLong());
+      }
+      return new Versioned<>(value, timestamp, nodeID, vector);
+    }
+  }
+}
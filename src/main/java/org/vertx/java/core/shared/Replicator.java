@@ -0,0 +1,411 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.shared;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.parsetools.RecordParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Replicates {@link ReplicatedMap} instances between the nodes of a cluster.</p>
+ *
+ * <p>Each node creates a replicator listening on its own port and adds every other node as a peer. The replicator
+ * connects to each peer using a {@link NetClient} and sends it the changes made on this node; changes made on other
+ * nodes are received by a {@link NetServer}. Changes are not forwarded, so every node must have every other node as
+ * a peer.</p>
+ *
+ * <p>Changes are sent in batches every {@link #setBatchInterval batch interval}. When a connection to a peer is made
+ * the whole contents of every map is sent, so a node which was down catches up when it comes back. If a peer can't
+ * keep up the batches for it are dropped and the whole contents sent again once it has caught up.</p>
+ *
+ * <p>A replicator belongs to the event loop that called {@link #start}. The maps can be used from any event loop.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class Replicator {
+
+  private static final Logger log = Logger.getLogger(Replicator.class);
+
+  /**
+   * How conflicting changes to the same key on different nodes are handled
+   */
+  public enum ConflictMode {
+    /**
+     * The change with the latest timestamp wins. This relies on the clocks of the nodes being reasonably in step.
+     * Conflicts are not detected.
+     */
+    LAST_WRITER_WINS,
+
+    /**
+     * Each value carries a version vector, so a change which was made without knowledge of another change is detected
+     * as a conflict and passed to the map's {@link ReplicatedMap#conflictHandler}. The conflict is then resolved the
+     * same way on every node, using the timestamps.
+     */
+    VERSION_VECTOR
+  }
+
+  static final int CONCURRENT = Integer.MIN_VALUE;
+
+  private static final byte FRAME_ENTRIES = 1;
+
+  private final String host;
+  private final int port;
+  private final long nodeID = UUID.randomUUID().getMostSignificantBits();
+  private final List<Peer> peers = new ArrayList<>();
+  private final ConcurrentMap<String, ReplicatedMap<?, ?>> maps = new NonBlockingHashMap<>();
+  private ConflictMode conflictMode = ConflictMode.LAST_WRITER_WINS;
+  private long batchInterval = 10;
+  private long tombstoneTimeout = 60000;
+  private long reconnectInterval = 1000;
+  private long contextID;
+  private NetServer server;
+  private NetClient client;
+  private long flushTimerID = -1;
+  private long purgeTimerID = -1;
+  private boolean closed;
+
+  /**
+   * Create a new replicator which will listen for changes from other nodes on {@code port} and {@code host}
+   */
+  public Replicator(int port, String host) {
+    this.port = port;
+    this.host = host;
+  }
+
+  /**
+   * Add another node of the cluster. This must be called before {@link #start}.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public Replicator addPeer(int port, String host) {
+    checkNotStarted();
+    peers.add(new Peer(port, host));
+    return this;
+  }
+
+  /**
+   * Set how often changes are sent to the other nodes, in milliseconds. Default is 10.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public Replicator setBatchInterval(long interval) {
+    checkNotStarted();
+    if (interval < 1) {
+      throw new IllegalArgumentException("Invalid interval: " + interval);
+    }
+    this.batchInterval = interval;
+    return this;
+  }
+
+  /**
+   * Set how conflicting changes are handled. This must be the same on every node. Default is
+   * {@link ConflictMode#LAST_WRITER_WINS}.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public Replicator setConflictMode(ConflictMode mode) {
+    checkNotStarted();
+    this.conflictMode = mode;
+    return this;
+  }
+
+  /**
+   * Set how long a removed key is remembered for, in milliseconds. A put from another node which was made before the
+   * removal but arrives after it is forgotten could bring the key back. Default is 60000.
+   * @return a reference to this so multiple method calls can be chained together
+   */
+  public Replicator setTombstoneTimeout(long timeout) {
+    checkNotStarted();
+    this.tombstoneTimeout = timeout;
+    return this;
+  }
+
+  /**
+   * Return the map with the specific {@code name}. All invocations of this method with the same {@code name} are
+   * guaranteed to return the same instance. Maps with the same name on different nodes are replicas of each other.
+   */
+  @SuppressWarnings("unchecked")
+  public <K, V> ReplicatedMap<K, V> getMap(String name) {
+    ReplicatedMap<K, V> map = (ReplicatedMap<K, V>) maps.get(name);
+    if (map == null) {
+      map = new ReplicatedMap<>(name, this);
+      ReplicatedMap<?, ?> prev = maps.putIfAbsent(name, map);
+      if (prev != null) {
+        map = (ReplicatedMap<K, V>) prev;
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Start listening and connect to the peers. This must be called from an event loop.
+   */
+  public void start() {
+    checkNotStarted();
+    Long contextID = Vertx.instance.getContextID();
+    if (contextID == null) {
+      throw new IllegalStateException("Replicator must be started from inside an event loop");
+    }
+    this.contextID = contextID;
+    server = new NetServer().connectHandler(new Handler<NetSocket>() {
+      public void handle(NetSocket socket) {
+        socket.dataHandler(new FrameParser());
+      }
+    }).listen(port, host);
+
+    client = new NetClient();
+    client.setReconnectAttempts(Integer.MAX_VALUE);
+    client.setReconnectInterval(reconnectInterval);
+    for (Peer peer : peers) {
+      connect(peer);
+    }
+
+    flushTimerID = Vertx.instance.setPeriodic(batchInterval, new Handler<Long>() {
+      public void handle(Long timerID) {
+        flush();
+      }
+    });
+    purgeTimerID = Vertx.instance.setPeriodic(tombstoneTimeout, new Handler<Long>() {
+      public void handle(Long timerID) {
+        long expiry = System.currentTimeMillis() - tombstoneTimeout;
+        for (ReplicatedMap<?, ?> map : maps.values()) {
+          map.purge(expiry);
+        }
+      }
+    });
+  }
+
+  /**
+   * Stop replicating and close all connections. This can be called from any thread.
+   */
+  public void close() {
+    if (server == null) {
+      return;
+    }
+    VertxInternal.instance.executeOnContext(contextID, new Runnable() {
+      public void run() {
+        VertxInternal.instance.setContextID(contextID);
+        closed = true;
+        Vertx.instance.cancelTimer(flushTimerID);
+        Vertx.instance.cancelTimer(purgeTimerID);
+        client.close();
+        server.close();
+      }
+    });
+  }
+
+  private void checkNotStarted() {
+    if (server != null) {
+      throw new IllegalStateException("Replicator has already been started");
+    }
+  }
+
+  private void connect(final Peer peer) {
+    client.connect(peer.port, peer.host, new Handler<NetSocket>() {
+      public void handle(final NetSocket socket) {
+        if (closed) {
+          socket.close();
+          return;
+        }
+        peer.socket = socket;
+        socket.closedHandler(new SimpleHandler() {
+          public void handle() {
+            peer.socket = null;
+            if (!closed) {
+              log.debug("Lost connection to " + peer.host + ":" + peer.port + ", reconnecting");
+              connect(peer);
+            }
+          }
+        });
+        socket.drainHandler(new SimpleHandler() {
+          public void handle() {
+            if (peer.needsSync) {
+              sync(peer);
+            }
+          }
+        });
+        sync(peer);
+      }
+    });
+  }
+
+  /*
+  Send the whole contents of every map to a peer
+   */
+  private void sync(Peer peer) {
+    peer.needsSync = false;
+    for (ReplicatedMap<?, ?> map : maps.values()) {
+      Buffer frame = encode(map, true);
+      if (frame != null) {
+        peer.socket.write(frame);
+      }
+    }
+  }
+
+  private void flush() {
+    for (ReplicatedMap<?, ?> map : maps.values()) {
+      if (map.hasDeltas()) {
+        Buffer frame = encode(map, false);
+        if (frame == null) {
+          continue;
+        }
+        for (Peer peer : peers) {
+          if (peer.socket != null && !peer.needsSync) {
+            if (peer.socket.writeQueueFull()) {
+              // Drop its batches until it catches up, then send it everything
+              peer.needsSync = true;
+            } else {
+              peer.socket.write(frame);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private Buffer encode(ReplicatedMap<?, ?> map, boolean all) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bos);
+      out.writeInt(0); // Length - filled in below
+      out.writeByte(FRAME_ENTRIES);
+      SharedDataSnapshot.writeValue(out, map.name);
+      if (map.writeEntries(out, all) == 0) {
+        return null;
+      }
+      out.flush();
+      Buffer frame = Buffer.create(bos.toByteArray());
+      frame.setInt(0, frame.length() - 4);
+      return frame;
+    } catch (IOException e) {
+      // Can't happen writing to memory
+      throw new IllegalStateException(e);
+    }
+  }
+
+  <V> ReplicatedMap.Versioned<V> nextVersion(ReplicatedMap.Versioned<V> current, V value) {
+    long timestamp = System.currentTimeMillis();
+    if (current != null && current.timestamp >= timestamp) {
+      // Make sure the new value wins on every node, even if our clock has gone backwards
+      timestamp = current.timestamp + 1;
+    }
+    Map<Long, Long> vector = null;
+    if (conflictMode == ConflictMode.VERSION_VECTOR) {
+      vector = current == null ? new HashMap<Long, Long>() : new HashMap<>(current.vector);
+      Long count = vector.get(nodeID);
+      vector.put(nodeID, count == null ? 1 : count + 1);
+    }
+    return new ReplicatedMap.Versioned<>(value, timestamp, nodeID, vector);
+  }
+
+  /*
+  Returns > 0 if v1 is later than v2, < 0 if v2 is later, 0 if they are the same, or CONCURRENT if they conflict
+   */
+  int compare(ReplicatedMap.Versioned<?> v1, ReplicatedMap.Versioned<?> v2) {
+    if (conflictMode == ConflictMode.LAST_WRITER_WINS) {
+      return ReplicatedMap.Versioned.lastWriterWins(v1, v2);
+    }
+    boolean v1Later = later(v1.vector, v2.vector);
+    boolean v2Later = later(v2.vector, v1.vector);
+    if (v1Later && v2Later) {
+      return CONCURRENT;
+    } else if (v1Later) {
+      return 1;
+    } else if (v2Later) {
+      return -1;
+    } else {
+      return 0;
+    }
+  }
+
+  /*
+  Has v1 seen a change that v2 hasn't?
+   */
+  private static boolean later(Map<Long, Long> v1, Map<Long, Long> v2) {
+    for (Map.Entry<Long, Long> entry : v1.entrySet()) {
+      Long count = v2.get(entry.getKey());
+      if (count == null || count < entry.getValue()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private class FrameParser implements Handler<Buffer> {
+    final RecordParser parser = RecordParser.newFixed(4, null);
+    boolean readingLength = true;
+
+    FrameParser() {
+      parser.setOutput(new Handler<Buffer>() {
+        public void handle(Buffer buff) {
+          if (readingLength) {
+            parser.fixedSizeMode(buff.getInt(0));
+            readingLength = false;
+          } else {
+            handleFrame(buff);
+            parser.fixedSizeMode(4);
+            readingLength = true;
+          }
+        }
+      });
+    }
+
+    public void handle(Buffer buff) {
+      parser.handle(buff);
+    }
+
+    private void handleFrame(Buffer frame) {
+      ByteBuffer buff = frame.getChannelBuffer().toByteBuffer();
+      try {
+        if (buff.get() == FRAME_ENTRIES) {
+          String name = (String) SharedDataSnapshot.readValue(buff);
+          getMap(name).readEntries(buff);
+        }
+      } catch (Exception e) {
+        log.error("Invalid replication frame", e);
+      }
+    }
+  }
+
+  private static class Peer {
+    final int port;
+    final String host;
+    NetSocket socket;
+    boolean needsSync;
+
+    Peer(int port, String host) {
+      this.port = port;
+      this.host = host;
+    }
+  }
+}
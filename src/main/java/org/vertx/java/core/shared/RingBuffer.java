@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.shared;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock free multi-producer multi-consumer queue.<p>
+ * Each slot has a sequence number which tells producers and consumers whether the slot is free for the current lap
+ * round the ring, so producers and consumers only contend on the head and tail counters and never on each other.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class RingBuffer<T> {
+
+  private final int mask;
+  private final AtomicReferenceArray<T> items;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  RingBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be > 0");
+    }
+    // Round up to a power of two so we can mask instead of mod
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    items = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  boolean offer(T t) {
+    while (true) {
+      long pos = tail.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          items.lazySet(index, t);
+          sequences.set(index, pos + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        // Slot still holds the item from the previous lap - we're full
+        return false;
+      }
+    }
+  }
+
+  T poll() {
+    while (true) {
+      long pos = head.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          T t = items.get(index);
+          items.lazySet(index, null);
+          sequences.set(index, pos + mask + 1);
+          return t;
+        }
+      } else if (diff < 0) {
+        return null;
+      }
+    }
+  }
+
+  T peek() {
+    while (true) {
+      long pos = head.get();
+      int index = (int) pos & mask;
+      long diff = sequences.get(index) - (pos + 1);
+      if (diff < 0) {
+        return null;
+      }
+      T t = items.get(index);
+      if (diff == 0 && head.get() == pos) {
+        return t;
+      }
+    }
+  }
+
+  int size() {
+    // Read head first so we never return a negative size
+    long h = head.get();
+    long size = tail.get() - h;
+    return (int) Math.max(0, Math.min(size, mask + 1));
+  }
+}
@@ -17,11 +17,19 @@
 package org.vertx.java.core.shared;
 
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>Sometimes it is desirable to share immutable data between different event loops, for example to implement a
@@ -55,11 +63,22 @@ public class SharedData {
 
   private static final Logger log = Logger.getLogger(SharedData.class);
 
+  private static final int DEFAULT_QUEUE_CAPACITY = 1024;
 
+  private static final Object snapshotLock = new Object();
+
+  // The structures are looked up by name alone, so the getters trust the caller to ask for the right types
   private static ConcurrentMap<Object, SharedMap<?, ?>> maps = new NonBlockingHashMap<>();
   private static ConcurrentMap<Object, SharedSet<?>> sets = new NonBlockingHashMap<>();
   private static ConcurrentMap<Object, SharedCounter> counters = new NonBlockingHashMap<>();
-  private static ConcurrentMap<Object, SharedQueue> queues = new NonBlockingHashMap<>();
+  private static ConcurrentMap<Object, SharedQueue<?>> queues = new NonBlockingHashMap<>();
+  private static ConcurrentMap<Object, SharedLongSet> longSets = new NonBlockingHashMap<>();
+  private static ConcurrentMap<Object, SharedLongLongMap> longLongMaps = new NonBlockingHashMap<>();
+  private static ConcurrentMap<Object, SharedLongObjectMap<?>> longObjectMaps = new NonBlockingHashMap<>();
+
+  // Maps and sets restored from a snapshot which haven't been asked for yet
+  private static ConcurrentMap<Object, SharedDataSnapshot.Entry> unloadedMaps = new NonBlockingHashMap<>();
+  private static ConcurrentMap<Object, SharedDataSnapshot.Entry> unloadedSets = new NonBlockingHashMap<>();
 
   /**
    * Return a {@code Map} with the specific {@code name}. All invocations of this method with the same value of {@code name}
@@ -67,12 +86,44 @@ public class SharedData {
    * The Map instance returned is a lock free Map which supports a very high degree of concurrency.
    */
   public static <K, V> Map<K, V> getMap(Object name) {
+    return getSharedMap(name);
+  }
+
+  /**
+   * Register a {@code handler} which will be told about changes to the {@code Map} with the specific {@code name}.
+   * This must be called from an event loop, and the handler will always be called on that event loop.<p>
+   * Puts, removes and replaces made from any event loop are queued and delivered to the handler as a batch the next
+   * time the event loop runs tasks. If the same key changes more than once before the batch is delivered only the
+   * latest change for that key is included.<p>
+   * @return the unique ID of the listener. This is required when calling {@link #removeMapListener}.
+   */
+  public static <K, V> long addMapListener(Object name, Handler<List<SharedMapEvent<K, V>>> handler) {
+    SharedMap<K, V> map = getSharedMap(name);
+    return map.addListener(handler);
+  }
+
+  /**
+   * Remove the listener with the specified {@code listenerID} from the {@code Map} with the specific {@code name}. This
+   * must be called from the same event loop that added the listener.
+   * @return true if the listener was removed, otherwise false if the listener cannot be found.
+   */
+  public static boolean removeMapListener(Object name, long listenerID) {
+    SharedMap<?, ?> map = maps.get(name);
+    return map != null && map.removeListener(listenerID);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> SharedMap<K, V> getSharedMap(Object name) {
     SharedMap<K, V> map = (SharedMap<K, V>) maps.get(name);
     if (map == null) {
-      map = new SharedMap<>();
-      SharedMap prev = maps.putIfAbsent(name, map);
+      SharedDataSnapshot.Entry entry = unloadedMaps.get(name);
+      map = entry == null ? new SharedMap<K, V>() : entry.<K, V>loadMap();
+      SharedMap<?, ?> prev = maps.putIfAbsent(name, map);
       if (prev != null) {
-        map = prev;
+        map = (SharedMap<K, V>) prev;
+      }
+      if (entry != null) {
+        unloadedMaps.remove(name, entry);
       }
     }
     return map;
@@ -83,11 +134,33 @@ public class SharedData {
    * are guaranteed to return the same {@code Set} instance. <p>
    * The Set instance returned is a lock free Map which supports a very high degree of concurrency.
    */
+  @SuppressWarnings("unchecked")
   public static <E> Set<E> getSet(Object name) {
     SharedSet<E> set = (SharedSet<E>) sets.get(name);
     if (set == null) {
-      set = new SharedSet<>();
-      SharedSet prev = sets.putIfAbsent(name, set);
+      SharedDataSnapshot.Entry entry = unloadedSets.get(name);
+      set = entry == null ? new SharedSet<E>() : entry.<E>loadSet();
+      SharedSet<?> prev = sets.putIfAbsent(name, set);
+      if (prev != null) {
+        set = (SharedSet<E>) prev;
+      }
+      if (entry != null) {
+        unloadedSets.remove(name, entry);
+      }
+    }
+    return set;
+  }
+
+  /**
+   * Return a {@link SharedLongSet} with the specific {@code name}. All invocations of this method with the same value of {@code name}
+   * are guaranteed to return the same {@code SharedLongSet} instance. <p>
+   * The set stores primitive longs so should be preferred to a {@code Set<Long>} for large numbers of elements.
+   */
+  public static SharedLongSet getLongSet(Object name) {
+    SharedLongSet set = longSets.get(name);
+    if (set == null) {
+      set = new SharedLongSet();
+      SharedLongSet prev = longSets.putIfAbsent(name, set);
       if (prev != null) {
         set = prev;
       }
@@ -95,6 +168,41 @@ public class SharedData {
     return set;
   }
 
+  /**
+   * Return a {@link SharedLongLongMap} with the specific {@code name}. All invocations of this method with the same value of {@code name}
+   * are guaranteed to return the same {@code SharedLongLongMap} instance. <p>
+   * The map stores primitive long keys so should be preferred to a {@code Map<Long, Long>} for large numbers of entries.
+   */
+  public static SharedLongLongMap getLongLongMap(Object name) {
+    SharedLongLongMap map = longLongMaps.get(name);
+    if (map == null) {
+      map = new SharedLongLongMap();
+      SharedLongLongMap prev = longLongMaps.putIfAbsent(name, map);
+      if (prev != null) {
+        map = prev;
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Return a {@link SharedLongObjectMap} with the specific {@code name}. All invocations of this method with the same value of {@code name}
+   * are guaranteed to return the same {@code SharedLongObjectMap} instance. <p>
+   * The map stores primitive long keys so should be preferred to a {@code Map<Long, V>} for large numbers of entries.
+   */
+  @SuppressWarnings("unchecked")
+  public static <V> SharedLongObjectMap<V> getLongObjectMap(Object name) {
+    SharedLongObjectMap<V> map = (SharedLongObjectMap<V>) longObjectMaps.get(name);
+    if (map == null) {
+      map = new SharedLongObjectMap<>();
+      SharedLongObjectMap<?> prev = longObjectMaps.putIfAbsent(name, map);
+      if (prev != null) {
+        map = (SharedLongObjectMap<V>) prev;
+      }
+    }
+    return map;
+  }
+
 //  public static SharedCounter getCounter(Object name) {
 //    SharedCounter counter = counters.get(name);
 //    if (counter == null) {
@@ -107,37 +215,141 @@ public class SharedData {
 //    return counter;
 //  }
 
-//  public static <E> SharedQueue<E> getQueue(Object name) {
-//    SharedQueue<E> queue = (SharedQueue<E>) queues.get(name);
-//    if (queue == null) {
-//      queue = new SharedQueue<>();
-//      SharedQueue prev = queues.putIfAbsent(name, queue);
-//      if (prev != null) {
-//        queue = prev;
-//      }
-//    }
-//    return queue;
-//  }
+  /**
+   * Return a {@link SharedQueue} with the specific {@code name} and a default capacity of 1024 items. All invocations
+   * of this method with the same value of {@code name} are guaranteed to return the same {@code SharedQueue} instance.
+   */
+  public static <E> SharedQueue<E> getQueue(Object name) {
+    return getQueue(name, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Return a {@link SharedQueue} with the specific {@code name}. All invocations of this method with the same value of
+   * {@code name} are guaranteed to return the same {@code SharedQueue} instance. {@code capacity} is only used if the
+   * queue does not already exist.
+   */
+  @SuppressWarnings("unchecked")
+  public static <E> SharedQueue<E> getQueue(Object name, int capacity) {
+    SharedQueue<E> queue = (SharedQueue<E>) queues.get(name);
+    if (queue == null) {
+      queue = new SharedQueue<>(capacity);
+      SharedQueue<?> prev = queues.putIfAbsent(name, queue);
+      if (prev != null) {
+        queue = (SharedQueue<E>) prev;
+      }
+    }
+    return queue;
+  }
+
+  /**
+   * Write all the shared maps and sets to the file {@code fileName}, replacing any previous snapshot in that file.<p>
+   * This blocks while the file is written so should not be called from an event loop. The maps and sets can continue
+   * to be used while the snapshot is taken, and each is written as it was at some point during the snapshot.
+   * Entries with a key or value which is an {@link org.vertx.java.core.Immutable} of your own cannot be written
+   * and are left out. A snapshot file can be up to 2GB in size.
+   */
+  public static void snapshot(String fileName) throws IOException {
+    synchronized (snapshotLock) {
+      SharedDataSnapshot.write(new File(fileName), maps, sets, unloadedMaps, unloadedSets);
+    }
+  }
+
+  /**
+   * Take a snapshot to the file {@code fileName} every {@code interval} milliseconds, see {@link #snapshot}. The
+   * snapshots are written using the background pool. This must be called from an event loop.<p>
+   * @return the ID of the timer, which can be passed to {@link Vertx#cancelTimer} to stop taking snapshots.
+   */
+  public static long startSnapshots(final String fileName, long interval) {
+    final AtomicBoolean writing = new AtomicBoolean();
+    return Vertx.instance.setPeriodic(interval, new Handler<Long>() {
+      public void handle(Long timerID) {
+        // If the last snapshot is still being written just wait for the next interval
+        if (writing.compareAndSet(false, true)) {
+          VertxInternal.instance.getBackgroundPool().execute(new Runnable() {
+            public void run() {
+              try {
+                snapshot(fileName);
+              } catch (Exception e) {
+                log.error("Failed to write shared data snapshot " + fileName, e);
+              } finally {
+                writing.set(false);
+              }
+            }
+          });
+        }
+      }
+    });
+  }
+
+  /**
+   * Restore the shared maps and sets from the snapshot file {@code fileName}.<p>
+   * The file is memory mapped and only its index is read, so this returns quickly however big the snapshot is. Each
+   * map or set is read from the file the first time it is asked for. Any map or set which already exists is left as
+   * it is.
+   * @throws IOException if the file cannot be read, or its header or index is corrupt. If the data of a particular
+   * map or set is corrupt an error is logged when it is first asked for, and it starts empty.
+   */
+  public static void restore(String fileName) throws IOException {
+    Map<Object, SharedDataSnapshot.Entry> mapEntries = new HashMap<>();
+    Map<Object, SharedDataSnapshot.Entry> setEntries = new HashMap<>();
+    SharedDataSnapshot.read(new File(fileName), mapEntries, setEntries);
+    for (Map.Entry<Object, SharedDataSnapshot.Entry> entry : mapEntries.entrySet()) {
+      if (!maps.containsKey(entry.getKey())) {
+        unloadedMaps.put(entry.getKey(), entry.getValue());
+      }
+    }
+    for (Map.Entry<Object, SharedDataSnapshot.Entry> entry : setEntries.entrySet()) {
+      if (!sets.containsKey(entry.getKey())) {
+        unloadedSets.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
 
   /**
    * Remove the {@code Map} with the specifiec {@code name}.
    */
   public static boolean removeMap(Object name) {
-    return maps.remove(name) != null;
+    boolean unloaded = unloadedMaps.remove(name) != null;
+    return maps.remove(name) != null || unloaded;
   }
 
   /**
    * Remove the {@code Set} with the specifiec {@code name}.
    */
   public static boolean removeSet(Object name) {
-    return sets.remove(name) != null;
+    boolean unloaded = unloadedSets.remove(name) != null;
+    return sets.remove(name) != null || unloaded;
+  }
+
+  /**
+   * Remove the {@code SharedLongSet} with the specifiec {@code name}.
+   */
+  public static boolean removeLongSet(Object name) {
+    return longSets.remove(name) != null;
+  }
+
+  /**
+   * Remove the {@code SharedLongLongMap} with the specifiec {@code name}.
+   */
+  public static boolean removeLongLongMap(Object name) {
+    return longLongMaps.remove(name) != null;
+  }
+
+  /**
+   * Remove the {@code SharedLongObjectMap} with the specifiec {@code name}.
+   */
+  public static boolean removeLongObjectMap(Object name) {
+    return longObjectMaps.remove(name) != null;
+  }
+
+  /**
+   * Remove the {@code SharedQueue} with the specifiec {@code name}.
+   */
+  public static boolean removeQueue(Object name) {
+    return queues.remove(name) != null;
   }
 
 //  public static boolean removeCounter(Object name) {
 //    return counters.remove(name) != null;
 //  }
-//
-//  public static boolean removeQueue(Object name) {
-//    return queues.remove(name) != null;
-//  }
 }
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.shared;
+
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.logging.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * <p>Reads and writes snapshots of the shared maps and sets.</p>
+ *
+ * <p>The file starts with a fixed size header which gives the position, length and CRC32 of an index. The index
+ * lists each collection with its kind, name and the position, length and CRC32 of its data. The data of a collection
+ * is a sequence of encoded values terminated by an end marker; maps are written as alternating keys and values.</p>
+ *
+ * <p>Snapshots are written while the collections are being used. Iteration over the lock free collections is weakly
+ * consistent, so each collection is written as it was at some point during the snapshot, plus or minus changes made
+ * while it was being written. The file is written under a temporary name and renamed when complete, so a crash while
+ * writing never leaves a partial snapshot behind.</p>
+ *
+ * <p>On restore the file is memory mapped and only the index is read. The data of each collection is checked and
+ * decoded the first time the collection is asked for.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+class SharedDataSnapshot {
+
+  private static final Logger log = Logger.getLogger(SharedDataSnapshot.class);
+
+  private static final int MAGIC = 0x56585344; // "VXSD"
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 4 + 4 + 8 + 4 + 8;
+
+  static final byte KIND_MAP = 1;
+  static final byte KIND_SET = 2;
+
+  static final byte TYPE_END = 0;
+  private static final byte TYPE_STRING = 1;
+  private static final byte TYPE_INTEGER = 2;
+  private static final byte TYPE_LONG = 3;
+  private static final byte TYPE_BOOLEAN = 4;
+  private static final byte TYPE_DOUBLE = 5;
+  private static final byte TYPE_FLOAT = 6;
+  private static final byte TYPE_SHORT = 7;
+  private static final byte TYPE_BYTE = 8;
+  private static final byte TYPE_CHARACTER = 9;
+  private static final byte TYPE_BIG_DECIMAL = 10;
+  private static final byte TYPE_BYTES = 11;
+  private static final byte TYPE_BUFFER = 12;
+
+  /**
+   * Write the maps and sets to {@code file}. Collections which were restored from a previous snapshot but have not
+   * been used since are copied across without being decoded.
+   */
+  static void write(File file, Map<Object, ? extends Map<?, ?>> maps, Map<Object, ? extends Iterable<?>> sets,
+                    Map<Object, Entry> unloadedMaps, Map<Object, Entry> unloadedSets) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      channel.position(HEADER_LENGTH);
+      CRC32 crc = new CRC32();
+      DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), crc));
+
+      Map<Entry, Object> index = new HashMap<>();
+      for (Map.Entry<Object, ? extends Map<?, ?>> entry : maps.entrySet()) {
+        if (!encodable(entry.getKey())) {
+          log.warn("Not writing map " + entry.getKey() + " to snapshot, the name cannot be encoded");
+          continue;
+        }
+        int start = out.size();
+        crc.reset();
+        int skipped = 0;
+        for (Map.Entry<?, ?> mapEntry : entry.getValue().entrySet()) {
+          if (encodable(mapEntry.getKey()) && encodable(mapEntry.getValue())) {
+            writeValue(out, mapEntry.getKey());
+            writeValue(out, mapEntry.getValue());
+          } else {
+            skipped++;
+          }
+        }
+        out.writeByte(TYPE_END);
+        if (skipped != 0) {
+          log.warn("Not writing " + skipped + " entries of map " + entry.getKey() + " to snapshot, they cannot be encoded");
+        }
+        index.put(new Entry(KIND_MAP, HEADER_LENGTH + start, out.size() - start, crc.getValue()), entry.getKey());
+      }
+      for (Map.Entry<Object, ? extends Iterable<?>> entry : sets.entrySet()) {
+        if (!encodable(entry.getKey())) {
+          log.warn("Not writing set " + entry.getKey() + " to snapshot, the name cannot be encoded");
+          continue;
+        }
+        int start = out.size();
+        crc.reset();
+        int skipped = 0;
+        for (Object element : entry.getValue()) {
+          if (encodable(element)) {
+            writeValue(out, element);
+          } else {
+            skipped++;
+          }
+        }
+        out.writeByte(TYPE_END);
+        if (skipped != 0) {
+          log.warn("Not writing " + skipped + " elements of set " + entry.getKey() + " to snapshot, they cannot be encoded");
+        }
+        index.put(new Entry(KIND_SET, HEADER_LENGTH + start, out.size() - start, crc.getValue()), entry.getKey());
+      }
+      copyUnloaded(out, KIND_MAP, unloadedMaps, index);
+      copyUnloaded(out, KIND_SET, unloadedSets, index);
+
+      int indexStart = out.size();
+      crc.reset();
+      out.writeInt(index.size());
+      for (Map.Entry<Entry, Object> entry : index.entrySet()) {
+        Entry e = entry.getKey();
+        out.writeByte(e.kind);
+        writeValue(out, entry.getValue());
+        out.writeLong(e.position);
+        out.writeInt(e.length);
+        out.writeLong(e.crc);
+      }
+      int indexLength = out.size() - indexStart;
+      if (out.size() > Integer.MAX_VALUE - HEADER_LENGTH - 1) {
+        // DataOutputStream.size() sticks at Integer.MAX_VALUE so our positions are no longer valid
+        throw new IOException("Shared data snapshot is too large");
+      }
+      long indexCrc = crc.getValue();
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+      header.putInt(MAGIC).putInt(VERSION).putLong(HEADER_LENGTH + indexStart).putInt(indexLength).putLong(indexCrc);
+      header.flip();
+      channel.write(header, 0);
+      channel.force(false);
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void copyUnloaded(DataOutputStream out, byte kind, Map<Object, Entry> unloaded,
+                                   Map<Entry, Object> index) throws IOException {
+    Set<Object> written = new HashSet<>();
+    for (Map.Entry<Entry, Object> entry : index.entrySet()) {
+      if (entry.getKey().kind == kind) {
+        written.add(entry.getValue());
+      }
+    }
+    for (Map.Entry<Object, Entry> entry : unloaded.entrySet()) {
+      Entry e = entry.getValue();
+      // If it was loaded after we wrote the loaded collections we still copy the old data, so it isn't missing from
+      // this snapshot
+      if (!written.contains(entry.getKey())) {
+        ByteBuffer data = e.data();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        int start = out.size();
+        out.write(bytes);
+        index.put(new Entry(e.kind, HEADER_LENGTH + start, bytes.length, e.crc), entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * Map {@code file} and read its index into {@code maps} and {@code sets}, keyed by collection name.
+   */
+  static void read(File file, Map<Object, Entry> maps, Map<Object, Entry> sets) throws IOException {
+    MappedByteBuffer buff;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      buff = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buff.limit() < HEADER_LENGTH || buff.getInt(0) != MAGIC) {
+      throw new IOException("Not a shared data snapshot: " + file);
+    }
+    if (buff.getInt(4) != VERSION) {
+      throw new IOException("Unsupported shared data snapshot version " + buff.getInt(4) + ": " + file);
+    }
+    long indexStart = buff.getLong(8);
+    int indexLength = buff.getInt(16);
+    long indexCrc = buff.getLong(20);
+    if (indexStart < HEADER_LENGTH || indexStart + indexLength > buff.limit()) {
+      throw new IOException("Shared data snapshot is truncated: " + file);
+    }
+    ByteBuffer index = slice(buff, indexStart, indexLength);
+    if (crc(index) != indexCrc) {
+      throw new IOException("Shared data snapshot index is corrupt: " + file);
+    }
+
+    int count = index.getInt();
+    for (int i = 0; i < count; i++) {
+      byte kind = index.get();
+      Object name = readValue(index);
+      long position = index.getLong();
+      int length = index.getInt();
+      long crc = index.getLong();
+      if (position < HEADER_LENGTH || position + length > indexStart) {
+        throw new IOException("Shared data snapshot index is corrupt: " + file);
+      }
+      Entry entry = new Entry(kind, position, length, crc);
+      entry.buff = buff;
+      (kind == KIND_MAP ? maps : sets).put(name, entry);
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buff, long position, int length) {
+    ByteBuffer dup = buff.duplicate();
+    dup.position((int) position);
+    dup.limit((int) position + length);
+    return dup.slice();
+  }
+
+  private static long crc(ByteBuffer buff) {
+    CRC32 crc = new CRC32();
+    if (buff.hasArray()) {
+      crc.update(buff.array(), buff.arrayOffset() + buff.position(), buff.remaining());
+    } else {
+      // Mapped buffers have no array, so copy them through a fixed size one
+      ByteBuffer dup = buff.duplicate();
+      byte[] bytes = new byte[Math.min(dup.remaining(), 8192)];
+      while (dup.hasRemaining()) {
+        int len = Math.min(dup.remaining(), bytes.length);
+        dup.get(bytes, 0, len);
+        crc.update(bytes, 0, len);
+      }
+    }
+    return crc.getValue();
+  }
+
+  static boolean encodable(Object obj) {
+    return obj instanceof String || obj instanceof Integer || obj instanceof Long || obj instanceof Boolean ||
+        obj instanceof Double || obj instanceof Float || obj instanceof Short || obj instanceof Byte ||
+        obj instanceof Character || obj instanceof BigDecimal || obj instanceof byte[] || obj instanceof Buffer;
+  }
+
+  static void writeValue(DataOutputStream out, Object obj) throws IOException {
+    if (obj instanceof String) {
+      out.writeByte(TYPE_STRING);
+      writeBytes(out, ((String) obj).getBytes(StandardCharsets.UTF_8));
+    } else if (obj instanceof Integer) {
+      out.writeByte(TYPE_INTEGER);
+      out.writeInt((Integer) obj);
+    } else if (obj instanceof Long) {
+      out.writeByte(TYPE_LONG);
+      out.writeLong((Long) obj);
+    } else if (obj instanceof Boolean) {
+      out.writeByte(TYPE_BOOLEAN);
+      out.writeBoolean((Boolean) obj);
+    } else if (obj instanceof Double) {
+      out.writeByte(TYPE_DOUBLE);
+      out.writeDouble((Double) obj);
+    } else if (obj instanceof Float) {
+      out.writeByte(TYPE_FLOAT);
+      out.writeFloat((Float) obj);
+    } else if (obj instanceof Short) {
+      out.writeByte(TYPE_SHORT);
+      out.writeShort((Short) obj);
+    } else if (obj instanceof Byte) {
+      out.writeByte(TYPE_BYTE);
+      out.writeByte((Byte) obj);
+    } else if (obj instanceof Character) {
+      out.writeByte(TYPE_CHARACTER);
+      out.writeChar((Character) obj);
+    } else if (obj instanceof BigDecimal) {
+      out.writeByte(TYPE_BIG_DECIMAL);
+      writeBytes(out, obj.toString().getBytes(StandardCharsets.UTF_8));
+    } else if (obj instanceof byte[]) {
+      out.writeByte(TYPE_BYTES);
+      writeBytes(out, (byte[]) obj);
+    } else if (obj instanceof Buffer) {
+      out.writeByte(TYPE_BUFFER);
+      writeBytes(out, ((Buffer) obj).getBytes());
+    } else {
+      throw new IllegalArgumentException("Cannot encode " + obj.getClass().getName());
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /*
+  Returns null at the end marker
+   */
+  static Object readValue(ByteBuffer buff) throws IOException {
+    byte type = buff.get();
+    switch (type) {
+      case TYPE_END:
+        return null;
+      case TYPE_STRING:
+        return new String(readBytes(buff), StandardCharsets.UTF_8);
+      case TYPE_INTEGER:
+        return buff.getInt();
+      case TYPE_LONG:
+        return buff.getLong();
+      case TYPE_BOOLEAN:
+        return buff.get() != 0;
+      case TYPE_DOUBLE:
+        return buff.getDouble();
+      case TYPE_FLOAT:
+        return buff.getFloat();
+      case TYPE_SHORT:
+        return buff.getShort();
+      case TYPE_BYTE:
+        return buff.get();
+      case TYPE_CHARACTER:
+        return buff.getChar();
+      case TYPE_BIG_DECIMAL:
+        return new BigDecimal(new String(readBytes(buff), StandardCharsets.UTF_8));
+      case TYPE_BYTES:
+        return readBytes(buff);
+      case TYPE_BUFFER:
+        return Buffer.create(readBytes(buff));
+      default:
+        throw new IOException("Invalid type in shared data snapshot: " + type);
+    }
+  }
+
+  private static byte[] readBytes(ByteBuffer buff) {
+    byte[] bytes = new byte[buff.getInt()];
+    buff.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * A collection in a snapshot. The collection is decoded the first time it is loaded.
+   */
+  static class Entry {
+    final byte kind;
+    final long position;
+    final int length;
+    final long crc;
+    ByteBuffer buff;
+    private Object loaded;
+
+    Entry(byte kind, long position, int length, long crc) {
+      this.kind = kind;
+      this.position = position;
+      this.length = length;
+      this.crc = crc;
+    }
+
+    ByteBuffer data() {
+      return slice(buff, position, length);
+    }
+
+    // The snapshot doesn't know the types, so whoever asks for the map trusts them as they would for any shared map
+    @SuppressWarnings("unchecked")
+    synchronized <K, V> SharedMap<K, V> loadMap() {
+      if (loaded == null) {
+        SharedMap<K, V> map = new SharedMap<>();
+        ByteBuffer data = check();
+        try {
+          if (data != null) {
+            Object key;
+            while ((key = readValue(data)) != null) {
+              map.put((K) key, (V) readValue(data));
+            }
+          }
+        } catch (Exception e) {
+          log.error("Failed to decode map from shared data snapshot", e);
+        }
+        loaded = map;
+      }
+      return (SharedMap<K, V>) loaded;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <E> SharedSet<E> loadSet() {
+      if (loaded == null) {
+        SharedSet<E> set = new SharedSet<>();
+        ByteBuffer data = check();
+        try {
+          if (data != null) {
+            Object element;
+            while ((element = readValue(data)) != null) {
+              set.add((E) element);
+            }
+          }
+        } catch (Exception e) {
+          log.error("Failed to decode set from shared data snapshot", e);
+        }
+        loaded = set;
+      }
+      return (SharedSet<E>) loaded;
+    }
+
+    private ByteBuffer check() {
+      ByteBuffer data = data();
+      if (crc(data) != crc) {
+        log.error("CRC check failed for collection in shared data snapshot, it will start empty");
+        return null;
+      }
+      return data;
+    }
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vertx.java.core.shared;
+
+/**
+ * <p>A thread safe map from primitive {@code long} keys to {@code long} values.</p>
+ *
+ * <p>Keys and values are stored in open addressed tables of primitive longs, so no {@code Long} instance is created
+ * per entry or per update. The tables are split into stripes by the hash of the key, each with a lock of its own, so
+ * threads working on different keys rarely contend. It is intended for things like counters keyed by an ID, see
+ * {@link #addAndGet}.</p>
+ *
+ * <p>Instances are obtained using {@link SharedData#getLongLongMap}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class SharedLongLongMap {
+
+  // A power of two, so the stripe of a key is the top bits of its hash
+  private static final int STRIPES = 16;
+  private static final int STRIPE_SHIFT = 64 - Integer.numberOfTrailingZeros(STRIPES);
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  SharedLongLongMap() {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Associate {@code value} with {@code key}
+   */
+  public void put(long key, long value) {
+    long hash = hash(key);
+    Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      int i = stripe.indexOf(key, hash);
+      if (i >= 0) {
+        stripe.values[i] = value;
+      } else {
+        stripe.insert(~i, key, hash, value);
+      }
+    }
+  }
+
+  /**
+   * Return the value associated with {@code key}, or {@code 0} if there is no such key
+   */
+  public long get(long key) {
+    return get(key, 0);
+  }
+
+  /**
+   * Return the value associated with {@code key}, or {@code defaultValue} if there is no such key
+   */
+  public long get(long key, long defaultValue) {
+    long hash = hash(key);
+    Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      int i = stripe.indexOf(key, hash);
+      return i >= 0 ? stripe.values[i] : defaultValue;
+    }
+  }
+
+  public boolean containsKey(long key) {
+    long hash = hash(key);
+    Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      return stripe.indexOf(key, hash) >= 0;
+    }
+  }
+
+  /**
+   * Remove the value associated with {@code key}
+   * @return true if there was a value for the key
+   */
+  public boolean remove(long key) {
+    long hash = hash(key);
+    Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      int i = stripe.indexOf(key, hash);
+      if (i < 0) {
+        return false;
+      }
+      stripe.removeAt(i);
+      return true;
+    }
+  }
+
+  /**
+   * Atomically add {@code delta} to the value associated with {@code key}. If there is no value for the key it is
+   * treated as {@code 0}.
+   * @return the new value
+   */
+  public long addAndGet(long key, long delta) {
+    long hash = hash(key);
+    Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      int i = stripe.indexOf(key, hash);
+      if (i >= 0) {
+        return stripe.values[i] += delta;
+      }
+      stripe.insert(~i, key, hash, delta);
+      return delta;
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size;
+      }
+    }
+    return size;
+  }
+
+  public boolean isEmpty() {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        if (stripe.size != 0) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  /**
+   * Return a cursor over the entries of the map. The cursor is weakly consistent; it will not fail if the map is
+   * changed while it is being used, but it may or may not see those changes.
+   */
+  public LongLongCursor cursor() {
+    return new LongLongCursor() {
+      int stripe = -1;
+      // The entries of the current stripe, copied when the cursor reaches it
+      long[] keys = new long[0];
+      long[] values;
+      int pos = -1;
+
+      public boolean next() {
+        while (++pos >= keys.length) {
+          if (stripe == STRIPES - 1) {
+            pos = keys.length;
+            return false;
+          }
+          stripe++;
+          copyStripe();
+        }
+        return true;
+      }
+
+      public long key() {
+        return keys[pos];
+      }
+
+      public long value() {
+        return values[pos];
+      }
+
+      private void copyStripe() {
+        Stripe s = stripes[stripe];
+        synchronized (s) {
+          keys = new long[s.size];
+          values = new long[s.size];
+          int j = 0;
+          for (int i = 0; i < s.used.length; i++) {
+            if (s.used[i]) {
+              keys[j] = s.keys[i];
+              values[j++] = s.values[i];
+            }
+          }
+        }
+        pos = -1;
+      }
+    };
+  }
+
+  private Stripe stripe(long hash) {
+    return stripes[(int) (hash >>> STRIPE_SHIFT)];
+  }
+
+  private static long hash(long key) {
+    // Spread the bits, as keys are often sequential IDs
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    return key ^ (key >>> 33);
+  }
+
+  /*
+  An open addressed table with linear probing, kept at most half full. Only used with its lock held
+   */
+  private static final class Stripe {
+    long[] keys;
+    long[] values;
+    boolean[] used;
+    int size;
+
+    Stripe() {
+      clear();
+    }
+
+    /*
+    The slot of the key, or if it isn't there ~ the free slot it would go in
+     */
+    int indexOf(long key, long hash) {
+      int mask = keys.length - 1;
+      int i = (int) hash & mask;
+      while (used[i]) {
+        if (keys[i] == key) {
+          return i;
+        }
+        i = (i + 1) & mask;
+      }
+      return ~i;
+    }
+
+    void insert(int i, long key, long hash, long value) {
+      if (2 * (size + 1) > keys.length) {
+        resize();
+        i = ~indexOf(key, hash);
+      }
+      keys[i] = key;
+      values[i] = value;
+      used[i] = true;
+      size++;
+    }
+
+    /*
+    Remove the entry at i, moving back any later entries in its run which would no longer be found
+     */
+    void removeAt(int i) {
+      int mask = keys.length - 1;
+      int j = i;
+      while (true) {
+        j = (j + 1) & mask;
+        if (!used[j]) {
+          break;
+        }
+        int home = (int) hash(keys[j]) & mask;
+        // The entry at j can stay if its home slot is cyclically in (i, j]
+        if (i <= j ? i < home && home <= j : i < home || home <= j) {
+          continue;
+        }
+        keys[i] = keys[j];
+        values[i] = values[j];
+        i = j;
+      }
+      used[i] = false;
+      size--;
+    }
+
+    void clear() {
+      keys = new long[8];
+      values = new long[8];
+      used = new boolean[8];
+      size = 0;
+    }
+
+    private void resize() {
+      long[] oldKeys = keys;
+      long[] oldValues = values;
+      boolean[] oldUsed = used;
+      keys = new long[oldKeys.length * 2];
+      values = new long[oldKeys.length * 2];
+      used = new boolean[oldKeys.length * 2];
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldUsed[i]) {
+          int j = (int) hash(oldKeys[i]) & mask;
+          while (used[j]) {
+            j = (j + 1) & mask;
+          }
+          keys[j] = oldKeys[i];
+          values[j] = oldValues[i];
+          used[j] = true;
+        }
+      }
+    }
+  }
+}
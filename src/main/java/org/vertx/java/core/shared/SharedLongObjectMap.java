@@ -0,0 +1,119 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vertx.java.core.shared;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+
+/**
+ * <p>A lock free map from primitive {@code long} keys to values.</p>
+ *
+ * <p>Keys are stored in an open addressed table of primitive longs so no {@code Long} instance is created per key.
+ * Values are subject to the same restrictions as other shared data structures, see {@link SharedData}.</p>
+ *
+ * <p>Instances are obtained using {@link SharedData#getLongObjectMap}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class SharedLongObjectMap<V> {
+
+  private final NonBlockingHashMapLong<V> map = new NonBlockingHashMapLong<>();
+
+  SharedLongObjectMap() {
+  }
+
+  /**
+   * Associate {@code value} with {@code key}
+   * @return the previous value for the key, or null if there was none
+   */
+  public V put(long key, V value) {
+    value = SharedUtils.checkObject(value);
+    return map.put(key, value);
+  }
+
+  /**
+   * Associate {@code value} with {@code key} if there is not already a value for the key
+   * @return the existing value for the key, or null if there was none
+   */
+  public V putIfAbsent(long key, V value) {
+    value = SharedUtils.checkObject(value);
+    return map.putIfAbsent(key, value);
+  }
+
+  /**
+   * Return the value associated with {@code key}, or null if there is no such key
+   */
+  public V get(long key) {
+    return map.get(key);
+  }
+
+  public boolean containsKey(long key) {
+    return map.containsKey(key);
+  }
+
+  /**
+   * Remove the value associated with {@code key}
+   * @return the removed value, or null if there was none
+   */
+  public V remove(long key) {
+    return map.remove(key);
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  public boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  public void clear() {
+    map.clear();
+  }
+
+  /**
+   * Return a cursor over the entries of the map. The cursor is weakly consistent; it will not fail if the map is
+   * changed while it is being used, but it may or may not see those changes.
+   */
+  public LongObjectCursor<V> cursor() {
+    // keys() is declared to return an Enumeration but it's the iterator of primitive keys
+    @SuppressWarnings("unchecked")
+    final NonBlockingHashMapLong<V>.IteratorLong iter = (NonBlockingHashMapLong<V>.IteratorLong) map.keys();
+    return new LongObjectCursor<V>() {
+      long key;
+      V value;
+
+      public boolean next() {
+        while (iter.hasNext()) {
+          key = iter.nextLong();
+          value = map.get(key);
+          // Skip any keys that have been removed since the cursor was created
+          if (value != null) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      public long key() {
+        return key;
+      }
+
+      public V value() {
+        return value;
+      }
+    };
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vertx.java.core.shared;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+
+/**
+ * <p>A lock free set of primitive {@code long} values.</p>
+ *
+ * <p>Unlike a {@code Set<Long>} obtained from {@link SharedData#getSet}, elements are stored in an open addressed table
+ * of primitive longs, so no {@code Long} instance is created per element. This makes it a good fit for large sets of
+ * IDs, e.g. handler IDs.</p>
+ *
+ * <p>Instances are obtained using {@link SharedData#getLongSet}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class SharedLongSet {
+
+  private final NonBlockingHashMapLong<Boolean> map = new NonBlockingHashMapLong<>();
+
+  SharedLongSet() {
+  }
+
+  /**
+   * Add {@code value} to the set.
+   * @return true if the set did not already contain the value
+   */
+  public boolean add(long value) {
+    return map.putIfAbsent(value, Boolean.TRUE) == null;
+  }
+
+  /**
+   * Remove {@code value} from the set.
+   * @return true if the set contained the value
+   */
+  public boolean remove(long value) {
+    return map.remove(value) != null;
+  }
+
+  public boolean contains(long value) {
+    return map.containsKey(value);
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  public boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  public void clear() {
+    map.clear();
+  }
+
+  /**
+   * Return a cursor over the elements of the set. The cursor is weakly consistent; it will not fail if the set is
+   * changed while it is being used, but it may or may not see those changes.
+   */
+  public LongCursor cursor() {
+    // keys() is declared to return an Enumeration but it's the iterator of primitive keys
+    @SuppressWarnings("unchecked")
+    final NonBlockingHashMapLong<Boolean>.IteratorLong iter = (NonBlockingHashMapLong<Boolean>.IteratorLong) map.keys();
+    return new LongCursor() {
+      long current;
+
+      public boolean next() {
+        if (iter.hasNext()) {
+          current = iter.nextLong();
+          return true;
+        } else {
+          return false;
+        }
+      }
+
+      public long get() {
+        return current;
+      }
+    };
+  }
+}
@@ -17,37 +17,105 @@
 package org.vertx.java.core.shared;
 
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 class SharedMap<K, V> implements ConcurrentMap<K, V> {
 
+  private static final Logger log = Logger.getLogger(SharedMap.class);
+
+  private static final AtomicLong listenerSeq = new AtomicLong(10); // Start at 10 for easier debugging
+
   private final ConcurrentMap<K, V> map = new NonBlockingHashMap<>();
 
+  // Copy on write - the mutators only read this so there is no cost when there are no listeners
+  @SuppressWarnings("unchecked")
+  private volatile ListenerHolder<K, V>[] listeners = (ListenerHolder<K, V>[]) new ListenerHolder<?, ?>[0];
+
+  long addListener(Handler<List<SharedMapEvent<K, V>>> handler) {
+    Long contextID = Vertx.instance.getContextID();
+    if (contextID == null) {
+      throw new IllegalStateException("Cannot register listener with no context");
+    }
+    ListenerHolder<K, V> holder = new ListenerHolder<>(listenerSeq.getAndIncrement(), contextID, handler);
+    synchronized (this) {
+      ListenerHolder<K, V>[] copy = Arrays.copyOf(listeners, listeners.length + 1);
+      copy[listeners.length] = holder;
+      listeners = copy;
+    }
+    return holder.id;
+  }
+
+  synchronized boolean removeListener(long id) {
+    ListenerHolder<K, V>[] current = listeners;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].id == id) {
+        if (current[i].contextID != Vertx.instance.getContextID()) {
+          throw new IllegalStateException("Cannot remove listener from different context");
+        }
+        removeHolder(current[i]);
+        return true;
+      }
+    }
+    return false;
+  }
+
   public V putIfAbsent(K k, V v) {
     k = SharedUtils.checkObject(k);
     v = SharedUtils.checkObject(v);
-    return map.putIfAbsent(k, v);
+    V prev = map.putIfAbsent(k, v);
+    if (prev == null) {
+      fireEvent(SharedMapEvent.Type.PUT, k, v);
+    }
+    return prev;
   }
 
+  // A key that was removed was in the map, so it's a K
+  @SuppressWarnings("unchecked")
   public boolean remove(Object o, Object o1) {
-    return map.remove(o, o1);
+    boolean removed = map.remove(o, o1);
+    if (removed) {
+      fireEvent(SharedMapEvent.Type.REMOVE, (K) o, null);
+    }
+    return removed;
   }
 
   public boolean replace(K k, V v, V v1) {
     k = SharedUtils.checkObject(k);
     v1 = SharedUtils.checkObject(v1);
-    return map.replace(k, v, v1);
+    boolean replaced = map.replace(k, v, v1);
+    if (replaced) {
+      fireEvent(SharedMapEvent.Type.REPLACE, k, v1);
+    }
+    return replaced;
   }
 
   public V replace(K k, V v) {
     k = SharedUtils.checkObject(k);
     v = SharedUtils.checkObject(v);
-    return map.replace(k, v);
+    V prev = map.replace(k, v);
+    if (prev != null) {
+      fireEvent(SharedMapEvent.Type.REPLACE, k, v);
+    }
+    return prev;
   }
 
   public int size() {
@@ -73,11 +141,19 @@ class SharedMap<K, V> implements ConcurrentMap<K, V> {
   public V put(K k, V v) {
     k = SharedUtils.checkObject(k);
     v = SharedUtils.checkObject(v);
-    return map.put(k, v);
+    V prev = map.put(k, v);
+    fireEvent(SharedMapEvent.Type.PUT, k, v);
+    return prev;
   }
 
+  // A key that was removed was in the map, so it's a K
+  @SuppressWarnings("unchecked")
   public V remove(Object o) {
-    return map.remove(o);
+    V prev = map.remove(o);
+    if (prev != null) {
+      fireEvent(SharedMapEvent.Type.REMOVE, (K) o, null);
+    }
+    return prev;
   }
 
   public void putAll(Map<? extends K, ? extends V> map) {
@@ -85,27 +161,111 @@ class SharedMap<K, V> implements ConcurrentMap<K, V> {
       K k = SharedUtils.checkObject(entry.getKey());
       V v = SharedUtils.checkObject(entry.getValue());
       this.map.put(k, v);
+      fireEvent(SharedMapEvent.Type.PUT, k, v);
     }
   }
 
   public void clear() {
-    map.clear();
+    if (listeners.length == 0) {
+      map.clear();
+    } else {
+      // Remove one by one so listeners get told about each key
+      for (K k : map.keySet()) {
+        remove(k);
+      }
+    }
   }
 
+  /*
+  The views are backed by the map, and removing through them goes through remove so listeners are told
+   */
   public Set<K> keySet() {
-    return map.keySet();
+    return new AbstractSet<K>() {
+      public Iterator<K> iterator() {
+        return new ViewIterator<K>() {
+          K element(Map.Entry<K, V> entry) {
+            return entry.getKey();
+          }
+        };
+      }
+
+      public int size() {
+        return map.size();
+      }
+
+      public boolean contains(Object o) {
+        return map.containsKey(o);
+      }
+
+      public boolean remove(Object o) {
+        return SharedMap.this.remove(o) != null;
+      }
+
+      public void clear() {
+        SharedMap.this.clear();
+      }
+    };
   }
 
   public Collection<V> values() {
-    return map.values();
+    return new AbstractCollection<V>() {
+      public Iterator<V> iterator() {
+        return new ViewIterator<V>() {
+          V element(Map.Entry<K, V> entry) {
+            return entry.getValue();
+          }
+        };
+      }
+
+      public int size() {
+        return map.size();
+      }
+
+      public boolean contains(Object o) {
+        return map.containsValue(o);
+      }
+
+      public void clear() {
+        SharedMap.this.clear();
+      }
+    };
   }
 
   public Set<Map.Entry<K, V>> entrySet() {
-    Set<Map.Entry<K, V>> entries = new HashSet<>();
-    for (Map.Entry<K, V> entry : map.entrySet()) {
-      entries.add(new Entry<>(entry));
-    }
-    return entries;
+    return new AbstractSet<Map.Entry<K, V>>() {
+      public Iterator<Map.Entry<K, V>> iterator() {
+        return new ViewIterator<Map.Entry<K, V>>() {
+          Map.Entry<K, V> element(Map.Entry<K, V> entry) {
+            return new Entry(entry.getKey(), entry.getValue());
+          }
+        };
+      }
+
+      public int size() {
+        return map.size();
+      }
+
+      public boolean contains(Object o) {
+        if (!(o instanceof Map.Entry)) {
+          return false;
+        }
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        V v = map.get(entry.getKey());
+        return v != null && v.equals(entry.getValue());
+      }
+
+      public boolean remove(Object o) {
+        if (!(o instanceof Map.Entry)) {
+          return false;
+        }
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        return SharedMap.this.remove(entry.getKey(), entry.getValue());
+      }
+
+      public void clear() {
+        SharedMap.this.clear();
+      }
+    };
   }
 
   @Override
@@ -118,27 +278,149 @@ class SharedMap<K, V> implements ConcurrentMap<K, V> {
     return map.hashCode();
   }
 
-  private static class Entry<K, V> implements Map.Entry<K, V> {
+  private void fireEvent(SharedMapEvent.Type type, K k, V v) {
+    ListenerHolder<K, V>[] current = listeners;
+    if (current.length != 0) {
+      SharedMapEvent<K, V> event = new SharedMapEvent<>(type, k, v);
+      for (ListenerHolder<K, V> holder : current) {
+        if (!holder.enqueue(event)) {
+          // The context has gone away
+          synchronized (this) {
+            removeHolder(holder);
+          }
+        }
+      }
+    }
+  }
+
+  private void removeHolder(ListenerHolder<K, V> holder) {
+    ListenerHolder<K, V>[] current = listeners;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == holder) {
+        ListenerHolder<K, V>[] copy = Arrays.copyOf(current, current.length - 1);
+        System.arraycopy(current, i + 1, copy, i, current.length - i - 1);
+        listeners = copy;
+        return;
+      }
+    }
+  }
+
+  /*
+  Events are queued per listener and a single task is scheduled on the listener's event loop to deliver them.
+  Any events that arrive before that task runs are delivered in the same batch, and if the same key has changed
+  more than once only the latest change is delivered.
+   */
+  private static class ListenerHolder<K, V> implements Runnable {
+    final long id;
+    final long contextID;
+    final Handler<List<SharedMapEvent<K, V>>> handler;
+    final Queue<SharedMapEvent<K, V>> pending = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    ListenerHolder(long id, long contextID, Handler<List<SharedMapEvent<K, V>>> handler) {
+      this.id = id;
+      this.contextID = contextID;
+      this.handler = handler;
+    }
+
+    boolean enqueue(SharedMapEvent<K, V> event) {
+      pending.add(event);
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          VertxInternal.instance.getWorkerForContextID(contextID).scheduleOtherTask(this);
+        } catch (IllegalStateException e) {
+          pending.clear();
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public void run() {
+      scheduled.set(false);
+      Map<K, SharedMapEvent<K, V>> batch = new LinkedHashMap<>();
+      SharedMapEvent<K, V> event;
+      while ((event = pending.poll()) != null) {
+        batch.remove(event.key);
+        batch.put(event.key, event);
+      }
+      if (!batch.isEmpty()) {
+        VertxInternal.instance.setContextID(contextID);
+        try {
+          handler.handle(new ArrayList<>(batch.values()));
+        } catch (Throwable t) {
+          log.error("Unhandled exception in map listener", t);
+        }
+      }
+    }
+  }
+
+  private abstract class ViewIterator<T> implements Iterator<T> {
 
-    final Map.Entry<K, V> internalEntry;
+    final Iterator<Map.Entry<K, V>> iter = map.entrySet().iterator();
+    K last;
 
-    Entry(Map.Entry<K, V> internalEntry) {
-      this.internalEntry = internalEntry;
+    abstract T element(Map.Entry<K, V> entry);
+
+    public boolean hasNext() {
+      return iter.hasNext();
+    }
+
+    public T next() {
+      Map.Entry<K, V> entry = iter.next();
+      last = entry.getKey();
+      return element(entry);
+    }
+
+    public void remove() {
+      if (last == null) {
+        throw new IllegalStateException();
+      }
+      SharedMap.this.remove(last);
+      last = null;
+    }
+  }
+
+  /*
+  Setting the value goes through put so listeners are told
+   */
+  private class Entry implements Map.Entry<K, V> {
+
+    final K key;
+    V value;
+
+    Entry(K key, V value) {
+      this.key = key;
+      this.value = value;
     }
 
     public K getKey() {
-      return internalEntry.getKey();
+      return key;
     }
 
     public V getValue() {
-      return internalEntry.getValue();
+      return value;
     }
 
     public V setValue(V value) {
-      V old = internalEntry.getValue();
-      value = SharedUtils.checkObject(value);
-      internalEntry.setValue(value);
+      V old = this.value;
+      this.value = SharedUtils.checkObject(value);
+      put(key, this.value);
       return old;
     }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+      return key.equals(other.getKey()) && value.equals(other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ value.hashCode();
+    }
   }
 }
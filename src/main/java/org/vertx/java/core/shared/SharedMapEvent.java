@@ -0,0 +1,57 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.shared;
+
+/**
+ * <p>Describes a change made to a shared map.</p>
+ *
+ * <p>Instances of this class are delivered in batches to listeners registered with
+ * {@link SharedData#addMapListener}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class SharedMapEvent<K, V> {
+
+  public enum Type {
+    PUT, REMOVE, REPLACE
+  }
+
+  /**
+   * The type of the change
+   */
+  public final Type type;
+
+  /**
+   * The key that was changed
+   */
+  public final K key;
+
+  /**
+   * The value associated with the key after the change, or {@code null} if the key was removed
+   */
+  public final V value;
+
+  SharedMapEvent(Type type, K key, V value) {
+    this.type = type;
+    this.key = key;
+    this.value = value;
+  }
+
+  public String toString() {
+    return type + ":" + key + "=" + value;
+  }
+}
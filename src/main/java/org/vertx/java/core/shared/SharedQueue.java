@@ -16,31 +16,296 @@
 
 package org.vertx.java.core.shared;
 
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.logging.Logger;
+
+import java.util.Arrays;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * User: tim
- * Date: 17/08/11
- * Time: 19:13
+ * <p>A bounded queue which can be shared between event loops.</p>
+ *
+ * <p>Items can be taken from the queue directly using {@link #poll}, or consumers can register a handler using
+ * {@link #addConsumer}. Items are then pushed to the consumers on their own event loops. If there is more than one
+ * consumer each item is delivered to exactly one of them, and work is spread round the consumers in turn.</p>
+ *
+ * <p>When the queue is full {@link #offer} will return false. Producers should check {@link #writeQueueFull} and if it
+ * returns true register a {@link #drainHandler} to be told when there is space again.</p>
+ *
+ * <p>Instances are obtained using {@link SharedData#getQueue}.</p>
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
  */
 public class SharedQueue<T> {
-  private final Queue<T> queue = new ConcurrentLinkedQueue<>();
 
-  public void add(T t) {
+  private static final Logger log = Logger.getLogger(SharedQueue.class);
+
+  private static final AtomicLong consumerSeq = new AtomicLong(10); // Start at 10 for easier debugging
+
+  // The maximum number of items a consumer handles before giving other consumers and other tasks on its event
+  // loop a go
+  private static final int MAX_BATCH = 64;
+
+  private final RingBuffer<T> buffer;
+  private final int lowWaterMark;
+  private final Queue<DrainWaiter> drainWaiters = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger nextConsumer = new AtomicInteger();
+
+  // Copy on write - offer only reads this
+  @SuppressWarnings("unchecked")
+  private volatile Consumer<T>[] consumers = (Consumer<T>[]) new Consumer<?>[0];
+
+  SharedQueue(int capacity) {
+    buffer = new RingBuffer<>(capacity);
+    lowWaterMark = buffer.capacity() / 2;
+  }
+
+  /**
+   * Add an item to the queue.
+   * @return false if the queue is full
+   */
+  public boolean offer(T t) {
     t = SharedUtils.checkObject(t);
-    queue.add(t);
+    if (buffer.offer(t)) {
+      dispatch();
+      return true;
+    } else {
+      return false;
+    }
   }
 
-  public void clear() {
-    queue.clear();
+  /**
+   * Add an item to the queue.
+   * @throws IllegalStateException if the queue is full
+   */
+  public void add(T t) {
+    if (!offer(t)) {
+      throw new IllegalStateException("Queue full");
+    }
   }
 
+  /**
+   * Remove and return the item at the head of the queue, or {@code null} if the queue is empty
+   */
   public T poll() {
-    return queue.poll();
+    T t = buffer.poll();
+    if (t != null) {
+      checkDrained();
+    }
+    return t;
+  }
+
+  /**
+   * Return the item at the head of the queue without removing it, or {@code null} if the queue is empty
+   */
+  public T peek() {
+    return buffer.peek();
+  }
+
+  public void clear() {
+    while (buffer.poll() != null) {
+    }
+    checkDrained();
+  }
+
+  public int size() {
+    return buffer.size();
+  }
+
+  public boolean isEmpty() {
+    return buffer.size() == 0;
   }
 
-  public Object peek() {
-    return queue.peek();
+  /**
+   * Return the maximum number of items the queue can hold. This is the capacity the queue was created with, rounded
+   * up to a power of two.
+   */
+  public int capacity() {
+    return buffer.capacity();
+  }
+
+  /**
+   * Return true if the queue is full.
+   */
+  public boolean writeQueueFull() {
+    return buffer.size() >= buffer.capacity();
+  }
+
+  /**
+   * Register a handler which will be called once, on the caller's event loop, when the queue has been drained to half
+   * its capacity or less. If the queue is already at or below that level the handler will be called straight away.
+   * Each producer should register its own drain handler.
+   */
+  public void drainHandler(Handler<Void> handler) {
+    Long contextID = Vertx.instance.getContextID();
+    if (contextID == null) {
+      throw new IllegalStateException("Cannot register drain handler with no context");
+    }
+    drainWaiters.add(new DrainWaiter(contextID, handler));
+    // The queue may have been drained before we were added
+    checkDrained();
+  }
+
+  /**
+   * Register a consumer on the caller's event loop. Items added to the queue will be removed and passed to the
+   * handler.
+   * @return the id of the consumer, to be used with {@link #removeConsumer}
+   */
+  public long addConsumer(Handler<T> handler) {
+    Long contextID = Vertx.instance.getContextID();
+    if (contextID == null) {
+      throw new IllegalStateException("Cannot register consumer with no context");
+    }
+    Consumer<T> consumer = new Consumer<>(this, consumerSeq.getAndIncrement(), contextID, handler);
+    synchronized (this) {
+      Consumer<T>[] copy = Arrays.copyOf(consumers, consumers.length + 1);
+      copy[consumers.length] = consumer;
+      consumers = copy;
+    }
+    // There may be items waiting already
+    dispatch();
+    return consumer.id;
+  }
+
+  /**
+   * Unregister a consumer. This must be called from the same event loop the consumer was registered on.
+   * @return true if the consumer was found
+   */
+  public synchronized boolean removeConsumer(long id) {
+    Consumer<T>[] current = consumers;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].id == id) {
+        if (current[i].contextID != Vertx.instance.getContextID()) {
+          throw new IllegalStateException("Cannot remove consumer from different context");
+        }
+        removeConsumer(current[i]);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void removeConsumer(Consumer<T> consumer) {
+    Consumer<T>[] current = consumers;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == consumer) {
+        Consumer<T>[] copy = Arrays.copyOf(current, current.length - 1);
+        System.arraycopy(current, i + 1, copy, i, current.length - i - 1);
+        consumers = copy;
+        consumer.removed = true;
+        return;
+      }
+    }
+  }
+
+  /*
+  Wake up the next consumer in turn. If it's already scheduled it will pick up the new item anyway.
+   */
+  private void dispatch() {
+    Consumer<T>[] current = consumers;
+    if (current.length != 0) {
+      Consumer<T> consumer = current[(nextConsumer.getAndIncrement() & Integer.MAX_VALUE) % current.length];
+      if (!consumer.schedule()) {
+        // The context has gone away
+        synchronized (this) {
+          removeConsumer(consumer);
+        }
+        dispatch();
+      }
+    }
+  }
+
+  private void checkDrained() {
+    if (!drainWaiters.isEmpty() && buffer.size() <= lowWaterMark) {
+      DrainWaiter waiter;
+      while ((waiter = drainWaiters.poll()) != null) {
+        waiter.schedule();
+      }
+    }
+  }
+
+  private static class Consumer<T> implements Runnable {
+    final SharedQueue<T> queue;
+    final long id;
+    final long contextID;
+    final Handler<T> handler;
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    volatile boolean removed;
+
+    Consumer(SharedQueue<T> queue, long id, long contextID, Handler<T> handler) {
+      this.queue = queue;
+      this.id = id;
+      this.contextID = contextID;
+      this.handler = handler;
+    }
+
+    boolean schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          VertxInternal.instance.getWorkerForContextID(contextID).scheduleOtherTask(this);
+        } catch (IllegalStateException e) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public void run() {
+      VertxInternal.instance.setContextID(contextID);
+      int count = 0;
+      while (!removed && count < MAX_BATCH) {
+        T t = queue.buffer.poll();
+        if (t == null) {
+          break;
+        }
+        count++;
+        try {
+          handler.handle(t);
+        } catch (Throwable th) {
+          log.error("Unhandled exception in queue consumer", th);
+        }
+      }
+      if (count != 0) {
+        queue.checkDrained();
+      }
+      scheduled.set(false);
+      // Items may have arrived after we stopped polling, or we may have hit the batch limit
+      if (!queue.isEmpty()) {
+        queue.dispatch();
+      }
+    }
+  }
+
+  private static class DrainWaiter implements Runnable {
+    final long contextID;
+    final Handler<Void> handler;
+
+    DrainWaiter(long contextID, Handler<Void> handler) {
+      this.contextID = contextID;
+      this.handler = handler;
+    }
+
+    void schedule() {
+      try {
+        VertxInternal.instance.getWorkerForContextID(contextID).scheduleOtherTask(this);
+      } catch (IllegalStateException e) {
+        // The context has gone away
+      }
+    }
+
+    public void run() {
+      VertxInternal.instance.setContextID(contextID);
+      try {
+        handler.handle(null);
+      } catch (Throwable t) {
+        log.error("Unhandled exception in drain handler", t);
+      }
+    }
   }
 }
@@ -27,6 +27,8 @@ import java.math.BigDecimal;
  * Time: 15:03
  */
 public class SharedUtils {
+  // The copies are of the same class as obj, so they're a T
+  @SuppressWarnings("unchecked")
   public static <T> T checkObject(T obj) {
     if (obj instanceof Immutable ||
         obj instanceof String ||
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.http;
+
+import org.testng.annotations.Test;
+import org.vertx.tests.core.TestBase;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tests the map view of headers which requests and responses give. It's in the package of the headers as they aren't
+ * public.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class HeadersTest extends TestBase {
+
+  @Test
+  public void testMapView() {
+    Map<String, String> headers = new Headers().add("Accept", "text/html").add("X-Dup", "1")
+        .add("accept", "text/plain").add("X-Other", "2").asMap();
+    azzert(headers.size() == 3);
+    azzert("text/html,text/plain".equals(headers.get("ACCEPT")));
+    // In the order the names first appear, with the case they first appear in
+    Iterator<Map.Entry<String, String>> iter = headers.entrySet().iterator();
+    Map.Entry<String, String> entry = iter.next();
+    azzert("Accept".equals(entry.getKey()));
+    azzert("text/html,text/plain".equals(entry.getValue()));
+    azzert("X-Dup".equals(iter.next().getKey()));
+    iter.remove();
+    azzert("X-Other".equals(iter.next().getKey()));
+    azzert(!iter.hasNext());
+    azzert(headers.size() == 2);
+    azzert(!headers.containsKey("x-dup"));
+    throwAssertions();
+  }
+
+  @Test
+  public void testManyHeaders() {
+    // Enough that the names collide in the table of first headers, with each name repeated
+    int names = 1000;
+    Headers headers = new Headers();
+    for (int i = 0; i < 3 * names; i++) {
+      headers.add((i % 2 == 0 ? "X-Header-" : "x-header-") + i % names, String.valueOf(i));
+    }
+    Map<String, String> map = headers.asMap();
+    azzert(map.size() == names);
+    int i = 0;
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      azzert(entry.getKey().equals((i % 2 == 0 ? "X-Header-" : "x-header-") + i), entry.getKey());
+      azzert(entry.getValue().equals(i + "," + (i + names) + "," + (i + 2 * names)), entry.getValue());
+      i++;
+    }
+    azzert(i == names);
+    // Changes are seen by the next iteration
+    headers.add("X-HEADER-0", "x");
+    map.remove("x-header-1");
+    azzert(map.size() == names - 1);
+    Map.Entry<String, String> first = map.entrySet().iterator().next();
+    azzert(first.getValue().equals("0," + names + "," + 2 * names + ",x"), first.getValue());
+    throwAssertions();
+  }
+}
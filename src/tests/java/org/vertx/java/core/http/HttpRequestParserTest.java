@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.java.core.http;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.util.CharsetUtil;
+import org.testng.annotations.Test;
+import org.vertx.tests.core.TestBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Feeds requests to the parser directly, split in every way we want, rather than over a connection where the kernel
+ * decides how the bytes arrive. It's in the parser's package as the parser isn't public.
+ *
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class HttpRequestParserTest extends TestBase {
+
+  private static final String LARGE = largeBody();
+
+  private static final String RAW =
+      "GET /a?x=1 HTTP/1.1\r\nHost: localhost\r\nX-Folded: one\r\n two\r\nx-dup: 1\r\nX-Dup: 2\r\n\r\n" +
+      "POST /b HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello" +
+      "\r\nPOST /c HTTP/1.1\r\nContent-Length: " + LARGE.length() + "\r\n\r\n" + LARGE +
+      "POST /d HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n6;ext=1\r\n world\r\n" +
+      "0\r\nX-Trailer: t\r\nX-Folded-Trailer: a\r\n b\r\n\r\n" +
+      "POST /e HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nbye\r\n0\r\n\r\n";
+
+  @Test
+  public void testByteByByte() {
+    parse(1);
+  }
+
+  @Test
+  public void testSplits() {
+    // Sizes which put the splits at every kind of boundary, and the whole input in one go
+    for (int size : new int[] {2, 3, 5, 7, 13, 64, 1000, RAW.length()}) {
+      parse(size);
+    }
+  }
+
+  private void parse(int splitSize) {
+    DecoderEmbedder<Object> decoder = new DecoderEmbedder<>(new HttpRequestParser());
+    byte[] bytes = RAW.getBytes(CharsetUtil.ISO_8859_1);
+    for (int pos = 0; pos < bytes.length; pos += splitSize) {
+      // A fresh buffer each time, as received buffers are never reused
+      decoder.offer(ChannelBuffers.copiedBuffer(bytes, pos, Math.min(splitSize, bytes.length - pos)));
+    }
+    decoder.finish();
+
+    List<Parsed> requests = new ArrayList<>();
+    Parsed current = null;
+    Object msg;
+    while ((msg = decoder.poll()) != null) {
+      if (msg instanceof HttpRequest) {
+        azzert(current == null, "Request before the last one ended, split size " + splitSize);
+        HttpRequest req = (HttpRequest) msg;
+        current = new Parsed(req);
+        current.body.append(req.getContent().toString(CharsetUtil.ISO_8859_1));
+        if (!req.isChunked()) {
+          requests.add(current);
+          current = null;
+        }
+      } else {
+        HttpChunk chunk = (HttpChunk) msg;
+        azzert(current != null, "Chunk without a request, split size " + splitSize);
+        current.body.append(chunk.getContent().toString(CharsetUtil.ISO_8859_1));
+        if (chunk.isLast()) {
+          if (chunk instanceof HttpChunkTrailer) {
+            current.trailer = (HttpChunkTrailer) chunk;
+          }
+          requests.add(current);
+          current = null;
+        }
+      }
+    }
+    azzert(current == null, "Last request didn't end, split size " + splitSize);
+    azzert(requests.size() == 5, "Requests: " + requests.size() + ", split size " + splitSize);
+
+    HttpRequest a = requests.get(0).request;
+    azzert("GET".equals(a.getMethod().getName()));
+    azzert("/a?x=1".equals(a.getUri()));
+    azzert("localhost".equals(a.getHeader("HOST")));
+    azzert("one two".equals(a.getHeader("x-folded")), a.getHeader("x-folded"));
+    azzert(Arrays.asList("1", "2").equals(a.getHeaders("X-DUP")));
+    azzert(requests.get(0).body.length() == 0);
+
+    azzert("/b".equals(requests.get(1).request.getUri()));
+    azzert("hello".equals(requests.get(1).body.toString()));
+
+    azzert("/c".equals(requests.get(2).request.getUri()));
+    azzert(LARGE.equals(requests.get(2).body.toString()), "Large body, split size " + splitSize);
+
+    Parsed d = requests.get(3);
+    azzert("/d".equals(d.request.getUri()));
+    azzert("hello world".equals(d.body.toString()), d.body.toString());
+    azzert(d.trailer != null, "No trailer, split size " + splitSize);
+    azzert("t".equals(d.trailer.getHeader("x-trailer")), d.trailer.getHeader("x-trailer"));
+    azzert("a b".equals(d.trailer.getHeader("X-Folded-Trailer")), d.trailer.getHeader("X-Folded-Trailer"));
+    azzert(d.trailer.getHeaderNames().size() == 2);
+
+    Parsed e = requests.get(4);
+    azzert("/e".equals(e.request.getUri()));
+    azzert("bye".equals(e.body.toString()));
+    // Without a trailer the last chunk has no headers
+    azzert(e.trailer == null || e.trailer.getHeaderNames().isEmpty());
+  }
+
+  private static String largeBody() {
+    // Larger than the parser's maximum chunk size, so it's passed on in chunks
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; sb.length() < 20000; i++) {
+      sb.append(i).append(',');
+    }
+    return sb.toString();
+  }
+
+  private static class Parsed {
+    final HttpRequest request;
+    final StringBuilder body = new StringBuilder();
+    HttpChunkTrailer trailer;
+
+    Parsed(HttpRequest request) {
+      this.request = request;
+    }
+  }
+}
@@ -26,15 +26,24 @@ import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.http.HttpServer;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
 import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.parsetools.RecordParser;
 import org.vertx.tests.Utils;
 import org.vertx.tests.core.TestBase;
 
 import java.io.File;
+import java.nio.channels.ClosedChannelException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -105,6 +114,15 @@ public class HttpTest extends TestBase {
 
   @Test
   public void testPipelining() throws Exception {
+    testPipelining(1);
+  }
+
+  @Test
+  public void testPipeliningDepth() throws Exception {
+    testPipelining(10);
+  }
+
+  private void testPipelining(final int depth) throws Exception {
     final String host = "localhost";
     final boolean keepAlive = true;
     final String method = "GET";
@@ -112,19 +130,25 @@ public class HttpTest extends TestBase {
     final int statusCode = 200;
     final int port = 8181;
     final int requests = 100;
+    final int[] maxInProgress = new int[1];
 
     final CountDownLatch latch = new CountDownLatch(1);
 
     VertxInternal.instance.go(new Runnable() {
       public void run() {
 
-        final HttpServer server = new HttpServer().requestHandler(new Handler<HttpServerRequest>() {
+        final HttpServer server = new HttpServer().setPipelineDepth(depth).requestHandler(new Handler<HttpServerRequest>() {
           int count;
+          int inProgress;
 
           public void handle(final HttpServerRequest req) {
             azzert(method.equals(req.method));
-            azzert(path.equals(req.path));
+            azzert(path.equals(req.getPath()));
             azzert(count == Integer.parseInt(req.getHeader("count")));
+            azzert(++inProgress <= depth);
+            if (inProgress > maxInProgress[0]) {
+              maxInProgress[0] = inProgress;
+            }
             final int theCount = count;
             count++;
             final Buffer buff = Buffer.create(0);
@@ -144,6 +168,7 @@ public class HttpTest extends TestBase {
                     req.response.putHeader("count", String.valueOf(theCount));
                     req.response.write(buff);
                     req.response.end();
+                    inProgress--;
                   }
                 });
               }
@@ -193,10 +218,145 @@ public class HttpTest extends TestBase {
     });
     azzert(latch.await(10, TimeUnit.SECONDS));
     throwAssertions();
+    if (depth > 1) {
+      // Pipelined requests should have been handled before the earlier responses were written
+      azzert(maxInProgress[0] > 1);
+    }
+  }
+
+  @Test
+  public void testPipelinedResponsesEndingOutOfOrder() throws Exception {
+    final int port = 8186;
+    // Counted down by the done handlers of the held writes, and once the responses have been checked
+    final CountDownLatch latch = new CountDownLatch(4);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final List<HttpServerRequest> requests = new ArrayList<>();
+        final HttpServer server = new HttpServer().setPipelineDepth(3).requestHandler(new Handler<HttpServerRequest>() {
+          public void handle(HttpServerRequest req) {
+            requests.add(req);
+            if (requests.size() == 3) {
+              // End the later responses first - they must still go out in request order
+              for (int i = 2; i >= 0; i--) {
+                HttpServerResponse resp = requests.get(i).response;
+                String body = "response " + i;
+                resp.putHeader("Content-Length", body.length());
+                resp.write(body, new SimpleHandler() {
+                  public void handle() {
+                    latch.countDown();
+                  }
+                });
+                resp.end();
+              }
+            }
+          }
+        }).listen(port, "localhost");
+
+        final NetClient client = new NetClient();
+        client.connect(port, "localhost", new Handler<NetSocket>() {
+          public void handle(final NetSocket socket) {
+            final Buffer received = Buffer.create(0);
+            socket.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                received.appendBuffer(data);
+                String s = received.toString();
+                if (s.endsWith("response 0") || s.endsWith("response 1") || s.endsWith("response 2")) {
+                  int first = s.indexOf("response 0");
+                  int second = s.indexOf("response 1");
+                  int third = s.indexOf("response 2");
+                  if (first != -1 && second != -1 && third != -1) {
+                    azzert(first < second && second < third, s);
+                    socket.close();
+                    client.close();
+                    server.close(new SimpleHandler() {
+                      public void handle() {
+                        latch.countDown();
+                      }
+                    });
+                  }
+                }
+              }
+            });
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < 3; i++) {
+              requests.append("GET /").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            }
+            socket.write(requests.toString());
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testHeldPipelinedWrites() throws Exception {
+    final int port = 8187;
+    final CountDownLatch latch = new CountDownLatch(2);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final List<HttpServerRequest> requests = new ArrayList<>();
+        final HttpServer server = new HttpServer().setPipelineDepth(2);
+        server.requestHandler(new Handler<HttpServerRequest>() {
+          public void handle(HttpServerRequest req) {
+            // The first response is never ended, so the second is held back behind it
+            requests.add(req);
+            if (requests.size() == 2) {
+              HttpServerResponse resp = req.response;
+              resp.setWriteQueueMaxSize(16);
+              resp.setChunked(true);
+              azzert(!resp.writeQueueFull());
+              resp.write("more than sixteen bytes");
+              azzert(resp.writeQueueFull());
+              resp.exceptionHandler(new Handler<Exception>() {
+                public void handle(Exception e) {
+                  azzert(e instanceof ClosedChannelException, e.toString());
+                  latch.countDown();
+                }
+              });
+              // Closing the connection fails the held write
+              server.close(new SimpleHandler() {
+                public void handle() {
+                  latch.countDown();
+                }
+              });
+            }
+          }
+        }).listen(port, "localhost");
+
+        final NetClient client = new NetClient();
+        client.connect(port, "localhost", new Handler<NetSocket>() {
+          public void handle(final NetSocket socket) {
+            socket.closedHandler(new SimpleHandler() {
+              public void handle() {
+                client.close();
+              }
+            });
+            socket.write("GET /0 HTTP/1.1\r\nHost: localhost\r\n\r\nGET /1 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
   }
 
   @Test
   public void testSendFile() throws Exception {
+    testSendFile(false);
+  }
+
+  @Test
+  public void testSendFileLocal() throws Exception {
+    testSendFile(true);
+  }
+
+  private void testSendFile(final boolean local) throws Exception {
     final String host = "localhost";
     final boolean keepAlive = true;
     final String path = "foo.txt";
@@ -210,16 +370,17 @@ public class HttpTest extends TestBase {
     VertxInternal.instance.go(new Runnable() {
       public void run() {
 
-        final HttpServer server = new HttpServer().requestHandler(new Handler<HttpServerRequest>() {
+        final HttpServer server = new HttpServer().setAcceptLocal(local).requestHandler(new Handler<HttpServerRequest>() {
           public void handle(HttpServerRequest req) {
-            azzert(path.equals(req.path));
+            azzert(path.equals(req.getPath()));
             //Clearly in a real web server you'd do some safety checks on the path
-            String fileName = "./" + req.path;
+            String fileName = "./" + req.getPath();
             req.response.sendFile(fileName);
           }
         }).listen(port, host);
 
-        HttpClient client = new HttpClient().setKeepAlive(keepAlive).setPort(port).setHost(host);
+        HttpClient client = new HttpClient().setKeepAlive(keepAlive).setPort(port)
+            .setHost(local ? HttpClient.LOCAL_HOST : host);
 
         client.getNow(path, new Handler<HttpClientResponse>() {
           public void handle(final HttpClientResponse response) {
@@ -675,6 +836,341 @@ public class HttpTest extends TestBase {
     throwAssertions();
   }
 
+  @Test
+  public void testRawRequests() throws Exception {
+    final String host = "localhost";
+    final int port = 8185;
+    final Buffer large = Utils.generateRandomBuffer(20000);
+    final String[] paths = {"/a", "/b", "/c", "/d"};
+    final Buffer[] bodies = {Buffer.create(0), Buffer.create("hello"), large, Buffer.create("hello world")};
+
+    // Requests are written in small pieces so the server sees them split at every kind of boundary
+    final Buffer raw = Buffer.create(0);
+    raw.appendString("GET /a?x=1 HTTP/1.1\r\nHost: localhost\r\nX-Folded: one\r\n two\r\nx-dup: 1\r\nX-Dup: 2\r\n\r\n");
+    raw.appendString("POST /b HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello");
+    raw.appendString("\r\nPOST /c HTTP/1.1\r\nContent-Length: " + large.length() + "\r\n\r\n").appendBuffer(large);
+    raw.appendString("POST /d HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n6;ext=1\r\n world\r\n" +
+        "0\r\nX-Trailer: t\r\n\r\n");
+
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+
+        final HttpServer server = new HttpServer().requestHandler(new Handler<HttpServerRequest>() {
+          int count;
+
+          public void handle(final HttpServerRequest req) {
+            final int theCount = count++;
+            azzert(paths[theCount].equals(req.getPath()), req.getPath());
+            if (theCount == 0) {
+              azzert("GET".equals(req.method));
+              azzert("1".equals(req.getParams().get("x")));
+              azzert("localhost".equals(req.getHeader("HOST")));
+              azzert("one two".equals(req.getHeader("x-folded")), req.getHeader("x-folded"));
+              azzert("1".equals(req.getHeader("X-DUP")));
+              azzert("1,2".equals(req.getHeaders().get("X-DUP")), req.getHeaders().get("X-DUP"));
+              azzert("localhost".equals(req.getHeaders().get("host")));
+              azzert(req.getHeaders().size() == 3);
+            } else {
+              azzert("POST".equals(req.method));
+            }
+            final Buffer body = Buffer.create(0);
+            req.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                body.appendBuffer(data);
+              }
+            });
+            req.endHandler(new SimpleHandler() {
+              public void handle() {
+                azzert(Utils.buffersEqual(bodies[theCount], body));
+                req.response.end("#");
+              }
+            });
+          }
+        }).listen(port, host);
+
+        final NetClient client = new NetClient();
+        client.connect(port, host, new Handler<NetSocket>() {
+          public void handle(NetSocket socket) {
+            socket.dataHandler(RecordParser.newDelimited("#", new Handler<Buffer>() {
+              int responses;
+
+              public void handle(Buffer response) {
+                if (++responses == paths.length) {
+                  client.close();
+                  server.close(new SimpleHandler() {
+                    public void handle() {
+                      latch.countDown();
+                    }
+                  });
+                }
+              }
+            }));
+            // The same pieces every run. How they arrive is up to the kernel, HttpRequestParserTest splits requests
+            // exactly
+            int pos = 0;
+            for (int i = 0; pos < raw.length(); i++) {
+              int end = Math.min(raw.length(), pos + 1 + (i * 7) % 50);
+              socket.write(raw.copy(pos, end));
+              pos = end;
+            }
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testPathQueryAndParams() throws Exception {
+    final String host = "localhost";
+    final int port = 8185;
+    final String[] uris = {"/some%20path/r%C3%A9sum%C3%A9?a=1&a=2&b=c+d&e=%E2%82%AC&flag#frag",
+        "http://localhost:" + port + "/abs/path?q=1", "/nothing"};
+
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+
+        final HttpServer server = new HttpServer().requestHandler(new Handler<HttpServerRequest>() {
+          public void handle(HttpServerRequest req) {
+            if (req.uri.equals(uris[0])) {
+              azzert("/some path/r\u00e9sum\u00e9".equals(req.getPath()), req.getPath());
+              azzert("a=1&a=2&b=c+d&e=\u20ac&flag".equals(req.getQuery()), req.getQuery());
+              azzert("1".equals(req.getParam("a")));
+              azzert(Arrays.asList("1", "2").equals(req.getParams("a")));
+              try {
+                req.getParams("a").clear();
+                azzert(false, "Should throw exception");
+              } catch (UnsupportedOperationException e) {
+                //OK
+              }
+              azzert(req.getParams("a").size() == 2);
+              azzert("c d".equals(req.getParam("b")));
+              azzert("\u20ac".equals(req.getParam("e")));
+              azzert("".equals(req.getParam("flag")));
+              azzert(req.getParams("missing").isEmpty());
+              azzert(req.getParams().size() == 4);
+              azzert("1".equals(req.getParams().get("a")));
+            } else if (req.uri.equals(uris[1])) {
+              azzert("/abs/path".equals(req.getPath()), req.getPath());
+              azzert("q=1".equals(req.getQuery()));
+              azzert("1".equals(req.getParam("q")));
+            } else {
+              azzert(req.uri.equals(uris[2]));
+              azzert("/nothing".equals(req.getPath()));
+              azzert(req.getQuery() == null);
+              azzert(req.getParams().isEmpty());
+            }
+            req.response.end();
+          }
+        }).listen(port, host);
+
+        final HttpClient client = new HttpClient().setPort(port).setHost(host);
+        final Handler<HttpClientResponse> respHandler = new Handler<HttpClientResponse>() {
+          int count;
+
+          public void handle(HttpClientResponse resp) {
+            azzert(200 == resp.statusCode);
+            if (++count == uris.length) {
+              client.close();
+              server.close(new SimpleHandler() {
+                public void handle() {
+                  latch.countDown();
+                }
+              });
+            }
+          }
+        };
+        for (String uri : uris) {
+          client.get(uri, respHandler).end();
+        }
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testHeaderNamesAreCaseInsensitive() throws Exception {
+    final String host = "localhost";
+    final int port = 8185;
+
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+
+        final HttpServer server = new HttpServer().requestHandler(new Handler<HttpServerRequest>() {
+          public void handle(HttpServerRequest req) {
+            Map<String, String> headers = req.getHeaders();
+            azzert("foo".equals(headers.get("x-mixed-case")));
+            azzert("foo".equals(headers.get("X-MIXED-CASE")));
+            azzert(headers.containsKey("x-MiXeD-cAsE"));
+            azzert(headers.keySet().contains("X-Mixed-Case"));
+            req.response.putHeader("X-Replaced", "a");
+            req.response.putHeader("x-replaced", "b");
+            req.response.putHeader("content-length", 5);
+            req.response.putTrailer("X-Ignored", "c");
+            req.response.end("hello");
+          }
+        }).listen(port, host);
+
+        final HttpClient client = new HttpClient().setPort(port).setHost(host);
+        HttpClientRequest req = client.get("/", new Handler<HttpClientResponse>() {
+          public void handle(HttpClientResponse resp) {
+            azzert(200 == resp.statusCode);
+            azzert("b".equals(resp.getHeaders().get("X-REPLACED")), resp.getHeaders().get("X-REPLACED"));
+            azzert("5".equals(resp.getHeaders().get("Content-Length")));
+            azzert(resp.getHeaders().containsKey("content-length"));
+            final Buffer body = Buffer.create(0);
+            resp.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                body.appendBuffer(data);
+              }
+            });
+            resp.endHandler(new SimpleHandler() {
+              public void handle() {
+                azzert("hello".equals(body.toString()));
+                client.close();
+                server.close(new SimpleHandler() {
+                  public void handle() {
+                    latch.countDown();
+                  }
+                });
+              }
+            });
+          }
+        });
+        req.putHeader("X-Mixed-Case", "foo");
+        req.end();
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testResponseHead() throws Exception {
+    final String host = "localhost";
+    final int port = 8185;
+
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+
+        final HttpServer server = new HttpServer().requestHandler(new Handler<HttpServerRequest>() {
+          public void handle(HttpServerRequest req) {
+            if (req.uri.equals("/custom")) {
+              req.response.statusCode = 299;
+              req.response.statusMessage = "Custom Status";
+              req.response.putHeader("Date", "whenever");
+            } else if (req.uri.equals("/missing")) {
+              req.response.statusCode = 404;
+            } else if (req.uri.equals("/injected")) {
+              req.response.statusMessage = "OK\r\nSet-Cookie: x";
+              try {
+                req.response.end();
+                azzert(false, "CR LF accepted in the status message");
+              } catch (IllegalArgumentException e) {
+                req.response.statusCode = 400;
+                req.response.statusMessage = null;
+              }
+            } else if (req.uri.equals("/chunked")) {
+              req.response.setChunked(true);
+              req.response.write(Buffer.create(0));
+              req.response.write("foo");
+            }
+            req.response.end();
+          }
+        }).listen(port, host);
+
+        final HttpClient client = new HttpClient().setPort(port).setHost(host);
+        // The requests may go out on different connections, so whichever response comes last closes everything
+        final int[] remaining = {5};
+        final SimpleHandler responded = new SimpleHandler() {
+          public void handle() {
+            if (--remaining[0] == 0) {
+              client.close();
+              server.close(new SimpleHandler() {
+                public void handle() {
+                  latch.countDown();
+                }
+              });
+            }
+          }
+        };
+        client.get("/", new Handler<HttpClientResponse>() {
+          public void handle(HttpClientResponse resp) {
+            azzert(200 == resp.statusCode);
+            azzert("OK".equals(resp.statusMessage));
+            azzert("0".equals(resp.getHeader("Content-Length")));
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            try {
+              long date = format.parse(resp.getHeader("Date")).getTime();
+              azzert(Math.abs(System.currentTimeMillis() - date) < 5000, resp.getHeader("Date"));
+            } catch (ParseException e) {
+              azzert(false, resp.getHeader("Date"));
+            }
+            responded.handle(null);
+          }
+        }).end();
+        client.get("/custom", new Handler<HttpClientResponse>() {
+          public void handle(HttpClientResponse resp) {
+            azzert(299 == resp.statusCode);
+            azzert("Custom Status".equals(resp.statusMessage));
+            azzert("whenever".equals(resp.getHeader("Date")));
+            azzert(resp.getHeaders().size() == 2);
+            responded.handle(null);
+          }
+        }).end();
+        client.get("/missing", new Handler<HttpClientResponse>() {
+          public void handle(HttpClientResponse resp) {
+            azzert(404 == resp.statusCode);
+            azzert("Not Found".equals(resp.statusMessage));
+            responded.handle(null);
+          }
+        }).end();
+        client.get("/injected", new Handler<HttpClientResponse>() {
+          public void handle(HttpClientResponse resp) {
+            azzert(400 == resp.statusCode);
+            azzert("Bad Request".equals(resp.statusMessage));
+            azzert(resp.getHeader("Set-Cookie") == null);
+            responded.handle(null);
+          }
+        }).end();
+        client.get("/chunked", new Handler<HttpClientResponse>() {
+          public void handle(HttpClientResponse resp) {
+            azzert(200 == resp.statusCode);
+            // An empty write mustn't be sent as the last chunk, which would end the response before "foo"
+            final Buffer body = Buffer.create(0);
+            resp.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                body.appendBuffer(data);
+              }
+            });
+            resp.endHandler(new SimpleHandler() {
+              public void handle() {
+                azzert("foo".equals(body.toString()), body.toString());
+                responded.handle(null);
+              }
+            });
+          }
+        }).end();
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
   private void testMethod(String method, boolean specificMethod) throws Exception {
     String path = "some/path/to/" + Utils.randomAlphaString(20);
     testMethodChunked(method, path, specificMethod);
@@ -733,7 +1229,7 @@ public class HttpTest extends TestBase {
         final HttpServer server = new HttpServer().requestHandler(new Handler<HttpServerRequest>() {
           public void handle(final HttpServerRequest req) {
             azzert((method.equals("GETNOW") ? "GET" : method).equals(req.method), method + ":" + req.method);
-            azzert(path.equals(req.path));
+            azzert(path.equals(req.getPath()));
             azzert((path + paramsString).equals(req.uri));
             for (Map.Entry<String, String> param : params.entrySet()) {
               azzert(req.getParams().get(param.getKey()).equals(param.getValue()));
@@ -75,6 +75,15 @@ public class RouteMatcherTest extends TestBase {
 
   }
 
+  @Test
+  public void testRouteWithPatternAndQuery() throws Exception {
+    Map<String, String> params = new HashMap<>();
+    // Route params take precedence over query params with the same name
+    params.put("name", "foo");
+    params.put("x", "1");
+    testRoute(false, "/:name", params, "/foo?name=bar&x=1&x=2");
+  }
+
   @Test
   public void testRouteWithRegEx() throws Exception {
     Map<String, String> params = new HashMap<>();
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.tests.core.net;
+
+import org.jboss.netty.channel.ChannelException;
+import org.testng.annotations.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.DatagramPacket;
+import org.vertx.java.core.net.DatagramSocket;
+import org.vertx.tests.Utils;
+import org.vertx.tests.core.TestBase;
+
+import java.net.NetworkInterface;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class DatagramTest extends TestBase {
+
+  @Test
+  public void testEcho() throws Exception {
+    final int numSends = 100;
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final ContextChecker checker = new ContextChecker();
+        final DatagramSocket server = new DatagramSocket().bind(8181, "127.0.0.1");
+        server.dataHandler(new Handler<DatagramPacket>() {
+          public void handle(DatagramPacket packet) {
+            checker.check();
+            server.send(packet.data, packet.sender.getHostString(), packet.sender.getPort());
+          }
+        });
+
+        // Send one at a time, so none are dropped
+        final DatagramSocket client = new DatagramSocket().setBatchSize(4);
+        client.dataHandler(new Handler<DatagramPacket>() {
+          int received;
+
+          public void handle(DatagramPacket packet) {
+            checker.check();
+            azzert(packet.sender.getPort() == 8181);
+            azzert(packet.data.toString().equals("packet-" + received));
+            if (++received == numSends) {
+              client.close();
+              server.close(new SimpleHandler() {
+                public void handle() {
+                  checker.check();
+                  latch.countDown();
+                }
+              });
+            } else {
+              client.send("packet-" + received, "127.0.0.1", 8181);
+            }
+          }
+        });
+        client.send("packet-0", "127.0.0.1", 8181);
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testLargeDatagram() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final byte[] bytes = Utils.generateRandomByteArray(60000);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final DatagramSocket server = new DatagramSocket().setReceiveBufferSize(256 * 1024).bind(8181, "127.0.0.1");
+        server.dataHandler(new Handler<DatagramPacket>() {
+          public void handle(DatagramPacket packet) {
+            azzert(Utils.byteArraysEqual(bytes, packet.data.getBytes()));
+            server.close(new SimpleHandler() {
+              public void handle() {
+                latch.countDown();
+              }
+            });
+          }
+        });
+        final DatagramSocket client = new DatagramSocket();
+        client.send(Buffer.create(bytes), "127.0.0.1", 8181);
+        client.close();
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testBindFailure() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final DatagramSocket first = new DatagramSocket().bind(8181, "127.0.0.1");
+        final DatagramSocket second = new DatagramSocket();
+        try {
+          second.bind(8181, "127.0.0.1");
+          azzert(false, "Bound to a port in use");
+        } catch (ChannelException e) {
+          // OK
+        }
+        // A failed bind leaves the socket unbound, so it can be bound somewhere else
+        second.bind(8182, "127.0.0.1");
+        azzert(second.localAddress().getPort() == 8182);
+        second.close();
+        first.close(new SimpleHandler() {
+          public void handle() {
+            latch.countDown();
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testHostNames() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        // Bind addresses aren't looked up, so only IP addresses and localhost are allowed
+        DatagramSocket unbound = new DatagramSocket();
+        try {
+          unbound.bind(8181, "nosuchhost.invalid");
+          azzert(false, "Bound to a host name");
+        } catch (IllegalArgumentException e) {
+          // OK
+        } finally {
+          unbound.close();
+        }
+        final DatagramSocket server = new DatagramSocket().bind(8181, "localhost");
+        final DatagramSocket client = new DatagramSocket();
+        server.dataHandler(new Handler<DatagramPacket>() {
+          public void handle(DatagramPacket packet) {
+            azzert(packet.data.toString().equals("hello"));
+            client.close();
+            server.close(new SimpleHandler() {
+              public void handle() {
+                latch.countDown();
+              }
+            });
+          }
+        });
+        client.send("hello", "localhost", 8181);
+        // Sending has bound the client to an ephemeral port
+        try {
+          client.bind(8182);
+          azzert(false, "Bound after sending");
+        } catch (IllegalStateException e) {
+          // OK
+        }
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testMulticast() throws Exception {
+    final String iface = findMulticastInterface();
+    if (iface == null) {
+      // Nothing to test with
+      return;
+    }
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final DatagramSocket server = new DatagramSocket().setReuseAddress(true).bind(8182);
+        server.joinGroup("230.0.0.1", iface);
+        server.dataHandler(new Handler<DatagramPacket>() {
+          public void handle(DatagramPacket packet) {
+            azzert(packet.data.toString().equals("multicast"));
+            server.leaveGroup("230.0.0.1");
+            server.close(new SimpleHandler() {
+              public void handle() {
+                latch.countDown();
+              }
+            });
+          }
+        });
+        final DatagramSocket client = new DatagramSocket().setMulticastNetworkInterface(iface)
+            .setMulticastLoopbackMode(true);
+        client.send("multicast", "230.0.0.1", 8182);
+        client.close();
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  private String findMulticastInterface() throws Exception {
+    for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+      if (ni.isUp() && ni.supportsMulticast()) {
+        return ni.getName();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.tests.core.net;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.testng.annotations.Test;
+import org.vertx.java.core.CompletionHandler;
+import org.vertx.java.core.Future;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.SimpleHandler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.DatagramPacket;
+import org.vertx.java.core.net.DatagramSocket;
+import org.vertx.java.core.net.DnsResolver;
+import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetServer;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.tests.core.TestBase;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class DnsResolverTest extends TestBase {
+
+  private static final int DNS_PORT = 8053;
+
+  @Test
+  public void testResolveAndCache() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final ContextChecker checker = new ContextChecker();
+        final StubDnsServer server = new StubDnsServer().addName("foo.test", 60, "10.0.0.1");
+        final DnsResolver resolver = createResolver();
+        resolver.resolve("foo.test").handler(new CompletionHandler<InetAddress>() {
+          public void handle(Future<InetAddress> result) {
+            checker.check();
+            azzert(result.succeeded());
+            azzert(result.result().getHostAddress().equals("10.0.0.1"));
+            // Cached, so complete straight away
+            Future<InetAddress> cached = resolver.resolve("FOO.test.");
+            azzert(cached.succeeded());
+            azzert(cached.result().getHostAddress().equals("10.0.0.1"));
+            azzert(server.queries("foo.test") == 1);
+            done(server, resolver, latch);
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testConcurrentLookupsShareQuery() throws Exception {
+    final int numLookups = 10;
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer().addName("foo.test", 60, "10.0.0.1");
+        final DnsResolver resolver = createResolver();
+        CompletionHandler<InetAddress> handler = new CompletionHandler<InetAddress>() {
+          int completed;
+
+          public void handle(Future<InetAddress> result) {
+            azzert(result.succeeded());
+            azzert(result.result().getHostAddress().equals("10.0.0.1"));
+            if (++completed == numLookups) {
+              azzert(server.queries("foo.test") == 1);
+              done(server, resolver, latch);
+            }
+          }
+        };
+        for (int i = 0; i < numLookups; i++) {
+          resolver.resolve("foo.test").handler(handler);
+        }
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testRoundRobin() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer().addName("foo.test", 60, "10.0.0.1", "10.0.0.2", "10.0.0.3");
+        final DnsResolver resolver = createResolver();
+        resolver.resolve("foo.test").handler(new CompletionHandler<InetAddress>() {
+          public void handle(Future<InetAddress> result) {
+            azzert(result.succeeded());
+            String first = result.result().getHostAddress();
+            azzert(first.equals("10.0.0.1"));
+            Set<String> seen = new HashSet<>();
+            seen.add(first);
+            // Each lookup gets the next address
+            for (int i = 0; i < 2; i++) {
+              seen.add(resolver.resolve("foo.test").result().getHostAddress());
+            }
+            azzert(seen.size() == 3);
+            azzert(resolver.resolve("foo.test").result().getHostAddress().equals(first));
+            azzert(server.queries("foo.test") == 1);
+            done(server, resolver, latch);
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testTTLExpiry() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer().addName("foo.test", 1, "10.0.0.1");
+        final DnsResolver resolver = createResolver();
+        resolver.resolve("foo.test").handler(new CompletionHandler<InetAddress>() {
+          public void handle(Future<InetAddress> result) {
+            azzert(result.succeeded());
+            Vertx.instance.setTimer(1100, new Handler<Long>() {
+              public void handle(Long timerID) {
+                // Expired, so looked up again
+                Future<InetAddress> again = resolver.resolve("foo.test");
+                azzert(!again.complete());
+                again.handler(new CompletionHandler<InetAddress>() {
+                  public void handle(Future<InetAddress> result) {
+                    azzert(result.succeeded());
+                    azzert(server.queries("foo.test") == 2);
+                    done(server, resolver, latch);
+                  }
+                });
+              }
+            });
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testUnknownHost() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer();
+        final DnsResolver resolver = createResolver();
+        resolver.resolve("missing.test").handler(new CompletionHandler<InetAddress>() {
+          public void handle(Future<InetAddress> result) {
+            azzert(result.failed());
+            azzert(result.exception() instanceof UnknownHostException);
+            // Names which don't exist are cached too
+            azzert(resolver.resolve("missing.test").failed());
+            azzert(server.queries("missing.test") == 1);
+            done(server, resolver, latch);
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testSearchDomains() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer().addName("db.svc.test", 60, "10.0.0.5")
+            .addName("foo.test", 60, "10.0.0.1");
+        final DnsResolver resolver = createResolver().setSearchDomains("svc.test", "other.test").setNdots(1);
+        resolver.resolve("db").handler(new CompletionHandler<InetAddress>() {
+          public void handle(Future<InetAddress> result) {
+            // Fewer dots than ndots, so the search domains are tried first
+            azzert(result.succeeded());
+            azzert(result.result().getHostAddress().equals("10.0.0.5"));
+            azzert(server.queries("db.svc.test") == 1);
+            azzert(server.queries("db") == 0);
+            resolver.resolve("foo.test").handler(new CompletionHandler<InetAddress>() {
+              public void handle(Future<InetAddress> result) {
+                // Enough dots, so tried as it is first
+                azzert(result.succeeded());
+                azzert(server.queries("foo.test.svc.test") == 0);
+                resolver.resolve("db.").handler(new CompletionHandler<InetAddress>() {
+                  public void handle(Future<InetAddress> result) {
+                    // Absolute, so not searched
+                    azzert(result.failed());
+                    azzert(server.queries("db") == 1);
+                    azzert(server.queries("db.other.test") == 0);
+                    done(server, resolver, latch);
+                  }
+                });
+              }
+            });
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testForgedAnswerIgnored() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer().addName("foo.test", 60, "10.0.0.1").addForgedName("foo.test");
+        final DnsResolver resolver = createResolver();
+        resolver.resolve("foo.test").handler(new CompletionHandler<InetAddress>() {
+          public void handle(Future<InetAddress> result) {
+            // The answer to another question, with the right ID, came first
+            azzert(result.succeeded());
+            azzert(result.result().getHostAddress().equals("10.0.0.1"));
+            done(server, resolver, latch);
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testTruncatedAnswer() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer().addName("trunc.test", 60, "10.0.0.1")
+            .addTruncatedName("trunc.test");
+        final DnsResolver resolver = createResolver();
+        resolver.resolve("trunc.test").handler(new CompletionHandler<InetAddress>() {
+          public void handle(Future<InetAddress> result) {
+            // The truncated answer isn't used, the name is looked up by the JDK instead, which doesn't know it
+            azzert(result.failed());
+            azzert(result.exception() instanceof UnknownHostException);
+            azzert(server.queries("trunc.test") == 1);
+            done(server, resolver, latch);
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testQueriesSentFromDifferentPorts() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer().addName("foo.test", 60, "10.0.0.1")
+            .addName("bar.test", 60, "10.0.0.2");
+        final DnsResolver resolver = createResolver();
+        CompletionHandler<InetAddress> handler = new CompletionHandler<InetAddress>() {
+          int completed;
+
+          public void handle(Future<InetAddress> result) {
+            azzert(result.succeeded());
+            if (++completed == 2) {
+              azzert(server.ports.size() == 2);
+              done(server, resolver, latch);
+            }
+          }
+        };
+        resolver.resolve("foo.test").handler(handler);
+        resolver.resolve("bar.test").handler(handler);
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testMaxCacheSize() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final String[] names = {"a.test", "b.test", "c.test"};
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer();
+        for (String name : names) {
+          server.addName(name, 60, "10.0.0.1");
+        }
+        final DnsResolver resolver = createResolver().setMaxCacheSize(2);
+        CompletionHandler<InetAddress> handler = new CompletionHandler<InetAddress>() {
+          int completed;
+
+          public void handle(Future<InetAddress> result) {
+            azzert(result.succeeded());
+            if (++completed == names.length) {
+              int cached = 0;
+              for (String name : names) {
+                if (resolver.resolve(name).complete()) {
+                  cached++;
+                }
+              }
+              azzert(cached > 0 && cached <= 2, "cached " + cached);
+              done(server, resolver, latch);
+            }
+          }
+        };
+        for (String name : names) {
+          resolver.resolve(name).handler(handler);
+        }
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testNoAnswer() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer().addSilentName("slow.test");
+        final DnsResolver resolver = createResolver().setTimeout(100);
+        resolver.resolve("slow.test").handler(new CompletionHandler<InetAddress>() {
+          public void handle(Future<InetAddress> result) {
+            azzert(result.failed());
+            azzert(result.exception() instanceof UnknownHostException);
+            // Asked again before giving up
+            azzert(server.queries("slow.test") == 2);
+            done(server, resolver, latch);
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testLiteralsAndLocalhost() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer server = new StubDnsServer();
+        final DnsResolver resolver = createResolver();
+        Future<InetAddress> literal = resolver.resolve("192.168.1.1");
+        azzert(literal.succeeded());
+        azzert(literal.result().getHostAddress().equals("192.168.1.1"));
+        Future<InetAddress> localhost = resolver.resolve("localhost");
+        azzert(localhost.succeeded());
+        azzert(localhost.result().isLoopbackAddress());
+        azzert(server.totalQueries == 0);
+        done(server, resolver, latch);
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testNetClientConnect() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer dnsServer = new StubDnsServer().addName("server.test", 60, "127.0.0.1");
+        final DnsResolver resolver = createResolver();
+        final NetServer server = new NetServer().connectHandler(new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            sock.write("hello");
+          }
+        }).listen(8184);
+
+        new NetClient().setResolver(resolver).connect(8184, "server.test", new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            azzert(dnsServer.queries("server.test") == 1);
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                azzert(data.toString().equals("hello"));
+                server.close(new SimpleHandler() {
+                  public void handle() {
+                    done(dnsServer, resolver, latch);
+                  }
+                });
+              }
+            });
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testDatagramSend() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final StubDnsServer dnsServer = new StubDnsServer().addName("server.test", 60, "127.0.0.1");
+        final DnsResolver resolver = createResolver();
+        final DatagramSocket server = new DatagramSocket().bind(8184, "127.0.0.1");
+        final DatagramSocket client = new DatagramSocket().setResolver(resolver);
+        server.dataHandler(new Handler<DatagramPacket>() {
+          public void handle(DatagramPacket packet) {
+            // The datagram waited for the lookup, and changing the buffer in the meantime didn't change it
+            azzert(packet.data.toString().equals("hello"));
+            client.close();
+            server.close(new SimpleHandler() {
+              public void handle() {
+                done(dnsServer, resolver, latch);
+              }
+            });
+          }
+        });
+        Buffer data = Buffer.create("hello");
+        client.send(data, "server.test", 8184);
+        data.setByte(0, (byte) 'j');
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  private DnsResolver createResolver() {
+    return new DnsResolver().setServers(new InetSocketAddress("127.0.0.1", DNS_PORT)).setSearchDomains();
+  }
+
+  private void done(StubDnsServer server, DnsResolver resolver, final CountDownLatch latch) {
+    resolver.close();
+    server.socket.close(new SimpleHandler() {
+      public void handle() {
+        latch.countDown();
+      }
+    });
+  }
+
+  /*
+  Answers A queries for the names it's been given, and says every other name doesn't exist
+   */
+  private static class StubDnsServer {
+
+    final DatagramSocket socket = new DatagramSocket().bind(DNS_PORT, "127.0.0.1");
+    final Map<String, byte[][]> names = new HashMap<>();
+    final Map<String, Integer> ttls = new HashMap<>();
+    final Set<String> silent = new HashSet<>();
+    final Set<String> forged = new HashSet<>();
+    final Set<String> truncated = new HashSet<>();
+    // The ports queries were sent from
+    final Set<Integer> ports = new HashSet<>();
+    final Map<String, Integer> queryCounts = new HashMap<>();
+    int totalQueries;
+
+    StubDnsServer() {
+      socket.dataHandler(new Handler<DatagramPacket>() {
+        public void handle(DatagramPacket packet) {
+          answer(packet);
+        }
+      });
+    }
+
+    StubDnsServer addName(String name, int ttl, String... addresses) {
+      byte[][] bytes = new byte[addresses.length][];
+      for (int i = 0; i < addresses.length; i++) {
+        try {
+          bytes[i] = InetAddress.getByName(addresses[i]).getAddress();
+        } catch (UnknownHostException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
+      names.put(name, bytes);
+      ttls.put(name, ttl);
+      return this;
+    }
+
+    StubDnsServer addSilentName(String name) {
+      silent.add(name);
+      return this;
+    }
+
+    /*
+    Queries for name are first answered with an address for another name
+     */
+    StubDnsServer addForgedName(String name) {
+      forged.add(name);
+      return this;
+    }
+
+    /*
+    Answers for name have the truncated flag set
+     */
+    StubDnsServer addTruncatedName(String name) {
+      truncated.add(name);
+      return this;
+    }
+
+    int queries(String name) {
+      Integer count = queryCounts.get(name);
+      return count == null ? 0 : count;
+    }
+
+    private void answer(DatagramPacket packet) {
+      ChannelBuffer query = packet.data.getChannelBuffer();
+      int pos = 12;
+      StringBuilder name = new StringBuilder();
+      int length;
+      while ((length = query.getUnsignedByte(pos)) != 0) {
+        if (name.length() > 0) {
+          name.append('.');
+        }
+        for (int i = 0; i < length; i++) {
+          name.append((char) query.getUnsignedByte(pos + 1 + i));
+        }
+        pos += 1 + length;
+      }
+      int questionEnd = pos + 5;
+      totalQueries++;
+      ports.add(packet.sender.getPort());
+      queryCounts.put(name.toString(), queries(name.toString()) + 1);
+      if (silent.contains(name.toString())) {
+        return;
+      }
+
+      if (forged.contains(name.toString())) {
+        ChannelBuffer question = ChannelBuffers.dynamicBuffer();
+        for (String label : "evil.test".split("\\.")) {
+          question.writeByte(label.length());
+          question.writeBytes(label.getBytes());
+        }
+        question.writeByte(0);
+        question.writeShort(1);
+        question.writeShort(1);
+        byte[][] evil = {{6, 6, 6, 6}};
+        send(packet, query.getUnsignedShort(0), question, evil, 60, false);
+      }
+      byte[][] addresses = names.get(name.toString());
+      Integer ttl = ttls.get(name.toString());
+      send(packet, query.getUnsignedShort(0), query.slice(12, questionEnd - 12), addresses, ttl == null ? 0 : ttl,
+          truncated.contains(name.toString()));
+    }
+
+    private void send(DatagramPacket packet, int id, ChannelBuffer question, byte[][] addresses, int ttl,
+                      boolean truncated) {
+      ChannelBuffer response = ChannelBuffers.dynamicBuffer();
+      response.writeShort(id);
+      response.writeShort((addresses == null ? 0x8183 : 0x8180) | (truncated ? 0x0200 : 0));
+      response.writeShort(1);
+      response.writeShort(addresses == null ? 0 : addresses.length);
+      response.writeShort(0);
+      response.writeShort(0);
+      response.writeBytes(question, question.readerIndex(), question.readableBytes());
+      if (addresses != null) {
+        for (byte[] address : addresses) {
+          // A pointer to the name in the question
+          response.writeShort(0xC00C);
+          response.writeShort(1);
+          response.writeShort(1);
+          response.writeInt(ttl);
+          response.writeShort(4);
+          response.writeBytes(address);
+        }
+      }
+      socket.send(new Buffer(response), packet.sender.getHostString(), packet.sender.getPort());
+    }
+  }
+}
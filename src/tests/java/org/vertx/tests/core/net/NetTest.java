@@ -16,6 +16,9 @@
 
 package org.vertx.tests.core.net;
 
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.socket.SocketChannelConfig;
 import org.testng.annotations.Test;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.SimpleHandler;
@@ -23,13 +26,17 @@ import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.internal.VertxInternal;
 import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.net.ConnectionBase;
+import org.vertx.java.core.net.DefaultNetMetrics;
 import org.vertx.java.core.net.NetClient;
 import org.vertx.java.core.net.NetServer;
 import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.net.ServerID;
 import org.vertx.tests.Utils;
 import org.vertx.tests.core.TestBase;
 
 import java.io.File;
+import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -44,6 +51,15 @@ public class NetTest extends TestBase {
 
   @Test
   public void testConnect() throws Exception {
+    testConnect(1);
+  }
+
+  @Test
+  public void testConnectMultipleAcceptors() throws Exception {
+    testConnect(4);
+  }
+
+  private void testConnect(final int acceptors) throws Exception {
 
     final int connectCount = 10;
     final CountDownLatch latch = new CountDownLatch(1);
@@ -53,7 +69,7 @@ public class NetTest extends TestBase {
     VertxInternal.instance.go(new Runnable() {
       public void run() {
 
-        final NetServer server = new NetServer();
+        final NetServer server = new NetServer().setAcceptors(acceptors);
 
         final long actorId = Vertx.instance.registerHandler(new Handler<String>() {
           public void handle(String msg) {
@@ -106,11 +122,48 @@ public class NetTest extends TestBase {
 
   @Test
   /*
-  Test setting all the client params
-  Actually quite hard to test this meaningfully
+  Test setting the client params. Only the socket options which the JDK doesn't turn on by default are checked, so we
+  know they were applied
    */
   public void testClientParams() throws Exception {
-    //TODO
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final NetServer server = new NetServer().connectHandler(new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+          }
+        }).listen(8181);
+
+        final NetClient client = new NetClient().setTcpNoDelay(true).setTCPKeepAlive(true);
+        client.connect(8181, new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            SocketChannelConfig config = (SocketChannelConfig) getChannel(sock).getConfig();
+            azzert(config.isTcpNoDelay());
+            azzert(config.isKeepAlive());
+            client.close();
+            server.close(new SimpleHandler() {
+              public void handle() {
+                latch.countDown();
+              }
+            });
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  private static Channel getChannel(NetSocket sock) {
+    try {
+      Field field = ConnectionBase.class.getDeclaredField("channel");
+      field.setAccessible(true);
+      return (Channel) field.get(sock);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
   }
 
   @Test
@@ -200,6 +253,734 @@ public class NetTest extends TestBase {
     throwAssertions();
   }
 
+  @Test
+  public void testCoalesceWrites() throws Exception {
+
+    final CountDownLatch latch = new CountDownLatch(1);
+    final int numSends = 100;
+    final int sendSize = 37;
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+
+        final NetServer server = new NetServer();
+
+        final Buffer sentBuff = Buffer.create(0);
+        final Buffer receivedBuff = Buffer.create(0);
+        final AtomicInteger doneCount = new AtomicInteger(0);
+
+        final long actorId = Vertx.instance.registerHandler(new Handler<String>() {
+          public void handle(String msg) {
+            azzert(Utils.buffersEqual(sentBuff, receivedBuff));
+            azzert(doneCount.get() == numSends);
+            server.close(new SimpleHandler() {
+              public void handle() {
+                latch.countDown();
+              }
+            });
+          }
+        });
+
+        server.connectHandler(new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            sock.endHandler(new SimpleHandler() {
+              public void handle() {
+                Vertx.instance.sendToHandler(actorId, "foo");
+              }
+            });
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                receivedBuff.appendBuffer(data);
+              }
+            });
+          }
+        }).listen(8181);
+
+        new NetClient().connect(8181, new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            final ContextChecker checker = new ContextChecker();
+            // Small threshold so some batches are flushed early and the rest at the end of the turn
+            sock.setCoalesceWrites(true).setCoalesceThreshold(1000);
+            for (int i = 0; i < numSends; i++) {
+              Buffer b = Utils.generateRandomBuffer(sendSize);
+              sentBuff.appendBuffer(b);
+              sock.write(b, new SimpleHandler() {
+                public void handle() {
+                  checker.check();
+                  doneCount.incrementAndGet();
+                }
+              });
+              // What's appended after the write isn't part of it, even though the write is still pending
+              b.appendBuffer(Utils.generateRandomBuffer(sendSize));
+            }
+            // Closing flushes whatever is still pending
+            sock.close();
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testReadIdleTimeout() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final NetServer server = new NetServer().setReadIdleTimeout(100);
+        server.connectHandler(new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+          }
+        }).listen(8181);
+
+        new NetClient().connect(8181, new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            final ContextChecker checker = new ContextChecker();
+            final long start = System.currentTimeMillis();
+            // The client never writes, so the server closes the connection
+            sock.closedHandler(new SimpleHandler() {
+              public void handle() {
+                checker.check();
+                azzert(System.currentTimeMillis() - start >= 50);
+                azzert(server.getIdleCloses() == 1);
+                server.close(new SimpleHandler() {
+                  public void handle() {
+                    latch.countDown();
+                  }
+                });
+              }
+            });
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testMaxConnectionAge() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final NetServer server = new NetServer().setIdleTimeout(200).setMaxConnectionAge(500);
+        server.connectHandler(new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+          }
+        }).listen(8181);
+
+        new NetClient().connect(8181, new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            final long start = System.currentTimeMillis();
+            // Keep the connection busy so it is only closed because of its age
+            final long timerID = Vertx.instance.setPeriodic(20, new Handler<Long>() {
+              public void handle(Long id) {
+                sock.write("ping");
+              }
+            });
+            sock.closedHandler(new SimpleHandler() {
+              public void handle() {
+                Vertx.instance.cancelTimer(timerID);
+                azzert(System.currentTimeMillis() - start >= 400);
+                azzert(server.getIdleCloses() == 1);
+                server.close(new SimpleHandler() {
+                  public void handle() {
+                    latch.countDown();
+                  }
+                });
+              }
+            });
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final int dataLength = 1000;
+    final DefaultNetMetrics serverMetrics = new DefaultNetMetrics();
+    final DefaultNetMetrics clientMetrics = new DefaultNetMetrics();
+    final ServerID serverID = new ServerID(8181, "0.0.0.0");
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final NetServer server = new NetServer().setMetrics(serverMetrics);
+        server.connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            final ContextChecker checker = new ContextChecker();
+            sock.pause();
+            sock.resume();
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                if (sock.getBytesRead() == dataLength) {
+                  azzert(sock.getWriteQueueSize() == 0);
+                  sock.close();
+                }
+              }
+            });
+            sock.closedHandler(new SimpleHandler() {
+              public void handle() {
+                checker.check();
+                DefaultNetMetrics.Stats stats = serverMetrics.getServerStats(serverID);
+                azzert(stats.getConnectionsOpened() == 1);
+                azzert(stats.getConnectionsClosed() == 1);
+                azzert(stats.getActiveConnections() == 0);
+                azzert(stats.getBytesRead() == dataLength);
+                azzert(stats.getBytesWritten() == 0);
+                azzert(stats.getPauses() == 1);
+                azzert(stats.getResumes() == 1);
+                // Only one server on this event loop, so the worker totals are the same
+                azzert(serverMetrics.getWorkerStats(Thread.currentThread()).getBytesRead() == dataLength);
+                azzert(serverMetrics.getServerIDs().size() == 1);
+                server.close(new SimpleHandler() {
+                  public void handle() {
+                    latch.countDown();
+                  }
+                });
+              }
+            });
+          }
+        }).listen(8181);
+
+        new NetClient().setMetrics(clientMetrics).connect(8181, new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            sock.write(Utils.generateRandomBuffer(dataLength));
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    // The client metrics are keyed by the address it connected to
+    azzert(clientMetrics.getServerIDs().size() == 1);
+    ServerID connectedTo = clientMetrics.getServerIDs().iterator().next();
+    azzert(connectedTo.getPort() == 8181);
+    azzert(clientMetrics.getServerStats(connectedTo).getBytesWritten() == dataLength);
+    throwAssertions();
+  }
+
+  @Test
+  public void testMetricsOfDeadThreads() throws Exception {
+    final DefaultNetMetrics metrics = new DefaultNetMetrics();
+    final ServerID serverID = new ServerID(8181, "0.0.0.0");
+    Thread[] threads = new Thread[10];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          metrics.acceptRefused(serverID);
+        }
+      };
+      threads[i].start();
+      threads[i].join();
+    }
+    // Each new thread folds the stripes of those which have died into the server's totals
+    metrics.acceptRefused(serverID);
+    azzert(metrics.getServerStats(serverID).getAcceptsRefused() == threads.length + 1);
+    azzert(metrics.getWorkerStats(threads[0]) == null);
+    azzert(metrics.getWorkerStats(Thread.currentThread()).getAcceptsRefused() == 1);
+  }
+
+  @Test
+  public void testMaxConnections() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final DefaultNetMetrics serverMetrics = new DefaultNetMetrics();
+    final ServerID serverID = new ServerID(8181, "0.0.0.0");
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final NetServer server = new NetServer().setMaxConnections(1).setMetrics(serverMetrics);
+        server.connectHandler(new Handler<NetSocket>() {
+          int connections;
+          long firstClosed;
+          public void handle(final NetSocket sock) {
+            connections++;
+            if (connections == 1) {
+              // The second connection waits in the backlog until this one is closed
+              Vertx.instance.setTimer(200, new Handler<Long>() {
+                public void handle(Long id) {
+                  firstClosed = System.currentTimeMillis();
+                  sock.close();
+                }
+              });
+            } else {
+              azzert(firstClosed != 0);
+              DefaultNetMetrics.Stats stats = serverMetrics.getServerStats(serverID);
+              azzert(stats.getAcceptsDeferred() == 1);
+              azzert(stats.getAcceptsRefused() == 0);
+              server.close(new SimpleHandler() {
+                public void handle() {
+                  latch.countDown();
+                }
+              });
+            }
+          }
+        }).listen(8181);
+
+        NetClient client = new NetClient();
+        for (int i = 0; i < 2; i++) {
+          client.connect(8181, new Handler<NetSocket>() {
+            public void handle(NetSocket sock) {
+            }
+          });
+        }
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testProxyTo() throws Exception {
+    final int numSends = 100;
+    final int sendSize = 10 * 1024;
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final ContextChecker checker = new ContextChecker();
+        final NetServer echoServer = new NetServer().connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                sock.write(data);
+              }
+            });
+          }
+        }).listen(8181);
+
+        final NetClient proxyClient = new NetClient();
+        final NetServer proxyServer = new NetServer();
+        proxyServer.connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket front) {
+            front.pause();
+            proxyClient.connect(8181, new Handler<NetSocket>() {
+              public void handle(final NetSocket back) {
+                // A small write queue so reading has to stop and start again
+                front.setWriteQueueMaxSize(1024);
+                back.setWriteQueueMaxSize(1024);
+                // What's proxied back to the client is coalesced
+                front.setCoalesceWrites(true);
+                front.proxyTo(back);
+                front.resume();
+                back.closedHandler(new SimpleHandler() {
+                  public void handle() {
+                    checker.check();
+                    azzert(front.getBytesProxied() == numSends * sendSize);
+                    azzert(back.getBytesProxied() == numSends * sendSize);
+                    proxyServer.close(new SimpleHandler() {
+                      public void handle() {
+                        echoServer.close(new SimpleHandler() {
+                          public void handle() {
+                            latch.countDown();
+                          }
+                        });
+                      }
+                    });
+                  }
+                });
+              }
+            });
+          }
+        }).listen(8182);
+
+        new NetClient().connect(8182, new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            final Buffer sent = Buffer.create(0);
+            final Buffer received = Buffer.create(0);
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                received.appendBuffer(data);
+                if (received.length() == sent.length()) {
+                  azzert(Utils.buffersEqual(sent, received));
+                  // Closing the front connection should close the back one
+                  sock.close();
+                }
+              }
+            });
+            for (int i = 0; i < numSends; i++) {
+              Buffer data = Utils.generateRandomBuffer(sendSize);
+              sent.appendBuffer(data);
+              sock.write(data);
+            }
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testProxyToPaused() throws Exception {
+    final int numSends = 100;
+    final int sendSize = 10 * 1024;
+    final NetSocket[] fronts = new NetSocket[1];
+    final boolean[] resumed = new boolean[1];
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final ContextChecker checker = new ContextChecker();
+        // The back connection is local, so nothing is buffered by the kernel and its write queue fills as soon as the
+        // sink stops reading
+        final NetServer sinkServer = new NetServer().setAcceptLocal(true).connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket sink) {
+            sink.pause();
+            final Buffer received = Buffer.create(0);
+            sink.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                received.appendBuffer(data);
+                if (received.length() == numSends * sendSize && resumed[0]) {
+                  sink.close();
+                }
+              }
+            });
+            Vertx.instance.setTimer(200, new Handler<Long>() {
+              public void handle(Long id) {
+                // By now the back connection's write queue is full and the proxy has stopped reading from the front
+                checker.check();
+                final NetSocket front = fronts[0];
+                azzert(front.getBytesProxied() < numSends * sendSize);
+                front.pause();
+                sink.resume();
+                Vertx.instance.setTimer(200, new Handler<Long>() {
+                  public void handle(Long id) {
+                    // The back connection has drained, but the front stays paused until it's resumed
+                    checker.check();
+                    azzert(received.length() == front.getBytesProxied());
+                    azzert(front.getBytesProxied() < numSends * sendSize);
+                    resumed[0] = true;
+                    front.resume();
+                  }
+                });
+              }
+            });
+          }
+        }).listen(8181);
+
+        final NetClient proxyClient = new NetClient();
+        final NetServer proxyServer = new NetServer();
+        proxyServer.connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket front) {
+            front.pause();
+            proxyClient.connect(8181, NetClient.LOCAL_HOST, new Handler<NetSocket>() {
+              public void handle(final NetSocket back) {
+                fronts[0] = front;
+                front.setWriteQueueMaxSize(1024);
+                back.setWriteQueueMaxSize(1024);
+                front.proxyTo(back);
+                front.resume();
+                back.closedHandler(new SimpleHandler() {
+                  public void handle() {
+                    checker.check();
+                    azzert(front.getBytesProxied() == numSends * sendSize);
+                    front.close();
+                    proxyServer.close(new SimpleHandler() {
+                      public void handle() {
+                        sinkServer.close(new SimpleHandler() {
+                          public void handle() {
+                            latch.countDown();
+                          }
+                        });
+                      }
+                    });
+                  }
+                });
+              }
+            });
+          }
+        }).listen(8182);
+
+        new NetClient().connect(8182, new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            for (int i = 0; i < numSends; i++) {
+              sock.write(Utils.generateRandomBuffer(sendSize));
+            }
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testLocalConnect() throws Exception {
+    final int numSends = 100;
+    final int sendSize = 10 * 1024;
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final ContextChecker checker = new ContextChecker();
+        final NetServer server = new NetServer().setAcceptLocal(true).connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            checker.check();
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                checker.check();
+                sock.write(data);
+              }
+            });
+          }
+        }).listen(8181);
+
+        final NetClient client = new NetClient();
+        client.exceptionHandler(new Handler<Exception>() {
+          public void handle(Exception e) {
+            // Nothing is listening on this port
+            checker.check();
+            client.connect(8181, NetClient.LOCAL_HOST, new Handler<NetSocket>() {
+              public void handle(final NetSocket sock) {
+                checker.check();
+                final Buffer sent = Buffer.create(0);
+                final Buffer received = Buffer.create(0);
+                sock.dataHandler(new Handler<Buffer>() {
+                  public void handle(Buffer data) {
+                    checker.check();
+                    received.appendBuffer(data);
+                    if (received.length() == numSends * sendSize) {
+                      azzert(Utils.buffersEqual(sent, received));
+                      sock.close();
+                    }
+                  }
+                });
+                sock.closedHandler(new SimpleHandler() {
+                  public void handle() {
+                    checker.check();
+                    server.close(new SimpleHandler() {
+                      public void handle() {
+                        latch.countDown();
+                      }
+                    });
+                  }
+                });
+                // A small write queue so writing has to stop and start again
+                sock.setWriteQueueMaxSize(sendSize);
+                new SimpleHandler() {
+                  int count;
+
+                  public void handle() {
+                    checker.check();
+                    while (count < numSends && !sock.writeQueueFull()) {
+                      Buffer data = Utils.generateRandomBuffer(sendSize);
+                      sent.appendBuffer(data);
+                      sock.write(data);
+                      count++;
+                    }
+                    if (count < numSends) {
+                      sock.drainHandler(this);
+                    }
+                  }
+                }.handle();
+              }
+            });
+          }
+        });
+        client.connect(8182, NetClient.LOCAL_HOST, new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            azzert(false, "Should not connect");
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testLocalPortConflict() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final ContextChecker checker = new ContextChecker();
+        final NetServer server = new NetServer().setAcceptLocal(true).connectHandler(new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+          }
+        }).listen(8181, "127.0.0.1");
+        // Local connections only have the port, so a server on another host can't take it too
+        try {
+          new NetServer().setAcceptLocal(true).connectHandler(new Handler<NetSocket>() {
+            public void handle(NetSocket sock) {
+            }
+          }).listen(8181, "0.0.0.0");
+          azzert(false, "Should not listen");
+        } catch (ChannelException e) {
+          // OK
+        }
+        // A server which doesn't accept local connections doesn't get them
+        final NetServer tcpOnly = new NetServer().connectHandler(new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            azzert(false, "Should not connect");
+          }
+        }).listen(8182);
+        NetClient client = new NetClient();
+        client.exceptionHandler(new Handler<Exception>() {
+          public void handle(Exception e) {
+            checker.check();
+            tcpOnly.close(new SimpleHandler() {
+              public void handle() {
+                server.close(new SimpleHandler() {
+                  public void handle() {
+                    latch.countDown();
+                  }
+                });
+              }
+            });
+          }
+        });
+        client.connect(8182, NetClient.LOCAL_HOST, new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            azzert(false, "Should not connect");
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testWriteRateLimit() throws Exception {
+    final int rate = 256 * 1024;
+    final int total = 3 * rate;
+    final int sendSize = 8 * 1024;
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final ContextChecker checker = new ContextChecker();
+        final NetServer server = new NetServer().setWriteRateLimit(rate).connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            // The client says when it's ready to receive
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                new SimpleHandler() {
+                  int sent;
+
+                  public void handle() {
+                    checker.check();
+                    // Writes over the limit are held back, so the queue fills up
+                    while (sent < total && !sock.writeQueueFull()) {
+                      sock.write(Utils.generateRandomBuffer(sendSize));
+                      sent += sendSize;
+                    }
+                    if (sent < total) {
+                      sock.drainHandler(this);
+                    }
+                  }
+                }.handle();
+              }
+            });
+          }
+        }).listen(8183);
+
+        new NetClient().connect(8183, new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            final long start = System.currentTimeMillis();
+            sock.dataHandler(new Handler<Buffer>() {
+              int received;
+
+              public void handle(Buffer data) {
+                received += data.length();
+                if (received == total) {
+                  // A second's worth goes straight away, the rest at the rate. Only the lower bound shows the limit
+                  // works, the upper one is loose as a busy machine can take far longer than the limit alone
+                  long time = System.currentTimeMillis() - start;
+                  server.close(new SimpleHandler() {
+                    public void handle() {
+                      latch.countDown();
+                    }
+                  });
+                  azzert(time >= 1500 && time < 10000, "Took " + time + " ms");
+                }
+              }
+            });
+            sock.write("x");
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(20, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
+  @Test
+  public void testAggregateReadRateLimit() throws Exception {
+    final int rate = 256 * 1024;
+    final int numConnections = 50;
+    final int perConnection = 3 * rate / numConnections;
+    final int sendSize = 1024;
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final long start = System.currentTimeMillis();
+        final NetServer server = new NetServer().setAggregateReadRateLimit(rate);
+        server.connectHandler(new Handler<NetSocket>() {
+          // The connections can be on different event loops
+          final AtomicInteger received = new AtomicInteger();
+
+          public void handle(final NetSocket sock) {
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                if (received.addAndGet(data.length()) == numConnections * perConnection) {
+                  // The connections share the limit, a second's worth goes straight away and the rest at the rate.
+                  // Connections that resume together can each read a little over it before they see the debt. Only the
+                  // lower bound shows the limit works, the upper one is loose as a busy machine can take far longer
+                  long time = System.currentTimeMillis() - start;
+                  server.close(new SimpleHandler() {
+                    public void handle() {
+                      latch.countDown();
+                    }
+                  });
+                  azzert(time >= 1000 && time < 10000, "Took " + time + " ms");
+                }
+              }
+            });
+            // Tell the client it can start sending
+            sock.write("x");
+          }
+        }).listen(8183);
+
+        NetClient client = new NetClient();
+        for (int i = 0; i < numConnections; i++) {
+          client.connect(8183, new Handler<NetSocket>() {
+            public void handle(final NetSocket sock) {
+              sock.dataHandler(new Handler<Buffer>() {
+                public void handle(Buffer data) {
+                  for (int sent = 0; sent < perConnection; sent += sendSize) {
+                    sock.write(Utils.generateRandomBuffer(Math.min(sendSize, perConnection - sent)));
+                  }
+                }
+              });
+            }
+          });
+        }
+      }
+    });
+
+    azzert(latch.await(20, TimeUnit.SECONDS));
+    throwAssertions();
+  }
+
   @Test
   public void testSendFileClientToServer() throws Exception {
     testSendFile(true);
@@ -261,7 +1042,7 @@ public class NetTest extends TestBase {
       }
     });
 
-    assert latch.await(5, TimeUnit.SECONDS);
+    azzert(latch.await(5, TimeUnit.SECONDS));
     throwAssertions();
     file.delete();
   }
@@ -22,12 +22,20 @@ import org.vertx.java.core.SimpleHandler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.net.ConnectionMetrics;
 import org.vertx.java.core.net.NetClient;
+import org.vertx.java.core.net.NetMetrics;
 import org.vertx.java.core.net.NetServer;
 import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.net.ServerID;
+import org.vertx.java.core.net.TLSHelper;
 import org.vertx.tests.Utils;
 import org.vertx.tests.core.TestBase;
 
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -58,10 +66,251 @@ public class TLSTest extends TestBase {
     testTLS(false, true, true, false, true, false, false);
   }
 
+  @Test
+  public void testOffloadHandshakes() throws Exception {
+    testTLS(false, true, true, false, false, false, true, true);
+    testTLS(true, true, true, true, true, false, true, true);
+    testTLS(false, false, true, false, false, false, false, true);
+  }
+
+  @Test
+  public void testClientOnlyReads() throws Exception {
+    testClientOnlyReads(false);
+    testClientOnlyReads(true);
+  }
+
+  private void testClientOnlyReads(final boolean offload) throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final NetServer server = new NetServer().setSSL(true)
+            .setKeyStorePath("./src/tests/resources/keystores/server-keystore.jks").setKeyStorePassword("wibble");
+        server.connectHandler(new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            sock.write("hello");
+          }
+        }).listen(4043);
+
+        // The client never writes, so it has to start the handshake itself
+        new NetClient().setSSL(true).setTrustAll(true).setOffloadHandshakes(offload).connect(4043,
+            new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                azzert("hello".equals(data.toString()));
+                server.close(new SimpleHandler() {
+                  public void handle() {
+                    latch.countDown();
+                  }
+                });
+              }
+            });
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS), "Offload " + offload);
+    throwAssertions();
+  }
+
+  @Test
+  public void testOffloadHandshakesWithMetrics() throws Exception {
+    final int dataLength = 1000;
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<Thread> offLoop = new AtomicReference<>();
+    // Records any write which reaches the metrics on a thread other than the event loop the connection opened on
+    final NetMetrics metrics = new NetMetrics() {
+      public ConnectionMetrics connectionOpened(ServerID id) {
+        final Thread worker = Thread.currentThread();
+        return new ConnectionMetrics() {
+          public void bytesRead(long bytes) {
+          }
+
+          public void bytesQueued(long bytes) {
+            if (Thread.currentThread() != worker) {
+              offLoop.set(Thread.currentThread());
+            }
+          }
+
+          public void bytesWritten(long bytes) {
+          }
+
+          public void writeQueueFull() {
+          }
+
+          public void writeQueueDrained(long nanos) {
+          }
+
+          public void paused() {
+          }
+
+          public void resumed() {
+          }
+
+          public void idleClosed() {
+          }
+
+          public void connectionClosed() {
+          }
+        };
+      }
+
+      public void acceptDeferred(ServerID id, long nanos) {
+      }
+
+      public void acceptRefused(ServerID id) {
+      }
+    };
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        // A write rate limit puts the traffic shaping handler in the pipeline too
+        final NetServer server = new NetServer().setSSL(true).setOffloadHandshakes(true).setMetrics(metrics)
+            .setWriteRateLimit(10 * 1024 * 1024)
+            .setKeyStorePath("./src/tests/resources/keystores/server-keystore.jks").setKeyStorePassword("wibble");
+        server.connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                sock.write(data);
+              }
+            });
+          }
+        }).listen(4043);
+
+        NetClient client = new NetClient().setSSL(true).setTrustAll(true).setOffloadHandshakes(true)
+            .setMetrics(metrics).setWriteRateLimit(10 * 1024 * 1024);
+        client.connect(4043, new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            final ContextChecker checker = new ContextChecker();
+            final Buffer received = Buffer.create(0);
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                checker.check();
+                received.appendBuffer(data);
+                if (received.length() == dataLength) {
+                  server.close(new SimpleHandler() {
+                    public void handle() {
+                      latch.countDown();
+                    }
+                  });
+                }
+              }
+            });
+            sock.write(Utils.generateRandomBuffer(dataLength));
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(5, TimeUnit.SECONDS));
+    azzert(offLoop.get() == null, "Write seen on " + offLoop.get());
+    throwAssertions();
+  }
+
+  @Test
+  public void testSendFile() throws Exception {
+    // More than one mapped window, and not a whole number of chunks
+    final String content = Utils.randomAlphaString(5 * 1024 * 1024 + 123);
+    final File file = setupFile("foo.txt", content);
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final NetServer server = new NetServer().setSSL(true).setSendFileChunkSize(10000)
+            .setKeyStorePath("./src/tests/resources/keystores/server-keystore.jks").setKeyStorePassword("wibble");
+        server.connectHandler(new Handler<NetSocket>() {
+          public void handle(final NetSocket sock) {
+            // The client says when it's ready to receive
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                sock.sendFile("./foo.txt");
+              }
+            });
+          }
+        }).listen(4043);
+
+        new NetClient().setSSL(true).setTrustAll(true).connect(4043, new Handler<NetSocket>() {
+          public void handle(NetSocket sock) {
+            final ContextChecker checker = new ContextChecker();
+            final Buffer received = Buffer.create(0);
+            sock.dataHandler(new Handler<Buffer>() {
+              public void handle(Buffer data) {
+                checker.check();
+                received.appendBuffer(data);
+                if (received.length() == content.length()) {
+                  azzert(content.equals(received.toString()));
+                  server.close(new SimpleHandler() {
+                    public void handle() {
+                      latch.countDown();
+                    }
+                  });
+                }
+              }
+            });
+            sock.write("x");
+          }
+        });
+      }
+    });
+
+    azzert(latch.await(10, TimeUnit.SECONDS));
+    throwAssertions();
+    // The windows are unmapped once the last write completes, which can be just after the client has it all
+    long start = System.currentTimeMillis();
+    while (isMapped(file) && System.currentTimeMillis() - start < 5000) {
+      Thread.sleep(10);
+    }
+    azzert(!isMapped(file), "Still mapped");
+    file.delete();
+  }
+
+  /*
+  Mappings are listed in /proc/self/maps, where there is one. Elsewhere this says the file isn't mapped
+   */
+  private static boolean isMapped(File file) throws Exception {
+    File maps = new File("/proc/self/maps");
+    if (!maps.exists()) {
+      return false;
+    }
+    String path = file.getCanonicalPath();
+    for (String line : Files.readAllLines(maps.toPath(), StandardCharsets.UTF_8)) {
+      if (line.endsWith(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testContextShared() throws Exception {
+    String ks = "./src/tests/resources/keystores/server-keystore.jks";
+    SSLContext context = TLSHelper.getContext(ks, "wibble", null, null, false, -1, -1);
+    azzert(context == TLSHelper.getContext(ks, "wibble", null, null, false, -1, -1));
+    azzert(context != TLSHelper.getContext(ks, "wibble", null, null, true, -1, -1));
+
+    SSLContext configured = TLSHelper.getContext(ks, "wibble", null, null, false, 100, 60);
+    azzert(configured != context);
+    azzert(configured.getServerSessionContext().getSessionCacheSize() == 100);
+    azzert(configured.getClientSessionContext().getSessionTimeout() == 60);
+
+    TLSHelper.clearContextCache();
+    azzert(context != TLSHelper.getContext(ks, "wibble", null, null, false, -1, -1));
+  }
+
   private void testTLS(final boolean clientCert, final boolean clientTrust,
                        final boolean serverCert, final boolean serverTrust,
                        final boolean requireClientAuth, final boolean clientTrustAll,
                        final boolean shouldPass) throws Exception {
+    testTLS(clientCert, clientTrust, serverCert, serverTrust, requireClientAuth, clientTrustAll, shouldPass, false);
+  }
+
+  private void testTLS(final boolean clientCert, final boolean clientTrust,
+                       final boolean serverCert, final boolean serverTrust,
+                       final boolean requireClientAuth, final boolean clientTrustAll,
+                       final boolean shouldPass, final boolean offloadHandshakes) throws Exception {
 
     final CountDownLatch latch = new CountDownLatch(1);
     final CountDownLatch exceptionLatch = new CountDownLatch(1);
@@ -120,7 +369,7 @@ public class TLSTest extends TestBase {
           }
         };
 
-        server.connectHandler(serverHandler).setSSL(true);
+        server.connectHandler(serverHandler).setSSL(true).setOffloadHandshakes(offloadHandshakes);
 
         if (serverTrust) {
           server.setTrustStorePath("./src/tests/resources/keystores/server-truststore.jks").setTrustStorePassword
@@ -135,7 +384,7 @@ public class TLSTest extends TestBase {
 
         server.listen(4043);
 
-        NetClient client = new NetClient().setSSL(true);
+        NetClient client = new NetClient().setSSL(true).setOffloadHandshakes(offloadHandshakes);
 
         if (clientTrustAll) {
           client.setTrustAll(true);
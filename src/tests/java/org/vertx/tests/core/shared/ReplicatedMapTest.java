@@ -0,0 +1,190 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vertx.tests.core.shared;
+
+import org.testng.annotations.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.shared.ReplicatedMap;
+import org.vertx.java.core.shared.Replicator;
+import org.vertx.tests.core.TestBase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author <a href="http://tfox.org">Tim Fox</a>
+ */
+public class ReplicatedMapTest extends TestBase {
+
+  @Test
+  public void testReplicationLastWriterWins() throws Exception {
+    testReplication(Replicator.ConflictMode.LAST_WRITER_WINS, 25500);
+  }
+
+  @Test
+  public void testReplicationVersionVector() throws Exception {
+    testReplication(Replicator.ConflictMode.VERSION_VECTOR, 25510);
+  }
+
+  private void testReplication(Replicator.ConflictMode mode, int basePort) throws Exception {
+    Replicator[] replicators = new Replicator[2];
+    startReplicators(replicators, mode, basePort, 10);
+
+    ReplicatedMap<String, Integer> map1 = replicators[0].getMap("foo");
+    ReplicatedMap<String, Integer> map2 = replicators[1].getMap("foo");
+
+    map1.put("a", 1);
+    map1.put("b", 2);
+    map2.put("c", 3);
+    azzert(map1.get("a") == 1);
+
+    waitFor(map2, "b", 2);
+    waitFor(map1, "c", 3);
+    azzert(map2.get("a") == 1);
+
+    map2.remove("a");
+    waitFor(map1, "a", null);
+    azzert(map1.size() == 2);
+
+    // The later of two changes wins on both nodes
+    map1.put("d", 1);
+    Thread.sleep(5);
+    map2.put("d", 2);
+    waitFor(map1, "d", 2);
+    waitFor(map2, "d", 2);
+
+    closeReplicators(replicators);
+    throwAssertions();
+  }
+
+  @Test
+  public void testCatchUpOnConnect() throws Exception {
+    final Replicator[] replicators = new Replicator[2];
+    // Only start the first one, so the second misses the changes and has to catch up when it connects
+    final CountDownLatch started = new CountDownLatch(1);
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        replicators[0] = new Replicator(25520, "localhost").addPeer(25521, "localhost");
+        replicators[0].start();
+        started.countDown();
+      }
+    });
+    azzert(started.await(5, TimeUnit.SECONDS));
+    ReplicatedMap<String, String> map1 = replicators[0].getMap("bar");
+    for (int i = 0; i < 100; i++) {
+      map1.put("key" + i, "value" + i);
+    }
+
+    final CountDownLatch started2 = new CountDownLatch(1);
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        replicators[1] = new Replicator(25521, "localhost").addPeer(25520, "localhost");
+        replicators[1].start();
+        started2.countDown();
+      }
+    });
+    azzert(started2.await(5, TimeUnit.SECONDS));
+    ReplicatedMap<String, String> map2 = replicators[1].getMap("bar");
+    waitFor(map2, "key99", "value99");
+    azzert(map2.size() == 100);
+
+    closeReplicators(replicators);
+    throwAssertions();
+  }
+
+  @Test
+  public void testConflict() throws Exception {
+    Replicator[] replicators = new Replicator[2];
+    // Use a long batch interval so neither node sees the other's change before making its own
+    startReplicators(replicators, Replicator.ConflictMode.VERSION_VECTOR, 25530, 1000);
+    ReplicatedMap<String, String> map1 = replicators[0].getMap("conflict");
+    ReplicatedMap<String, String> map2 = replicators[1].getMap("conflict");
+    final CountDownLatch conflicted = new CountDownLatch(1);
+    map1.conflictHandler(new Handler<ReplicatedMap.Conflict<String, String>>() {
+      public void handle(ReplicatedMap.Conflict<String, String> conflict) {
+        azzert(conflict.key.equals("key"));
+        azzert(conflict.localValue.equals("one"));
+        azzert(conflict.remoteValue.equals("two"));
+        conflicted.countDown();
+      }
+    });
+    // Neither node has seen the other's change when it makes its own
+    map1.put("key", "one");
+    map2.put("key", "two");
+    azzert(conflicted.await(5, TimeUnit.SECONDS));
+    // Both nodes end up with the same value
+    waitForSame(map1, map2, "key");
+
+    closeReplicators(replicators);
+    throwAssertions();
+  }
+
+  private void startReplicators(final Replicator[] replicators, final Replicator.ConflictMode mode, final int basePort,
+                                final long batchInterval) throws Exception {
+    final CountDownLatch started = new CountDownLatch(replicators.length);
+    for (int i = 0; i < replicators.length; i++) {
+      final int index = i;
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          Replicator replicator = new Replicator(basePort + index, "localhost").setConflictMode(mode)
+              .setBatchInterval(batchInterval);
+          for (int j = 0; j < replicators.length; j++) {
+            if (j != index) {
+              replicator.addPeer(basePort + j, "localhost");
+            }
+          }
+          replicator.start();
+          replicators[index] = replicator;
+          started.countDown();
+        }
+      });
+    }
+    azzert(started.await(5, TimeUnit.SECONDS));
+  }
+
+  private void closeReplicators(Replicator[] replicators) {
+    for (Replicator replicator : replicators) {
+      replicator.close();
+    }
+  }
+
+  private <V> void waitFor(ReplicatedMap<String, V> map, String key, V value) throws Exception {
+    long start = System.currentTimeMillis();
+    while (System.currentTimeMillis() - start < 5000) {
+      V current = map.get(key);
+      if (value == null ? current == null : value.equals(current)) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    azzert(false, "Timed out waiting for " + key + " to be " + value);
+  }
+
+  private <V> void waitForSame(ReplicatedMap<String, V> map1, ReplicatedMap<String, V> map2, String key)
+      throws Exception {
+    long start = System.currentTimeMillis();
+    while (System.currentTimeMillis() - start < 5000) {
+      V value = map1.get(key);
+      if (value != null && value.equals(map2.get(key))) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    azzert(false, "Timed out waiting for " + key + " to converge");
+  }
+}
@@ -17,15 +17,34 @@
 package org.vertx.tests.core.shared;
 
 import org.testng.annotations.Test;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.Immutable;
 import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.internal.VertxInternal;
+import org.vertx.java.core.shared.LongCursor;
+import org.vertx.java.core.shared.LongLongCursor;
+import org.vertx.java.core.shared.LongObjectCursor;
 import org.vertx.java.core.shared.SharedData;
+import org.vertx.java.core.shared.SharedLongLongMap;
+import org.vertx.java.core.shared.SharedLongObjectMap;
+import org.vertx.java.core.shared.SharedLongSet;
+import org.vertx.java.core.shared.SharedMapEvent;
+import org.vertx.java.core.shared.SharedQueue;
 import org.vertx.tests.Utils;
 import org.vertx.tests.core.TestBase;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.math.BigDecimal;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author <a href="http://tfox.org">Tim Fox</a>
@@ -91,6 +110,101 @@ public class SharedDataTest extends TestBase {
     }
   }
 
+  @Test
+  public void testMapListener() throws Exception {
+    final Map<String, Integer> map = SharedData.getMap("listened");
+    final CountDownLatch registered = new CountDownLatch(1);
+    final CountDownLatch received = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final ContextChecker checker = new ContextChecker();
+        final Map<String, SharedMapEvent.Type> latest = new HashMap<>();
+        SharedData.addMapListener("listened", new Handler<List<SharedMapEvent<String, Integer>>>() {
+          public void handle(List<SharedMapEvent<String, Integer>> events) {
+            checker.check();
+            for (SharedMapEvent<String, Integer> event: events) {
+              if (event.key.equals("done")) {
+                // Events are delivered in order, so by now we have seen the last change to each key
+                azzert(latest.get("a") == SharedMapEvent.Type.REMOVE);
+                azzert(latest.get("b") == SharedMapEvent.Type.REPLACE);
+                received.countDown();
+              } else {
+                latest.put(event.key, event.type);
+              }
+            }
+          }
+        });
+        registered.countDown();
+      }
+    });
+
+    azzert(registered.await(5, TimeUnit.SECONDS));
+    map.put("a", 1);
+    map.put("b", 2);
+    map.remove("a");
+    map.replace("b", 3);
+    map.put("done", 0);
+    azzert(received.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+    SharedData.removeMap("listened");
+  }
+
+  @Test
+  public void testMapViewListener() throws Exception {
+    final Map<String, Integer> map = SharedData.getMap("listened");
+    final CountDownLatch registered = new CountDownLatch(1);
+    final CountDownLatch received = new CountDownLatch(1);
+
+    VertxInternal.instance.go(new Runnable() {
+      public void run() {
+        final Map<String, SharedMapEvent<String, Integer>> latest = new HashMap<>();
+        SharedData.addMapListener("listened", new Handler<List<SharedMapEvent<String, Integer>>>() {
+          public void handle(List<SharedMapEvent<String, Integer>> events) {
+            for (SharedMapEvent<String, Integer> event: events) {
+              if (event.key.equals("done")) {
+                // Changes made through the views are seen like any others
+                for (String key : new String[] {"a", "b", "c", "d"}) {
+                  azzert(latest.get(key).type == SharedMapEvent.Type.REMOVE, key);
+                }
+                azzert(latest.get("e").type == SharedMapEvent.Type.PUT);
+                azzert(latest.get("e").value == 50);
+                received.countDown();
+              } else {
+                latest.put(event.key, event);
+              }
+            }
+          }
+        });
+        registered.countDown();
+      }
+    });
+
+    azzert(registered.await(5, TimeUnit.SECONDS));
+    map.put("a", 1);
+    map.put("b", 2);
+    map.put("c", 3);
+    map.put("d", 4);
+    map.put("e", 5);
+    azzert(map.keySet().remove("a"));
+    azzert(map.values().remove(2));
+    azzert(map.entrySet().remove(new AbstractMap.SimpleEntry<>("c", 3)));
+    azzert(!map.entrySet().remove(new AbstractMap.SimpleEntry<>("d", 5)));
+    for (Iterator<Map.Entry<String, Integer>> iter = map.entrySet().iterator(); iter.hasNext(); ) {
+      Map.Entry<String, Integer> entry = iter.next();
+      if (entry.getKey().equals("d")) {
+        iter.remove();
+      } else {
+        entry.setValue(50);
+      }
+    }
+    azzert(map.size() == 1);
+    azzert(map.get("e") == 50);
+    map.put("done", 0);
+    azzert(received.await(5, TimeUnit.SECONDS));
+    throwAssertions();
+    SharedData.removeMap("listened");
+  }
 
   @Test
   public void testSet() throws Exception {
@@ -112,6 +226,150 @@ public class SharedDataTest extends TestBase {
     assert (set4 != set3);
   }
 
+  @Test
+  public void testLongSet() throws Exception {
+    SharedLongSet set = SharedData.getLongSet("foo");
+    azzert(set == SharedData.getLongSet("foo"));
+    azzert(set != SharedData.getLongSet("bar"));
+
+    for (long i = 0; i < 1000; i++) {
+      azzert(set.add(i * 7));
+    }
+    azzert(!set.add(0));
+    azzert(set.size() == 1000);
+    azzert(set.contains(7 * 999));
+    azzert(!set.contains(1));
+    azzert(set.remove(7));
+    azzert(!set.remove(7));
+
+    long total = 0;
+    int count = 0;
+    LongCursor cursor = set.cursor();
+    while (cursor.next()) {
+      total += cursor.get();
+      count++;
+    }
+    azzert(count == 999);
+    azzert(total == 7 * (999 * 1000 / 2) - 7);
+
+    azzert(SharedData.removeLongSet("foo"));
+    azzert(SharedData.getLongSet("foo") != set);
+    SharedData.removeLongSet("bar");
+  }
+
+  @Test
+  public void testLongLongMap() throws Exception {
+    SharedLongLongMap map = SharedData.getLongLongMap("foo");
+    azzert(map == SharedData.getLongLongMap("foo"));
+    azzert(map != SharedData.getLongLongMap("bar"));
+
+    azzert(map.get(1) == 0);
+    azzert(map.get(1, -1) == -1);
+    map.put(1, 10);
+    azzert(map.get(1) == 10);
+    azzert(map.addAndGet(1, 5) == 15);
+    azzert(map.addAndGet(2, 3) == 3);
+    azzert(map.size() == 2);
+
+    long keys = 0;
+    long values = 0;
+    LongLongCursor cursor = map.cursor();
+    while (cursor.next()) {
+      keys += cursor.key();
+      values += cursor.value();
+    }
+    azzert(keys == 3);
+    azzert(values == 18);
+
+    azzert(map.remove(1));
+    azzert(!map.containsKey(1));
+
+    azzert(SharedData.removeLongLongMap("foo"));
+    azzert(SharedData.getLongLongMap("foo") != map);
+    SharedData.removeLongLongMap("bar");
+  }
+
+  @Test
+  public void testLongLongMapManyKeys() throws Exception {
+    final SharedLongLongMap map = SharedData.getLongLongMap("foo");
+    final int numKeys = 10000;
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for (long key = 0; key < numKeys; key++) {
+            map.addAndGet(key, key);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    azzert(map.size() == numKeys);
+    for (long key = 0; key < numKeys; key++) {
+      azzert(map.get(key) == key * threads.length);
+    }
+
+    // Removing keys mustn't lose the ones which collided with them
+    for (long key = 0; key < numKeys; key += 2) {
+      azzert(map.remove(key));
+    }
+    azzert(map.size() == numKeys / 2);
+    int count = 0;
+    LongLongCursor cursor = map.cursor();
+    while (cursor.next()) {
+      azzert(cursor.key() % 2 == 1);
+      azzert(cursor.value() == cursor.key() * threads.length);
+      count++;
+    }
+    azzert(!cursor.next());
+    azzert(count == numKeys / 2);
+    for (long key = 1; key < numKeys; key += 2) {
+      azzert(map.containsKey(key));
+      azzert(!map.containsKey(key - 1));
+    }
+
+    map.clear();
+    azzert(map.isEmpty());
+    azzert(!map.cursor().next());
+    SharedData.removeLongLongMap("foo");
+  }
+
+  @Test
+  public void testLongObjectMap() throws Exception {
+    SharedLongObjectMap<String> map = SharedData.getLongObjectMap("foo");
+    azzert(map == SharedData.<String>getLongObjectMap("foo"));
+    azzert(map != SharedData.<String>getLongObjectMap("bar"));
+
+    map.put(1, "one");
+    azzert(map.putIfAbsent(1, "uno").equals("one"));
+    azzert(map.putIfAbsent(2, "two") == null);
+    azzert(map.get(2).equals("two"));
+
+    Map<Long, String> seen = new HashMap<>();
+    LongObjectCursor<String> cursor = map.cursor();
+    while (cursor.next()) {
+      seen.put(cursor.key(), cursor.value());
+    }
+    azzert(seen.size() == 2);
+    azzert(seen.get(1l).equals("one"));
+
+    class SomeOtherClass {
+    }
+    try {
+      ((SharedLongObjectMap) map).put(3, new SomeOtherClass());
+      azzert(false, "Should throw exception");
+    } catch (IllegalArgumentException e) {
+      //OK
+    }
+
+    azzert(SharedData.removeLongObjectMap("foo"));
+    azzert(SharedData.<String>getLongObjectMap("foo") != map);
+    SharedData.removeLongObjectMap("bar");
+  }
+
 //  @Test
 //  public void testCounter() throws Exception {
 //
@@ -132,25 +390,156 @@ public class SharedDataTest extends TestBase {
 //    assert (counter4 != counter3);
 //  }
 
-//  @Test
-//  public void testQueue() throws Exception {
-//
-//    SharedQueue<String> queue = SharedData.getQueue("foo");
-//
-//    SharedQueue<String> queue2 = SharedData.getQueue("foo");
-//
-//    assert (queue == queue2);
-//
-//    SharedQueue<String> queue3 = SharedData.getQueue("bar");
-//
-//    assert (queue3 != queue2);
-//
-//    assert (SharedData.removeQueue("foo"));
-//
-//    SharedQueue<String> queue4 = SharedData.getQueue("foo");
-//
-//    assert (queue4 != queue3);
-//  }
+  @Test
+  public void testSnapshot() throws Exception {
+    File file = File.createTempFile("shareddata", ".snapshot");
+    File file2 = File.createTempFile("shareddata", ".snapshot");
+    try {
+      Map<Object, Object> map = SharedData.getMap("snapmap");
+      map.put("string", "bar");
+      map.put(1, 2l);
+      map.put(3.5d, true);
+      map.put((short) 4, new BigDecimal("123.456"));
+      byte[] bytes = Utils.generateRandomByteArray(100);
+      map.put("bytes", bytes);
+      map.put("buffer", Buffer.create("quux"));
+      Set<String> set = SharedData.getSet("snapset");
+      for (int i = 0; i < 1000; i++) {
+        set.add("element" + i);
+      }
+
+      SharedData.snapshot(file.getPath());
+      SharedData.removeMap("snapmap");
+      SharedData.removeSet("snapset");
+      azzert(SharedData.getMap("snapmap").isEmpty());
+      SharedData.removeMap("snapmap");
+
+      SharedData.restore(file.getPath());
+      // Snapshot again without the restored collections having been loaded
+      SharedData.snapshot(file2.getPath());
+      SharedData.removeMap("snapmap");
+      SharedData.removeSet("snapset");
+      SharedData.restore(file2.getPath());
+
+      Map<Object, Object> restored = SharedData.getMap("snapmap");
+      azzert(restored.size() == 6);
+      azzert(restored.get("string").equals("bar"));
+      azzert(restored.get(1).equals(2l));
+      azzert(restored.get(3.5d).equals(true));
+      azzert(restored.get((short) 4).equals(new BigDecimal("123.456")));
+      azzert(Utils.byteArraysEqual(bytes, (byte[]) restored.get("bytes")));
+      azzert(restored.get("buffer").toString().equals("quux"));
+      Set<String> restoredSet = SharedData.getSet("snapset");
+      azzert(restoredSet.equals(set));
+
+      // Corrupt the header
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.writeInt(0);
+      }
+      try {
+        SharedData.restore(file.getPath());
+        azzert(false, "Should throw exception");
+      } catch (IOException e) {
+        //OK
+      }
+    } finally {
+      SharedData.removeMap("snapmap");
+      SharedData.removeSet("snapset");
+      file.delete();
+      file2.delete();
+    }
+  }
 
-}
+  @Test
+  public void testQueue() throws Exception {
+
+    SharedQueue<String> queue = SharedData.getQueue("foo", 4);
+
+    SharedQueue<String> queue2 = SharedData.getQueue("foo");
+
+    azzert(queue == queue2);
+
+    SharedQueue<String> queue3 = SharedData.getQueue("bar");
+
+    azzert(queue3 != queue2);
+
+    azzert(queue.capacity() == 4);
+    for (int i = 0; i < 4; i++) {
+      azzert(queue.offer("item" + i));
+    }
+    azzert(queue.writeQueueFull());
+    azzert(!queue.offer("too many"));
+    azzert(queue.peek().equals("item0"));
+    for (int i = 0; i < 4; i++) {
+      azzert(queue.poll().equals("item" + i));
+    }
+    azzert(queue.poll() == null);
+    azzert(queue.isEmpty());
 
+    azzert(SharedData.removeQueue("foo"));
+
+    SharedQueue<String> queue4 = SharedData.getQueue("foo");
+
+    azzert(queue4 != queue3);
+    SharedData.removeQueue("foo");
+    SharedData.removeQueue("bar");
+  }
+
+  @Test
+  public void testQueueConsumers() throws Exception {
+    final SharedQueue<Integer> queue = SharedData.getQueue("work", 16);
+    final int numConsumers = 4;
+    final int numItems = 1000;
+    final CountDownLatch registered = new CountDownLatch(numConsumers);
+    final CountDownLatch received = new CountDownLatch(numItems);
+    final Set<Integer> seen = SharedData.getSet("seen");
+
+    for (int i = 0; i < numConsumers; i++) {
+      VertxInternal.instance.go(new Runnable() {
+        public void run() {
+          final ContextChecker checker = new ContextChecker();
+          queue.addConsumer(new Handler<Integer>() {
+            public void handle(Integer item) {
+              checker.check();
+              // Each item must be delivered exactly once
+              azzert(seen.add(item));
+              received.countDown();
+            }
+          });
+          registered.countDown();
+        }
+      });
+    }
+    azzert(registered.await(5, TimeUnit.SECONDS));
+
+    final CountDownLatch produced = new CountDownLatch(1);
+    VertxInternal.instance.go(new Runnable() {
+      int count;
+
+      public void run() {
+        while (count < numItems && queue.offer(count)) {
+          count++;
+        }
+        if (count == numItems) {
+          produced.countDown();
+        } else {
+          azzert(queue.writeQueueFull());
+          final Runnable self = this;
+          queue.drainHandler(new Handler<Void>() {
+            public void handle(Void v) {
+              self.run();
+            }
+          });
+        }
+      }
+    });
+
+    azzert(produced.await(5, TimeUnit.SECONDS));
+    azzert(received.await(5, TimeUnit.SECONDS));
+    azzert(seen.size() == numItems);
+    throwAssertions();
+    SharedData.removeQueue("work");
+    SharedData.removeSet("seen");
+  }
+
+}